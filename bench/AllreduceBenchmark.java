@@ -0,0 +1,162 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compares the per-iteration communication of KmeansDataPar before and after
+ * the switch to a single Allreduce, on synthetic statistics of the same shape.
+ * 
+ * object protocol: Bcast of DataPoint[] centroids, Send/Recv of DataPoint[]
+ * sums from every process to the master, Bcast of the running flag. MPI.OBJECT
+ * serialized the arrays with Java serialization; here the serialized bytes
+ * travel as long[] messages and are decoded on arrival, so the protocol runs
+ * over every transport of Communicator.
+ * 
+ * flat protocol: one allreduceSum of a double[] holding sums, counts and
+ * counters, with the algorithm chosen by -reduce.
+ * 
+ * [Usage] java AllreduceBenchmark <number of cluster> <dimension> [-iter n]
+ * [-comm mpi|local|tcp] [-np processes] [-reduce algorithm] ...
+ */
+public class AllreduceBenchmark {
+
+    static byte[] serialize(Object o) throws IOException {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	ObjectOutputStream out = new ObjectOutputStream(bytes);
+	out.writeObject(o);
+	out.close();
+	return bytes.toByteArray();
+    }
+
+    static Object deserialize(byte[] bytes) throws IOException {
+	try {
+	    return new ObjectInputStream(new ByteArrayInputStream(bytes))
+		    .readObject();
+	} catch (ClassNotFoundException e) {
+	    throw new IOException(e);
+	}
+    }
+
+    /**
+     * @return the bytes packed into longs, preceded by their number
+     */
+    static long[] pack(byte[] bytes) {
+	long[] words = new long[1 + (bytes.length + 7) / 8];
+	words[0] = bytes.length;
+	ByteBuffer.wrap(Arrays.copyOf(bytes, (words.length - 1) * 8))
+		.asLongBuffer().get(words, 1, words.length - 1);
+	return words;
+    }
+
+    static byte[] unpack(long[] words) {
+	ByteBuffer buf = ByteBuffer.allocate((words.length - 1) * 8);
+	buf.asLongBuffer().put(words, 1, words.length - 1);
+	byte[] bytes = new byte[(int) words[0]];
+	buf.get(bytes);
+	return bytes;
+    }
+
+    /**
+     * broadcast an object from root as serialized bytes
+     */
+    static Object bcastObject(Communicator comm, Object o, int root)
+	    throws IOException {
+	long[] words = comm.rank() == root ? pack(serialize(o)) : null;
+	int[] len = { words == null ? 0 : words.length };
+	comm.bcast(len, 0, 1, root);
+	if (words == null)
+	    words = new long[len[0]];
+	comm.bcast(words, 0, words.length, root);
+	return comm.rank() == root ? o : deserialize(unpack(words));
+    }
+
+    static void sendObject(Communicator comm, Object o, int dest)
+	    throws IOException {
+	long[] words = pack(serialize(o));
+	comm.send(new int[] { words.length }, 0, 1, dest);
+	comm.send(words, 0, words.length, dest);
+    }
+
+    static Object recvObject(Communicator comm, int src) throws IOException {
+	int[] len = new int[1];
+	comm.recv(len, 0, 1, src);
+	long[] words = new long[len[0]];
+	comm.recv(words, 0, words.length, src);
+	return deserialize(unpack(words));
+    }
+
+    public static void main(String[] args) throws IOException {
+	final Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
+	    System.out
+		    .println("[Usage] java AllreduceBenchmark <number of cluster> <dimension> [-iter n] [-comm mpi|local|tcp] [-np processes] [-reduce algorithm]");
+	    return;
+	}
+	final int k = Integer.parseInt(opts.positional(0));
+	final int dim = Integer.parseInt(opts.positional(1));
+	final int iters = opts.getInt("iter", 100);
+	Communicator.launch(opts, args, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		runRank(comm, k, dim, iters);
+	    }
+	});
+    }
+
+    static void runRank(Communicator comm, int k, int dim, int iters)
+	    throws IOException {
+	int myrank = comm.rank();
+	int size = comm.size();
+	DataPoint[] centroids = new DataPoint[k];
+	DataPoint[] sums = new DataPoint[k];
+	for (int i = 0; i < k; i++) {
+	    double[] v = new double[dim];
+	    for (int j = 0; j < dim; j++)
+		v[j] = Math.random();
+	    centroids[i] = new DataPoint(v);
+	    sums[i] = new DataPoint(v);
+	    sums[i].count = 1000;
+	}
+	int[] running = { 1 };
+	double[] sendBuf = new double[k * (dim + 1) + 2];
+
+	/* object protocol */
+	comm.barrier();
+	long t0 = System.nanoTime();
+	for (int it = 0; it < iters; it++) {
+	    bcastObject(comm, centroids, 0);
+	    if (myrank == 0) {
+		for (int i = 1; i < size; i++)
+		    recvObject(comm, i);
+	    } else {
+		sendObject(comm, sums, 0);
+	    }
+	    comm.bcast(running, 0, 1, 0);
+	}
+	comm.barrier();
+	long objectNanos = System.nanoTime() - t0;
+
+	/* flat protocol */
+	t0 = System.nanoTime();
+	for (int it = 0; it < iters; it++)
+	    comm.allreduceSum(sendBuf, 0, sendBuf.length);
+	comm.barrier();
+	long flatNanos = System.nanoTime() - t0;
+
+	if (myrank == 0) {
+	    int objectBytes = serialize(centroids).length
+		    + serialize(sums).length + 4;
+	    System.out.println("processes=" + size + " k=" + k + " dim=" + dim
+		    + " reduce=" + comm.getReduceAlgorithm());
+	    System.out.println("object protocol: " + objectBytes
+		    + " bytes per process per iteration, "
+		    + objectNanos / iters / 1000 + " us per iteration");
+	    System.out.println("flat allreduce:  " + sendBuf.length * 8
+		    + " bytes per process per iteration, "
+		    + flatNanos / iters / 1000 + " us per iteration");
+	}
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.Random;
+
+/**
+ * Times one assignment pass of every Assigner over random Gaussian points,
+ * with the first k points as centroids, and checks that all of them produce
+ * the labels of the brute-force search. With -spread the points are drawn
+ * around k random centers instead, with that standard deviation, and the
+ * centers are the centroids, as in the late iterations of a run on
+ * clustered data. With -float the brute-force search is timed once more on
+ * a float32 copy of the points.
+ * 
+ * [Usage] java AssignerBenchmark <number of points> <dimension> <number of
+ * cluster> [-t threads] [-reps repetitions] [-spread deviation] [-float]
+ */
+public class AssignerBenchmark {
+
+    static final String[] MODES = { "lloyd", "blocked", "kdtree" };
+
+    public static void main(String[] args) {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 3) {
+	    System.out
+		    .println("[Usage] java AssignerBenchmark <number of points> <dimension> <number of cluster> [-t threads] [-reps repetitions] [-spread deviation] [-float]");
+	    return;
+	}
+	int n = Integer.parseInt(opts.positional(0));
+	int dim = Integer.parseInt(opts.positional(1));
+	int k = Integer.parseInt(opts.positional(2));
+	int threads = opts.getInt("t", Runtime.getRuntime().availableProcessors());
+	int reps = opts.getInt("reps", 5);
+
+	Random rand = new Random(42);
+	PointStore store = new PointStore(n, dim);
+	double[] cen = new double[k * dim];
+	if (opts.has("spread")) {
+	    double spread = opts.getDouble("spread", 0.1);
+	    for (int i = 0; i < cen.length; i++)
+		cen[i] = rand.nextDouble() * 10;
+	    for (int i = 0; i < n; i++) {
+		int c = rand.nextInt(k);
+		for (int t = 0; t < dim; t++)
+		    store.coords[i * dim + t] = cen[c * dim + t]
+			    + rand.nextGaussian() * spread;
+	    }
+	} else {
+	    for (int i = 0; i < store.coords.length; i++)
+		store.coords[i] = rand.nextGaussian();
+	    for (int j = 0; j < k; j++)
+		store.copyPoint(j, cen, j * dim);
+	}
+
+	ParallelRunner runner = new ParallelRunner(threads);
+	System.out.println("points=" + n + " dim=" + dim + " k=" + k
+		+ " threads=" + threads + " kernel="
+		+ DistanceKernels.get().name());
+	int[] reference = null;
+	int runs = MODES.length + (opts.has("float") ? 1 : 0);
+	PointStore floats = opts.has("float") ? store.toFloat() : null;
+	for (int m = 0; m < runs; m++) {
+	    String mode = m < MODES.length ? MODES[m] : "lloyd";
+	    final Assigner assigner = Assigner.create(mode,
+		    m < MODES.length ? store : floats, k);
+	    if (m == MODES.length)
+		mode = "lloyd32";
+	    assigner.setThreads(threads);
+	    final int[] labels = new int[n];
+	    long best = Long.MAX_VALUE;
+	    final long[] evals = new long[1];
+	    // one warm-up pass
+	    for (int r = 0; r <= reps; r++) {
+		long t0 = System.nanoTime();
+		assigner.prepare(cen);
+		runner.forEachChunk(n, ParallelRunner.chunkCount(n),
+			new ParallelRunner.ChunkBody() {
+			    public void run(int chunk, int start, int end) {
+				long e = assigner.assign(start, end, labels);
+				synchronized (evals) {
+				    evals[0] += e;
+				}
+			    }
+			});
+		if (r > 0)
+		    best = Math.min(best, System.nanoTime() - t0);
+	    }
+	    int mismatches = 0;
+	    if (reference == null)
+		reference = labels;
+	    for (int i = 0; i < n; i++)
+		if (labels[i] != reference[i])
+		    mismatches++;
+	    String extra = ", distances/point: "
+		    + evals[0] / ((long) n * (reps + 1));
+	    if (assigner instanceof BlockedAssigner)
+		extra += ", exact fallbacks/pass: "
+			+ ((BlockedAssigner) assigner).fallbacks.get() / (reps + 1);
+	    if (assigner instanceof KdTreeAssigner
+		    && ((KdTreeAssigner) assigner).isBruteForce())
+		extra += ", fell back to brute force";
+	    System.out.printf("%-8s %8.1f ms, %6.2f Gflop/s, mismatches: %d%s%n",
+		    mode, best / 1e6, 2.0 * n * k * dim / best, mismatches,
+		    extra);
+	    assigner.close();
+	}
+	runner.shutdown();
+    }
+}
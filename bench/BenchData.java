@@ -0,0 +1,103 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Deterministic synthetic inputs for the JMH benchmarks. The same arguments
+ * always give the same data, so different engines and different commits are
+ * measured on identical inputs.
+ */
+public class BenchData {
+
+    public static final long SEED = 42;
+
+    /**
+     * @return n points drawn around k random centers in [0, 10)^dim with
+     *         standard deviation 0.5
+     */
+    public static PointStore blobs(int n, int dim, int k) {
+	Random rand = new Random(SEED);
+	double[] centers = new double[k * dim];
+	for (int i = 0; i < centers.length; i++)
+	    centers[i] = rand.nextDouble() * 10;
+	PointStore store = new PointStore(n, dim);
+	for (int i = 0; i < n; i++) {
+	    int c = rand.nextInt(k);
+	    for (int t = 0; t < dim; t++)
+		store.coords[i * dim + t] = centers[c * dim + t]
+			+ rand.nextGaussian() * 0.5;
+	}
+	return store;
+    }
+
+    /**
+     * @return the first k points of store, row-major, the seeds every
+     *         benchmark starts from
+     */
+    public static double[] firstPoints(PointStore store, int k) {
+	double[] centroids = new double[k * store.dimension];
+	for (int j = 0; j < k; j++)
+	    store.copyPoint(j, centroids, j * store.dimension);
+	return centroids;
+    }
+
+    /**
+     * @return n sequences of the given length, each a copy of one of k random
+     *         ancestors with 10% of its bases replaced
+     */
+    public static ArrayList<DNAPoint> dna(int n, int length, int k) {
+	Random rand = new Random(SEED);
+	int[][] ancestors = new int[k][length];
+	for (int c = 0; c < k; c++)
+	    for (int j = 0; j < length; j++)
+		ancestors[c][j] = rand.nextInt(4);
+	ArrayList<DNAPoint> points = new ArrayList<DNAPoint>(n);
+	for (int i = 0; i < n; i++) {
+	    int[] ancestor = ancestors[rand.nextInt(k)];
+	    DNAPoint dp = new DNAPoint(length);
+	    for (int j = 0; j < length; j++)
+		dp.setBase(j, rand.nextInt(10) == 0 ? rand.nextInt(4)
+			: ancestor[j]);
+	    points.add(dp);
+	}
+	return points;
+    }
+
+    /**
+     * write the points as CSV to a temporary file deleted when the JVM exits
+     * 
+     * @return the file name
+     */
+    public static String writeCsv(PointStore store) throws IOException {
+	File file = File.createTempFile("kmeans-bench", ".csv");
+	file.deleteOnExit();
+	PrintWriter out = new PrintWriter(new FileWriter(file));
+	StringBuilder line = new StringBuilder();
+	for (int i = 0; i < store.size; i++) {
+	    line.setLength(0);
+	    for (int t = 0; t < store.dimension; t++) {
+		if (t > 0)
+		    line.append(',');
+		line.append(store.get(i, t));
+	    }
+	    out.println(line);
+	}
+	out.close();
+	return file.getPath();
+    }
+
+    /**
+     * convert a CSV file to a binary dataset deleted when the JVM exits
+     * 
+     * @return the file name
+     */
+    public static String toBinary(String csvName, int type) throws IOException {
+	File file = File.createTempFile("kmeans-bench", ".bin");
+	file.deleteOnExit();
+	DatasetConverter.convert(csvName, file.getPath(), type);
+	return file.getPath();
+    }
+}
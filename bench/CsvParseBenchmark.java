@@ -0,0 +1,115 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Loading throughput of a CSV input: the line based parser the drivers used
+ * before (readLine, split, Double.parseDouble or DNAPoint.parse per line)
+ * against CsvParser on one thread and on -t threads. Also checks that both
+ * produce the same data.
+ * 
+ * [Usage] java CsvParseBenchmark <input csv> [-dna] [-t threads] [-reps n]
+ */
+public class CsvParseBenchmark {
+
+    public static void main(String[] args) throws IOException {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 1) {
+	    System.out
+		    .println("[Usage] java CsvParseBenchmark <input csv> [-dna] [-t threads] [-reps n]");
+	    return;
+	}
+	String fnName = opts.positional(0);
+	boolean dna = opts.has("dna");
+	int threads = opts.getInt("t", Runtime.getRuntime().availableProcessors());
+	int reps = opts.getInt("reps", 5);
+	long bytes = FileSlice.length(fnName);
+	System.out.println(fnName + ": " + bytes / 1e6 + " MB, best of " + reps);
+
+	Object reference = null;
+	long best = Long.MAX_VALUE;
+	for (int r = 0; r < reps; r++) {
+	    long t0 = System.nanoTime();
+	    reference = dna ? lineParseDNA(fnName) : lineParsePoints(fnName);
+	    best = Math.min(best, System.nanoTime() - t0);
+	}
+	report("line parser", bytes, best);
+
+	int[] threadCounts = threads > 1 ? new int[] { 1, threads }
+		: new int[] { 1 };
+	for (int t : threadCounts) {
+	    Object result = null;
+	    best = Long.MAX_VALUE;
+	    for (int r = 0; r < reps; r++) {
+		long t0 = System.nanoTime();
+		result = dna ? CsvParser.parseDNA(fnName, 0, bytes, t)
+			: CsvParser.parsePoints(fnName, 0, bytes, t);
+		best = Math.min(best, System.nanoTime() - t0);
+	    }
+	    report("CsvParser, " + t + " thread(s)", bytes, best);
+	    if (!same(reference, result))
+		System.out.println("  MISMATCH against the line parser");
+	}
+    }
+
+    static void report(String name, long bytes, long nanos) {
+	System.out.printf("%-26s %8.1f ms %8.1f MB/s%n", name, nanos / 1e6,
+		bytes / 1e6 / (nanos / 1e9));
+    }
+
+    static PointStore lineParsePoints(String fnName) throws IOException {
+	ArrayList<double[]> rows = new ArrayList<double[]>();
+	BufferedReader br = new BufferedReader(new FileReader(fnName));
+	String str;
+	while ((str = br.readLine()) != null) {
+	    String[] strArr = str.split(",");
+	    double[] dArr = new double[strArr.length];
+	    for (int i = 0; i < strArr.length; i++)
+		dArr[i] = Double.parseDouble(strArr[i]);
+	    rows.add(dArr);
+	}
+	br.close();
+	int dim = rows.isEmpty() ? 0 : rows.get(0).length;
+	PointStore store = new PointStore(rows.size(), dim);
+	for (int i = 0; i < rows.size(); i++) {
+	    if (rows.get(i).length != dim)
+		throw new IOException(fnName + ": line " + (i + 1) + " has "
+			+ rows.get(i).length + " values, expected " + dim);
+	    System.arraycopy(rows.get(i), 0, store.coords, i * dim, dim);
+	}
+	return store;
+    }
+
+    static DNAPoint[] lineParseDNA(String fnName) throws IOException {
+	ArrayList<DNAPoint> points = new ArrayList<DNAPoint>();
+	BufferedReader br = new BufferedReader(new FileReader(fnName));
+	String str;
+	while ((str = br.readLine()) != null)
+	    points.add(DNAPoint.parse(str));
+	br.close();
+	return points.toArray(new DNAPoint[points.size()]);
+    }
+
+    static boolean same(Object a, Object b) {
+	if (a instanceof PointStore) {
+	    PointStore x = (PointStore) a;
+	    PointStore y = (PointStore) b;
+	    if (x.size != y.size || x.dimension != y.dimension)
+		return false;
+	    for (int i = 0; i < x.size * x.dimension; i++)
+		if (Double.doubleToLongBits(x.coords[i]) != Double
+			.doubleToLongBits(y.coords[i]))
+		    return false;
+	    return true;
+	}
+	DNAPoint[] x = (DNAPoint[]) a;
+	DNAPoint[] y = (DNAPoint[]) b;
+	if (x.length != y.length)
+	    return false;
+	for (int i = 0; i < x.length; i++)
+	    if (x[i].length != y[i].length || DNAPoint.distance(x[i], y[i]) != 0)
+		return false;
+	return true;
+    }
+}
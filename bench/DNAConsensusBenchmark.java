@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Times the DNA consensus step three ways on random sequences:
+ * the per-column scan over group member lists (the old getNewCen), a full
+ * rebuild of the [k][4][dim] count tables in one pass over the points, and
+ * the incremental update used by KmeansDNA where only moved points touch the
+ * tables.
+ * 
+ * [Usage] java DNAConsensusBenchmark <number of points> <sequence length>
+ * <number of cluster> [fraction of points moved per iteration]
+ */
+public class DNAConsensusBenchmark {
+
+    /** the old consensus: for every column scan every member of the group */
+    static void columnScan(ArrayList<DNAPoint>[] groupM, int dimension,
+	    DNAPoint[] out) {
+	for (int i = 0; i < groupM.length; i++) {
+	    DNAPoint newC = new DNAPoint(dimension);
+	    for (int j = 0; j < dimension; j++) {
+		int[] count = new int[4];
+		for (int p = 0; p < groupM[i].size(); p++) {
+		    int base = groupM[i].get(p).base(j);
+		    if (base != DNAPoint.UNKNOWN)
+			count[base] += 1;
+		}
+		int maxIdx = 0;
+		for (int b = 1; b < 4; b++)
+		    if (count[b] > count[maxIdx])
+			maxIdx = b;
+		newC.setBase(j, maxIdx);
+	    }
+	    out[i] = newC;
+	}
+    }
+
+    public static void main(String[] args) {
+	if (args.length < 3) {
+	    System.out
+		    .println("[Usage] java DNAConsensusBenchmark <number of points> <sequence length> <number of cluster> [moved fraction]");
+	    return;
+	}
+	int n = Integer.parseInt(args[0]);
+	int dim = Integer.parseInt(args[1]);
+	int k = Integer.parseInt(args[2]);
+	double movedFraction = args.length > 3 ? Double.parseDouble(args[3])
+		: 0.001;
+	int reps = 3;
+	Random rand = new Random(42);
+
+	KmeansDNA kmd = new KmeansDNA(k);
+	kmd.dimension = dim;
+	for (int i = 0; i < n; i++) {
+	    DNAPoint dp = new DNAPoint(dim);
+	    for (int j = 0; j < dim; j++)
+		dp.setBase(j, rand.nextInt(4));
+	    kmd.indata.add(dp);
+	}
+	int[] labels = new int[n];
+	for (int i = 0; i < n; i++)
+	    labels[i] = rand.nextInt(k);
+	DNAPoint[] out = new DNAPoint[k];
+
+	long best = Long.MAX_VALUE;
+	for (int r = 0; r < reps; r++) {
+	    long t0 = System.nanoTime();
+	    @SuppressWarnings("unchecked")
+	    ArrayList<DNAPoint>[] groupM = new ArrayList[k];
+	    for (int g = 0; g < k; g++)
+		groupM[g] = new ArrayList<DNAPoint>();
+	    for (int i = 0; i < n; i++)
+		groupM[labels[i]].add(kmd.indata.get(i));
+	    columnScan(groupM, dim, out);
+	    best = Math.min(best, System.nanoTime() - t0);
+	}
+	System.out.println("column scan over groups: " + best / 1000000 + " ms");
+
+	best = Long.MAX_VALUE;
+	for (int r = 0; r < reps; r++) {
+	    long t0 = System.nanoTime();
+	    kmd.ATCGNum = new int[k][4 * dim];
+	    kmd.groupCount = new int[k];
+	    for (int i = 0; i < n; i++)
+		kmd.countBases(kmd.indata.get(i), labels[i], 1);
+	    kmd.getNewCen(out);
+	    best = Math.min(best, System.nanoTime() - t0);
+	}
+	System.out.println("single-pass table rebuild: " + best / 1000000 + " ms");
+
+	int moved = Math.max(1, (int) (n * movedFraction));
+	best = Long.MAX_VALUE;
+	for (int r = 0; r < reps; r++) {
+	    long t0 = System.nanoTime();
+	    for (int m = 0; m < moved; m++) {
+		int i = rand.nextInt(n);
+		int g = rand.nextInt(k);
+		kmd.countBases(kmd.indata.get(i), labels[i], -1);
+		kmd.countBases(kmd.indata.get(i), g, 1);
+		labels[i] = g;
+	    }
+	    kmd.getNewCen(out);
+	    best = Math.min(best, System.nanoTime() - t0);
+	}
+	System.out.println("incremental (" + moved + " moved points): "
+		+ best / 1000000 + " ms");
+    }
+}
@@ -0,0 +1,24 @@
+/**
+ * kmeansbench.DistanceBench on KmeansData.calDistPoint.
+ */
+public class DistanceOps implements kmeansbench.DistanceBench.Ops {
+
+    KmeansData euclid;
+    PointStore store;
+    double[] centroid;
+    int dim;
+
+    public void setup(int points, int dim, String kernel) {
+	this.dim = dim;
+	store = BenchData.blobs(points, dim, 8);
+	centroid = BenchData.firstPoints(store, 1);
+	euclid = new KmeansData(1);
+	if (kernel.equals("scalar"))
+	    euclid.kernel = DistanceKernels.SCALAR;
+    }
+
+    public double distance(int i) {
+	return euclid.calDistPoint(store.coords, store.offset(i), centroid, 0,
+		dim);
+    }
+}
@@ -0,0 +1,39 @@
+import java.util.Arrays;
+
+/**
+ * kmeansbench.DnaBench on KmeansDNA.
+ */
+public class DnaOps implements kmeansbench.DnaBench.Ops {
+
+    KmeansDNA kmd;
+    int n;
+
+    public void setup(int n, int dim, int k) {
+	this.n = n;
+	kmd = new KmeansDNA(k);
+	kmd.verbose = false;
+	kmd.indata = BenchData.dna(n, dim, k);
+	kmd.dimension = dim;
+	for (int j = 0; j < k; j++)
+	    kmd.centroids[j] = kmd.indata.get(j);
+	kmd.ATCGNum = new int[k][4 * dim];
+	kmd.groupCount = new int[k];
+	kmd.labels = new int[n];
+	Arrays.fill(kmd.labels, -1);
+	kmd.updateGroup();
+    }
+
+    public int distance(int i) {
+	return kmd.calDistPoint(kmd.centroids[0], kmd.indata.get(i % n));
+    }
+
+    public int updateGroup() {
+	return kmd.updateGroup();
+    }
+
+    public Object consensus() {
+	DNAPoint[] newCentroids = new DNAPoint[kmd.numGroup];
+	kmd.getNewCen(newCentroids);
+	return newCentroids;
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Arrays;
+
+/**
+ * kmeansbench.KmeansDataBench on KmeansData.
+ */
+public class KmeansDataOps implements kmeansbench.KmeansDataBench.Ops {
+
+    KmeansData kmd;
+    ParallelRunner runner;
+    int n;
+    int numChunks;
+    ClusterStats[] partial;
+    ClusterStats total;
+    double[] newCentroids;
+
+    public void setup(int n, int dim, int k, String assigner, int threads) {
+	this.n = n;
+	kmd = new KmeansData(k);
+	kmd.verbose = false;
+	kmd.indata = BenchData.blobs(n, dim, k);
+	kmd.dimension = dim;
+	kmd.centroids = BenchData.firstPoints(kmd.indata, k);
+	kmd.labels = new int[n];
+	kmd.prevLabels = new int[n];
+	Arrays.fill(kmd.prevLabels, -1);
+	kmd.assigner = Assigner.create(assigner, kmd.indata, k);
+	kmd.assigner.setThreads(threads);
+	runner = new ParallelRunner(threads);
+	numChunks = ParallelRunner.chunkCount(n);
+	partial = new ClusterStats[numChunks];
+	for (int c = 0; c < numChunks; c++)
+	    partial[c] = new ClusterStats(k, dim);
+	total = new ClusterStats(k, dim);
+	newCentroids = new double[k * dim];
+	iteration();
+    }
+
+    public void tearDown() {
+	kmd.assigner.close();
+	runner.shutdown();
+    }
+
+    private void assignAll() {
+	kmd.assigner.prepare(kmd.centroids);
+	runner.forEachChunk(n, numChunks, new ParallelRunner.ChunkBody() {
+	    public void run(int chunk, int start, int end) {
+		partial[chunk].clear();
+		kmd.updateGroup(start, end, partial[chunk]);
+	    }
+	});
+    }
+
+    public Object updateGroup() {
+	assignAll();
+	return kmd.labels;
+    }
+
+    public Object getNewCen() {
+	kmd.getNewCen(total, newCentroids);
+	return newCentroids;
+    }
+
+    public boolean iteration() {
+	assignAll();
+	total.clear();
+	for (int c = 0; c < numChunks; c++)
+	    total.merge(partial[c]);
+	kmd.getNewCen(total, newCentroids);
+	return kmd.isConverge(newCentroids);
+    }
+}
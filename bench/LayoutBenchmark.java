@@ -0,0 +1,175 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the heap footprint and the time of one assignment/update pass for
+ * the object-per-point layout (DataPoint[]) against the flat PointStore.
+ * 
+ * [Usage] java LayoutBenchmark <number of points> <dimension> <number of
+ * cluster> [repetitions] [both|objects|flat]
+ * 
+ * Both layouts share dist(), so timing them in one JVM mixes their
+ * profiles. Compare timings of "objects" and "flat" in separate runs.
+ */
+public class LayoutBenchmark {
+
+    /**
+     * points per call of the chunk methods. The engines assign in chunks
+     * too, and calling a method a few hundred times per pass gets it a
+     * regular JIT compilation instead of the on-stack replacement of one
+     * long loop, whose code quality varies from run to run.
+     */
+    static final int CHUNK = 4096;
+
+    static long usedHeap() {
+	Runtime rt = Runtime.getRuntime();
+	for (int i = 0; i < 4; i++)
+	    System.gc();
+	return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static double dist(double[] v1, int off1, double[] v2, int off2, int len) {
+	double dist = 0;
+	for (int i = 0; i < len; i++) {
+	    double d = v1[off1 + i] - v2[off2 + i];
+	    dist += d * d;
+	}
+	return dist;
+    }
+
+    /**
+     * one assignment + accumulation pass over DataPoint objects
+     */
+    static void passObjects(DataPoint[] points, DataPoint[] cen,
+	    DataPoint[] sums) {
+	for (int g = 0; g < sums.length; g++) {
+	    Arrays.fill(sums[g].data, 0.0);
+	    sums[g].count = 0;
+	}
+	for (int from = 0; from < points.length; from += CHUNK)
+	    chunkObjects(points, from, Math.min(points.length, from + CHUNK),
+		    cen, sums);
+    }
+
+    static void chunkObjects(DataPoint[] points, int from, int to,
+	    DataPoint[] cen, DataPoint[] sums) {
+	for (int i = from; i < to; i++) {
+	    double[] p = points[i].data;
+	    double minDist = Double.MAX_VALUE;
+	    int group = 0;
+	    for (int j = 0; j < cen.length; j++) {
+		double d = dist(cen[j].data, 0, p, 0, p.length);
+		if (d < minDist) {
+		    minDist = d;
+		    group = j;
+		}
+	    }
+	    points[i].group = group;
+	    sums[group].add(points[i]);
+	    sums[group].count++;
+	}
+    }
+
+    /**
+     * one assignment + accumulation pass over the flat store
+     */
+    static void passFlat(PointStore store, double[] cen, int k, int[] labels,
+	    ClusterStats stats) {
+	stats.clear();
+	for (int from = 0; from < store.size; from += CHUNK)
+	    chunkFlat(store, from, Math.min(store.size, from + CHUNK), cen, k,
+		    labels, stats);
+    }
+
+    static void chunkFlat(PointStore store, int from, int to, double[] cen,
+	    int k, int[] labels, ClusterStats stats) {
+	int dim = store.dimension;
+	double[] coords = store.coords;
+	for (int i = from; i < to; i++) {
+	    int off = i * dim;
+	    double minDist = Double.MAX_VALUE;
+	    int group = 0;
+	    for (int j = 0; j < k; j++) {
+		double d = dist(cen, j * dim, coords, off, dim);
+		if (d < minDist) {
+		    minDist = d;
+		    group = j;
+		}
+	    }
+	    labels[i] = group;
+	    stats.add(coords, off, group);
+	}
+    }
+
+    public static void main(String[] args) {
+	if (args.length < 3) {
+	    System.out
+		    .println("[Usage] java LayoutBenchmark <number of points> <dimension> <number of cluster> [repetitions] [both|objects|flat]");
+	    return;
+	}
+	int n = Integer.parseInt(args[0]);
+	int dim = Integer.parseInt(args[1]);
+	int k = Integer.parseInt(args[2]);
+	int reps = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+	String layout = args.length > 4 ? args[4] : "both";
+	boolean objects = !layout.equals("flat");
+	boolean flat = !layout.equals("objects");
+	Random rand = new Random(42);
+
+	long base = usedHeap();
+	DataPoint[] points = new DataPoint[n];
+	double[] row = new double[dim];
+	for (int i = 0; i < n; i++) {
+	    for (int j = 0; j < dim; j++)
+		row[j] = rand.nextGaussian();
+	    points[i] = new DataPoint(row);
+	}
+	long objectBytes = usedHeap() - base;
+
+	base = usedHeap();
+	PointStore store = new PointStore(n, dim);
+	for (int i = 0; i < n; i++)
+	    System.arraycopy(points[i].data, 0, store.coords, i * dim, dim);
+	int[] labels = new int[n];
+	long flatBytes = usedHeap() - base;
+
+	DataPoint[] cenObj = new DataPoint[k];
+	DataPoint[] sums = new DataPoint[k];
+	double[] cenFlat = new double[k * dim];
+	for (int j = 0; j < k; j++) {
+	    cenObj[j] = new DataPoint(points[j].data);
+	    sums[j] = new DataPoint(new double[dim]);
+	    store.copyPoint(j, cenFlat, j * dim);
+	}
+	ClusterStats stats = new ClusterStats(k, dim);
+
+	// warm up both paths, then alternate them and keep the best pass of each
+	for (int r = 0; r < 2; r++) {
+	    if (objects)
+		passObjects(points, cenObj, sums);
+	    if (flat)
+		passFlat(store, cenFlat, k, labels, stats);
+	}
+	long bestObject = Long.MAX_VALUE;
+	long bestFlat = Long.MAX_VALUE;
+	for (int r = 0; r < reps; r++) {
+	    long t0 = System.nanoTime();
+	    if (objects)
+		passObjects(points, cenObj, sums);
+	    long t1 = System.nanoTime();
+	    if (flat)
+		passFlat(store, cenFlat, k, labels, stats);
+	    long t2 = System.nanoTime();
+	    bestObject = Math.min(bestObject, t1 - t0);
+	    bestFlat = Math.min(bestFlat, t2 - t1);
+	}
+
+	System.out.println("points=" + n + " dim=" + dim + " k=" + k);
+	if (objects)
+	    System.out.println("DataPoint[]  heap: " + (objectBytes >> 10)
+		    + " KB, iteration: " + bestObject / 1000 + " us");
+	if (flat)
+	    System.out.println("PointStore   heap: " + (flatBytes >> 10)
+		    + " KB, iteration: " + bestFlat / 1000 + " us");
+    }
+}
@@ -0,0 +1,37 @@
+import java.io.IOException;
+
+/**
+ * kmeansbench.ParseBench on KmeansData.parse and CsvParser.
+ */
+public class ParseOps implements kmeansbench.ParseBench.Ops {
+
+    String format;
+    String fnName;
+    long fileSize;
+
+    public void setup(int n, int dim, String format) throws IOException {
+	this.format = format;
+	String csv = BenchData.writeCsv(BenchData.blobs(n, dim, 8));
+	if (format.equals("csv"))
+	    fnName = csv;
+	else if (format.equals("float64"))
+	    fnName = BenchData.toBinary(csv, BinaryDataset.FLOAT64);
+	else if (format.equals("float32"))
+	    fnName = BenchData.toBinary(csv, BinaryDataset.FLOAT32);
+	else
+	    throw new IllegalArgumentException("unknown format: " + format);
+	fileSize = FileSlice.length(fnName);
+    }
+
+    public Object parse() {
+	KmeansData kmd = new KmeansData(1);
+	kmd.parse(fnName);
+	return kmd.indata;
+    }
+
+    public Object csvOneThread() throws IOException {
+	if (!format.equals("csv"))
+	    return null;
+	return CsvParser.parsePoints(fnName, 0, fileSize, 1);
+    }
+}
@@ -0,0 +1,75 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Scaling of the allreduce algorithms of Communicator on the statistics
+ * KmeansDNAPar sums every iteration: an int[k][4][dim] base count cube
+ * followed by the k group sizes.
+ * 
+ * The ranks are threads of one JVM (LocalCommunicator), from 2 up to -max
+ * ranks doubling each time. For every rank count and algorithm it reports
+ * the mean time of one allreduce and checks the sums.
+ * 
+ * [Usage] java ReduceBenchmark <number of cluster> <dimension> [-iter n]
+ * [-max ranks]
+ */
+public class ReduceBenchmark {
+
+    static final String[] ALGORITHMS = { "linear", "tree", "ring" };
+
+    public static void main(String[] args) throws IOException {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
+	    System.out
+		    .println("[Usage] java ReduceBenchmark <number of cluster> <dimension> [-iter n] [-max ranks]");
+	    return;
+	}
+	int k = Integer.parseInt(opts.positional(0));
+	int dim = Integer.parseInt(opts.positional(1));
+	final int iters = opts.getInt("iter", 200);
+	int maxRanks = opts.getInt("max", 64);
+	final int len = k * 4 * dim + k;
+	System.out.println("message: " + len + " ints, " + iters + " iterations");
+	System.out.println("ranks\talgorithm\tus/allreduce");
+
+	for (int np = 2; np <= maxRanks; np *= 2) {
+	    for (final String algorithm : ALGORITHMS) {
+		final long[] elapsed = new long[1];
+		final int ranks = np;
+		LocalCommunicator.launch(np, new Communicator.RankBody() {
+		    public void run(Communicator comm) throws IOException {
+			comm.setReduceAlgorithm(algorithm);
+			int[] buf = new int[len];
+			// warm up
+			for (int it = 0; it < iters / 10 + 1; it++) {
+			    fill(buf, comm.rank());
+			    comm.allreduceSum(buf, 0, len);
+			}
+			comm.barrier();
+			long t0 = System.nanoTime();
+			for (int it = 0; it < iters; it++) {
+			    fill(buf, comm.rank());
+			    comm.allreduceSum(buf, 0, len);
+			}
+			comm.barrier();
+			long t1 = System.nanoTime();
+			int expected = ranks * (ranks + 1) / 2;
+			for (int i = 0; i < len; i++)
+			    if (buf[i] != expected)
+				throw new IOException(algorithm + " on " + ranks
+					+ " ranks: element " + i + " is " + buf[i]
+					+ ", expected " + expected);
+			if (comm.rank() == 0)
+			    elapsed[0] = t1 - t0;
+		    }
+		});
+		System.out.printf("%d\t%s\t%.1f%n", np, algorithm,
+			elapsed[0] / 1e3 / iters);
+	    }
+	}
+    }
+
+    static void fill(int[] buf, int rank) {
+	Arrays.fill(buf, rank + 1);
+    }
+}
@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+
+/**
+ * Iterations to convergence and wall time of random seeding against
+ * k-means++ (sequential engine) and k-means|| (parallel driver, ranks as
+ * threads of this JVM), averaged over -runs seeds.
+ * 
+ * [Usage] java SeedingBenchmark <input data> <number of cluster> [-dna]
+ * [-runs n] [-np ranks]
+ */
+public class SeedingBenchmark {
+
+    public static void main(String[] args) throws IOException {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
+	    System.out
+		    .println("[Usage] java SeedingBenchmark <input data> <number of cluster> [-dna] [-runs n] [-np ranks]");
+	    return;
+	}
+	String input = opts.positional(0);
+	int k = Integer.parseInt(opts.positional(1));
+	boolean dna = opts.has("dna");
+	int runs = opts.getInt("runs", 10);
+	int np = opts.getInt("np", 4);
+	PrintStream out = System.out;
+	System.out.println("seeding\t\tengine\t\tmean iterations\tmean ms\tmax iterations");
+
+	for (String mode : new String[] { "random", "kmeans++" }) {
+	    long iters = 0, maxIters = 0, nanos = 0;
+	    for (int run = 0; run < runs; run++) {
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		long t0 = System.nanoTime();
+		int it;
+		if (dna) {
+		    KmeansDNA kmd = new KmeansDNA(k);
+		    kmd.parse(input);
+		    t0 = System.nanoTime();
+		    kmd.initMode = mode;
+		    kmd.rand = new Random(run);
+		    kmd.setIniCen();
+		    kmd.kmeanProcedure();
+		    it = kmd.iterations;
+		} else {
+		    KmeansData kmd = new KmeansData(k);
+		    kmd.parse(input);
+		    t0 = System.nanoTime();
+		    kmd.initMode = mode;
+		    kmd.rand = new Random(run);
+		    kmd.setIniCen();
+		    kmd.kmeanProcedure();
+		    it = kmd.iterations;
+		}
+		nanos += System.nanoTime() - t0;
+		System.setOut(out);
+		iters += it;
+		maxIters = Math.max(maxIters, it);
+	    }
+	    report(mode, dna ? "KmeansDNA" : "KmeansData", iters, nanos, maxIters, runs);
+	}
+
+	for (final String mode : new String[] { "random", "kmeans||" }) {
+	    long iters = 0, maxIters = 0, nanos = 0;
+	    for (int run = 0; run < runs; run++) {
+		final Options rankOpts = new Options(new String[] { input,
+			String.valueOf(k), "-init", mode, "-s",
+			String.valueOf(run) });
+		final int[] result = new int[1];
+		final boolean onDNA = dna;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		long t0 = System.nanoTime();
+		LocalCommunicator.launch(np, new Communicator.RankBody() {
+		    public void run(Communicator comm) throws IOException {
+			int it = onDNA ? KmeansDNAPar.runRank(comm, rankOpts).iterations
+				: KmeansDataPar.runRank(comm, rankOpts).iterations;
+			if (comm.rank() == 0)
+			    result[0] = it;
+		    }
+		});
+		nanos += System.nanoTime() - t0;
+		System.setOut(out);
+		iters += result[0];
+		maxIters = Math.max(maxIters, result[0]);
+	    }
+	    report(mode, (dna ? "KmeansDNAPar" : "KmeansDataPar") + "/" + np,
+		    iters, nanos, maxIters, runs);
+	}
+    }
+
+    static void report(String mode, String engine, long iters, long nanos,
+	    long maxIters, int runs) {
+	System.out.printf("%-8s\t%-14s\t%.1f\t\t%.1f\t%d%n", mode, engine,
+		(double) iters / runs, nanos / 1e6 / runs, maxIters);
+    }
+}
@@ -0,0 +1,29 @@
+package kmeansbench;
+
+/**
+ * JMH only accepts benchmarks in a named package, while the engine lives in
+ * the default package, which no named package can refer to. Every benchmark
+ * therefore declares the operations it measures as an Ops interface, and a
+ * default-package class in ../ implements it on the engine. The class is
+ * loaded once per trial; a benchmark only ever sees one implementation, so
+ * the JIT inlines the interface calls and the measured code is the engine's.
+ */
+public class Adapters {
+
+    /**
+     * @param className
+     *            default-package class implementing type, with a public
+     *            constructor without arguments
+     * @param type
+     *            the Ops interface
+     * @return a new instance
+     */
+    public static <T> T load(String className, Class<T> type) {
+	try {
+	    return type.cast(Class.forName(className).getConstructor()
+		    .newInstance());
+	} catch (ReflectiveOperationException e) {
+	    throw new IllegalStateException("cannot load " + className, e);
+	}
+    }
+}
@@ -0,0 +1,64 @@
+package kmeansbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * KmeansData.calDistPoint with each distance kernel: the distance between
+ * every point of a block and one centroid, reported per distance.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class DistanceBench {
+
+    /** implemented by DistanceOps */
+    public interface Ops {
+	void setup(int points, int dim, String kernel);
+
+	/**
+	 * @return distance between point i and the centroid
+	 */
+	double distance(int i);
+    }
+
+    static final int POINTS = 1024;
+
+    /** dimension of the points */
+    @Param({ "4", "32", "256" })
+    public int dim;
+    /** distance kernel, "auto" is the one DistanceKernels selects */
+    @Param({ "auto", "scalar" })
+    public String kernel;
+
+    Ops ops;
+
+    @Setup
+    public void setup() {
+	ops = Adapters.load("DistanceOps", Ops.class);
+	ops.setup(POINTS, dim, kernel);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(POINTS)
+    public void euclidean(Blackhole bh) {
+	for (int i = 0; i < POINTS; i++)
+	    bh.consume(ops.distance(i));
+    }
+}
@@ -0,0 +1,95 @@
+package kmeansbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The steps of KmeansDNA on sequences drawn around k ancestors, seeded with
+ * the first k sequences: the Hamming distance (per distance), the
+ * assignment pass with its incremental base counting, and the consensus of
+ * every group from the count tables.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnaBench {
+
+    /** implemented by DnaOps */
+    public interface Ops {
+	/**
+	 * load the sequences, seed the centroids and run one assignment pass
+	 */
+	void setup(int n, int dim, int k);
+
+	/**
+	 * @return mismatches between sequence i % n and the first centroid
+	 */
+	int distance(int i);
+
+	/**
+	 * @return KmeansDNA.updateGroup()
+	 */
+	int updateGroup();
+
+	/**
+	 * @return the new centroids of KmeansDNA.getNewCen
+	 */
+	Object consensus();
+    }
+
+    static final int PAIRS = 1024;
+
+    @Param({ "20000" })
+    public int n;
+    /** sequence length */
+    @Param({ "64", "200", "1000" })
+    public int dim;
+    @Param({ "8", "64" })
+    public int k;
+
+    Ops ops;
+
+    @Setup
+    public void setup() {
+	ops = Adapters.load("DnaOps", Ops.class);
+	ops.setup(n, dim, k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PAIRS)
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void calDistPoint(Blackhole bh) {
+	for (int i = 0; i < PAIRS; i++)
+	    bh.consume(ops.distance(i));
+    }
+
+    /**
+     * labels are kept between invocations, so after the first pass no point
+     * moves: this is the cost of the late iterations
+     */
+    @Benchmark
+    public int updateGroup() {
+	return ops.updateGroup();
+    }
+
+    @Benchmark
+    public Object consensus() {
+	return ops.consensus();
+    }
+}
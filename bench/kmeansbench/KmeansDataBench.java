@@ -0,0 +1,100 @@
+package kmeansbench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The steps of KmeansData on points drawn around k centers, seeded with the
+ * first k points: one assignment pass (updateGroup) with each Assigner, the
+ * centroid update (getNewCen), and one whole iteration as kmeanProcedure
+ * runs it, over ParallelRunner chunks on the given number of threads. The
+ * centroids are not moved between invocations, so every invocation does the
+ * same work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class KmeansDataBench {
+
+    /** implemented by KmeansDataOps */
+    public interface Ops {
+	/**
+	 * load the points, seed the centroids and run one iteration
+	 */
+	void setup(int n, int dim, int k, String assigner, int threads);
+
+	void tearDown();
+
+	/**
+	 * assign and accumulate every chunk, as kmeanProcedure does
+	 * 
+	 * @return the labels
+	 */
+	Object updateGroup();
+
+	/**
+	 * @return the centroids of KmeansData.getNewCen on the last totals
+	 */
+	Object getNewCen();
+
+	/**
+	 * @return whether one whole iteration converged
+	 */
+	boolean iteration();
+    }
+
+    @Param({ "100000" })
+    public int n;
+    @Param({ "4", "32", "128" })
+    public int dim;
+    @Param({ "16", "256" })
+    public int k;
+    /** see Assigner.create */
+    @Param({ "lloyd", "hamerly", "blocked", "kdtree" })
+    public String assigner;
+    @Param({ "1" })
+    public int threads;
+
+    Ops ops;
+
+    @Setup
+    public void setup() {
+	ops = Adapters.load("KmeansDataOps", Ops.class);
+	ops.setup(n, dim, k, assigner, threads);
+    }
+
+    @TearDown
+    public void tearDown() {
+	ops.tearDown();
+    }
+
+    @Benchmark
+    public Object updateGroup() {
+	return ops.updateGroup();
+    }
+
+    @Benchmark
+    public Object getNewCen() {
+	return ops.getNewCen();
+    }
+
+    @Benchmark
+    public boolean iteration() {
+	return ops.iteration();
+    }
+}
@@ -0,0 +1,78 @@
+package kmeansbench;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loading the input: KmeansData.parse of a CSV file or of a binary dataset
+ * of the given type, and CsvParser on one thread, on a file written once
+ * per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBench {
+
+    /** implemented by ParseOps */
+    public interface Ops {
+	/**
+	 * write the input file of the trial
+	 */
+	void setup(int n, int dim, String format) throws IOException;
+
+	/**
+	 * @return the points of KmeansData.parse
+	 */
+	Object parse();
+
+	/**
+	 * @return the points of CsvParser on one thread, null for a binary
+	 *         format
+	 */
+	Object csvOneThread() throws IOException;
+    }
+
+    @Param({ "200000" })
+    public int n;
+    @Param({ "4", "32" })
+    public int dim;
+    /** "csv", or the binary type "float64" or "float32" */
+    @Param({ "csv", "float64", "float32" })
+    public String format;
+
+    Ops ops;
+
+    @Setup
+    public void setup() throws IOException {
+	ops = Adapters.load("ParseOps", Ops.class);
+	ops.setup(n, dim, format);
+    }
+
+    @Benchmark
+    public Object parse() {
+	return ops.parse();
+    }
+
+    /**
+     * the CSV parser alone on one thread, the binary formats skip it
+     */
+    @Benchmark
+    public Object csvOneThread() throws IOException {
+	return ops.csvOneThread();
+    }
+}
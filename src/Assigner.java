@@ -0,0 +1,124 @@
+/**
+ * Assigns every point of a PointStore to its closest centroid. An Assigner is
+ * created once per run and may keep state between iterations, so prepare()
+ * must be called with the centroids of every iteration before assign() is
+ * called on any range of points. Different ranges may be assigned
+ * concurrently.
+ */
+public abstract class Assigner {
+
+    protected final PointStore store;
+    protected final int numGroup;
+    protected final int dimension;
+    protected final DistanceKernel kernel = DistanceKernels.get();
+    /** row-major centroids of the current iteration */
+    protected double[] centroids;
+    /** the centroids in single precision, for a float32 store only */
+    protected float[] floatCentroids;
+
+    protected Assigner(PointStore store, int numGroup) {
+	this.store = store;
+	this.numGroup = numGroup;
+	this.dimension = store.dimension;
+    }
+
+    /**
+     * for points that are not held in a PointStore, store is null and the
+     * subclass supplies distSq
+     */
+    protected Assigner(int dimension, int numGroup) {
+	this.store = null;
+	this.numGroup = numGroup;
+	this.dimension = dimension;
+    }
+
+    /**
+     * @param name
+     *            "lloyd" for the brute-force search, "hamerly" for the
+     *            bound-based search, "blocked" for the matrix-multiply
+     *            formulation, "kdtree" for the k-d tree filtering; the last
+     *            two need a float64 store
+     * @param store
+     *            points to assign
+     * @param numGroup
+     *            number of centroids
+     * @return a new Assigner
+     */
+    public static Assigner create(String name, PointStore store, int numGroup) {
+	if (name.equals("lloyd"))
+	    return new LloydAssigner(store, numGroup);
+	else if (name.equals("hamerly"))
+	    return new HamerlyAssigner(store, numGroup);
+	else if (name.equals("blocked"))
+	    return new BlockedAssigner(store, numGroup);
+	else if (name.equals("kdtree"))
+	    return new KdTreeAssigner(store, numGroup);
+	throw new IllegalArgumentException("unknown assignment mode: " + name);
+    }
+
+    /**
+     * let the assigner use up to this many threads of its own in prepare(),
+     * by default it uses none
+     * 
+     * @param threads
+     *            number of threads
+     */
+    public void setThreads(int threads) {
+    }
+
+    /**
+     * release the threads of setThreads(), the engines call this when their
+     * run ends
+     */
+    public void close() {
+    }
+
+    /**
+     * start a new iteration
+     * 
+     * @param newCentroids
+     *            row-major centroids to assign against
+     */
+    public void prepare(double[] newCentroids) {
+	centroids = newCentroids;
+	if (store != null && store.isFloat()) {
+	    if (floatCentroids == null
+		    || floatCentroids.length != newCentroids.length)
+		floatCentroids = new float[newCentroids.length];
+	    for (int i = 0; i < newCentroids.length; i++)
+		floatCentroids[i] = (float) newCentroids[i];
+	}
+    }
+
+    /**
+     * assign the points in [start, end) to their closest centroid
+     * 
+     * @param start
+     *            first point (inclusive)
+     * @param end
+     *            last point (exclusive)
+     * @param labels
+     *            group of every point, indexed like the store
+     * @return number of point-to-centroid distances computed
+     */
+    public abstract long assign(int start, int end, int[] labels);
+
+    /**
+     * squared Euclidean distance between point i and centroid j, computed in
+     * single precision for a float32 store
+     */
+    protected double distSq(int i, int j) {
+	if (floatCentroids != null)
+	    return kernel.distSq(floatCentroids, j * dimension, store.floats,
+		    i * dimension, dimension);
+	return kernel.distSq(centroids, j * dimension, store.coords, i
+		* dimension, dimension);
+    }
+
+    /**
+     * Euclidean distance between point i and centroid j
+     */
+    protected double distance(int i, int j) {
+	return Math.sqrt(distSq(i, j));
+    }
+}
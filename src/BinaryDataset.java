@@ -0,0 +1,256 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A dataset stored as a fixed-size header followed by fixed-size rows, so
+ * that any range of points can be located without scanning the file and
+ * loaded without parsing text.
+ * 
+ * Header, 32 bytes, little endian:
+ * <pre>
+ *  0  int   MAGIC ("KMDS")
+ *  4  int   VERSION
+ *  8  int   type: FLOAT64, FLOAT32 or DNA
+ * 12  int   dimension (sequence length for DNA)
+ * 16  long  number of points
+ * 24  long  reserved, 0
+ * </pre>
+ * Rows follow in point order: dimension doubles (FLOAT64), dimension floats
+ * (FLOAT32), or the 2 * DNAPoint.words(dimension) longs written by
+ * DNAPoint.pack (DNA). Files are written by DatasetConverter.
+ * 
+ * Rows are read through FileChannel.map in windows of at most MAP_WINDOW
+ * bytes and copied with bulk buffer gets into the heap arrays the engines
+ * work on.
+ */
+public class BinaryDataset {
+
+    public static final int MAGIC = 0x53444d4b;
+    public static final int VERSION = 1;
+    public static final int HEADER_BYTES = 32;
+
+    public static final int FLOAT64 = 1;
+    public static final int FLOAT32 = 2;
+    public static final int DNA = 3;
+
+    /** largest region mapped at once */
+    static final long MAP_WINDOW = 1L << 30;
+
+    public final String fnName;
+    public final int type;
+    public final int dimension;
+    public final long size;
+
+    BinaryDataset(String fnName, int type, int dimension, long size) {
+	this.fnName = fnName;
+	this.type = type;
+	this.dimension = dimension;
+	this.size = size;
+    }
+
+    /**
+     * @return whether fnName starts with the binary dataset magic number
+     */
+    public static boolean isBinary(String fnName) {
+	byte[] head = new byte[4];
+	try {
+	    FileInputStream in = new FileInputStream(fnName);
+	    try {
+		if (in.read(head) != 4)
+		    return false;
+	    } finally {
+		in.close();
+	    }
+	} catch (IOException e) {
+	    return false;
+	}
+	return ByteBuffer.wrap(head).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+    }
+
+    /**
+     * read and check the header of a binary dataset
+     */
+    public static BinaryDataset open(String fnName) throws IOException {
+	RandomAccessFile file = new RandomAccessFile(fnName, "r");
+	try {
+	    ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+		    ByteOrder.LITTLE_ENDIAN);
+	    file.getChannel().read(header, 0);
+	    header.flip();
+	    if (header.remaining() < HEADER_BYTES || header.getInt(0) != MAGIC)
+		throw new IOException(fnName + " is not a binary dataset");
+	    if (header.getInt(4) != VERSION)
+		throw new IOException(fnName + ": unsupported version "
+			+ header.getInt(4));
+	    BinaryDataset ds = new BinaryDataset(fnName, header.getInt(8),
+		    header.getInt(12), header.getLong(16));
+	    if (ds.type != FLOAT64 && ds.type != FLOAT32 && ds.type != DNA)
+		throw new IOException(fnName + ": unknown type " + ds.type);
+	    long expected = HEADER_BYTES + ds.size * ds.rowBytes();
+	    if (file.length() < expected)
+		throw new IOException(fnName + " is truncated: " + file.length()
+			+ " bytes, header promises " + expected);
+	    return ds;
+	} finally {
+	    file.close();
+	}
+    }
+
+    /**
+     * @return the header of a dataset of the given shape
+     */
+    public static ByteBuffer header(int type, int dimension, long size) {
+	ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(
+		ByteOrder.LITTLE_ENDIAN);
+	header.putInt(MAGIC).putInt(VERSION).putInt(type).putInt(dimension)
+		.putLong(size).putLong(0);
+	header.flip();
+	return header;
+    }
+
+    /**
+     * @return bytes occupied by one point of a dataset
+     */
+    public static int rowBytes(int type, int dimension) {
+	switch (type) {
+	case FLOAT64:
+	    return 8 * dimension;
+	case FLOAT32:
+	    return 4 * dimension;
+	default:
+	    return 16 * DNAPoint.words(dimension);
+	}
+    }
+
+    public int rowBytes() {
+	return rowBytes(type, dimension);
+    }
+
+    /**
+     * @param rank
+     *            index of the slice
+     * @param numSlices
+     *            number of slices
+     * @return {from, to} point range of slice rank
+     */
+    public long[] range(int rank, int numSlices) {
+	return new long[] { size * rank / numSlices,
+		size * (rank + 1) / numSlices };
+    }
+
+    /**
+     * load points [from, to) of a FLOAT64 or FLOAT32 dataset into a float64
+     * store
+     */
+    public PointStore readPoints(long from, long to) throws IOException {
+	return readPoints(from, to, false);
+    }
+
+    /**
+     * load points [from, to) of a FLOAT64 or FLOAT32 dataset
+     * 
+     * @param float32
+     *            load into a float32 store, FLOAT64 values are rounded
+     */
+    public PointStore readPoints(long from, long to, boolean float32)
+	    throws IOException {
+	if (float32)
+	    return readFloats(from, to);
+	if (type == DNA)
+	    throw new IOException(fnName + " holds DNA sequences, not points");
+	double[] coords = new double[PointStore.length(to - from, dimension)];
+	int n = (int) (to - from);
+	FileChannel channel = new RandomAccessFile(fnName, "r").getChannel();
+	try {
+	    int rowsPerWindow = rowsPerWindow();
+	    for (int row = 0; row < n; row += rowsPerWindow) {
+		int rows = Math.min(rowsPerWindow, n - row);
+		MappedByteBuffer map = map(channel, from + row, rows);
+		if (type == FLOAT64) {
+		    map.asDoubleBuffer().get(coords, row * dimension,
+			    rows * dimension);
+		} else {
+		    float[] window = new float[rows * dimension];
+		    map.asFloatBuffer().get(window);
+		    int off = row * dimension;
+		    for (int i = 0; i < window.length; i++)
+			coords[off + i] = window[i];
+		}
+	    }
+	} finally {
+	    channel.close();
+	}
+	return new PointStore(coords, n, dimension);
+    }
+
+    private PointStore readFloats(long from, long to) throws IOException {
+	if (type == DNA)
+	    throw new IOException(fnName + " holds DNA sequences, not points");
+	float[] floats = new float[PointStore.length(to - from, dimension)];
+	int n = (int) (to - from);
+	FileChannel channel = new RandomAccessFile(fnName, "r").getChannel();
+	try {
+	    int rowsPerWindow = rowsPerWindow();
+	    for (int row = 0; row < n; row += rowsPerWindow) {
+		int rows = Math.min(rowsPerWindow, n - row);
+		MappedByteBuffer map = map(channel, from + row, rows);
+		if (type == FLOAT32) {
+		    map.asFloatBuffer().get(floats, row * dimension,
+			    rows * dimension);
+		} else {
+		    double[] window = new double[rows * dimension];
+		    map.asDoubleBuffer().get(window);
+		    int off = row * dimension;
+		    for (int i = 0; i < window.length; i++)
+			floats[off + i] = (float) window[i];
+		}
+	    }
+	} finally {
+	    channel.close();
+	}
+	return new PointStore(floats, n, dimension);
+    }
+
+    /**
+     * load sequences [from, to) of a DNA dataset
+     */
+    public DNAPoint[] readDNA(long from, long to) throws IOException {
+	if (type != DNA)
+	    throw new IOException(fnName + " holds points, not DNA sequences");
+	int n = (int) (to - from);
+	DNAPoint[] points = new DNAPoint[n];
+	int rowLongs = rowBytes() / 8;
+	FileChannel channel = new RandomAccessFile(fnName, "r").getChannel();
+	try {
+	    int rowsPerWindow = rowsPerWindow();
+	    for (int row = 0; row < n; row += rowsPerWindow) {
+		int rows = Math.min(rowsPerWindow, n - row);
+		long[] window = new long[rows * rowLongs];
+		map(channel, from + row, rows).asLongBuffer().get(window);
+		for (int i = 0; i < rows; i++)
+		    points[row + i] = DNAPoint.unpack(window, i * rowLongs,
+			    dimension);
+	    }
+	} finally {
+	    channel.close();
+	}
+	return points;
+    }
+
+    private int rowsPerWindow() {
+	return (int) Math.max(1, MAP_WINDOW / Math.max(1, rowBytes()));
+    }
+
+    private MappedByteBuffer map(FileChannel channel, long firstRow, int rows)
+	    throws IOException {
+	MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+		HEADER_BYTES + firstRow * rowBytes(), (long) rows * rowBytes());
+	map.order(ByteOrder.LITTLE_ENDIAN);
+	return map;
+    }
+}
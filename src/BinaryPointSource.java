@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Points of a FLOAT64 or FLOAT32 binary dataset, read straight from mapped
+ * windows of the file, so that random rows cost no more than sequential ones
+ * once the pages are cached.
+ */
+public class BinaryPointSource extends PointSource {
+
+    private final BinaryDataset ds;
+    private final long from;
+    private final long to;
+    private final FileChannel channel;
+    private final int rowsPerWindow;
+    /** lazily mapped windows of rowsPerWindow rows, from row 'from' on */
+    private final DoubleBuffer[] doubleWindows;
+    private final FloatBuffer[] floatWindows;
+    private long next;
+
+    public BinaryPointSource(BinaryDataset ds, long from, long to)
+	    throws IOException {
+	if (ds.type == BinaryDataset.DNA)
+	    throw new IOException(ds.fnName + " holds DNA sequences, not points");
+	this.ds = ds;
+	this.from = from;
+	this.to = to;
+	this.dimension = ds.dimension;
+	channel = new RandomAccessFile(ds.fnName, "r").getChannel();
+	rowsPerWindow = (int) Math.max(1, BinaryDataset.MAP_WINDOW
+		/ Math.max(1, ds.rowBytes()));
+	int numWindows = (int) ((to - from + rowsPerWindow - 1) / rowsPerWindow);
+	doubleWindows = new DoubleBuffer[numWindows];
+	floatWindows = new FloatBuffer[numWindows];
+	next = from;
+    }
+
+    public int read(double[] buf, int row, int maxRows) throws IOException {
+	int n = (int) Math.min(maxRows, to - next);
+	for (int i = 0; i < n; i++)
+	    copyRow(next++, buf, (row + i) * dimension);
+	return n;
+    }
+
+    public void rewind() {
+	next = from;
+    }
+
+    /**
+     * draw rows uniformly at random, with replacement
+     */
+    public int sample(double[] buf, int rows, Random rand) throws IOException {
+	long n = to - from;
+	if (n == 0)
+	    return 0;
+	for (int i = 0; i < rows; i++)
+	    copyRow(from + (long) (rand.nextDouble() * n), buf, i * dimension);
+	return rows;
+    }
+
+    private void copyRow(long row, double[] dst, int off) throws IOException {
+	long rel = row - from;
+	int w = (int) (rel / rowsPerWindow);
+	int index = (int) (rel % rowsPerWindow) * dimension;
+	if (doubleWindows[w] == null && floatWindows[w] == null)
+	    map(w);
+	if (ds.type == BinaryDataset.FLOAT64) {
+	    doubleWindows[w].get(index, dst, off, dimension);
+	} else {
+	    FloatBuffer fb = floatWindows[w];
+	    for (int j = 0; j < dimension; j++)
+		dst[off + j] = fb.get(index + j);
+	}
+    }
+
+    private void map(int w) throws IOException {
+	long first = from + (long) w * rowsPerWindow;
+	long rows = Math.min(rowsPerWindow, to - first);
+	MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY,
+		BinaryDataset.HEADER_BYTES + first * ds.rowBytes(), rows
+			* ds.rowBytes());
+	map.order(ByteOrder.LITTLE_ENDIAN);
+	if (ds.type == BinaryDataset.FLOAT64)
+	    doubleWindows[w] = map.asDoubleBuffer();
+	else
+	    floatWindows[w] = map.asFloatBuffer();
+    }
+
+    public void close() throws IOException {
+	channel.close();
+    }
+}
@@ -0,0 +1,152 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Assignment through ||x - c||^2 = ||x||^2 - 2 x.c + ||c||^2. The squared
+ * norms of the points are computed once and those of the centroids once per
+ * iteration, so the work left is the matrix of cross terms x.c, computed as
+ * a blocked matrix multiply by DistanceKernel.dotTile: tiles of POINT_TILE
+ * points against tiles of centroids small enough to stay in L2, which
+ * prepare() packs transposed so that the kernel reads them row by row.
+ * Point tiles are spread over threads by the caller, which assigns
+ * disjoint ranges concurrently.
+ * 
+ * The expansion loses precision when the distances are small compared to
+ * the norms. For every point the rounding error of the expanded distances
+ * is bounded by errorBound(); when the best and second best distance are
+ * closer than twice that bound, including exact ties, the point is
+ * re-assigned with the direct distances, so the labels always equal those
+ * of LloydAssigner.
+ */
+public class BlockedAssigner extends Assigner {
+
+    /** points per tile, their coordinates are read once per centroid tile */
+    static final int POINT_TILE = 32;
+    /** bytes of centroid coordinates per tile, half of a typical L2 */
+    static final int CENTROID_TILE_BYTES = 128 * 1024;
+
+    private final double[] pointNorms;
+    /** centroids per tile, a multiple of DistanceKernel.TILE_ALIGN */
+    private final int tileWidth;
+    /** centroid tiles, each dimension x tileWidth, zero-padded */
+    private double[] packed;
+    private double[] centroidNorms;
+    private double maxCentroidNorm;
+    /** points re-assigned with direct distances, for reporting */
+    public final AtomicLong fallbacks = new AtomicLong();
+
+    public BlockedAssigner(PointStore store, int numGroup) {
+	super(store, numGroup);
+	if (store.isFloat())
+	    throw new IllegalArgumentException(
+		    "blocked assignment needs float64 storage");
+	pointNorms = new double[store.size];
+	for (int i = 0; i < store.size; i++)
+	    pointNorms[i] = dot(store.coords, store.offset(i), store.coords,
+		    store.offset(i), dimension);
+	int align = DistanceKernel.TILE_ALIGN;
+	int width = CENTROID_TILE_BYTES / (8 * Math.max(1, dimension));
+	width = Math.min(width, numGroup + align - 1) / align * align;
+	tileWidth = Math.max(align, width);
+    }
+
+    public void prepare(double[] newCentroids) {
+	super.prepare(newCentroids);
+	int numTiles = (numGroup + tileWidth - 1) / tileWidth;
+	if (packed == null) {
+	    packed = new double[numTiles * tileWidth * dimension];
+	    centroidNorms = new double[numGroup];
+	}
+	maxCentroidNorm = 0;
+	for (int j = 0; j < numGroup; j++) {
+	    int tile = (j / tileWidth) * tileWidth * dimension;
+	    int col = j % tileWidth;
+	    for (int t = 0; t < dimension; t++)
+		packed[tile + t * tileWidth + col] = centroids[j * dimension + t];
+	    centroidNorms[j] = dot(centroids, j * dimension, centroids, j
+		    * dimension, dimension);
+	    maxCentroidNorm = Math.max(maxCentroidNorm, centroidNorms[j]);
+	}
+    }
+
+    public long assign(int start, int end, int[] labels) {
+	double[] dots = new double[POINT_TILE * tileWidth];
+	double[] best = new double[POINT_TILE];
+	double[] second = new double[POINT_TILE];
+	int[] arg = new int[POINT_TILE];
+	long evals = 0;
+	int exact = 0;
+	for (int p0 = start; p0 < end; p0 += POINT_TILE) {
+	    int np = Math.min(POINT_TILE, end - p0);
+	    for (int a = 0; a < np; a++) {
+		best[a] = Double.POSITIVE_INFINITY;
+		second[a] = Double.POSITIVE_INFINITY;
+	    }
+	    for (int c0 = 0; c0 < numGroup; c0 += tileWidth) {
+		int nc = Math.min(tileWidth, numGroup - c0);
+		kernel.dotTile(store.coords, store.offset(p0), np, dimension,
+			packed, c0 * dimension, tileWidth, dots);
+		for (int a = 0; a < np; a++) {
+		    double xn = pointNorms[p0 + a];
+		    int row = a * tileWidth;
+		    for (int b = 0; b < nc; b++) {
+			double d = xn + centroidNorms[c0 + b] - 2 * dots[row + b];
+			if (d < best[a]) {
+			    second[a] = best[a];
+			    best[a] = d;
+			    arg[a] = c0 + b;
+			} else if (d < second[a]) {
+			    second[a] = d;
+			}
+		    }
+		}
+	    }
+	    evals += (long) np * numGroup;
+	    for (int a = 0; a < np; a++) {
+		int i = p0 + a;
+		if (second[a] - best[a] > 2 * errorBound(i)) {
+		    labels[i] = arg[a];
+		} else {
+		    labels[i] = directArgmin(i);
+		    evals += numGroup;
+		    exact++;
+		}
+	    }
+	}
+	fallbacks.addAndGet(exact);
+	return evals;
+    }
+
+    /**
+     * @return bound on the rounding error of an expanded distance of point
+     *         i, and of the direct distance it is compared against
+     */
+    double errorBound(int i) {
+	// each of the dot products and norms has a relative error of at most
+	// (dimension + 2) ulp, and |x.c| <= (||x||^2 + ||c||^2) / 2
+	return 4 * (dimension + 2) * 0x1p-52 * (pointNorms[i] + maxCentroidNorm);
+    }
+
+    /**
+     * @return the closest centroid of point i by direct distances, first
+     *         index on ties as in LloydAssigner
+     */
+    private int directArgmin(int i) {
+	double minDist = Double.MAX_VALUE;
+	int group = 0;
+	for (int j = 0; j < numGroup; j++) {
+	    double dist = distSq(i, j);
+	    if (dist < minDist) {
+		group = j;
+		minDist = dist;
+	    }
+	}
+	return group;
+    }
+
+    static double dot(double[] v1, int off1, double[] v2, int off2, int len) {
+	double s = 0;
+	for (int t = 0; t < len; t++)
+	    s += v1[off1 + t] * v2[off2 + t];
+	return s;
+    }
+}
@@ -0,0 +1,178 @@
+import java.util.Arrays;
+
+/**
+ * Per-cluster coordinate sums and point counts, the sufficient statistics for
+ * computing new centroids.
+ */
+public class ClusterStats {
+
+    public final int numGroup;
+    public final int dimension;
+    /** row-major sums, numGroup x dimension */
+    public final double[] sums;
+    public final int[] counts;
+
+    public ClusterStats(int numGroup, int dimension) {
+	this.numGroup = numGroup;
+	this.dimension = dimension;
+	sums = new double[numGroup * dimension];
+	counts = new int[numGroup];
+    }
+
+    public void clear() {
+	Arrays.fill(sums, 0.0);
+	Arrays.fill(counts, 0);
+    }
+
+    /**
+     * add one point to the statistics of a group
+     * 
+     * @param coords
+     *            array holding the point
+     * @param off
+     *            index of the first coordinate of the point
+     * @param group
+     *            group the point belongs to
+     */
+    public void add(double[] coords, int off, int group) {
+	int dst = group * dimension;
+	for (int i = 0; i < dimension; i++)
+	    sums[dst + i] += coords[off + i];
+	counts[group]++;
+    }
+
+    /**
+     * add point i of a store to the statistics of a group, float32
+     * coordinates are summed in double
+     */
+    public void add(PointStore store, int i, int group) {
+	if (store.floats == null) {
+	    add(store.coords, store.offset(i), group);
+	    return;
+	}
+	float[] floats = store.floats;
+	int off = store.offset(i);
+	int dst = group * dimension;
+	for (int t = 0; t < dimension; t++)
+	    sums[dst + t] += floats[off + t];
+	counts[group]++;
+    }
+
+    /**
+     * remove point i of a store from the statistics of a group
+     */
+    public void subtract(PointStore store, int i, int group) {
+	if (store.floats == null) {
+	    subtract(store.coords, store.offset(i), group);
+	    return;
+	}
+	float[] floats = store.floats;
+	int off = store.offset(i);
+	int dst = group * dimension;
+	for (int t = 0; t < dimension; t++)
+	    sums[dst + t] -= floats[off + t];
+	counts[group]--;
+    }
+
+    /**
+     * add point i of a sparse store to the statistics of a group, touching
+     * only its non-zero coordinates
+     */
+    public void add(SparseStore store, int i, int group) {
+	int dst = group * dimension;
+	for (int p = store.rowStart[i]; p < store.rowStart[i + 1]; p++)
+	    sums[dst + store.cols[p]] += store.vals[p];
+	counts[group]++;
+    }
+
+    /**
+     * remove point i of a sparse store from the statistics of a group
+     */
+    public void subtract(SparseStore store, int i, int group) {
+	int dst = group * dimension;
+	for (int p = store.rowStart[i]; p < store.rowStart[i + 1]; p++)
+	    sums[dst + store.cols[p]] -= store.vals[p];
+	counts[group]--;
+    }
+
+    /**
+     * remove one point from the statistics of a group
+     * 
+     * @param coords
+     *            array holding the point
+     * @param off
+     *            index of the first coordinate of the point
+     * @param group
+     *            group the point is removed from
+     */
+    public void subtract(double[] coords, int off, int group) {
+	int dst = group * dimension;
+	for (int i = 0; i < dimension; i++)
+	    sums[dst + i] -= coords[off + i];
+	counts[group]--;
+    }
+
+    /**
+     * add the statistics of another buffer into this one
+     * 
+     * @param other
+     *            statistics with the same shape
+     */
+    public void merge(ClusterStats other) {
+	for (int i = 0; i < sums.length; i++)
+	    sums[i] += other.sums[i];
+	for (int i = 0; i < numGroup; i++)
+	    counts[i] += other.counts[i];
+    }
+
+    /**
+     * @return number of doubles written by pack
+     */
+    public int bufferLength() {
+	return sums.length + numGroup;
+    }
+
+    /**
+     * copy the sums followed by the counts into a flat buffer, the form in
+     * which the statistics are summed across processes
+     * 
+     * @param buf
+     *            destination
+     * @param off
+     *            first index written
+     */
+    public void pack(double[] buf, int off) {
+	System.arraycopy(sums, 0, buf, off, sums.length);
+	for (int i = 0; i < numGroup; i++)
+	    buf[off + sums.length + i] = counts[i];
+    }
+
+    /**
+     * add statistics in the layout written by pack into this buffer
+     * 
+     * @param buf
+     *            source
+     * @param off
+     *            first index read
+     */
+    public void addPacked(double[] buf, int off) {
+	for (int i = 0; i < sums.length; i++)
+	    sums[i] += buf[off + i];
+	for (int i = 0; i < numGroup; i++)
+	    counts[i] += (int) buf[off + sums.length + i];
+    }
+
+    /**
+     * write the mean of every group into centroids, empty groups get NaN
+     * 
+     * @param centroids
+     *            row-major numGroup x dimension output
+     */
+    public void means(double[] centroids) {
+	for (int g = 0; g < numGroup; g++) {
+	    int off = g * dimension;
+	    for (int i = 0; i < dimension; i++)
+		centroids[off + i] = sums[off + i] / (double) counts[g];
+	}
+    }
+}
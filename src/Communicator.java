@@ -0,0 +1,482 @@
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * The communication the parallel drivers need, independent of the transport:
+ * rank and size, point-to-point messages, broadcast, sum reductions and a
+ * barrier.
+ * 
+ * Transports only implement the point-to-point primitives. Messages between
+ * two ranks arrive in the order they were sent and sends do not wait for the
+ * matching receive. The collectives below are built on top of those
+ * primitives; the algorithm is chosen with setReduceAlgorithm:
+ * <ul>
+ * <li>"linear": the root receives from (or sends to) every other rank in
+ * turn, size - 1 sequential steps</li>
+ * <li>"tree": binomial tree, ceil(log2 size) steps, each rank sends the
+ * whole buffer at most once</li>
+ * <li>"ring": reduce-scatter followed by an allgather around the ring, each
+ * rank sends 2 (size - 1) / size of the buffer, which is bandwidth optimal
+ * for large buffers; broadcasts use the tree</li>
+ * <li>"native" (default): the transport's own collectives where it has them
+ * (MPI), the tree otherwise</li>
+ * </ul>
+ * Every rank must call the collectives in the same order and with the same
+ * algorithm.
+ */
+public abstract class Communicator {
+
+    /** the per-rank work of a parallel driver */
+    public interface RankBody {
+	void run(Communicator comm) throws IOException;
+    }
+
+    /** names accepted by setReduceAlgorithm */
+    public static final String[] REDUCE_ALGORITHMS = { "native", "linear",
+	    "tree", "ring" };
+
+    protected String reduceAlgorithm = "native";
+    /** payload bytes this rank has sent, see bytesSent */
+    protected long bytesSent;
+
+    public abstract int rank();
+
+    public abstract int size();
+
+    /**
+     * send len elements of an int[], long[] or double[] array to dest
+     */
+    protected abstract void sendArray(Object buf, int off, int len, int dest)
+	    throws IOException;
+
+    /**
+     * receive len elements sent by src into an array of the same type
+     */
+    protected abstract void recvArray(Object buf, int off, int len, int src)
+	    throws IOException;
+
+    /**
+     * send slen elements to dest and receive rlen elements from src, without
+     * deadlocking when every rank does the same at once. Transports whose
+     * sends may wait for the receiver (MPI) override this.
+     */
+    protected void sendRecvArray(Object sbuf, int soff, int slen, int dest,
+	    Object rbuf, int roff, int rlen, int src) throws IOException {
+	sendArray(sbuf, soff, slen, dest);
+	recvArray(rbuf, roff, rlen, src);
+    }
+
+    public void close() throws IOException {
+    }
+
+    /**
+     * @param name
+     *            one of REDUCE_ALGORITHMS
+     */
+    public void setReduceAlgorithm(String name) {
+	for (String known : REDUCE_ALGORITHMS) {
+	    if (known.equals(name)) {
+		reduceAlgorithm = known;
+		return;
+	    }
+	}
+	throw new IllegalArgumentException("unknown reduce algorithm: " + name);
+    }
+
+    public String getReduceAlgorithm() {
+	return reduceAlgorithm;
+    }
+
+    /**
+     * @return payload bytes this rank has sent so far, message headers not
+     *         included; a native MPI collective counts the buffer this rank
+     *         hands to it, as the library's own traffic is not visible
+     */
+    public long bytesSent() {
+	return bytesSent;
+    }
+
+    /**
+     * add len elements of buf to the bytes sent, transports call this for
+     * every message
+     */
+    protected void countSent(Object buf, int len) {
+	bytesSent += (long) len * (buf instanceof int[] ? 4 : 8);
+    }
+
+    /**
+     * run body on every rank of the transport chosen with -comm:
+     * "mpi" (default) uses mpiJava and must be started with the MPI launcher,
+     * "local" runs -np ranks as threads of this JVM, "tcp" connects -np JVMs
+     * started separately with -rank, over ports -port + rank on the hosts
+     * listed in -hosts (comma separated, default localhost); -reduce selects
+     * the collective algorithm, see setReduceAlgorithm
+     * 
+     * @param opts
+     *            parsed command line
+     * @param args
+     *            raw command line, handed to MPI.Init
+     * @param body
+     *            per-rank work
+     */
+    public static void launch(Options opts, String[] args, final RankBody body)
+	    throws IOException {
+	final String algorithm = opts.getString("reduce", "native");
+	RankBody configured = new RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(algorithm);
+		body.run(comm);
+	    }
+	};
+	String transport = opts.getString("comm", "mpi");
+	int np = opts.getInt("np", Runtime.getRuntime().availableProcessors());
+	if (transport.equals("mpi")) {
+	    launchMpi(args, configured);
+	} else if (transport.equals("local")) {
+	    LocalCommunicator.launch(np, configured);
+	} else if (transport.equals("tcp")) {
+	    TcpCommunicator comm = new TcpCommunicator(opts.getInt("rank", 0), np,
+		    opts.getString("hosts", "localhost").split(","),
+		    opts.getInt("port", TcpCommunicator.DEFAULT_PORT));
+	    try {
+		configured.run(comm);
+	    } finally {
+		comm.close();
+	    }
+	} else {
+	    throw new IllegalArgumentException("unknown transport: " + transport);
+	}
+    }
+
+    /**
+     * MpiCommunicator.launch, looked up by name so that the other transports
+     * build and run without the MPI bindings (make classes)
+     */
+    private static void launchMpi(String[] args, RankBody body)
+	    throws IOException {
+	Method launch;
+	try {
+	    launch = Class.forName("MpiCommunicator").getMethod("launch",
+		    String[].class, RankBody.class);
+	} catch (ReflectiveOperationException e) {
+	    throw new IOException("MPI transport not built, use -comm local or tcp", e);
+	} catch (LinkageError e) {
+	    throw new IOException("MPI transport not built, use -comm local or tcp", e);
+	}
+	try {
+	    launch.invoke(null, args, body);
+	} catch (InvocationTargetException e) {
+	    Throwable cause = e.getCause();
+	    if (cause instanceof IOException)
+		throw (IOException) cause;
+	    if (cause instanceof RuntimeException)
+		throw (RuntimeException) cause;
+	    if (cause instanceof Error)
+		throw (Error) cause;
+	    throw new IOException(cause);
+	} catch (IllegalAccessException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    /* ------------------------- point-to-point ------------------------- */
+
+    public void send(double[] buf, int off, int len, int dest) throws IOException {
+	sendArray(buf, off, len, dest);
+    }
+
+    public void send(int[] buf, int off, int len, int dest) throws IOException {
+	sendArray(buf, off, len, dest);
+    }
+
+    public void send(long[] buf, int off, int len, int dest) throws IOException {
+	sendArray(buf, off, len, dest);
+    }
+
+    public void recv(double[] buf, int off, int len, int src) throws IOException {
+	recvArray(buf, off, len, src);
+    }
+
+    public void recv(int[] buf, int off, int len, int src) throws IOException {
+	recvArray(buf, off, len, src);
+    }
+
+    public void recv(long[] buf, int off, int len, int src) throws IOException {
+	recvArray(buf, off, len, src);
+    }
+
+    /* --------------------------- collectives -------------------------- */
+
+    public void bcast(double[] buf, int off, int len, int root) throws IOException {
+	bcastArray(buf, off, len, root);
+    }
+
+    public void bcast(int[] buf, int off, int len, int root) throws IOException {
+	bcastArray(buf, off, len, root);
+    }
+
+    public void bcast(long[] buf, int off, int len, int root) throws IOException {
+	bcastArray(buf, off, len, root);
+    }
+
+    /**
+     * sum buf element-wise over all ranks, the result replaces buf on root
+     */
+    public void reduceSum(double[] buf, int off, int len, int root) throws IOException {
+	reduceArray(buf, off, len, root);
+    }
+
+    public void reduceSum(int[] buf, int off, int len, int root) throws IOException {
+	reduceArray(buf, off, len, root);
+    }
+
+    public void reduceSum(long[] buf, int off, int len, int root) throws IOException {
+	reduceArray(buf, off, len, root);
+    }
+
+    /**
+     * sum buf element-wise over all ranks, the result replaces buf everywhere
+     */
+    public void allreduceSum(double[] buf, int off, int len) throws IOException {
+	allreduceArray(buf, off, len);
+    }
+
+    public void allreduceSum(int[] buf, int off, int len) throws IOException {
+	allreduceArray(buf, off, len);
+    }
+
+    public void allreduceSum(long[] buf, int off, int len) throws IOException {
+	allreduceArray(buf, off, len);
+    }
+
+    public void barrier() throws IOException {
+	allreduceArray(new int[1], 0, 1);
+    }
+
+    protected void bcastArray(Object buf, int off, int len, int root)
+	    throws IOException {
+	if (reduceAlgorithm.equals("linear"))
+	    linearBcast(buf, off, len, root);
+	else
+	    treeBcast(buf, off, len, root);
+    }
+
+    protected void reduceArray(Object buf, int off, int len, int root)
+	    throws IOException {
+	if (reduceAlgorithm.equals("linear"))
+	    linearReduce(buf, off, len, root);
+	else if (reduceAlgorithm.equals("ring"))
+	    ringReduce(buf, off, len, root);
+	else
+	    treeReduce(buf, off, len, root);
+    }
+
+    protected void allreduceArray(Object buf, int off, int len)
+	    throws IOException {
+	if (reduceAlgorithm.equals("ring")) {
+	    ringAllreduce(buf, off, len);
+	} else {
+	    reduceArray(buf, off, len, 0);
+	    bcastArray(buf, off, len, 0);
+	}
+    }
+
+    /* ---------------------------- algorithms -------------------------- */
+
+    protected void linearBcast(Object buf, int off, int len, int root)
+	    throws IOException {
+	if (rank() == root) {
+	    for (int i = 0; i < size(); i++)
+		if (i != root)
+		    sendArray(buf, off, len, i);
+	} else {
+	    recvArray(buf, off, len, root);
+	}
+    }
+
+    protected void linearReduce(Object buf, int off, int len, int root)
+	    throws IOException {
+	if (rank() == root) {
+	    Object tmp = newArray(buf, len);
+	    for (int i = 0; i < size(); i++) {
+		if (i == root)
+		    continue;
+		recvArray(tmp, 0, len, i);
+		addInto(buf, off, tmp, 0, len);
+	    }
+	} else {
+	    sendArray(buf, off, len, root);
+	}
+    }
+
+    /**
+     * binomial tree broadcast: in step m the ranks that already hold the
+     * buffer (relative rank below 2^m) send it to relative rank + 2^m
+     */
+    protected void treeBcast(Object buf, int off, int len, int root)
+	    throws IOException {
+	int size = size();
+	int vrank = (rank() - root + size) % size;
+	int mask = 1;
+	while (mask < size) {
+	    if ((vrank & mask) != 0) {
+		recvArray(buf, off, len, (vrank - mask + root) % size);
+		break;
+	    }
+	    mask <<= 1;
+	}
+	mask >>= 1;
+	while (mask > 0) {
+	    if (vrank + mask < size)
+		sendArray(buf, off, len, (vrank + mask + root) % size);
+	    mask >>= 1;
+	}
+    }
+
+    /**
+     * binomial tree reduction, the mirror image of treeBcast: every rank adds
+     * the partial sums of its children and passes the result to its parent
+     */
+    protected void treeReduce(Object buf, int off, int len, int root)
+	    throws IOException {
+	int size = size();
+	int vrank = (rank() - root + size) % size;
+	Object tmp = null;
+	for (int mask = 1; mask < size; mask <<= 1) {
+	    if ((vrank & mask) != 0) {
+		sendArray(buf, off, len, (vrank - mask + root) % size);
+		return;
+	    }
+	    if (vrank + mask < size) {
+		if (tmp == null)
+		    tmp = newArray(buf, len);
+		recvArray(tmp, 0, len, (vrank + mask + root) % size);
+		addInto(buf, off, tmp, 0, len);
+	    }
+	}
+    }
+
+    /**
+     * first element of segment seg when len elements are split into size
+     * nearly equal segments
+     */
+    static int segmentStart(int len, int size, int seg) {
+	return (int) ((long) len * seg / size);
+    }
+
+    /**
+     * ring reduce-scatter: after size - 1 steps, each passing one segment to
+     * the right neighbour, rank r holds the full sum of segment (r + 1) % size
+     */
+    protected void ringReduceScatter(Object buf, int off, int len)
+	    throws IOException {
+	int size = size();
+	int rank = rank();
+	int right = (rank + 1) % size;
+	int left = (rank - 1 + size) % size;
+	Object tmp = newArray(buf, segmentStart(len, size, 1) + 1);
+	for (int step = 0; step < size - 1; step++) {
+	    int sendSeg = (rank - step + size) % size;
+	    int recvSeg = (rank - step - 1 + size) % size;
+	    int sStart = segmentStart(len, size, sendSeg);
+	    int sLen = segmentStart(len, size, sendSeg + 1) - sStart;
+	    int rStart = segmentStart(len, size, recvSeg);
+	    int rLen = segmentStart(len, size, recvSeg + 1) - rStart;
+	    sendRecvArray(buf, off + sStart, sLen, right, tmp, 0, rLen, left);
+	    addInto(buf, off + rStart, tmp, 0, rLen);
+	}
+    }
+
+    protected void ringAllreduce(Object buf, int off, int len)
+	    throws IOException {
+	int size = size();
+	if (size == 1)
+	    return;
+	ringReduceScatter(buf, off, len);
+	// allgather: pass the completed segments once around the ring
+	int rank = rank();
+	int right = (rank + 1) % size;
+	int left = (rank - 1 + size) % size;
+	for (int step = 0; step < size - 1; step++) {
+	    int sendSeg = (rank + 1 - step + size) % size;
+	    int recvSeg = (rank - step + size) % size;
+	    int sStart = segmentStart(len, size, sendSeg);
+	    int sLen = segmentStart(len, size, sendSeg + 1) - sStart;
+	    int rStart = segmentStart(len, size, recvSeg);
+	    int rLen = segmentStart(len, size, recvSeg + 1) - rStart;
+	    sendRecvArray(buf, off + sStart, sLen, right, buf, off + rStart,
+		    rLen, left);
+	}
+    }
+
+    /**
+     * ring reduce-scatter, then every rank sends its completed segment to the
+     * root
+     */
+    protected void ringReduce(Object buf, int off, int len, int root)
+	    throws IOException {
+	int size = size();
+	if (size == 1)
+	    return;
+	ringReduceScatter(buf, off, len);
+	int rank = rank();
+	if (rank == root) {
+	    for (int r = 0; r < size; r++) {
+		if (r == root)
+		    continue;
+		int seg = (r + 1) % size;
+		int start = segmentStart(len, size, seg);
+		recvArray(buf, off + start, segmentStart(len, size, seg + 1)
+			- start, r);
+	    }
+	} else {
+	    int seg = (rank + 1) % size;
+	    int start = segmentStart(len, size, seg);
+	    sendArray(buf, off + start, segmentStart(len, size, seg + 1) - start,
+		    root);
+	}
+    }
+
+    /* ----------------------------- helpers ---------------------------- */
+
+    /**
+     * @return a new array of the same type as like with len elements
+     */
+    protected static Object newArray(Object like, int len) {
+	if (like instanceof double[])
+	    return new double[len];
+	else if (like instanceof int[])
+	    return new int[len];
+	else if (like instanceof long[])
+	    return new long[len];
+	throw new IllegalArgumentException("unsupported buffer "
+		+ like.getClass().getName());
+    }
+
+    /**
+     * dst[dOff + i] += src[sOff + i] for arrays of the same type
+     */
+    protected static void addInto(Object dst, int dOff, Object src, int sOff,
+	    int len) {
+	if (dst instanceof double[]) {
+	    double[] d = (double[]) dst;
+	    double[] s = (double[]) src;
+	    for (int i = 0; i < len; i++)
+		d[dOff + i] += s[sOff + i];
+	} else if (dst instanceof int[]) {
+	    int[] d = (int[]) dst;
+	    int[] s = (int[]) src;
+	    for (int i = 0; i < len; i++)
+		d[dOff + i] += s[sOff + i];
+	} else if (dst instanceof long[]) {
+	    long[] d = (long[]) dst;
+	    long[] s = (long[]) src;
+	    for (int i = 0; i < len; i++)
+		d[dOff + i] += s[sOff + i];
+	} else {
+	    throw new IllegalArgumentException("unsupported buffer "
+		    + dst.getClass().getName());
+	}
+    }
+}
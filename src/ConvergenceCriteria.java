@@ -0,0 +1,132 @@
+/**
+ * Rules for stopping the k-means iterations. After every iteration the
+ * drivers report the number of points that changed group, the SSE (for DNA
+ * the sum of base mismatches) and the mean centroid shift, and the rules are
+ * checked in this order:
+ * 
+ * <ul>
+ * <li>no point changed group: the new centroids equal the old ones, so the
+ * run stops without another pass over the data</li>
+ * <li>the fraction of reassigned points is at most reassignFraction</li>
+ * <li>the SSE dropped by less than sseTolerance relative to the previous
+ * iteration</li>
+ * <li>the mean centroid shift is below maxShift</li>
+ * <li>the iterations ran for budgetMillis</li>
+ * <li>maxIterations iterations ran</li>
+ * </ul>
+ * 
+ * A rule with a value of 0 is off. The parallel drivers feed the criteria
+ * the counters reduced over all ranks, so every rank takes the same decision.
+ */
+public class ConvergenceCriteria {
+
+    /** stop when the mean centroid shift is below this */
+    public double maxShift;
+    /** stop when at most this fraction of the points changed group */
+    public double reassignFraction = 0;
+    /** stop when the SSE improved by less than this fraction */
+    public double sseTolerance = 0;
+    /** stop after the iterations ran this long (ms) */
+    public long budgetMillis = 0;
+    /** stop after this many iterations */
+    public int maxIterations;
+    /** command line options read by parse() */
+    public static final String USAGE = "[-shift d] [-reassign fraction] [-ssetol fraction] [-budget ms] [-maxiter n]";
+    private double prevSse = Double.NaN;
+    /** why done() last returned true */
+    protected String reason;
+
+    /**
+     * @param maxShift
+     *            default centroid shift threshold of the driver
+     * @param maxIterations
+     *            default iteration limit of the driver
+     */
+    public ConvergenceCriteria(double maxShift, int maxIterations) {
+	this.maxShift = maxShift;
+	this.maxIterations = maxIterations;
+    }
+
+    /**
+     * read "-shift d", "-reassign fraction", "-ssetol fraction", "-budget ms"
+     * and "-maxiter n" from the command line
+     * 
+     * @param opts
+     *            parsed command line
+     * @param maxShift
+     *            default centroid shift threshold
+     * @param maxIterations
+     *            default iteration limit
+     * @return the criteria
+     */
+    public static ConvergenceCriteria parse(Options opts, double maxShift,
+	    int maxIterations) {
+	ConvergenceCriteria c = new ConvergenceCriteria(opts.getDouble("shift",
+		maxShift), opts.getInt("maxiter", maxIterations));
+	c.reassignFraction = opts.getDouble("reassign", 0);
+	c.sseTolerance = opts.getDouble("ssetol", 0);
+	c.budgetMillis = opts.getLong("budget", 0);
+	return c;
+    }
+
+    /**
+     * @return true if the SSE rule is on, so the drivers have to compute it
+     */
+    public boolean wantsSse() {
+	return sseTolerance > 0;
+    }
+
+    /**
+     * forget the SSE of a previous run
+     */
+    public void reset() {
+	prevSse = Double.NaN;
+	reason = null;
+    }
+
+    /**
+     * check the rules after an iteration
+     * 
+     * @param iteration
+     *            number of iterations run so far, starting at 1
+     * @param reassigned
+     *            points that changed group in this iteration, all of them in
+     *            the first
+     * @param points
+     *            number of points
+     * @param sse
+     *            SSE of this iteration, NaN if it was not computed
+     * @param shift
+     *            mean distance between the old and the new centroids
+     * @param elapsedMillis
+     *            time since the first iteration started
+     * @return true if the iterations should stop, reason() tells why
+     */
+    public boolean done(int iteration, long reassigned, long points,
+	    double sse, double shift, long elapsedMillis) {
+	double improvement = (prevSse - sse) / prevSse;
+	prevSse = sse;
+	if (reassigned == 0)
+	    reason = "no point changed group";
+	else if (reassigned <= reassignFraction * points)
+	    reason = "reassigned " + reassigned + " of " + points + " points";
+	else if (sseTolerance > 0 && improvement < sseTolerance)
+	    reason = "SSE improved by " + improvement;
+	else if (shift < maxShift)
+	    reason = "centroid shift " + shift;
+	else if (budgetMillis > 0 && elapsedMillis >= budgetMillis)
+	    reason = "time budget of " + budgetMillis + "(ms) used";
+	else if (iteration >= maxIterations)
+	    reason = "reached " + maxIterations + " iterations";
+	else
+	    return false;
+	return true;
+    }
+
+    /**
+     * @return why done() returned true, null if it did not
+     */
+    public String reason() {
+	return reason;
+    }
+}
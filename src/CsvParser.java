@@ -0,0 +1,466 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses CSV input straight from mapped file bytes into the arrays of the
+ * dataset, without a String per line or per field.
+ * 
+ * The byte range is split into chunks that are parsed in parallel. As in
+ * FileSlice, a line belongs to the chunk that holds its first byte. A first
+ * parallel pass counts the lines of every chunk, which fixes where each
+ * chunk's rows go; a second pass parses every chunk directly into its rows of
+ * the result.
+ * 
+ * Numbers with at most 18 significant digits and a decimal exponent within
+ * +-22 are converted exactly with one multiplication or division by a power
+ * of ten; anything else (longer mantissas, large exponents, NaN, Infinity)
+ * falls back to Double.parseDouble on that field, so the results are the
+ * same as the line based parser.
+ */
+public class CsvParser {
+
+    /** largest chunk, so that a chunk and its last line fit one mapping */
+    static final long MAX_CHUNK_BYTES = 1L << 28;
+
+    /** bytes mapped past the end of a chunk for its last line at first */
+    static final long TAIL_BYTES = 1L << 20;
+
+    /** exactly representable powers of ten */
+    private static final double[] POW10 = new double[23];
+    static {
+	POW10[0] = 1;
+	for (int i = 1; i < POW10.length; i++)
+	    POW10[i] = POW10[i - 1] * 10;
+    }
+
+    /** 2-bit code of every byte, see DNAPoint.baseToIdx */
+    private static final byte[] BASE_CODE = new byte[256];
+    static {
+	for (int c = 0; c < 256; c++)
+	    BASE_CODE[c] = (byte) DNAPoint.baseToIdx((char) c);
+    }
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long from;
+    private final long to;
+    private final int numChunks;
+    private final ParallelRunner runner;
+    /** mapped bytes of every chunk, from the byte before its start */
+    private final ByteBuffer[] maps;
+    /** position in maps[c] of the first line that begins in chunk c */
+    private final int[] firstLine;
+    /** position in maps[c] where the lines of chunk c stop beginning */
+    private final int[] lineLimit;
+    /** non-empty lines beginning in every chunk */
+    private final int[] lines;
+    /** fields of the first non-empty line of every chunk, 0 if none */
+    private final int[] firstFields;
+    private final Throwable[] failure;
+
+    private CsvParser(String fnName, long from, long to, int numThreads)
+	    throws IOException {
+	channel = new RandomAccessFile(fnName, "r").getChannel();
+	fileSize = channel.size();
+	this.from = from;
+	this.to = Math.min(to, fileSize);
+	long bytes = Math.max(0, this.to - from);
+	numChunks = (int) Math.max(ParallelRunner.chunkCount((int) Math.min(
+		bytes / 1024, Integer.MAX_VALUE)), (bytes + MAX_CHUNK_BYTES - 1)
+		/ MAX_CHUNK_BYTES);
+	runner = new ParallelRunner(numThreads);
+	maps = new ByteBuffer[numChunks];
+	firstLine = new int[numChunks];
+	lineLimit = new int[numChunks];
+	lines = new int[numChunks];
+	firstFields = new int[numChunks];
+	failure = new Throwable[numChunks];
+    }
+
+    /**
+     * parse the numeric CSV lines that begin in [from, to) of a file
+     * 
+     * @param fnName
+     *            file name
+     * @param from
+     *            first byte of the range
+     * @param to
+     *            end of the range (exclusive)
+     * @param numThreads
+     *            number of threads parsing chunks
+     * @return the points, dimension 0 if the range holds no line
+     */
+    public static PointStore parsePoints(String fnName, long from, long to,
+	    int numThreads) throws IOException {
+	final CsvParser parser = new CsvParser(fnName, from, to, numThreads);
+	try {
+	    parser.countLines();
+	    final int[] rowStart = new int[parser.numChunks + 1];
+	    long lines = 0;
+	    int dimension = 0;
+	    for (int c = 0; c < parser.numChunks; c++) {
+		lines += parser.lines[c];
+		if (dimension == 0)
+		    dimension = parser.firstFields[c];
+	    }
+	    final int dim = dimension;
+	    final double[] coords = new double[PointStore.length(lines, dim)];
+	    for (int c = 0; c < parser.numChunks; c++)
+		rowStart[c + 1] = rowStart[c] + parser.lines[c];
+	    parser.forEachChunk(new ParallelRunner.ChunkBody() {
+		public void run(int chunk, int start, int end) {
+		    parser.parseDoubles(chunk, coords, rowStart[chunk] * dim, dim);
+		}
+	    });
+	    return new PointStore(coords, rowStart[parser.numChunks], dim);
+	} finally {
+	    parser.close();
+	}
+    }
+
+    /**
+     * parse the DNA CSV lines that begin in [from, to) of a file, using the
+     * first character of every field as DNAPoint.parse does
+     * 
+     * @param fnName
+     *            file name
+     * @param from
+     *            first byte of the range
+     * @param to
+     *            end of the range (exclusive)
+     * @param numThreads
+     *            number of threads parsing chunks
+     * @return the sequences
+     */
+    public static DNAPoint[] parseDNA(String fnName, long from, long to,
+	    int numThreads) throws IOException {
+	final CsvParser parser = new CsvParser(fnName, from, to, numThreads);
+	try {
+	    parser.countLines();
+	    final int[] rowStart = new int[parser.numChunks + 1];
+	    for (int c = 0; c < parser.numChunks; c++)
+		rowStart[c + 1] = rowStart[c] + parser.lines[c];
+	    final DNAPoint[] points = new DNAPoint[rowStart[parser.numChunks]];
+	    parser.forEachChunk(new ParallelRunner.ChunkBody() {
+		public void run(int chunk, int start, int end) {
+		    parser.parseBases(chunk, points, rowStart[chunk]);
+		}
+	    });
+	    return points;
+	} finally {
+	    parser.close();
+	}
+    }
+
+    /**
+     * map every chunk, find where its lines begin and count them
+     */
+    private void countLines() throws IOException {
+	forEachChunk(new ParallelRunner.ChunkBody() {
+	    public void run(int chunk, int start, int end) {
+		try {
+		    mapChunk(chunk);
+		} catch (IOException e) {
+		    failure[chunk] = e;
+		    return;
+		}
+		ByteBuffer buf = maps[chunk];
+		int p = firstLine[chunk];
+		int count = 0;
+		while (p < lineLimit[chunk]) {
+		    int eol = lineEnd(buf, p);
+		    int lineStop = trimLine(buf, p, eol);
+		    if (lineStop > p) {
+			if (count++ == 0)
+			    firstFields[chunk] = countFields(buf, p, lineStop);
+		    }
+		    p = eol + 1;
+		}
+		lines[chunk] = count;
+	    }
+	});
+    }
+
+    private void mapChunk(int chunk) throws IOException {
+	long bytes = to - from;
+	long start = from + bytes * chunk / numChunks;
+	long end = from + bytes * (chunk + 1) / numChunks;
+	// map from the byte before the chunk, to tell whether a line starts
+	// right at the chunk start, to a bounded tail past the chunk end that
+	// holds the rest of its last line; a longer last line maps again with
+	// twice the tail
+	long base = Math.max(0, start - 1);
+	long tail = TAIL_BYTES;
+	MappedByteBuffer buf;
+	while (true) {
+	    long len = Math.min(Math.min(fileSize, end + tail) - base,
+		    Integer.MAX_VALUE);
+	    buf = channel.map(FileChannel.MapMode.READ_ONLY, base, len);
+	    if (base + len == fileSize || len == Integer.MAX_VALUE
+		    || lineEnd(buf, (int) Math.max(0, end - 1 - base)) < len)
+		break;
+	    tail *= 2;
+	}
+	int p = (int) (start - base);
+	if (start > 0 && buf.get(0) != '\n')
+	    p = Math.min(lineEnd(buf, p) + 1, buf.limit());
+	maps[chunk] = buf;
+	firstLine[chunk] = p;
+	lineLimit[chunk] = (int) (end - base);
+    }
+
+    private void parseDoubles(int chunk, double[] coords, int off, int dim) {
+	ByteBuffer buf = maps[chunk];
+	int p = firstLine[chunk];
+	int[] pos = new int[1];
+	while (p < lineLimit[chunk]) {
+	    int eol = lineEnd(buf, p);
+	    int end = trimLine(buf, p, eol);
+	    if (end > p) {
+		pos[0] = p;
+		for (int j = 0; j < dim; j++) {
+		    if (pos[0] > end) {
+			fail(chunk, "has " + j + " values, expected " + dim, buf, p, end);
+			return;
+		    }
+		    coords[off++] = parseDouble(buf, pos, end);
+		}
+		if (pos[0] <= end) {
+		    fail(chunk, "has more than " + dim + " values", buf, p, end);
+		    return;
+		}
+	    }
+	    p = eol + 1;
+	}
+    }
+
+    private void parseBases(int chunk, DNAPoint[] points, int off) {
+	ByteBuffer buf = maps[chunk];
+	int p = firstLine[chunk];
+	while (p < lineLimit[chunk]) {
+	    int eol = lineEnd(buf, p);
+	    int end = trimLine(buf, p, eol);
+	    if (end > p)
+		points[off++] = decodeBases(buf, p, end);
+	    p = eol + 1;
+	}
+    }
+
+    /**
+     * @return the sequence of the line in [p, end)
+     */
+    static DNAPoint decodeBases(ByteBuffer buf, int p, int end) {
+	DNAPoint dp = new DNAPoint(countFields(buf, p, end));
+	int base = 0;
+	boolean fieldStart = true;
+	for (int i = p; i < end; i++) {
+	    int c = buf.get(i) & 0xff;
+	    if (c == ',') {
+		if (fieldStart) // empty field
+		    setBase(dp, base++, DNAPoint.UNKNOWN);
+		fieldStart = true;
+	    } else if (fieldStart) {
+		setBase(dp, base++, BASE_CODE[c]);
+		fieldStart = false;
+	    }
+	}
+	if (fieldStart)
+	    setBase(dp, base, DNAPoint.UNKNOWN);
+	return dp;
+    }
+
+    /**
+     * DNAPoint.setBase for a freshly allocated sequence, whose bits are all
+     * clear
+     */
+    private static void setBase(DNAPoint dp, int p, int code) {
+	int w = p >>> 5;
+	int shift = (p & 31) << 1;
+	if (code == DNAPoint.UNKNOWN) {
+	    if (dp.unknown == null)
+		dp.unknown = new long[dp.data.length];
+	    dp.unknown[w] |= 1L << shift;
+	} else {
+	    dp.data[w] |= (long) code << shift;
+	}
+    }
+
+    /**
+     * parse the field starting at pos[0] and move pos[0] past the comma that
+     * ends it (end + 1 for the last field of the line)
+     */
+    static double parseDouble(ByteBuffer buf, int[] pos, int end) {
+	int start = pos[0];
+	int p = start;
+	while (p < end && isBlank(buf.get(p)))
+	    p++;
+	boolean negative = false;
+	if (p < end && (buf.get(p) == '-' || buf.get(p) == '+'))
+	    negative = buf.get(p++) == '-';
+	long mantissa = 0;
+	int digits = 0;
+	int exp10 = 0;
+	boolean exact = true;
+	boolean any = false;
+	byte b = 0;
+	while (p < end && (b = buf.get(p)) >= '0' && b <= '9') {
+	    any = true;
+	    if (digits < 18) {
+		mantissa = mantissa * 10 + (b - '0');
+		if (mantissa != 0)
+		    digits++;
+	    } else {
+		exp10++;
+		exact &= b == '0';
+	    }
+	    p++;
+	}
+	if (p < end && buf.get(p) == '.') {
+	    p++;
+	    while (p < end && (b = buf.get(p)) >= '0' && b <= '9') {
+		any = true;
+		if (digits < 18) {
+		    mantissa = mantissa * 10 + (b - '0');
+		    if (mantissa != 0)
+			digits++;
+		    exp10--;
+		} else {
+		    exact &= b == '0';
+		}
+		p++;
+	    }
+	}
+	if (any && p < end && ((b = buf.get(p)) == 'e' || b == 'E')) {
+	    p++;
+	    boolean expNegative = false;
+	    if (p < end && (buf.get(p) == '-' || buf.get(p) == '+'))
+		expNegative = buf.get(p++) == '-';
+	    int exp = 0;
+	    boolean expAny = false;
+	    while (p < end && (b = buf.get(p)) >= '0' && b <= '9') {
+		expAny = true;
+		if (exp < 100000)
+		    exp = exp * 10 + (b - '0');
+		p++;
+	    }
+	    any = expAny;
+	    exp10 += expNegative ? -exp : exp;
+	}
+	while (p < end && isBlank(buf.get(p)))
+	    p++;
+	if (any && (p == end || buf.get(p) == ',')) {
+	    pos[0] = p + 1;
+	    double v;
+	    if (mantissa == 0)
+		v = 0;
+	    else if (exact && mantissa < (1L << 53) && exp10 >= -22
+		    && exp10 <= 22)
+		v = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa
+			* POW10[exp10];
+	    else
+		return slowParse(buf, start, p);
+	    return negative ? -v : v;
+	}
+	// not a plain decimal number, let Double.parseDouble decide
+	int fieldEnd = p;
+	while (fieldEnd < end && buf.get(fieldEnd) != ',')
+	    fieldEnd++;
+	pos[0] = fieldEnd + 1;
+	return slowParse(buf, start, fieldEnd);
+    }
+
+    private static double slowParse(ByteBuffer buf, int start, int end) {
+	byte[] field = new byte[end - start];
+	for (int i = 0; i < field.length; i++)
+	    field[i] = buf.get(start + i);
+	return Double.parseDouble(new String(field, StandardCharsets.ISO_8859_1));
+    }
+
+    private static boolean isBlank(byte b) {
+	return b == ' ' || b == '\t';
+    }
+
+    /**
+     * @return position of the '\n' ending the line that starts at p, or the
+     *         end of the buffer
+     */
+    static int lineEnd(ByteBuffer buf, int p) {
+	int limit = buf.limit();
+	while (p < limit && buf.get(p) != '\n')
+	    p++;
+	return p;
+    }
+
+    private static int trimCR(ByteBuffer buf, int p, int eol) {
+	return eol > p && buf.get(eol - 1) == '\r' ? eol - 1 : eol;
+    }
+
+    /**
+     * @return end of the fields of the line [p, eol), without a trailing '\r'
+     *         and without trailing empty fields, which String.split(",")
+     *         dropped as well
+     */
+    private static int trimLine(ByteBuffer buf, int p, int eol) {
+	return trimFields(buf, p, trimCR(buf, p, eol));
+    }
+
+    /**
+     * @return end of the fields in [p, end) without the trailing commas
+     */
+    static int trimFields(ByteBuffer buf, int p, int end) {
+	while (end > p && buf.get(end - 1) == ',')
+	    end--;
+	return end;
+    }
+
+    static int countFields(ByteBuffer buf, int p, int end) {
+	int fields = 1;
+	for (int i = p; i < end; i++)
+	    if (buf.get(i) == ',')
+		fields++;
+	return fields;
+    }
+
+    private void fail(int chunk, String what, ByteBuffer buf, int p, int end) {
+	failure[chunk] = new IOException("line " + describe(buf, p, end) + " "
+		+ what);
+    }
+
+    private static String describe(ByteBuffer buf, int p, int end) {
+	StringBuilder sb = new StringBuilder("\"");
+	for (int i = p; i < Math.min(end, p + 60); i++)
+	    sb.append((char) (buf.get(i) & 0xff));
+	return sb.append(end > p + 60 ? "...\"" : "\"").toString();
+    }
+
+    /**
+     * run body once per chunk and rethrow the first failure
+     */
+    private void forEachChunk(final ParallelRunner.ChunkBody body)
+	    throws IOException {
+	runner.forEachChunk(numChunks, numChunks, new ParallelRunner.ChunkBody() {
+	    public void run(int chunk, int start, int end) {
+		try {
+		    body.run(chunk, start, end);
+		} catch (RuntimeException e) {
+		    failure[chunk] = e;
+		}
+	    }
+	});
+	for (int c = 0; c < numChunks; c++) {
+	    if (failure[c] instanceof IOException)
+		throw (IOException) failure[c];
+	    else if (failure[c] instanceof RuntimeException)
+		throw (RuntimeException) failure[c];
+	}
+    }
+
+    private void close() throws IOException {
+	runner.shutdown();
+	channel.close();
+    }
+}
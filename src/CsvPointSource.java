@@ -0,0 +1,157 @@
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Points of the lines of a CSV file that begin in a byte range (the rule of
+ * FileSlice), read one buffered line at a time and parsed in place with
+ * CsvParser's number parser. Samples are drawn by seeking to random byte
+ * offsets and taking the line that begins after each, so a line is drawn
+ * with a probability proportional to the length of the line before it:
+ * uniform for lines of about equal length, which the points of one file
+ * usually are.
+ */
+public class CsvPointSource extends PointSource {
+
+    private final String fnName;
+    private final long from;
+    private final long to;
+    private FileInputStream file;
+    private InputStream in;
+    /** byte position of the next unread byte */
+    private long pos;
+    private byte[] line = new byte[256];
+    private ByteBuffer lineBuf = ByteBuffer.wrap(line);
+    private int lineLen;
+    /** a line was read ahead (to find the dimension) and not returned yet */
+    private boolean pending;
+    private final int[] cursor = new int[1];
+    /** read-ahead of a sampled line, a page */
+    private static final int SAMPLE_BUFFER = 4096;
+
+    public CsvPointSource(String fnName, long from, long to) throws IOException {
+	this.fnName = fnName;
+	this.from = from;
+	this.to = to;
+	rewind();
+	if (pending = nextLine())
+	    dimension = CsvParser.countFields(lineBuf, 0, lineLen);
+    }
+
+    public int read(double[] buf, int row, int maxRows) throws IOException {
+	int n = 0;
+	while (n < maxRows && (pending || nextLine())) {
+	    pending = false;
+	    parseLine(buf, (row + n) * dimension);
+	    n++;
+	}
+	return n;
+    }
+
+    /**
+     * draw lines at random offsets of the slice, with replacement; an offset
+     * after the start of the last line wraps around to the first
+     */
+    public int sample(double[] buf, int rows, Random rand) throws IOException {
+	if (dimension == 0)
+	    return 0;
+	for (int i = 0; i < rows; i++) {
+	    seek(from + (long) (rand.nextDouble() * (to - from)), SAMPLE_BUFFER);
+	    if (!nextLine()) {
+		seek(from, SAMPLE_BUFFER);
+		nextLine();
+	    }
+	    parseLine(buf, i * dimension);
+	}
+	rewind();
+	return rows;
+    }
+
+    /**
+     * parse the line read into buf at off
+     */
+    private void parseLine(double[] buf, int off) throws IOException {
+	cursor[0] = 0;
+	for (int j = 0; j < dimension; j++) {
+	    if (cursor[0] > lineLen)
+		throw new IOException(fnName + ": line has " + j
+			+ " values, expected " + dimension);
+	    buf[off + j] = CsvParser.parseDouble(lineBuf, cursor, lineLen);
+	}
+	if (cursor[0] <= lineLen)
+	    throw new IOException(fnName + ": line has more than " + dimension
+		    + " values");
+    }
+
+    public void rewind() throws IOException {
+	seek(from, 1 << 16);
+    }
+
+    /**
+     * position the stream at the first line that begins at or after offset
+     * 
+     * @param offset
+     *            byte position in the file
+     * @param bufferSize
+     *            bytes read ahead, small for the single lines of a sample
+     */
+    private void seek(long offset, int bufferSize) throws IOException {
+	if (file == null)
+	    file = new FileInputStream(fnName);
+	pos = Math.max(0, offset - 1);
+	file.getChannel().position(pos);
+	in = new BufferedInputStream(file, bufferSize);
+	// a line starts at offset only if the byte before it ends a line
+	if (offset > 0) {
+	    int c;
+	    while ((c = in.read()) != -1) {
+		pos++;
+		if (c == '\n')
+		    break;
+	    }
+	}
+	pending = false;
+    }
+
+    /**
+     * read the next non-empty line beginning before 'to' into line
+     * 
+     * @return false at the end of the slice
+     */
+    private boolean nextLine() throws IOException {
+	while (pos < to) {
+	    int len = 0;
+	    int c;
+	    while ((c = in.read()) != -1 && c != '\n') {
+		if (len == line.length) {
+		    line = Arrays.copyOf(line, len * 2);
+		    lineBuf = ByteBuffer.wrap(line);
+		}
+		line[len++] = (byte) c;
+	    }
+	    if (c == -1 && len == 0)
+		return false;
+	    pos += len + (c == -1 ? 0 : 1);
+	    if (len > 0 && line[len - 1] == '\r')
+		len--;
+	    len = CsvParser.trimFields(lineBuf, 0, len);
+	    if (len > 0) {
+		lineLen = len;
+		return true;
+	    }
+	    if (c == -1)
+		return false;
+	}
+	return false;
+    }
+
+    public void close() throws IOException {
+	if (file != null)
+	    file.close();
+	file = null;
+    }
+}
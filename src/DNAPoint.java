@@ -2,17 +2,189 @@ import java.io.Serializable;
 
 
 
+/**
+ * A DNA sequence packed 2 bits per base, 32 bases per long. Base p lives in
+ * word p / 32 at bits 2 * (p % 32). The codes follow baseToIdx: A=0, T=1, C=2,
+ * G=3. Any other symbol (N) is stored as code 0 with its bit set in the
+ * optional unknown mask, and counts as a mismatch against every base,
+ * including another N.
+ */
 public class DNAPoint implements Serializable{
-    
-    private static final long serialVersionUID = 1L;
-    public char [] data;
+
+    private static final long serialVersionUID = 2L;
+    /** code of a base that is not A, T, C or G */
+    public static final int UNKNOWN = 4;
+    /** the low bit of every 2-bit pair */
+    static final long LOW_BITS = 0x5555555555555555L;
+
+    public long [] data;
+    /** low bit of a pair set where the base is unknown, null if none are */
+    public long [] unknown;
+    public int length;
     public int group;
-    
+
+    public DNAPoint (int length) {
+	this.length = length;
+	data = new long[words(length)];
+    }
+
     public DNAPoint (char [] input) {
-	data = input.clone();
+	this(input.length);
+	for (int p = 0; p < input.length; p++)
+	    setBase(p, baseToIdx(input[p]));
+    }
+
+    /**
+     * pack one comma separated line of bases, only the first character of
+     * every field is used
+     * 
+     * @param line
+     *            e.g. "G,A,T,N"
+     * @return the packed sequence
+     */
+    public static DNAPoint parse (String line) {
+	// trailing empty fields are dropped, as String.split(",") did
+	int end = line.length();
+	while (end > 0 && line.charAt(end - 1) == ',')
+	    end--;
+	line = line.substring(0, end);
+	int len = 1;
+	for (int i = 0; i < line.length(); i++)
+	    if (line.charAt(i) == ',')
+		len++;
+	DNAPoint dp = new DNAPoint(len);
+	int p = 0;
+	boolean fieldStart = true;
+	for (int i = 0; i < line.length(); i++) {
+	    char c = line.charAt(i);
+	    if (c == ',') {
+		if (fieldStart) // empty field
+		    dp.setBase(p++, UNKNOWN);
+		fieldStart = true;
+	    } else if (fieldStart) {
+		dp.setBase(p++, baseToIdx(c));
+		fieldStart = false;
+	    }
+	}
+	if (fieldStart)
+	    dp.setBase(p, UNKNOWN);
+	return dp;
     }
-    
+
+    /**
+     * @return number of longs needed for len bases
+     */
+    public static int words (int len) { return (len + 31) >>> 5; }
+
+    public static int baseToIdx (char base) {
+	switch (base) {
+	case 'A': case 'a': return 0;
+	case 'T': case 't': return 1;
+	case 'C': case 'c': return 2;
+	case 'G': case 'g': return 3;
+	default: return UNKNOWN;
+	}
+    }
+
+    public static char idxToBase (int idx) {
+	switch (idx) {
+	case 0: return 'A';
+	case 1: return 'T';
+	case 2: return 'C';
+	case 3: return 'G';
+	default: return 'N';
+	}
+    }
+
+    /**
+     * @return code of base p, UNKNOWN for N
+     */
+    public int base (int p) {
+	int w = p >>> 5;
+	int shift = (p & 31) << 1;
+	if (unknown != null && (unknown[w] >>> shift & 1L) != 0)
+	    return UNKNOWN;
+	return (int) (data[w] >>> shift) & 3;
+    }
+
+    public void setBase (int p, int idx) {
+	int w = p >>> 5;
+	int shift = (p & 31) << 1;
+	data[w] &= ~(3L << shift);
+	if (idx == UNKNOWN) {
+	    if (unknown == null)
+		unknown = new long[data.length];
+	    unknown[w] |= 1L << shift;
+	    return;
+	}
+	data[w] |= (long) idx << shift;
+	if (unknown != null)
+	    unknown[w] &= ~(1L << shift);
+    }
+
+    /**
+     * Hamming distance: XOR the codes, fold every pair onto its low bit and
+     * count the bits. Unknown bases are OR-ed in as mismatches.
+     * 
+     * @return number of positions where the sequences differ
+     */
+    public static int distance (DNAPoint a, DNAPoint b) {
+	long[] x = a.data;
+	long[] y = b.data;
+	int dist = 0;
+	if (a.unknown == null && b.unknown == null) {
+	    for (int w = 0; w < x.length; w++) {
+		long d = x[w] ^ y[w];
+		dist += Long.bitCount((d | (d >>> 1)) & LOW_BITS);
+	    }
+	    return dist;
+	}
+	for (int w = 0; w < x.length; w++) {
+	    long d = x[w] ^ y[w];
+	    d = (d | (d >>> 1)) & LOW_BITS;
+	    if (a.unknown != null)
+		d |= a.unknown[w];
+	    if (b.unknown != null)
+		d |= b.unknown[w];
+	    dist += Long.bitCount(d);
+	}
+	return dist;
+    }
+
+    /**
+     * copy the packed bases followed by the unknown mask (zeros when there is
+     * none) into buf, 2 * words(length) longs in total
+     */
+    public void pack (long [] buf, int off) {
+	System.arraycopy(data, 0, buf, off, data.length);
+	for (int w = 0; w < data.length; w++)
+	    buf[off + data.length + w] = unknown == null ? 0 : unknown[w];
+    }
+
+    /**
+     * @return the sequence written by pack
+     */
+    public static DNAPoint unpack (long [] buf, int off, int length) {
+	DNAPoint dp = new DNAPoint(length);
+	int words = dp.data.length;
+	System.arraycopy(buf, off, dp.data, 0, words);
+	for (int w = 0; w < words; w++) {
+	    if (buf[off + words + w] != 0) {
+		dp.unknown = new long[words];
+		System.arraycopy(buf, off + words, dp.unknown, 0, words);
+		break;
+	    }
+	}
+	return dp;
+    }
+
     public void setGroup (int g) { group = g; }
     public int  getGroup () { return group; }
-    
+
+    public String toString () {
+	StringBuilder sb = new StringBuilder(length);
+	for (int p = 0; p < length; p++)
+	    sb.append(idxToBase(base(p)));
+	return sb.toString();
+    }
 }
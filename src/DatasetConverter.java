@@ -0,0 +1,143 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts a CSV input of KmeansData / KmeansDNA into the binary format read
+ * by BinaryDataset. The CSV is read once, line by line, and the rows are
+ * streamed to the output, so the conversion needs no more memory than one
+ * output buffer.
+ * 
+ * [Usage] java DatasetConverter <input csv> <output> [-type
+ * float64|float32|dna]
+ */
+public class DatasetConverter {
+
+    /** size of the output buffer */
+    static final int BUFFER_BYTES = 1 << 20;
+
+    public static void main(String[] args) throws IOException {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
+	    System.out
+		    .println("[Usage] java DatasetConverter <input csv> <output> [-type float64|float32|dna]");
+	    return;
+	}
+	String typeName = opts.getString("type", "float64");
+	int type;
+	if (typeName.equals("float64"))
+	    type = BinaryDataset.FLOAT64;
+	else if (typeName.equals("float32"))
+	    type = BinaryDataset.FLOAT32;
+	else if (typeName.equals("dna"))
+	    type = BinaryDataset.DNA;
+	else
+	    throw new IllegalArgumentException("unknown type: " + typeName);
+
+	long startTime = System.currentTimeMillis();
+	long n = convert(opts.positional(0), opts.positional(1), type);
+	long endTime = System.currentTimeMillis();
+	System.out.println("Converted " + n + " points in "
+		+ (endTime - startTime) + "(ms)");
+    }
+
+    /**
+     * @return number of points written
+     */
+    public static long convert(String csvName, String outName, int type)
+	    throws IOException {
+	BufferedReader br = new BufferedReader(new FileReader(csvName));
+	RandomAccessFile out = new RandomAccessFile(outName, "rw");
+	FileChannel channel = out.getChannel();
+	try {
+	    out.setLength(0);
+	    ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES).order(
+		    ByteOrder.LITTLE_ENDIAN);
+	    // the header is written last, once the shape is known
+	    channel.position(BinaryDataset.HEADER_BYTES);
+	    long n = 0;
+	    int dimension = -1;
+	    long[] packed = new long[0];
+	    ByteBuffer line = ByteBuffer.allocate(0);
+	    int lineLen = 0;
+	    int[] cursor = new int[1];
+	    String str;
+	    while ((str = br.readLine()) != null) {
+		if (type != BinaryDataset.DNA) {
+		    // the fields CsvParser would read: without trailing commas,
+		    // which String.split(",") dropped as well
+		    byte[] bytes = str.getBytes(StandardCharsets.ISO_8859_1);
+		    if (line.capacity() < bytes.length)
+			line = ByteBuffer.allocate(bytes.length);
+		    line.clear();
+		    line.put(bytes);
+		    lineLen = CsvParser.trimFields(line, 0, bytes.length);
+		    if (lineLen == 0)
+			continue;
+		} else if (str.isEmpty()) {
+		    continue;
+		}
+		int len;
+		if (type == BinaryDataset.DNA) {
+		    DNAPoint dp = DNAPoint.parse(str);
+		    len = dp.length;
+		    if (packed.length != 2 * dp.data.length)
+			packed = new long[2 * dp.data.length];
+		    dp.pack(packed, 0);
+		} else {
+		    len = CsvParser.countFields(line, 0, lineLen);
+		}
+		if (dimension == -1)
+		    dimension = len;
+		else if (len != dimension)
+		    throw new IOException(csvName + ": line " + (n + 1) + " has "
+			    + len + " values, expected " + dimension);
+		int rowBytes = BinaryDataset.rowBytes(type, dimension);
+		if (buf.remaining() < rowBytes)
+		    flush(buf, channel);
+		if (buf.capacity() < rowBytes)
+		    buf = ByteBuffer.allocateDirect(rowBytes).order(
+			    ByteOrder.LITTLE_ENDIAN);
+		if (type == BinaryDataset.DNA) {
+		    for (int i = 0; i < packed.length; i++)
+			buf.putLong(packed[i]);
+		} else {
+		    cursor[0] = 0;
+		    int written = 0;
+		    while (cursor[0] <= lineLen) {
+			double v = CsvParser.parseDouble(line, cursor, lineLen);
+			if (type == BinaryDataset.FLOAT64)
+			    buf.putDouble(v);
+			else
+			    buf.putFloat((float) v);
+			written++;
+		    }
+		    if (written != dimension)
+			throw new IOException(csvName + ": line " + (n + 1)
+				+ " has " + written + " values, expected "
+				+ dimension);
+		}
+		n++;
+	    }
+	    flush(buf, channel);
+	    channel.write(BinaryDataset.header(type, Math.max(dimension, 0), n), 0);
+	    return n;
+	} finally {
+	    br.close();
+	    out.close();
+	}
+    }
+
+    private static void flush(ByteBuffer buf, FileChannel channel)
+	    throws IOException {
+	buf.flip();
+	while (buf.hasRemaining())
+	    channel.write(buf);
+	buf.clear();
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Squared Euclidean distance between two vectors stored inside larger arrays.
+ * The square root is left to the callers that need a true distance; finding
+ * the closest centroid only needs the squared one.
+ */
+public interface DistanceKernel {
+
+    /**
+     * @param v1
+     *            array holding vector1
+     * @param off1
+     *            offset of vector1
+     * @param v2
+     *            array holding vector2
+     * @param off2
+     *            offset of vector2
+     * @param len
+     *            dimension of the vectors
+     * @return the squared Euclidean distance
+     */
+    double distSq(double[] v1, int off1, double[] v2, int off2, int len);
+
+    /**
+     * the same in single precision, for float32 stores: twice the lanes per
+     * vector and half the memory traffic
+     */
+    float distSq(float[] v1, int off1, float[] v2, int off2, int len);
+
+    /** the width of a transposed centroid tile is a multiple of this */
+    int TILE_ALIGN = 16;
+
+    /**
+     * dot products of consecutive points with a tile of centroids stored
+     * transposed, dots[a * width + b] = x(a) . c(b). Every dot product is
+     * summed in coordinate order, so all kernels give the same results.
+     * 
+     * @param x
+     *            array holding the points, row-major
+     * @param xOff
+     *            offset of the first point
+     * @param np
+     *            number of points
+     * @param dim
+     *            dimension of the vectors
+     * @param cT
+     *            array holding the tile, dim rows of width centroids
+     * @param cOff
+     *            offset of the tile
+     * @param width
+     *            centroids per row of the tile, a multiple of TILE_ALIGN
+     * @param dots
+     *            np x width output
+     */
+    void dotTile(double[] x, int xOff, int np, int dim, double[] cT,
+	    int cOff, int width, double[] dots);
+
+    /**
+     * @return short description used when reporting the kernel in use
+     */
+    String name();
+}
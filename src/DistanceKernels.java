@@ -0,0 +1,75 @@
+import java.util.Random;
+
+/**
+ * Chooses the distance kernel once at startup.
+ * 
+ * The vector kernel is used when the JVM was started with
+ * "--add-modules jdk.incubator.vector", the CPU offers at least two double
+ * lanes and the kernel agrees with the scalar one on a set of random vectors.
+ * Otherwise the scalar kernel is used. "-Dkmeans.kernel=scalar" forces the
+ * scalar kernel.
+ */
+public class DistanceKernels {
+
+    public static final DistanceKernel SCALAR = new ScalarKernel();
+    private static final DistanceKernel SELECTED = select();
+
+    /**
+     * @return the kernel selected for this JVM
+     */
+    public static DistanceKernel get() {
+	return SELECTED;
+    }
+
+    private static DistanceKernel select() {
+	if (System.getProperty("kmeans.kernel", "auto").equals("scalar"))
+	    return SCALAR;
+	DistanceKernel vector;
+	try {
+	    vector = (DistanceKernel) Class.forName("VectorKernel")
+		    .getDeclaredConstructor().newInstance();
+	} catch (LinkageError e) {
+	    return SCALAR; // incubator module not available
+	} catch (ReflectiveOperationException e) {
+	    return SCALAR;
+	} catch (UnsupportedOperationException e) {
+	    return SCALAR;
+	}
+	if (!agrees(vector, SCALAR)) {
+	    System.out.println("vector kernel disagrees with scalar kernel, using scalar");
+	    return SCALAR;
+	}
+	return vector;
+    }
+
+    /**
+     * compare two kernels on random vectors of several lengths, allowing for
+     * the different summation order
+     */
+    static boolean agrees(DistanceKernel k1, DistanceKernel k2) {
+	Random rand = new Random(1);
+	for (int len = 1; len <= 67; len++) {
+	    double[] v1 = new double[len + 3];
+	    double[] v2 = new double[len + 5];
+	    for (int i = 0; i < v1.length; i++)
+		v1[i] = rand.nextGaussian() * 100;
+	    for (int i = 0; i < v2.length; i++)
+		v2[i] = rand.nextGaussian() * 100;
+	    double d1 = k1.distSq(v1, 3, v2, 5, len);
+	    double d2 = k2.distSq(v1, 3, v2, 5, len);
+	    if (Math.abs(d1 - d2) > 1e-9 * Math.max(1.0, d2))
+		return false;
+	    float[] f1 = new float[v1.length];
+	    float[] f2 = new float[v2.length];
+	    for (int i = 0; i < f1.length; i++)
+		f1[i] = (float) v1[i];
+	    for (int i = 0; i < f2.length; i++)
+		f2[i] = (float) v2[i];
+	    float s1 = k1.distSq(f1, 3, f2, 5, len);
+	    float s2 = k2.distSq(f1, 3, f2, 5, len);
+	    if (Math.abs(s1 - s2) > 1e-4 * Math.max(1.0, s2))
+		return false;
+	}
+	return true;
+    }
+}
@@ -0,0 +1,94 @@
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of one byte range of a text file, so that every process
+ * of a parallel run reads only its share of the input.
+ * 
+ * A line belongs to the range that contains its first byte. Reading a range
+ * starts at the first line beginning at or after the range start and stops
+ * after the last line beginning before the range end, so the ranges of all
+ * processes together cover every line exactly once.
+ */
+public class FileSlice {
+
+    public interface LineHandler {
+	void line(String line);
+    }
+
+    /**
+     * @param fileSize
+     *            length of the file in bytes
+     * @param rank
+     *            index of the slice
+     * @param size
+     *            number of slices
+     * @return {from, to} byte range of slice rank
+     */
+    public static long[] range(long fileSize, int rank, int size) {
+	return new long[] { fileSize * rank / size, fileSize * (rank + 1) / size };
+    }
+
+    /**
+     * call handler for every line that begins in [from, to)
+     * 
+     * @param fnName
+     *            file name
+     * @param from
+     *            first byte of the range
+     * @param to
+     *            end of the range (exclusive)
+     * @return number of lines read
+     */
+    public static int read(String fnName, long from, long to,
+	    LineHandler handler) throws IOException {
+	FileInputStream fis = new FileInputStream(fnName);
+	int lines = 0;
+	try {
+	    long pos = Math.max(0, from - 1);
+	    fis.getChannel().position(pos);
+	    InputStream in = new BufferedInputStream(fis, 1 << 16);
+	    // a line starts at 'from' only if the byte before it ends a line
+	    if (from > 0) {
+		int c;
+		while ((c = in.read()) != -1) {
+		    pos++;
+		    if (c == '\n')
+			break;
+		}
+	    }
+	    byte[] buf = new byte[256];
+	    while (pos < to) {
+		int len = 0;
+		int c;
+		while ((c = in.read()) != -1 && c != '\n') {
+		    if (len == buf.length)
+			buf = Arrays.copyOf(buf, len * 2);
+		    buf[len++] = (byte) c;
+		}
+		if (c == -1 && len == 0)
+		    break;
+		pos += len + (c == -1 ? 0 : 1);
+		if (len > 0 && buf[len - 1] == '\r')
+		    len--;
+		if (len > 0) {
+		    handler.line(new String(buf, 0, len, "ISO-8859-1"));
+		    lines++;
+		}
+		if (c == -1)
+		    break;
+	    }
+	} finally {
+	    fis.close();
+	}
+	return lines;
+    }
+
+    public static long length(String fnName) {
+	return new File(fnName).length();
+    }
+}
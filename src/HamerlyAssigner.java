@@ -0,0 +1,135 @@
+/**
+ * Hamerly's accelerated assignment. Every point keeps an upper bound on the
+ * distance to its own centroid and one lower bound on the distance to any
+ * other centroid. After the centroids move, the bounds are loosened by the
+ * drift of the centroids instead of being recomputed. A point whose upper
+ * bound is below both its lower bound and half the distance from its centroid
+ * to the nearest other centroid cannot change group, so no distance is
+ * computed for it.
+ * 
+ * This needs two doubles per point, unlike Elkan's k lower bounds per point.
+ * The resulting groups are the same as the brute-force search, except that a
+ * point at exactly equal distance from two centroids may keep its old group.
+ */
+public class HamerlyAssigner extends Assigner {
+
+    private final double[] upper;
+    private final double[] lower;
+    /** half the distance from each centroid to its nearest other centroid */
+    private final double[] halfSep;
+    /** how far each centroid moved since the previous iteration */
+    private final double[] drift;
+    private double[] previous = null;
+    /** float copy of previous for a float32 store */
+    private float[] previousFloats = null;
+    private double maxDrift;
+    private double secondDrift;
+    private int maxDriftIdx;
+    private boolean firstPass;
+
+    public HamerlyAssigner(PointStore store, int numGroup) {
+	super(store, numGroup);
+	upper = new double[store.size];
+	lower = new double[store.size];
+	halfSep = new double[numGroup];
+	drift = new double[numGroup];
+    }
+
+    public void prepare(double[] newCentroids) {
+	super.prepare(newCentroids);
+	firstPass = previous == null;
+	maxDrift = 0;
+	secondDrift = 0;
+	maxDriftIdx = -1;
+	if (!firstPass) {
+	    for (int j = 0; j < numGroup; j++) {
+		drift[j] = centroidDistance(previous, previousFloats, j,
+			newCentroids, floatCentroids, j);
+		if (drift[j] > maxDrift) {
+		    secondDrift = maxDrift;
+		    maxDrift = drift[j];
+		    maxDriftIdx = j;
+		} else if (drift[j] > secondDrift) {
+		    secondDrift = drift[j];
+		}
+	    }
+	}
+	for (int j = 0; j < numGroup; j++)
+	    halfSep[j] = Double.MAX_VALUE;
+	for (int j = 0; j < numGroup; j++) {
+	    for (int m = j + 1; m < numGroup; m++) {
+		double half = centroidDistance(newCentroids, floatCentroids, j,
+			newCentroids, floatCentroids, m) / 2;
+		if (half < halfSep[j])
+		    halfSep[j] = half;
+		if (half < halfSep[m])
+		    halfSep[m] = half;
+	    }
+	}
+	previous = newCentroids.clone();
+	if (floatCentroids != null)
+	    previousFloats = floatCentroids.clone();
+    }
+
+    public long assign(int start, int end, int[] labels) {
+	long evals = 0;
+	for (int i = start; i < end; i++) {
+	    if (firstPass) {
+		evals += searchAll(i, labels);
+		continue;
+	    }
+	    int a = labels[i];
+	    upper[i] += drift[a];
+	    lower[i] -= (a == maxDriftIdx) ? secondDrift : maxDrift;
+	    double bound = Math.max(halfSep[a], lower[i]);
+	    if (upper[i] < bound)
+		continue;
+	    // tighten the upper bound and try again before a full search
+	    upper[i] = distance(i, a);
+	    evals++;
+	    if (upper[i] < bound)
+		continue;
+	    evals += searchAll(i, labels);
+	}
+	return evals;
+    }
+
+    /**
+     * compare point i with every centroid and reset its bounds
+     * 
+     * @return number of distances computed
+     */
+    private int searchAll(int i, int[] labels) {
+	double minDist = Double.MAX_VALUE;
+	double secondDist = Double.MAX_VALUE;
+	int group = 0;
+	for (int j = 0; j < numGroup; j++) {
+	    double dist = distance(i, j);
+	    if (dist < minDist) {
+		secondDist = minDist;
+		minDist = dist;
+		group = j;
+	    } else if (dist < secondDist) {
+		secondDist = dist;
+	    }
+	}
+	labels[i] = group;
+	upper[i] = minDist;
+	lower[i] = secondDist;
+	return numGroup;
+    }
+
+    /**
+     * distance between centroid j1 of c1 and centroid j2 of c2, from their
+     * float copies f1 and f2 for a float32 store: the bounds must be in the
+     * precision of distance() to bound it
+     */
+    private double centroidDistance(double[] c1, float[] f1, int j1,
+	    double[] c2, float[] f2, int j2) {
+	if (f1 != null)
+	    return Math.sqrt(kernel.distSq(f1, j1 * dimension, f2, j2
+		    * dimension, dimension));
+	return Math.sqrt(kernel.distSq(c1, j1 * dimension, c2, j2 * dimension,
+		dimension));
+    }
+}
@@ -0,0 +1,336 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs k-means for every k in [minK, maxK] on data loaded once, to choose k
+ * from the SSE curve (elbow) or from the silhouette.
+ * 
+ * Only minK is seeded. Every larger k starts from the solution of k - 1 with
+ * one more centroid: a point of the cluster with the highest SSE, drawn with
+ * probability proportional to its share of that SSE, so the iterations start
+ * close to convergence. The chain of k is sequential; the engine spreads each
+ * run over its own threads while the silhouette of the previous k is scored
+ * on the sweep's threads.
+ * 
+ * The silhouette is the simplified one, measured to centroids instead of to
+ * all points, averaged over a fixed random sample of the points.
+ */
+public abstract class KSweep {
+
+    public final int minK;
+    public final int maxK;
+    /** points the silhouette is averaged over */
+    public int sampleSize = 1000;
+    /** threads scoring the silhouettes */
+    public int numThreads = 1;
+    protected final Random rand;
+    /** results, indexed by k - minK */
+    public final double[] sse;
+    public final int[] iterations;
+    public final long[] millis;
+    public final double[] silhouette;
+    private int[] sample;
+    /** SSE of every cluster of the current solution */
+    private double[] clusterSse;
+
+    protected KSweep(int minK, int maxK, Random rand) {
+	if (minK < 1 || maxK < minK)
+	    throw new IllegalArgumentException("bad range of k: " + minK + ".."
+		    + maxK);
+	this.minK = minK;
+	this.maxK = maxK;
+	this.rand = rand;
+	int len = maxK - minK + 1;
+	sse = new double[len];
+	iterations = new int[len];
+	millis = new long[len];
+	silhouette = new double[len];
+    }
+
+    /**
+     * @return number of points
+     */
+    protected abstract int size();
+
+    /**
+     * seed k centroids and run k-means from them
+     */
+    protected abstract void runSeeded(int k);
+
+    /**
+     * add point i as one more centroid and run k-means from the current
+     * centroids
+     */
+    protected abstract void runWith(int i);
+
+    /**
+     * @return iterations of the last run
+     */
+    protected abstract int lastIterations();
+
+    /**
+     * @return group of point i in the current solution
+     */
+    protected abstract int label(int i);
+
+    /**
+     * @return share of point i in the SSE: its squared distance to its
+     *         centroid, for DNA its base mismatches
+     */
+    protected abstract double cost(int i);
+
+    /**
+     * @param points
+     *            the sample
+     * @param labels
+     *            group of every sample point
+     * @return a task scoring the current centroids, they must not change
+     *         while it runs
+     */
+    protected abstract Callable<Double> silhouette(int[] points, int[] labels);
+
+    /**
+     * simplified silhouette of one point
+     * 
+     * @param a
+     *            distance to its own centroid
+     * @param b
+     *            distance to the closest other centroid
+     */
+    protected static double score(double a, double b) {
+	double max = Math.max(a, b);
+	return max == 0 || Double.isInfinite(b) ? 0 : (b - a) / max;
+    }
+
+    public void run() throws InterruptedException {
+	int n = size();
+	sample = new int[Math.min(sampleSize, n)];
+	// partial Fisher-Yates shuffle
+	int[] perm = new int[n];
+	for (int i = 0; i < n; i++)
+	    perm[i] = i;
+	for (int i = 0; i < sample.length; i++) {
+	    int j = i + rand.nextInt(n - i);
+	    int tmp = perm[i];
+	    perm[i] = perm[j];
+	    perm[j] = tmp;
+	    sample[i] = tmp;
+	}
+	Arrays.sort(sample);
+
+	ExecutorService pool = Executors.newFixedThreadPool(Math.max(1,
+		numThreads));
+	ArrayList<Future<Double>> scores = new ArrayList<Future<Double>>();
+	try {
+	    for (int k = minK; k <= maxK; k++) {
+		long start = System.currentTimeMillis();
+		if (k == minK)
+		    runSeeded(k);
+		else
+		    runWith(split());
+		sse[k - minK] = measure(k);
+		iterations[k - minK] = lastIterations();
+		millis[k - minK] = System.currentTimeMillis() - start;
+		int[] labels = new int[sample.length];
+		for (int s = 0; s < sample.length; s++)
+		    labels[s] = label(sample[s]);
+		scores.add(pool.submit(silhouette(sample, labels)));
+	    }
+	    for (int k = minK; k <= maxK; k++)
+		silhouette[k - minK] = scores.get(k - minK).get();
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdown();
+	}
+    }
+
+    /**
+     * fill clusterSse for the current solution
+     * 
+     * @return total SSE
+     */
+    private double measure(int k) {
+	clusterSse = new double[k];
+	double total = 0;
+	for (int i = 0; i < size(); i++) {
+	    double c = cost(i);
+	    clusterSse[label(i)] += c;
+	    total += c;
+	}
+	return total;
+    }
+
+    /**
+     * @return a point of the cluster with the highest SSE, drawn with
+     *         probability proportional to its cost
+     */
+    private int split() {
+	int worst = 0;
+	for (int c = 1; c < clusterSse.length; c++)
+	    if (clusterSse[c] > clusterSse[worst])
+		worst = c;
+	double r = rand.nextDouble() * clusterSse[worst];
+	int last = -1;
+	for (int i = 0; i < size(); i++) {
+	    if (label(i) != worst)
+		continue;
+	    last = i;
+	    r -= cost(i);
+	    if (r < 0)
+		return i;
+	}
+	return last;
+    }
+
+    public void print() {
+	System.out.println("k\tSSE\titerations\ttime(ms)\tsilhouette");
+	for (int k = minK; k <= maxK; k++)
+	    System.out.println(k + "\t" + sse[k - minK] + "\t"
+		    + iterations[k - minK] + "\t" + millis[k - minK] + "\t"
+		    + silhouette[k - minK]);
+    }
+
+    /**
+     * sweep of the Euclidean engine
+     */
+    public static class Euclidean extends KSweep {
+	final KmeansData kmd;
+
+	public Euclidean(KmeansData kmd, int minK, int maxK) {
+	    super(minK, maxK, kmd.rand);
+	    this.kmd = kmd;
+	    kmd.verbose = false;
+	    kmd.printSummary = false;
+	}
+
+	protected int size() {
+	    return kmd.indata.size;
+	}
+
+	protected void runSeeded(int k) {
+	    kmd.numGroup = k;
+	    kmd.setIniCen();
+	    kmd.kmeanProcedure();
+	}
+
+	protected void runWith(int i) {
+	    int d = kmd.dimension;
+	    kmd.centroids = Arrays.copyOf(kmd.centroids, (kmd.numGroup + 1) * d);
+	    kmd.indata.copyPoint(i, kmd.centroids, kmd.numGroup * d);
+	    kmd.numGroup++;
+	    kmd.kmeanProcedure();
+	}
+
+	protected int lastIterations() {
+	    return kmd.iterations;
+	}
+
+	protected int label(int i) {
+	    return kmd.labels[i];
+	}
+
+	protected double cost(int i) {
+	    return kmd.indata.distSq(kmd.kernel, i, kmd.centroids, kmd.labels[i]
+		    * kmd.dimension);
+	}
+
+	protected Callable<Double> silhouette(final int[] points,
+		final int[] labels) {
+	    final double[] centroids = kmd.centroids;
+	    final int k = kmd.numGroup;
+	    return new Callable<Double>() {
+		public Double call() {
+		    double sum = 0;
+		    for (int s = 0; s < points.length; s++) {
+			double a = 0, b = Double.POSITIVE_INFINITY;
+			for (int c = 0; c < k; c++) {
+			    double dist = Math.sqrt(kmd.indata.distSq(
+				    kmd.kernel, points[s], centroids, c
+					    * kmd.dimension));
+			    if (c == labels[s])
+				a = dist;
+			    else if (dist < b)
+				b = dist;
+			}
+			sum += score(a, b);
+		    }
+		    return sum / points.length;
+		}
+	    };
+	}
+    }
+
+    /**
+     * sweep of the DNA engine, distances count base mismatches
+     */
+    public static class Dna extends KSweep {
+	final KmeansDNA kmd;
+
+	public Dna(KmeansDNA kmd, int minK, int maxK) {
+	    super(minK, maxK, kmd.rand);
+	    this.kmd = kmd;
+	    kmd.verbose = false;
+	    kmd.printSummary = false;
+	}
+
+	protected int size() {
+	    return kmd.indata.size();
+	}
+
+	protected void runSeeded(int k) {
+	    kmd.numGroup = k;
+	    kmd.centroids = new DNAPoint[k];
+	    kmd.setIniCen();
+	    kmd.kmeanProcedure();
+	}
+
+	protected void runWith(int i) {
+	    kmd.centroids = Arrays.copyOf(kmd.centroids, kmd.numGroup + 1);
+	    kmd.centroids[kmd.numGroup++] = kmd.indata.get(i);
+	    kmd.kmeanProcedure();
+	}
+
+	protected int lastIterations() {
+	    return kmd.iterations;
+	}
+
+	protected int label(int i) {
+	    return kmd.labels[i];
+	}
+
+	protected double cost(int i) {
+	    return DNAPoint.distance(kmd.indata.get(i),
+		    kmd.centroids[kmd.labels[i]]);
+	}
+
+	protected Callable<Double> silhouette(final int[] points,
+		final int[] labels) {
+	    final DNAPoint[] centroids = kmd.centroids;
+	    return new Callable<Double>() {
+		public Double call() {
+		    double sum = 0;
+		    for (int s = 0; s < points.length; s++) {
+			DNAPoint p = kmd.indata.get(points[s]);
+			double a = 0, b = Double.POSITIVE_INFINITY;
+			for (int c = 0; c < centroids.length; c++) {
+			    int dist = DNAPoint.distance(p, centroids[c]);
+			    if (c == labels[s])
+				a = dist;
+			    else if (dist < b)
+				b = dist;
+			}
+			sum += score(a, b);
+		    }
+		    return sum / points.length;
+		}
+	    };
+	}
+    }
+}
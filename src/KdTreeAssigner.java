@@ -0,0 +1,329 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Filtering assignment (Kanungo et al.): a k-d tree over the points, whose
+ * nodes know the bounding box of their points, is walked with a shrinking
+ * set of candidate centroids. At every node the candidate closest to the
+ * middle of the box is found, and every other candidate that is farther
+ * from the box corner most favourable to it is dropped, as it cannot be the
+ * closest centroid of any point in the box. A node left with one candidate
+ * assigns all its points at once; a leaf compares its points with the
+ * remaining candidates only.
+ * 
+ * The tree must hold many points for its boxes to be small, so it is built
+ * once over the whole store and walked in prepare(), subtrees of FORK_SIZE
+ * points or more in parallel on setThreads() threads; assign() then copies
+ * the labels of its range. Candidates stay in index order and are only
+ * dropped when clearly farther, so ties are broken as in LloydAssigner.
+ * 
+ * Boxes stop separating the centroids as the dimension grows. Above
+ * MAX_DIMENSION no tree is built, and if a walk still computes more than
+ * FALLBACK_RATIO of the brute-force distances, all later iterations use the
+ * brute-force search in assign().
+ */
+public class KdTreeAssigner extends Assigner {
+
+    /** points per leaf */
+    static final int LEAF_SIZE = 16;
+    /** subtrees at least this large are walked as separate tasks */
+    static final int FORK_SIZE = 8192;
+    /** no tree is built above this dimension */
+    static final int MAX_DIMENSION = 20;
+    /**
+     * the filtering is abandoned when it computes more than this share of
+     * the distances, as the box tests and scalar distances of a walk cost
+     * several times the vectorized brute-force ones
+     */
+    static final double FALLBACK_RATIO = 0.2;
+    /** relative margin by which a candidate must lose to be dropped */
+    static final double SLACK = 1e-9;
+
+    private boolean bruteForce;
+    private ForkJoinPool pool;
+    /** labels found by the last walk */
+    private int[] nearest;
+    /** distances computed by the last walk */
+    private long walkEvals;
+
+    /*
+     * Node n holds the points perm[lo[n]..hi[n]) and their bounding box
+     * min/max[n * dimension ..]; an inner node has children left[n] and
+     * left[n] + 1, a leaf has left[n] = -1.
+     */
+    private int[] perm;
+    private int numNodes;
+    private int[] lo, hi, left;
+    private double[] min, max;
+
+    public KdTreeAssigner(PointStore store, int numGroup) {
+	super(store, numGroup);
+	if (store.isFloat())
+	    throw new IllegalArgumentException(
+		    "kdtree assignment needs float64 storage");
+	bruteForce = dimension > MAX_DIMENSION || numGroup < 2;
+	if (!bruteForce)
+	    build();
+    }
+
+    public void setThreads(int threads) {
+	close();
+	pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    public void close() {
+	if (pool != null)
+	    pool.shutdown();
+	pool = null;
+    }
+
+    /**
+     * @return true once the assigner has fallen back to the brute-force
+     *         search
+     */
+    public boolean isBruteForce() {
+	return bruteForce;
+    }
+
+    public void prepare(double[] newCentroids) {
+	super.prepare(newCentroids);
+	if (bruteForce) {
+	    nearest = null;
+	    return;
+	}
+	int[] all = new int[numGroup];
+	for (int j = 0; j < numGroup; j++)
+	    all[j] = j;
+	Walk walk = new Walk(0, all, numGroup);
+	walkEvals = pool == null ? walk.compute() : pool.invoke(walk);
+	if (walkEvals > FALLBACK_RATIO * store.size * numGroup) {
+	    // this walk's labels are still used, the next prepare drops them
+	    bruteForce = true;
+	    perm = null;
+	    lo = hi = left = null;
+	    min = max = null;
+	    close();
+	}
+    }
+
+    public long assign(int start, int end, int[] labels) {
+	if (nearest == null)
+	    return assignBruteForce(start, end, labels);
+	System.arraycopy(nearest, start, labels, start, end - start);
+	// the cost of the walk, split so that contiguous ranges sum it exactly
+	int n = store.size;
+	return n == 0 ? 0 : walkEvals * end / n - walkEvals * start / n;
+    }
+
+    private long assignBruteForce(int start, int end, int[] labels) {
+	for (int i = start; i < end; i++) {
+	    double minDist = Double.MAX_VALUE;
+	    int group = 0;
+	    for (int j = 0; j < numGroup; j++) {
+		double dist = distSq(i, j);
+		if (dist < minDist) {
+		    group = j;
+		    minDist = dist;
+		}
+	    }
+	    labels[i] = group;
+	}
+	return (long) (end - start) * numGroup;
+    }
+
+    private void build() {
+	int n = store.size;
+	perm = new int[n];
+	for (int i = 0; i < n; i++)
+	    perm[i] = i;
+	nearest = new int[n];
+	int capacity = 2 * (n / LEAF_SIZE + 1) + 1;
+	lo = new int[capacity];
+	hi = new int[capacity];
+	left = new int[capacity];
+	min = new double[capacity * dimension];
+	max = new double[capacity * dimension];
+	numNodes = 1;
+	build(0, 0, n);
+    }
+
+    private void build(int node, int from, int to) {
+	lo[node] = from;
+	hi[node] = to;
+	left[node] = -1;
+	int box = node * dimension;
+	double[] coords = store.coords;
+	for (int t = 0; t < dimension; t++) {
+	    min[box + t] = Double.POSITIVE_INFINITY;
+	    max[box + t] = Double.NEGATIVE_INFINITY;
+	}
+	for (int p = from; p < to; p++) {
+	    int off = store.offset(perm[p]);
+	    for (int t = 0; t < dimension; t++) {
+		double v = coords[off + t];
+		if (v < min[box + t])
+		    min[box + t] = v;
+		if (v > max[box + t])
+		    max[box + t] = v;
+	    }
+	}
+	if (to - from <= LEAF_SIZE)
+	    return;
+	int axis = 0;
+	for (int t = 1; t < dimension; t++)
+	    if (max[box + t] - min[box + t] > max[box + axis] - min[box + axis])
+		axis = t;
+	if (max[box + axis] == min[box + axis])
+	    return; // all points equal
+	int mid = (from + to) >>> 1;
+	select(from, to - 1, mid, axis);
+	ensureCapacity(numNodes + 2);
+	int child = numNodes;
+	numNodes += 2;
+	left[node] = child;
+	build(child, from, mid);
+	build(child + 1, mid, to);
+    }
+
+    private void ensureCapacity(int nodes) {
+	if (nodes <= lo.length)
+	    return;
+	int capacity = Math.max(nodes, 2 * lo.length);
+	lo = Arrays.copyOf(lo, capacity);
+	hi = Arrays.copyOf(hi, capacity);
+	left = Arrays.copyOf(left, capacity);
+	min = Arrays.copyOf(min, capacity * dimension);
+	max = Arrays.copyOf(max, capacity * dimension);
+    }
+
+    /**
+     * quickselect: reorder perm[l..r] so that perm[k] has the k-th smallest
+     * coordinate on axis, smaller ones before it
+     */
+    private void select(int l, int r, int k, int axis) {
+	double[] coords = store.coords;
+	while (l < r) {
+	    double pivot = coords[store.offset(perm[(l + r) >>> 1]) + axis];
+	    int i = l, j = r;
+	    while (i <= j) {
+		while (coords[store.offset(perm[i]) + axis] < pivot)
+		    i++;
+		while (coords[store.offset(perm[j]) + axis] > pivot)
+		    j--;
+		if (i <= j) {
+		    int tmp = perm[i];
+		    perm[i++] = perm[j];
+		    perm[j--] = tmp;
+		}
+	    }
+	    if (k <= j)
+		r = j;
+	    else if (k >= i)
+		l = i;
+	    else
+		return;
+	}
+    }
+
+    /**
+     * filters the candidates of one subtree and labels its points
+     */
+    class Walk extends RecursiveTask<Long> {
+	private static final long serialVersionUID = 1L;
+	final int node;
+	final int[] cand;
+	final int num;
+
+	Walk(int node, int[] cand, int num) {
+	    this.node = node;
+	    this.cand = cand;
+	    this.num = num;
+	}
+
+	protected Long compute() {
+	    return filter(node, cand, num);
+	}
+
+	/**
+	 * @return number of distances computed
+	 */
+	private long filter(int node, int[] cand, int num) {
+	    int box = node * dimension;
+	    int best = cand[0];
+	    double bestDist = Double.MAX_VALUE;
+	    for (int c = 0; c < num; c++) {
+		int off = cand[c] * dimension;
+		double d = 0;
+		for (int t = 0; t < dimension; t++) {
+		    double v = 0.5 * (min[box + t] + max[box + t])
+			    - centroids[off + t];
+		    d += v * v;
+		}
+		if (d < bestDist) {
+		    bestDist = d;
+		    best = cand[c];
+		}
+	    }
+	    long evals = num + 2 * (num - 1);
+
+	    int[] next = new int[num];
+	    int kept = 0;
+	    for (int c = 0; c < num; c++) {
+		int z = cand[c];
+		if (z == best || !dominated(best, z, box))
+		    next[kept++] = z;
+	    }
+
+	    if (kept == 1) {
+		for (int p = lo[node]; p < hi[node]; p++)
+		    nearest[perm[p]] = best;
+		return evals;
+	    }
+	    int child = left[node];
+	    if (child < 0) {
+		for (int p = lo[node]; p < hi[node]; p++) {
+		    int i = perm[p];
+		    double minDist = Double.MAX_VALUE;
+		    int group = 0;
+		    for (int c = 0; c < kept; c++) {
+			double dist = distSq(i, next[c]);
+			if (dist < minDist) {
+			    group = next[c];
+			    minDist = dist;
+			}
+		    }
+		    nearest[i] = group;
+		}
+		return evals + (long) (hi[node] - lo[node]) * kept;
+	    }
+	    if (pool != null && hi[node] - lo[node] >= FORK_SIZE) {
+		Walk right = new Walk(child + 1, next, kept);
+		right.fork();
+		evals += filter(child, next, kept);
+		return evals + right.join();
+	    }
+	    evals += filter(child, next, kept);
+	    return evals + filter(child + 1, next, kept);
+	}
+
+	/**
+	 * @return true if centroid z is farther than centroid best from every
+	 *         point of the box, checked at the corner of the box lying
+	 *         furthest in the direction from best to z
+	 */
+	private boolean dominated(int best, int z, int box) {
+	    int zOff = z * dimension;
+	    int bOff = best * dimension;
+	    double dz = 0, db = 0;
+	    for (int t = 0; t < dimension; t++) {
+		double zt = centroids[zOff + t];
+		double bt = centroids[bOff + t];
+		double v = zt > bt ? max[box + t] : min[box + t];
+		dz += (zt - v) * (zt - v);
+		db += (bt - v) * (bt - v);
+	    }
+	    return dz - db > SLACK * (dz + db);
+	}
+    }
+}
@@ -1,9 +1,8 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Random;
 
 public class KmeansDNA {
 
@@ -11,6 +10,27 @@ public class KmeansDNA {
     public int numGroup;
     public int dimension;
     ArrayList<DNAPoint> indata;
+    /** group of every point, -1 before the first assignment */
+    public int[] labels;
+    /**
+     * number of each base per group and column, base b of column j of a
+     * group at [group][b * dimension + j]
+     */
+    public int[][] ATCGNum;
+    public int[] groupCount;
+    /** seeding, "random" or "kmeans++" */
+    public String initMode = "random";
+    /** number of iterations the last kmeanProcedure ran */
+    public int iterations;
+    Random rand = new Random();
+    /** per-iteration measurements */
+    Metrics metrics = new Metrics(null);
+    /** print per-iteration progress */
+    public boolean verbose = true;
+    /** print the size of every group when the iterations stop */
+    public boolean printSummary = true;
+    /** when to stop iterating, the SSE is the sum of base mismatches */
+    public ConvergenceCriteria criteria = new ConvergenceCriteria(0.1, 10000);
 
     public KmeansDNA(int numG) {
 	numGroup = numG;
@@ -27,61 +47,58 @@ public class KmeansDNA {
      *            vector2
      * @return the DNA distance
      */
-    public int calDistPoint(char[] v1, char[] v2) {
-	int dist = 0;
-	;
-
-	for (int i = 0; i < v1.length; i++) {
-	    dist += v1[i] == v2[i] ? 0 : 1;
-	}
-	return dist;
+    public int calDistPoint(DNAPoint v1, DNAPoint v2) {
+	return DNAPoint.distance(v1, v2);
     }
 
+    /**
+     * @return 2-bit code of a base, DNAPoint.UNKNOWN for anything but A/T/C/G
+     */
     public int baseToIdx(char base) {
-	if (base == 'A')
-	    return 0;
-	else if (base == 'T')
-	    return 1;
-	else if (base == 'C')
-	    return 2;
-	else
-	    return 3;
+	return DNAPoint.baseToIdx(base);
     }
     
     public char idxToBase (int idx) {
-	if (idx == 0)
-	    return 'A';
-	else if (idx == 1)
-	    return 'T';
-	else if (idx == 2)
-	    return 'C';
-	else 
-	    return 'G';
+	return DNAPoint.idxToBase(idx);
     }
 
     /**
      * run k-means procedure
      */
     public void kmeanProcedure() {
+	labels = new int[indata.size()];
+	Arrays.fill(labels, -1);
+	ATCGNum = new int[numGroup][4 * dimension];
+	groupCount = new int[numGroup];
+	criteria.reset();
+	long startTime = System.currentTimeMillis();
+
 	int iteration = 1;
 	while (true) {
-	    System.out.println(iteration++);
+	    if (verbose)
+		System.out.println(iteration);
+	    iteration++;
 	    DNAPoint[] newCentroids = new DNAPoint[centroids.length];
 
-	    @SuppressWarnings("unchecked")
-	    ArrayList<DNAPoint>[] groupM = new ArrayList[centroids.length];
-
-	    for (int i = 0; i < centroids.length; i++) {
-		groupM[i] = new ArrayList<DNAPoint>();
-	    }
-
-	    // update for each group
-	    updateGroup(groupM);
+	    // update for each group, the base counts follow the moved points
+	    int moved = updateGroup();
+	    if (verbose)
+		System.out.println("moved points: " + moved);
 	    // update the centroids
-	    getNewCen(groupM, newCentroids);
+	    long t = System.nanoTime();
+	    getNewCen(newCentroids);
 	    // check convergence
-	    if (isConverge(newCentroids) || iteration > 10000) {
-		printResult(groupM);
+	    boolean converged = criteria.done(iteration - 1, moved,
+		    indata.size(), metrics.sse(), centroidShift(newCentroids),
+		    System.currentTimeMillis() - startTime);
+	    metrics.lap(Metrics.UPDATE, t);
+	    metrics.endIteration();
+	    if (converged) {
+		iterations = iteration - 1;
+		if (verbose)
+		    System.out.println("Stopped: " + criteria.reason());
+		if (printSummary)
+		    printResult(groupCount);
 		return;
 	    }
 	    // update the old centroids
@@ -90,26 +107,30 @@ public class KmeansDNA {
     }
     
     
-    public void printResult(ArrayList<DNAPoint>[] group) {
+    public void printResult(int[] group) {
 	System.out.println("Finish Running K-Means!");
 	System.out.println("Number of data in each clusters:");
 	int total = 0;
 	for (int i = 0; i < group.length; i++) {
-	    System.out.println("Group " + (i+1) + ": " + group[i].size());
-	    /*for (int j = 0; j < group[i].size(); j++)
-		System.out.println(group[i].get(j).data);
-		*/
-	    total += group[i].size();
+	    System.out.println("Group " + (i+1) + ": " + group[i]);
+	    total += group[i];
 	}
 	System.out.println("Total data: " + total);
     }
 
     /**
-     * for each DataPoint, re-assign their group based on the new centroids
+     * for each DataPoint, re-assign their group based on the new centroids.
+     * Only the points that change group are moved between the base count
+     * tables, so late iterations touch the tables very little. The moves
+     * are made while the point is at hand and counted as assignment time:
+     * timing them apart would cost two clock reads per moved point.
      * 
-     * @param groupM
+     * @return number of points whose group changed
      */
-    public void updateGroup(ArrayList<DNAPoint>[] groupM) {
+    public int updateGroup() {
+	long start = System.nanoTime();
+	long mismatches = 0;
+	int moved = 0;
 	// iterate all data points
 	for (int i = 0; i < indata.size(); i++) {
 	    int minDist = Integer.MAX_VALUE;
@@ -118,57 +139,101 @@ public class KmeansDNA {
 	    for (int j = 0; j < centroids.length; j++) {
 		int dist = 0;
 		// find the closest centroids
-		if ((dist = calDistPoint(centroids[j].data, indata.get(i).data)) < minDist) {
+		if ((dist = calDistPoint(centroids[j], indata.get(i))) < minDist) {
 		    group = j;
 		    minDist = dist;
 		}
 	    }
-	    groupM[group].add(indata.get(i));
+	    mismatches += minDist;
+	    if (group != labels[i]) {
+		if (labels[i] >= 0)
+		    countBases(indata.get(i), labels[i], -1);
+		countBases(indata.get(i), group, 1);
+		labels[i] = group;
+		moved++;
+	    }
+	}
+	metrics.addNanos(Metrics.ASSIGN, System.nanoTime() - start);
+	metrics.addReassigned(moved);
+	metrics.addEvals((long) indata.size() * centroids.length);
+	metrics.addSse(mismatches);
+	return moved;
+    }
+
+    /**
+     * add (or remove) the bases of a point to the count table of a group
+     * 
+     * @param dp
+     *            the point
+     * @param group
+     *            group whose table is updated
+     * @param delta
+     *            1 to add the point, -1 to remove it
+     */
+    public void countBases(DNAPoint dp, int group, int delta) {
+	countBases(dp, dimension, ATCGNum[group], 0, delta);
+	groupCount[group] += delta;
+    }
+
+    /**
+     * add delta to the count of every known base of a point in one pass over
+     * its packed words: base b of column j at table[off + b * dimension + j].
+     * KmeansDNAPar counts into its reduction buffer the same way.
+     * 
+     * @param dp
+     *            the point
+     * @param dimension
+     *            sequence length
+     * @param table
+     *            base counts of the point's group
+     * @param off
+     *            start of the group in table
+     * @param delta
+     *            1 to add the point, -1 to remove it
+     */
+    static void countBases(DNAPoint dp, int dimension, int[] table, int off,
+	    int delta) {
+	long[] data = dp.data;
+	for (int w = 0; w < data.length; w++) {
+	    long word = data[w];
+	    long unknown = dp.unknown == null ? 0 : dp.unknown[w];
+	    int base = off + (w << 5);
+	    int end = Math.min(32, dimension - (w << 5));
+	    for (int b = 0; b < end; b++, word >>>= 2, unknown >>>= 2) {
+		if ((unknown & 1L) == 0) // unknown bases do not vote
+		    table[base + ((int) word & 3) * dimension + b] += delta;
+	    }
 	}
     }
 
     /**
-     * get the new centroids from the newest formed groups
+     * get the new centroids from the base count tables: every column takes
+     * the most frequent base of the group
      * 
-     * @param groupM
-     *            a list where each element conatins a list of DataPoint belongs
-     *            to that group
      * @param newCentroids
      *            new centroid
      */
-    public void getNewCen(ArrayList<DNAPoint>[] groupM, DNAPoint[] newCentroids) {
+    public void getNewCen(DNAPoint[] newCentroids) {
 
-	for (int i = 0; i < groupM.length; i++) {
-	    if (groupM[i].size() == 0) { // no points in this centroids!
+	for (int i = 0; i < numGroup; i++) {
+	    if (groupCount[i] == 0 && verbose) { // no points in this centroids!
 		System.out.println("No points in this centroids!");
 	    }
-	    char[] tmp = new char[dimension];
+	    int[] table = ATCGNum[i];
+	    DNAPoint newC = new DNAPoint(dimension);
 	    
 	    for (int j = 0; j < dimension; j++) {
-		int[] count = new int[4];
-		for (int p = 0; p < groupM[i].size(); p++) {
-		    char[] curDNA = groupM[i].get(p).data;
-		    count[baseToIdx(curDNA[j])] += 1;
+		int maxIdx = 0;
+		for (int b = 1; b < 4; b++) {
+		    if (table[b * dimension + j] > table[maxIdx * dimension + j])
+			maxIdx = b;
 		}
-		tmp[j] = idxToBase(getMaxIdx(count));
+		newC.setBase(j, maxIdx);
 	    }
-	    DNAPoint newC = new DNAPoint(tmp);
 	    newCentroids[i] = newC;
 	}
     }
     
-    public int getMaxIdx (int [] input) {
-	int ans = -1;
-	int max = Integer.MIN_VALUE;
-	for (int i = 0; i < input.length; i++) {
-	    if (input[i] > max) {
-		ans = i;
-		max = input[i];
-	    }
-	}
-	return ans;
-    }
-    
     /**
      * calculate the difference betweeen new centroids and old centroids and see
      * if they are similar enough to satifsy the stop criterion
@@ -178,50 +243,69 @@ public class KmeansDNA {
      * @return if the k-mean procedure converges or not
      */
     public boolean isConverge(DNAPoint[] newCentroids) {
+	return centroidShift(newCentroids) < criteria.maxShift;
+    }
+
+    /**
+     * @param newCentroids
+     *            new centroids
+     * @return mean number of bases by which the centroids changed
+     */
+    public double centroidShift(DNAPoint[] newCentroids) {
 	double diff = 0;
 	for (int i = 0; i < newCentroids.length; i++) {
-	    diff += calDistPoint(newCentroids[i].data, centroids[i].data);
+	    diff += calDistPoint(newCentroids[i], centroids[i]);
 	}
 	diff /= (double) numGroup;
-	System.out.println("centroid difference: " + diff);
-	return diff < 0.1; // should check
+	if (verbose)
+	    System.out.println("centroid difference: " + diff);
+	return diff;
     }
 
     /**
-     * parse the data and store them into a DataPoint array
+     * parse the data and store them into a DataPoint array, the input is
+     * either a CSV file or a binary dataset written by DatasetConverter
      * 
      * @param fnName
      *            file name
      */
     public void parse(String fnName) {
-	try {
-	    BufferedReader br = new BufferedReader(new FileReader(fnName));
-	    String str = "";
-	    while ((str = br.readLine()) != null) {
-		String[] strArr = str.split(",");
-		dimension = strArr.length;
-		char[] dArr = new char[strArr.length];
-		for (int i = 0; i < strArr.length; i++)
-		    dArr[i] = strArr[i].charAt(0);
-		DNAPoint dp = new DNAPoint(dArr);
-		indata.add(dp);
+	if (BinaryDataset.isBinary(fnName)) {
+	    try {
+		BinaryDataset ds = BinaryDataset.open(fnName);
+		indata.addAll(Arrays.asList(ds.readDNA(0, ds.size)));
+		dimension = ds.dimension;
+	    } catch (IOException e) {
+		e.printStackTrace();
 	    }
-	    br.close();
-	} catch (FileNotFoundException e) {
-	    e.printStackTrace();
+	    return;
+	}
+	try {
+	    indata.addAll(Arrays.asList(CsvParser.parseDNA(fnName, 0,
+		    FileSlice.length(fnName), Runtime.getRuntime()
+			    .availableProcessors())));
+	    if (!indata.isEmpty())
+		dimension = indata.get(0).length;
 	} catch (IOException e) {
 	    e.printStackTrace();
 	}
     }
 
     /**
-     * set initial centroids
+     * set initial centroids, uniformly random sequences or k-means++ under
+     * the Hamming distance depending on initMode
      */
     public void setIniCen() {
+	if (initMode.equals("kmeans++")) {
+	    centroids = Seeding.kmeansPlusPlus(indata, numGroup, rand);
+	    return;
+	} else if (!initMode.equals("random")) {
+	    throw new IllegalArgumentException("unknown seeding: " + initMode);
+	}
 	HashSet<Integer> used = new HashSet<Integer>();
 	int count = 0;
 	while (count != numGroup) {
-	    int idx = (int) (Math.random() * indata.size());
+	    int idx = rand.nextInt(indata.size());
 	    if (used.contains(idx))
 		continue;
 	    centroids[count++] = indata.get(idx);
@@ -230,21 +314,58 @@ public class KmeansDNA {
 	
     }
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
 	long startTime = System.currentTimeMillis();
-	if (args.length != 2) {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
 	    System.out
-		    .println("[Usage] java KmeansData <input data> <number of cluster>");
+		    .println("[Usage] java KmeansDNA <input data> <number of cluster> [-s seed] [-init random|kmeans++] [-quiet] [-metrics file.jsonl|file.csv] "
+			    + ConvergenceCriteria.USAGE
+			    + " [-sweep min k [-sample n] [-t threads]]");
 	    return;
 	}
 
-	KmeansDNA kmd = new KmeansDNA(Integer.parseInt(args[1]));
-	kmd.parse(args[0]); // parse input and store in the object
+	KmeansDNA kmd = new KmeansDNA(Integer.parseInt(opts.positional(1)));
+	kmd.initMode = opts.getString("init", "random");
+	if (opts.has("s"))
+	    kmd.rand = new Random(opts.getLong("s", 0));
+	kmd.verbose = !opts.has("quiet");
+	kmd.criteria = ConvergenceCriteria.parse(opts, 0.1, 10000);
+	if (opts.has("metrics"))
+	    kmd.metrics.open(opts.getString("metrics", null));
+	long t = System.nanoTime();
+	kmd.parse(opts.positional(0)); // parse input and store in the object
+	t = kmd.metrics.lap(Metrics.PARSE, t);
+	if (opts.has("sweep")) {
+	    kmd.metrics.endIteration();
+	    KSweep sweep = new KSweep.Dna(kmd, opts.getInt("sweep", 2),
+		    kmd.numGroup);
+	    sweep.sampleSize = opts.getInt("sample", sweep.sampleSize);
+	    sweep.numThreads = opts.getInt("t", 1);
+	    try {
+		sweep.run();
+	    } catch (InterruptedException e) {
+		e.printStackTrace();
+	    }
+	    sweep.print();
+	    kmd.metrics.close();
+	    System.out.println("Total runtime: "
+		    + (System.currentTimeMillis() - startTime) + "(ms)");
+	    return;
+	}
 
+	long seedStart = System.currentTimeMillis();
 	kmd.setIniCen(); // set initial seed centroid
+	kmd.metrics.lap(Metrics.SEED, t);
+	kmd.metrics.endIteration();
+	System.out.println("Seeding (" + kmd.initMode + "): "
+		+ (System.currentTimeMillis() - seedStart) + "(ms)");
 	kmd.kmeanProcedure(); // do kmean procedure
+	kmd.metrics.close();
 	long endTime   = System.currentTimeMillis();
 	long totalTime = endTime - startTime;
+	System.out.println("Iterations: " + kmd.iterations + " ("
+		+ kmd.criteria.reason() + ")");
 	System.out.println("Total runtime: " + totalTime + "(ms)");
     }
 }
@@ -1,19 +1,30 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-
-import mpi.*;
+import java.util.Random;
 
 public class KmeansDNAPar {
     public static final int MAX_ITER = 5000;
-
     public DNAPoint[] centroids;
     public int numGroup;
     public int dimension;
+    /** the points of this process's segment */
     public DNAPoint[] indata = null;
+    /** threads parsing this process's slice of a CSV input */
+    public int parseThreads = 1;
+    /** this process's random source */
+    Random rand = new Random();
+    /** print progress messages, only the master process does */
+    public boolean verbose = true;
+    /** number of iterations runRank ran */
+    public int iterations;
+    /** this process's per-iteration measurements */
+    Metrics metrics = new Metrics(null);
+    /**
+     * when to stop iterating, decided from the counters of all processes, the
+     * SSE is the sum of base mismatches
+     */
+    public ConvergenceCriteria criteria = new ConvergenceCriteria(0.1, MAX_ITER);
 
     public KmeansDNAPar(int numG) {
 	numGroup = numG;
@@ -29,35 +40,19 @@ public class KmeansDNAPar {
      *            vector2
      * @return the DNA distance
      */
-    public int calDistPoint(char[] v1, char[] v2) {
-	int dist = 0;
-
-	for (int i = 0; i < v1.length; i++) {
-	    dist += v1[i] == v2[i] ? 0 : 1;
-	}
-	return dist;
+    public int calDistPoint(DNAPoint v1, DNAPoint v2) {
+	return DNAPoint.distance(v1, v2);
     }
 
+    /**
+     * @return 2-bit code of a base, DNAPoint.UNKNOWN for anything but A/T/C/G
+     */
     public int baseToIdx(char base) {
-	if (base == 'A')
-	    return 0;
-	else if (base == 'T')
-	    return 1;
-	else if (base == 'C')
-	    return 2;
-	else
-	    return 3;
+	return DNAPoint.baseToIdx(base);
     }
 
     public char idxToBase(int idx) {
-	if (idx == 0)
-	    return 'A';
-	else if (idx == 1)
-	    return 'T';
-	else if (idx == 2)
-	    return 'C';
-	else
-	    return 'G';
+	return DNAPoint.idxToBase(idx);
     }
 
 
@@ -73,6 +68,8 @@ public class KmeansDNAPar {
      * 		  Update objects to end.
      */
     public void updateGroup(DNAPoint[] dataPoints, int start, int end) {
+	long moved = 0;
+	double mismatches = 0;
 	for (int i = start; i < end; i++) {
 
 	    double minDist = Double.MAX_VALUE;
@@ -81,65 +78,104 @@ public class KmeansDNAPar {
 	    for (int j = 0; j < centroids.length; j++) {
 		double dist = 0;
 		// find the closest centroids
-		if ((dist = calDistPoint(centroids[j].data, dataPoints[i].data)) < minDist) {
+		if ((dist = calDistPoint(centroids[j], dataPoints[i])) < minDist) {
 		    group = j;
 		    minDist = dist;
 		}
 	    }
 
+	    if (dataPoints[i].group != group)
+		moved++;
+	    mismatches += minDist;
 	    dataPoints[i].group = group;
 	}
+	metrics.addReassigned(moved);
+	metrics.addEvals((long) (end - start) * centroids.length);
+	metrics.addSse(mismatches);
     }
 
     /**
-     * parse the data and store them into a DataPoint array
+     * parse this process's slice of the data (a CSV file or a binary dataset
+     * written by DatasetConverter) and store it into a DataPoint array, then
+     * agree with the other processes on the dimension and on how many points
+     * each of them holds
      * 
      * @param fnName
      *            file name
+     * @param comm
+     *            connects this process to the others
+     * @return number of points held by every process
      */
-    public void parse(String fnName) {
-	try {
-	    BufferedReader br = new BufferedReader(new FileReader(fnName));
-	    String str = "";
-	    int dataLen = 0;
-
-	    while ((str = br.readLine()) != null)
-		dataLen++;
-	    br.close();
-	    indata = new DNAPoint[dataLen];
-
-	    br = new BufferedReader(new FileReader(fnName));
-	    int idx = 0;
-	    while ((str = br.readLine()) != null) {
-		String[] strArr = str.split(",");
-		dimension = strArr.length;
-		char[] dArr = new char[strArr.length];
-		for (int i = 0; i < strArr.length; i++)
-		    dArr[i] = strArr[i].charAt(0);
-		DNAPoint dp = new DNAPoint(dArr);
-		indata[idx++] = dp;
-	    }
-	    br.close();
-	} catch (FileNotFoundException e) {
-	    e.printStackTrace();
-	} catch (IOException e) {
-	    e.printStackTrace();
+    public int[] parse(String fnName, Communicator comm) throws IOException {
+	if (BinaryDataset.isBinary(fnName)) {
+	    // fixed-size rows: the slice is a range of sequences
+	    BinaryDataset ds = BinaryDataset.open(fnName);
+	    long[] range = ds.range(comm.rank(), comm.size());
+	    indata = ds.readDNA(range[0], range[1]);
+	} else {
+	    long[] range = FileSlice.range(FileSlice.length(fnName),
+		    comm.rank(), comm.size());
+	    indata = CsvParser.parseDNA(fnName, range[0], range[1], parseThreads);
 	}
+
+	// point count and sequence length of every process, summed in one
+	// reduction
+	int size = comm.size();
+	int[] shape = new int[2 * size];
+	shape[comm.rank()] = indata.length;
+	shape[size + comm.rank()] = indata.length == 0 ? 0 : indata[0].length;
+	comm.allreduceSum(shape, 0, shape.length);
+	dimension = 0;
+	for (int i = 0; i < size; i++)
+	    dimension = Math.max(dimension, shape[size + i]);
+	int[] counts = new int[size];
+	System.arraycopy(shape, 0, counts, 0, size);
+	return counts;
     }
 
     /**
-     * set initial centroids
+     * set initial centroids: the master draws distinct global point indices
+     * and every process contributes the chosen points it holds
+     * 
+     * @param comm
+     *            connects this process to the others
+     * @param counts
+     *            number of points held by every process
      */
-    public void setIniCen() {
-	HashSet<Integer> used = new HashSet<Integer>();
-	int count = 0;
-	while (count != numGroup) {
-	    int idx = (int) (Math.random() * indata.length);
-	    if (used.contains(idx))
-		continue;
-	    centroids[count++] = indata[idx];
-	    used.add(idx);
+    public void setIniCen(Communicator comm, int[] counts) throws IOException {
+	int total = 0;
+	int first = 0;
+	for (int i = 0; i < counts.length; i++) {
+	    if (i == comm.rank())
+		first = total;
+	    total += counts[i];
+	}
+	int[] chosen = new int[numGroup];
+	if (comm.rank() == 0) {
+	    HashSet<Integer> used = new HashSet<Integer>();
+	    int count = 0;
+	    while (count != numGroup) {
+		int idx = rand.nextInt(total);
+		if (used.contains(idx))
+		    continue;
+		chosen[count++] = idx;
+		used.add(idx);
+	    }
 	}
+	comm.bcast(chosen, 0, numGroup, 0);
+
+	// only the owner of a chosen point fills its slot, so summing the
+	// packed buffers gathers every centroid on every process
+	int cenLen = 2 * DNAPoint.words(dimension);
+	long[] cenBuf = new long[numGroup * cenLen];
+	for (int i = 0; i < numGroup; i++) {
+	    int local = chosen[i] - first;
+	    if (local >= 0 && local < indata.length)
+		indata[local].pack(cenBuf, i * cenLen);
+	}
+	comm.allreduceSum(cenBuf, 0, cenBuf.length);
+	for (int i = 0; i < numGroup; i++)
+	    centroids[i] = DNAPoint.unpack(cenBuf, i * cenLen, dimension);
     }
 
     /**
@@ -151,13 +187,22 @@ public class KmeansDNAPar {
      * @return if the k-mean procedure converges or not
      */
     public boolean isConverge(DNAPoint[] newCentroids) {
+	return centroidShift(newCentroids) < criteria.maxShift;
+    }
+
+    /**
+     * @param newCentroids
+     *            new centroids
+     * @return mean number of bases by which the centroids changed
+     */
+    public double centroidShift(DNAPoint[] newCentroids) {
 	double diff = 0;
 	for (int i = 0; i < newCentroids.length; i++) {
-	    diff += calDistPoint(newCentroids[i].data, centroids[i].data);
+	    diff += calDistPoint(newCentroids[i], centroids[i]);
 	}
 	diff /= (double) numGroup;
-	System.out.println("centroid difference: " + diff);
-	return diff < 0.1; // should check
+	if (verbose) System.out.println("centroid difference: " + diff);
+	return diff;
     }
     
     public void printResult(int[] group) {
@@ -171,152 +216,190 @@ public class KmeansDNAPar {
 	System.out.println("Total data: " + total);
     }
 
-    public static void main(String[] args) throws MPIException {
-	long startTime = System.currentTimeMillis();
-	MPI.Init(args);
-	if (args.length != 2) {
+    public static void main(String[] args) throws IOException {
+	final Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
 	    System.out
-	    	.println("[Usage] java KmeansData <input data> <number of cluster>");
-	    MPI.Finalize();
+		.println("[Usage] java KmeansDNAPar <input data> <number of cluster> [-t parse threads]"
+			+ " [-comm mpi|local|tcp] [-np processes] [-rank rank] [-hosts host,...] [-port base port]"
+			+ " [-reduce native|linear|tree|ring] [-s seed] [-init random|kmeans||] [-rounds rounds]"
+		    + " [-quiet] [-metrics file.jsonl|file.csv] " + ConvergenceCriteria.USAGE);
 	    return;
 	}
+	Communicator.launch(opts, args, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		runRank(comm, opts);
+	    }
+	});
+    }
+
+    /**
+     * the k-means procedure of one process
+     * 
+     * @param comm
+     *            connects this process to the others
+     * @param opts
+     *            parsed command line
+     * @return the state of this process after the run
+     */
+    static KmeansDNAPar runRank(Communicator comm, Options opts) throws IOException {
+	long startTime = System.currentTimeMillis();
 
 	// name of current process
-	int myrank = MPI.COMM_WORLD.Rank();
+	int myrank = comm.rank();
 	// the value of k in "k"means
-	int num_cluster = Integer.parseInt(args[1]);
+	int num_cluster = Integer.parseInt(opts.positional(1));
 	// number of total points
 	int dataSize = 0;
-	// being true until converge
-	boolean[] running = new boolean[1];
-	running[0] = true;
 
 	/* 
 	 * Initialization
 	 * Read the input file, determine the total number of points and randomly choose initial condition
 	 */
-	KmeansDNAPar kmd = new KmeansDNAPar(Integer.parseInt(args[1]));
-	kmd.parse(args[0]); // parse input and store in the object
-	dataSize = kmd.indata.length;
+	KmeansDNAPar kmd = new KmeansDNAPar(num_cluster);
+	kmd.parseThreads = opts.getInt("t", 1);
+	kmd.metrics = new Metrics(comm);
+	kmd.criteria = ConvergenceCriteria.parse(opts, 0.1, MAX_ITER);
+	if (opts.has("metrics"))
+	    kmd.metrics.open(opts.getString("metrics", null));
+	/*
+	 * Every process reads only its byte range of the input, so it parses
+	 * and holds only its own segment of the points
+	 * Ex:  5000 bytes, 5 process
+	 *     p0: bytes [0, 1000); p1: bytes [1000, 2000); ...
+	 */
+	long t = System.nanoTime();
+	int[] counts = kmd.parse(opts.positional(0), comm);
+	t = kmd.metrics.lap(Metrics.PARSE, t);
+	for (int i = 0; i < counts.length; i++)
+	    dataSize += counts[i];
+	if (myrank == 0) System.out.println("Total points: " + dataSize);
+	// set initial seed centroid
+	String initMode = opts.getString("init", "random");
+	if (opts.has("s"))
+	    kmd.rand = new Random(opts.getLong("s", 0) + myrank);
+	long seedStart = System.currentTimeMillis();
+	if (initMode.equals("kmeans||"))
+	    kmd.centroids = Seeding.kmeansParallel(comm, kmd.indata,
+		    kmd.dimension, counts, num_cluster, kmd.rand,
+		    opts.getInt("rounds", Seeding.ROUNDS));
+	else if (initMode.equals("random"))
+	    kmd.setIniCen(comm, counts);
+	else
+	    throw new IllegalArgumentException("unknown seeding: " + initMode);
+	kmd.metrics.lap(Metrics.SEED, t);
+	kmd.metrics.endIteration();
+	if (myrank == 0)
+	    System.out.println("Seeding (" + initMode + "): "
+		    + (System.currentTimeMillis() - seedStart) + "(ms)");
 
-	if (myrank == 0) kmd.setIniCen(); // set initial seed centroid
+	int start = 0;
+	int end = kmd.indata.length;
 
 	/*
-	 * Here determines the segments of every process
-	 * Ex:  5000 data, 5 process
-	 *     p0: start=0, end=1000; p1: start=1000, end=2000; ... 
+	 * The base counts of all groups followed by the group sizes, one flat
+	 * int array so that it can be summed in a single reduction. What the
+	 * stopping rules look at goes in a second, long reduction: the points
+	 * that changed group, the base mismatches, which overflow an int on
+	 * large inputs, and the time the master has spent iterating.
 	 */
-	int segNum = dataSize / MPI.COMM_WORLD.Size();
-	int start = myrank * segNum;
-	int end = Math.min((myrank + 1) * segNum, dataSize);
-	int[][][] ATCGNum = null;
-	int[] groupCount = null;
+	int cubeLen = num_cluster * 4 * kmd.dimension;
+	int statLen = cubeLen + num_cluster;
+	int[] ATCGNum = new int[statLen];
+	long[] counters = new long[3];
+	long iterStart = System.currentTimeMillis();
+	// per-iteration progress, the final totals are printed anyway
+	kmd.verbose = myrank == 0 && !opts.has("quiet");
+	// no point has a group before the first assignment
+	for (int i = start; i < end; i++)
+	    kmd.indata[i].group = -1;
 
 	/* =================== Start K-means here =========================== */
-	for (int iter = 0; iter < MAX_ITER; iter++) {
+	int iter;
+	for (iter = 0;; iter++) {
 
-	    /* 1. Broadcast the latest centroids */
-	    MPI.COMM_WORLD.Bcast(kmd.centroids, 0, num_cluster, MPI.OBJECT, 0);
+	    /* 1. Update the group of each segment */
+	    t = System.nanoTime();
+	    kmd.updateGroup(kmd.indata, start, end);
+	    t = kmd.metrics.lap(Metrics.ASSIGN, t);
 
 	    /*
-	     * Procedures are different among Master and Slaves here.
+	     * 2. In this step, we reduce the inter-communication
+	     *    by only transmitting the stats of segments.
+	     *    That is, each process is responsible for a part of 
+	     *    the whole data, and only transmits pre-processed data
+	     *    to avoid network bottleneck.
 	     */
-	    if (myrank == 0) {
-		/* 2.(master) Update the group of its segment */
-		kmd.updateGroup(kmd.indata, start, end);
-
-		/*
-		 * 3.(master) In this step, we reduce the inter-communication
-		 *            by only transmitting the stats of segments.
-		 *            That is, each process is responsible for a part of 
-		 *            the whole data, and only transmits pre-processed data
-		 *            to avoid network bottleneck.
-		 */
-		ATCGNum = new int[num_cluster][4][kmd.dimension];
-		groupCount = new int[num_cluster];
-		
-		for (int i = start; i < end; i++) {
-		    DNAPoint dpoint = kmd.indata[i];
-		    for (int j = 0; j < kmd.dimension; j++) {
-			ATCGNum[dpoint.group][kmd.baseToIdx(dpoint.data[j])][j]++;
-		    }
-		    groupCount[dpoint.group]++;
-		}
-		
-		/* Receive the pre-processed data from slaves */
-		for (int i = 1; i < MPI.COMM_WORLD.Size(); i++) {
-		    int[][][] slaveBuf = new int[num_cluster][4][kmd.dimension];
-		    int[] slaveGroupCount = new int[num_cluster];
+	    Arrays.fill(ATCGNum, 0);
+	    for (int i = start; i < end; i++) {
+		DNAPoint dpoint = kmd.indata[i];
+		KmeansDNA.countBases(dpoint, kmd.dimension, ATCGNum,
+			dpoint.group * 4 * kmd.dimension, 1);
+		ATCGNum[cubeLen + dpoint.group]++;
+	    }
+	    counters[0] = kmd.metrics.reassigned();
+	    counters[1] = (long) kmd.metrics.sse();
+	    counters[2] = myrank == 0 ? System.currentTimeMillis() - iterStart
+		    : 0;
+	    t = kmd.metrics.lap(Metrics.ACCUMULATE, t);
 
-		    MPI.COMM_WORLD.Recv(slaveBuf, 0, num_cluster, MPI.OBJECT, i, 1);
-		    MPI.COMM_WORLD.Recv(slaveGroupCount, 0, num_cluster, MPI.INT, i, 3);
-		    
-		    for (int x = 0; x < num_cluster; x++) {
-			for (int y = 0; y < 4; y++) {
-			    for (int z = 0; z < kmd.dimension; z++) ATCGNum[x][y][z] += slaveBuf[x][y][z];
-			}
-			groupCount[x] += slaveGroupCount[x];
+	    /*
+	     * 3. Sum the pre-processed data of all processes. Every process
+	     *    receives the totals (with -reduce tree or ring in log-depth or
+	     *    bandwidth-optimal steps), so no master has to broadcast the
+	     *    centroids or the decision to stop.
+	     */
+	    comm.allreduceSum(ATCGNum, 0, ATCGNum.length);
+	    comm.allreduceSum(counters, 0, counters.length);
+	    t = kmd.metrics.lap(Metrics.COMMUNICATE, t);
+
+	    /* 4. Every process updates the centroids from the same totals */
+	    DNAPoint[] newCentroids = new DNAPoint[num_cluster];
+
+	    for (int i = 0; i < num_cluster; i++) {
+		DNAPoint curData = new DNAPoint(kmd.dimension);
+		int groupOff = i * 4 * kmd.dimension;
+		for (int j = 0; j < kmd.dimension; j++) {
+		    int maxIdx = 0;
+		    for (int k = 1; k < 4; k++) {
+			if (ATCGNum[groupOff + k * kmd.dimension + j] > ATCGNum[groupOff + maxIdx * kmd.dimension + j])
+			    maxIdx = k;
 		    }
+		    curData.setBase(j, maxIdx);
 		}
-	    } else {
-		/* 2.(slaves) Update the group of each segment */
-		kmd.updateGroup(kmd.indata, start, end);
 
-		/* 3.(slaves) Send the stats to master */
-		int[][][] slaveBuf = new int[num_cluster][4][kmd.dimension];
-		int[] slaveGroupCount = new int[num_cluster];
-		
-		for (int i = start; i < end; i++) {
-		    DNAPoint dpoint = kmd.indata[i];
-		    for (int j = 0; j < kmd.dimension; j++) {
-			slaveBuf[dpoint.group][kmd.baseToIdx(dpoint.data[j])][j]++;
-		    }
-		    slaveGroupCount[dpoint.group]++;
-		}
-		
-		MPI.COMM_WORLD.Send(slaveBuf, 0, num_cluster, MPI.OBJECT, 0, 1);
-		MPI.COMM_WORLD.Send(slaveGroupCount, 0, num_cluster, MPI.INT, 0, 3);
+		newCentroids[i] = curData;
 	    }
 
-	    /* 5.(master) The master updates the centroids */
-	    if (myrank == 0) {
-		DNAPoint[] newCentroids = new DNAPoint[num_cluster];
-
-		for (int i = 0; i < num_cluster; i++) {
-		    char[] curData = new char[kmd.dimension];
-		    for (int j = 0; j < kmd.dimension; j++) {
-			int minIdx = 0;
-			for (int k = 1; k < 4; k++) {
-			    if (ATCGNum[i][k][j] > ATCGNum[i][minIdx][j])
-				minIdx = k;
-			}
-			curData[j] = kmd.idxToBase(minIdx);
-		    }
-
-		    newCentroids[i] = new DNAPoint(curData);
-		}
-
-		/* Check if the current results already converge. */
-		if (kmd.isConverge(newCentroids)) {
-		    running[0] = false;
+	    /* Check if the current results already converge. */
+	    boolean converged = kmd.criteria.done(iter + 1, counters[0],
+		    dataSize, counters[1], kmd.centroidShift(newCentroids),
+		    counters[2]);
+	    kmd.metrics.lap(Metrics.UPDATE, t);
+	    kmd.metrics.endIteration();
+	    if (converged) {
+		if (kmd.verbose)
+		    System.out.println("Stopped: " + kmd.criteria.reason());
+		if (myrank == 0) {
+		    int[] groupCount = new int[num_cluster];
+		    System.arraycopy(ATCGNum, cubeLen, groupCount, 0, num_cluster);
 		    kmd.printResult(groupCount);
 		}
-		kmd.centroids = newCentroids;
-	    }
-
-	    /* Sync all process, if the k-means converge, every process breaks together */
-	    MPI.COMM_WORLD.Bcast(running, 0, 1, MPI.BOOLEAN, 0);
-	    if (!running[0])
+		iter++;
 		break;
-
+	    }
+	    kmd.centroids = newCentroids;
 	}
+	kmd.metrics.close();
 	if (myrank == 0) {
 	    long endTime = System.currentTimeMillis();
 	    long totalTime = endTime - startTime;
+	    System.out.println("Iterations: " + iter + " ("
+		    + kmd.criteria.reason() + ")");
 	    System.out.println("Total runtime: " + totalTime + "(ms)");
 	}
-	MPI.Finalize();
-
+	kmd.iterations = iter;
+	return kmd;
     }
 
 }
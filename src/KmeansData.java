@@ -1,21 +1,51 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.Locale;
+import java.util.Random;
 
 public class KmeansData {
 
-    public DataPoint[] centroids;
+    /** row-major centroids, numGroup x dimension */
+    public double[] centroids;
     public int numGroup;
     public int dimension;
-    ArrayList<DataPoint> indata;
+    PointStore indata;
+    /** the points of a sparse input, indata is null then */
+    SparseStore sparse;
+    /** group of every point from the last assignment */
+    public int[] labels;
+    DistanceKernel kernel = DistanceKernels.get();
+    /** number of worker threads used by the assignment/update step */
+    public int numThreads = 1;
+    /** assignment mode, see Assigner.create */
+    public String assignMode = "lloyd";
+    Assigner assigner;
+    /** keep running group sums and apply only the moved points */
+    public boolean incremental = false;
+    /** in incremental mode, rebuild the sums from scratch this often */
+    public int refreshPeriod = 50;
+    /** group of every point before the last assignment, -1 before the first */
+    int[] prevLabels;
+    /** seeding, "random" or "kmeans++" */
+    public String initMode = "random";
+    /** number of iterations the last kmeanProcedure ran */
+    public int iterations;
+    Random rand = new Random();
+    /** per-iteration measurements */
+    Metrics metrics = new Metrics(null);
+    /** print per-iteration progress */
+    public boolean verbose = true;
+    /** print the size of every group when the iterations stop */
+    public boolean printSummary = true;
+    /** load the points into a float32 store */
+    public boolean float32 = false;
+    /** when to stop iterating */
+    public ConvergenceCriteria criteria = new ConvergenceCriteria(0.001, 5000);
 
     public KmeansData(int numG) {
 	numGroup = numG;
-	centroids = new DataPoint[numG];
-	indata = new ArrayList<DataPoint>();
     }
 
     /**
@@ -28,37 +58,114 @@ public class KmeansData {
      * @return the Euclidean distance
      */
     public double calDistPoint(double[] v1, double[] v2) {
-	double dist = 0;
+	return calDistPoint(v1, 0, v2, 0, v1.length);
+    }
 
-	for (int i = 0; i < v1.length; i++) {
-	    dist += Math.pow((v1[i] - v2[i]), 2);
-	}
-	return Math.sqrt(dist);
+    /**
+     * calclate the Euclidean distance between two vectors stored inside
+     * larger arrays
+     * 
+     * @param v1
+     *            array holding vector1
+     * @param off1
+     *            offset of vector1
+     * @param v2
+     *            array holding vector2
+     * @param off2
+     *            offset of vector2
+     * @param len
+     *            dimension of the vectors
+     * @return the Euclidean distance
+     */
+    public double calDistPoint(double[] v1, int off1, double[] v2, int off2,
+	    int len) {
+	return Math.sqrt(kernel.distSq(v1, off1, v2, off2, len));
     }
 
     /**
      * run k-means procedure
      */
     public void kmeanProcedure() {
-	int iteration = 1;
-	while (true) {
-	    System.out.println("Iteration: " + iteration++);
-	    DataPoint[] newCentroids = new DataPoint[centroids.length];
+	if (sparse != null) {
+	    sparseProcedure();
+	    return;
+	}
+	final int dataSize = indata.size;
+	final int numChunks = ParallelRunner.chunkCount(dataSize);
+	ParallelRunner runner = new ParallelRunner(numThreads);
+	labels = new int[dataSize];
+	prevLabels = new int[dataSize];
+	Arrays.fill(prevLabels, -1);
+	assigner = Assigner.create(assignMode, indata, numGroup);
+	assigner.setThreads(numThreads);
+	final long[] evals = new long[numChunks];
 
-	    @SuppressWarnings("unchecked")
-	    ArrayList<DataPoint>[] groupM = new ArrayList[centroids.length];
+	// one statistics buffer per chunk, merged in chunk order so that the
+	// result does not depend on the number of threads
+	final ClusterStats[] partial = new ClusterStats[numChunks];
+	for (int c = 0; c < numChunks; c++)
+	    partial[c] = new ClusterStats(numGroup, dimension);
+	ClusterStats total = new ClusterStats(numGroup, dimension);
+	criteria.reset();
+	long startTime = System.currentTimeMillis();
 
-	    for (int i = 0; i < centroids.length; i++) {
-		groupM[i] = new ArrayList<DataPoint>();
-	    }
+	int iteration = 1;
+	while (true) {
+	    // in incremental mode only the first pass and every refreshPeriod-th
+	    // pass rebuild the sums, the others apply the moved points only
+	    final boolean fullPass = !incremental
+		    || (iteration - 1) % refreshPeriod == 0;
+	    if (verbose)
+		System.out.println("Iteration: " + iteration);
+	    iteration++;
+	    double[] newCentroids = new double[numGroup * dimension];
 
 	    // update for each group
-	    updateGroup(groupM);
+	    long t = System.nanoTime();
+	    assigner.prepare(centroids);
+	    metrics.lap(Metrics.ASSIGN, t);
+	    runner.forEachChunk(dataSize, numChunks,
+		    new ParallelRunner.ChunkBody() {
+			public void run(int chunk, int start, int end) {
+			    partial[chunk].clear();
+			    if (fullPass)
+				evals[chunk] = updateGroup(start, end, partial[chunk]);
+			    else
+				evals[chunk] = updateMoved(start, end, partial[chunk]);
+			}
+		    });
+	    t = System.nanoTime();
+	    if (fullPass)
+		total.clear();
+	    long totalEvals = 0;
+	    for (int c = 0; c < numChunks; c++) {
+		total.merge(partial[c]);
+		totalEvals += evals[c];
+	    }
+	    t = metrics.lap(Metrics.ACCUMULATE, t);
+	    metrics.addEvals(totalEvals);
+	    long moved = metrics.reassigned();
+	    double sse = criteria.wantsSse() || metrics.recording() ? metrics
+		    .sse() : Double.NaN;
+	    if (verbose)
+		System.out.println("distance computations: " + totalEvals
+			+ ", skipped: " + ((long) dataSize * numGroup - totalEvals));
 	    // update the centroids
-	    getNewCen(groupM, newCentroids);
+	    getNewCen(total, newCentroids);
 	    // check convergence
-	    if (isConverge(newCentroids) || iteration >= 5000) {
-		printResult(groupM);
+	    boolean converged = criteria.done(iteration - 1, moved, dataSize,
+		    sse, centroidShift(newCentroids), System.currentTimeMillis()
+			    - startTime);
+	    metrics.lap(Metrics.UPDATE, t);
+	    metrics.endIteration();
+	    if (converged) {
+		iterations = iteration - 1;
+		if (verbose)
+		    System.out.println("Stopped: " + criteria.reason());
+		if (printSummary)
+		    printResult(total.counts);
+		runner.shutdown();
+		assigner.close();
 		return;
 	    }
 	    // update the old centroids
@@ -67,52 +174,185 @@ public class KmeansData {
     }
 
     /**
-     * for each DataPoint, re-assign their group based on the new centroids
-     * 
-     * @param groupM
-     */
-    public void updateGroup(ArrayList<DataPoint>[] groupM) {
-	// iterate all data points
-	for (int i = 0; i < indata.size(); i++) {
-	    double minDist = Double.MAX_VALUE;
-	    int group = 0;
-	    // iterate all centroid
-	    for (int j = 0; j < centroids.length; j++) {
-		double dist = 0;
-		// find the closest centroids
-		if ((dist = calDistPoint(centroids[j].data, indata.get(i).data)) < minDist) {
-		    group = j;
-		    minDist = dist;
+     * run k-means procedure on the sparse points. The chunks only assign
+     * their points and measure their SSE on numThreads threads; the group
+     * sums are accumulated afterwards in point order, touching only the
+     * non-zeros, so no chunk needs a dense statistics buffer of its own.
+     */
+    void sparseProcedure() {
+	final int dataSize = sparse.size;
+	final int numChunks = ParallelRunner.chunkCount(dataSize);
+	ParallelRunner runner = new ParallelRunner(numThreads);
+	labels = new int[dataSize];
+	prevLabels = new int[dataSize];
+	Arrays.fill(prevLabels, -1);
+	assigner = new SparseAssigner(sparse, numGroup);
+	final double[] chunkSse = new double[numChunks];
+	ClusterStats total = new ClusterStats(numGroup, dimension);
+	criteria.reset();
+	long startTime = System.currentTimeMillis();
+
+	int iteration = 1;
+	while (true) {
+	    boolean fullPass = !incremental
+		    || (iteration - 1) % refreshPeriod == 0;
+	    if (verbose)
+		System.out.println("Iteration: " + iteration);
+	    iteration++;
+	    double[] newCentroids = new double[numGroup * dimension];
+	    final boolean wantSse = criteria.wantsSse() || metrics.recording();
+
+	    long t = System.nanoTime();
+	    assigner.prepare(centroids);
+	    runner.forEachChunk(dataSize, numChunks,
+		    new ParallelRunner.ChunkBody() {
+			public void run(int chunk, int start, int end) {
+			    assigner.assign(start, end, labels);
+			    double sum = 0;
+			    if (wantSse)
+				for (int i = start; i < end; i++)
+				    sum += assigner.distSq(i, labels[i]);
+			    chunkSse[chunk] = sum;
+			}
+		    });
+	    t = metrics.lap(Metrics.ASSIGN, t);
+	    if (fullPass)
+		total.clear();
+	    long moved = 0;
+	    for (int i = 0; i < dataSize; i++) {
+		if (fullPass)
+		    total.add(sparse, i, labels[i]);
+		if (labels[i] != prevLabels[i]) {
+		    if (!fullPass) {
+			total.subtract(sparse, i, prevLabels[i]);
+			total.add(sparse, i, labels[i]);
+		    }
+		    prevLabels[i] = labels[i];
+		    moved++;
 		}
 	    }
-	    groupM[group].add(indata.get(i));
+	    double sse = Double.NaN;
+	    if (wantSse) {
+		sse = 0;
+		for (int c = 0; c < numChunks; c++)
+		    sse += chunkSse[c];
+		metrics.addSse(sse);
+	    }
+	    t = metrics.lap(Metrics.ACCUMULATE, t);
+	    metrics.addReassigned(moved);
+	    metrics.addEvals((long) dataSize * numGroup);
+	    // update the centroids
+	    getNewCen(total, newCentroids);
+	    // check convergence
+	    boolean converged = criteria.done(iteration - 1, moved, dataSize,
+		    sse, centroidShift(newCentroids), System.currentTimeMillis()
+			    - startTime);
+	    metrics.lap(Metrics.UPDATE, t);
+	    metrics.endIteration();
+	    if (converged) {
+		iterations = iteration - 1;
+		if (verbose)
+		    System.out.println("Stopped: " + criteria.reason());
+		if (printSummary)
+		    printResult(total.counts);
+		runner.shutdown();
+		assigner.close();
+		return;
+	    }
+	    centroids = newCentroids;
+	}
+    }
+
+    /**
+     * for each point in [start, end), re-assign their group based on the new
+     * centroids and add it to the statistics of that group
+     * 
+     * @param start
+     *            first point (inclusive)
+     * @param end
+     *            last point (exclusive)
+     * @param stats
+     *            per-group sums and counts of this range
+     * @return number of point-to-centroid distances computed
+     */
+    public long updateGroup(int start, int end, ClusterStats stats) {
+	long t = System.nanoTime();
+	long evals = assigner.assign(start, end, labels);
+	t = metrics.lap(Metrics.ASSIGN, t);
+	int moved = 0;
+	for (int i = start; i < end; i++) {
+	    stats.add(indata, i, labels[i]);
+	    if (labels[i] != prevLabels[i]) {
+		prevLabels[i] = labels[i];
+		moved++;
+	    }
 	}
+	metrics.lap(Metrics.ACCUMULATE, t);
+	metrics.addReassigned(moved);
+	if (criteria.wantsSse() || metrics.recording())
+	    metrics.addSse(sse(start, end));
+	return evals;
+    }
+
+    /**
+     * re-assign the points in [start, end) and record only the points whose
+     * group changed: each is removed from its old group and added to its new
+     * one, so the cost of the update is proportional to the moved points
+     * 
+     * @param start
+     *            first point (inclusive)
+     * @param end
+     *            last point (exclusive)
+     * @param delta
+     *            receives the change of the per-group sums and counts
+     * @return number of point-to-centroid distances computed
+     */
+    public long updateMoved(int start, int end, ClusterStats delta) {
+	long t = System.nanoTime();
+	long evals = assigner.assign(start, end, labels);
+	t = metrics.lap(Metrics.ASSIGN, t);
+	int moved = 0;
+	for (int i = start; i < end; i++) {
+	    if (labels[i] != prevLabels[i]) {
+		delta.subtract(indata, i, prevLabels[i]);
+		delta.add(indata, i, labels[i]);
+		prevLabels[i] = labels[i];
+		moved++;
+	    }
+	}
+	metrics.lap(Metrics.ACCUMULATE, t);
+	metrics.addReassigned(moved);
+	if (criteria.wantsSse() || metrics.recording())
+	    metrics.addSse(sse(start, end));
+	return evals;
+    }
+
+    /**
+     * @return sum of the squared distances of the points in [start, end) to
+     *         the centroid of their group
+     */
+    double sse(int start, int end) {
+	double sum = 0;
+	for (int i = start; i < end; i++)
+	    sum += indata.distSq(kernel, i, centroids, labels[i] * dimension);
+	return sum;
     }
 
     /**
-     * get the new centroids from the newest formed groups
+     * get the new centroids from the sums and counts of every group
      * 
-     * @param groupM
-     *            a list where each element conatins a list of DataPoint belongs
-     *            to that group
+     * @param stats
+     *            per-group sums and counts over all points
      * @param newCentroids
      *            new centroid
      */
-    public void getNewCen(ArrayList<DataPoint>[] groupM,
-	    DataPoint[] newCentroids) {
-	for (int i = 0; i < groupM.length; i++) {
-	    if (groupM[i].size() == 0) { // no points in this centroids!
+    public void getNewCen(ClusterStats stats, double[] newCentroids) {
+	for (int i = 0; i < stats.numGroup; i++) {
+	    if (stats.counts[i] == 0 && verbose) { // no points in this centroids!
 		System.out.println("No points in this centroids!");
 	    }
-	    double[] tmp = new double[dimension];
-	    DataPoint newC = new DataPoint(tmp);
-
-	    for (int j = 0; j < groupM[i].size(); j++) {
-		newC.add(groupM[i].get(j));
-	    }
-	    newC.divide((double) groupM[i].size());
-	    newCentroids[i] = newC;
 	}
+	stats.means(newCentroids);
     }
 
     /**
@@ -123,83 +363,402 @@ public class KmeansData {
      *            new centroids
      * @return if the k-mean procedure converges or not
      */
-    public boolean isConverge(DataPoint[] newCentroids) {
+    public boolean isConverge(double[] newCentroids) {
+	return centroidShift(newCentroids) < criteria.maxShift;
+    }
+
+    /**
+     * @param newCentroids
+     *            new centroids
+     * @return mean distance between the new and the old centroids
+     */
+    public double centroidShift(double[] newCentroids) {
 	double diff = 0.0;
-	for (int i = 0; i < newCentroids.length; i++) {
-	    diff += calDistPoint(newCentroids[i].data, centroids[i].data);
+	for (int i = 0; i < numGroup; i++) {
+	    diff += calDistPoint(newCentroids, i * dimension, centroids, i
+		    * dimension, dimension);
 	}
 	diff /= (double) numGroup;
-	System.out.println("centroid difference: " + diff);
-	return diff < 0.001;
+	if (verbose)
+	    System.out.println("centroid difference: " + diff);
+	return diff;
     }
 
     /**
-     * parse the data and store them into a DataPoint array
+     * parse the data and store them into a PointStore, the input is either a
+     * CSV file or a binary dataset written by DatasetConverter. With float32
+     * the store holds floats.
      * 
      * @param fnName
      *            file name
      */
     public void parse(String fnName) {
-	try {
-	    BufferedReader br = new BufferedReader(new FileReader(fnName));
-	    String str = "";
-	    while ((str = br.readLine()) != null) {
-		String[] strArr = str.split(",");
-		dimension = strArr.length;
-		double[] dArr = new double[strArr.length];
-		for (int i = 0; i < strArr.length; i++)
-		    dArr[i] = Double.parseDouble(strArr[i]);
-		DataPoint dp = new DataPoint(dArr);
-		indata.add(dp);
+	if (BinaryDataset.isBinary(fnName)) {
+	    try {
+		BinaryDataset ds = BinaryDataset.open(fnName);
+		indata = ds.readPoints(0, ds.size, float32);
+		dimension = ds.dimension;
+	    } catch (IOException e) {
+		e.printStackTrace();
 	    }
-	    br.close();
-	} catch (FileNotFoundException e) {
+	    return;
+	}
+	try {
+	    indata = CsvParser.parsePoints(fnName, 0, FileSlice.length(fnName),
+		    Runtime.getRuntime().availableProcessors());
+	    if (float32)
+		indata = indata.toFloat();
+	    dimension = indata.dimension;
+	} catch (IOException e) {
 	    e.printStackTrace();
+	}
+    }
+
+    /**
+     * parse a sparse input, see SparseStore for the format
+     * 
+     * @param fnName
+     *            file name
+     * @param dim
+     *            number of dimensions, 0 for the largest index plus one
+     */
+    public void parseSparse(String fnName, int dim) {
+	try {
+	    sparse = SparseStore.parse(fnName, 0, FileSlice.length(fnName), dim);
+	    dimension = sparse.dimension;
 	} catch (IOException e) {
 	    e.printStackTrace();
 	}
     }
 
     /**
-     * set initial centroids
+     * set initial centroids, uniformly random points or k-means++ depending
+     * on initMode; a sparse input is only seeded at random
      */
     public void setIniCen() {
+	if (sparse != null && !initMode.equals("random")) {
+	    throw new IllegalArgumentException("sparse input needs random seeding");
+	} else if (initMode.equals("kmeans++")) {
+	    centroids = Seeding.kmeansPlusPlus(indata, numGroup, kernel, rand);
+	    return;
+	} else if (!initMode.equals("random")) {
+	    throw new IllegalArgumentException("unknown seeding: " + initMode);
+	}
 	HashSet<Integer> used = new HashSet<Integer>();
+	centroids = new double[numGroup * dimension];
 	int count = 0;
 	while (count != numGroup) {
-	    int idx = (int) (Math.random() * indata.size());
+	    int idx = rand.nextInt(sparse != null ? sparse.size : indata.size);
 	    if (used.contains(idx))
 		continue;
-	    centroids[count++] = indata.get(idx);
+	    if (sparse != null)
+		sparse.copyPoint(idx, centroids, dimension * count++);
+	    else
+		indata.copyPoint(idx, centroids, dimension * count++);
 	    used.add(idx);
 	}
     }
 
-    public void printResult(ArrayList<DataPoint>[] group) {
+    public void printResult(int[] group) {
 	System.out.println("Finish Running K-Means!");
 	System.out.println("Number of data in each clusters:");
 	int total = 0;
 	for (int i = 0; i < group.length; i++) {
-	    System.out.println("Group " + (i + 1) + ": " + group[i].size());
-	    total += group[i].size();
+	    System.out.println("Group " + (i + 1) + ": " + group[i]);
+	    total += group[i];
 	}
 	System.out.println("Total data: " + total);
     }
 
-    public static void main(String[] args) {
+    /**
+     * set initial centroids from a sample of a source that is not loaded:
+     * the seeding of initMode runs on the sample as it would on the data
+     * 
+     * @param src
+     *            the data
+     * @param rows
+     *            sample size
+     */
+    void seedFromSample(PointSource src, int rows) throws IOException {
+	double[] sample = new double[rows * src.dimension];
+	rows = src.sample(sample, rows, rand);
+	indata = new PointStore(sample, rows, src.dimension);
+	dimension = src.dimension;
+	setIniCen();
+	indata = null;
+    }
+
+    /**
+     * out-of-core mode: exact Lloyd iterations streaming the input from disk
+     * within a memory budget, and with -compare the in-memory run from the
+     * same initial centroids
+     * 
+     * @param kmd
+     *            configured engine, its data is only loaded for -compare
+     * @param opts
+     *            parsed command line
+     */
+    static void runOutOfCore(KmeansData kmd, Options opts) throws IOException {
+	String input = opts.positional(0);
+	PointSource src = PointSource.open(input, 0, 1);
+	long budget = opts.getLong("mem", 256) << 20;
+	kmd.seedFromSample(src, Math.max(100 * kmd.numGroup, 10000));
+	double[] initial = kmd.centroids.clone();
+	OutOfCoreKmeans ooc = new OutOfCoreKmeans(kmd, src, budget,
+		opts.has("labels") ? new File(opts.getString("labels", null))
+			: null);
+	System.out.println("Out-of-core: chunks of " + ooc.chunkRows
+		+ " points, budget " + (budget >> 20) + " MB");
+	long start = System.currentTimeMillis();
+	try {
+	    ooc.run();
+	} finally {
+	    ooc.close();
+	    src.close();
+	}
+	System.out.println("Out-of-core: " + kmd.iterations + " iterations over "
+		+ ooc.points + " points, " + (System.currentTimeMillis() - start)
+		+ "(ms)");
+
+	if (opts.has("compare")) {
+	    double[] streamed = kmd.centroids;
+	    kmd.parse(input);
+	    kmd.centroids = initial;
+	    kmd.kmeanProcedure();
+	    double diff = 0;
+	    for (int i = 0; i < streamed.length; i++)
+		diff = Math.max(diff, Math.abs(streamed[i] - kmd.centroids[i]));
+	    System.out.println("In-memory: " + kmd.iterations
+		    + " iterations, largest centroid difference " + diff);
+	}
+    }
+
+    /**
+     * mini-batch mode: stream batches from the input instead of loading it,
+     * then report the SSE, and with -compare also the SSE of full-batch
+     * k-means from the same initial centroids
+     * 
+     * @param kmd
+     *            configured engine, its data is only loaded for -compare
+     * @param opts
+     *            parsed command line
+     */
+    static void runMiniBatch(KmeansData kmd, Options opts) throws IOException {
+	String input = opts.positional(0);
+	PointSource src = PointSource.open(input, 0, 1);
+	MiniBatchKmeans mb = new MiniBatchKmeans(kmd.numGroup, src.dimension,
+		kmd.kernel);
+	mb.batchSize = opts.getInt("b", mb.batchSize);
+	mb.tolerance = opts.getDouble("tol", mb.tolerance);
+	mb.budgetMillis = opts.getLong("budget", 0);
+	mb.maxBatches = opts.getInt("maxbatches", mb.maxBatches);
+
+	kmd.seedFromSample(src, mb.initialSampleSize());
+	double[] initial = kmd.centroids.clone();
+	mb.centroids = kmd.centroids.clone();
+
+	long start = System.currentTimeMillis();
+	mb.run(src, kmd.rand);
+	System.out.println("Mini-batch: " + mb.batches + " batches of "
+		+ mb.batchSize + " points, smoothed movement " + mb.smoothedMove
+		+ ", " + (System.currentTimeMillis() - start) + "(ms)");
+	int[] counts = new int[kmd.numGroup];
+	double sse = mb.sse(src, counts);
+	src.close();
+	kmd.printResult(counts);
+	System.out.println("SSE: " + sse);
+
+	if (opts.has("compare")) {
+	    kmd.parse(input);
+	    kmd.centroids = initial;
+	    start = System.currentTimeMillis();
+	    kmd.kmeanProcedure();
+	    double fullSSE = MiniBatchKmeans.sse(kmd.indata, kmd.centroids,
+		    kmd.numGroup, kmd.kernel);
+	    System.out.println("Full batch: " + kmd.iterations + " iterations, "
+		    + (System.currentTimeMillis() - start) + "(ms)");
+	    System.out.println("Full-batch SSE: " + fullSSE
+		    + ", mini-batch / full-batch: " + sse / fullSSE);
+	}
+    }
+
+    /**
+     * multi-restart mode: load the data once, run several seeded restarts
+     * concurrently on it and keep the centroids and labels of the one with
+     * the lowest SSE
+     * 
+     * @param kmd
+     *            configured engine with the data loaded
+     * @param opts
+     *            parsed command line
+     */
+    static void runRestarts(KmeansData kmd, Options opts) {
+	int restarts = opts.getInt("restarts", 10);
+	long seed = opts.has("s") ? opts.getLong("s", 0) : kmd.rand.nextLong();
+	MultiRestart mr = new MultiRestart(kmd, restarts, seed);
+	mr.abortMargin = opts.getDouble("abort", mr.abortMargin);
+	try {
+	    mr.run();
+	} catch (InterruptedException e) {
+	    e.printStackTrace();
+	    return;
+	}
+	for (int r = 0; r < restarts; r++)
+	    System.out.println("Restart " + r + " (seed " + (seed + r) + "): "
+		    + mr.iterations[r] + " iterations, SSE " + mr.sse[r]
+		    + (mr.aborted[r] ? ", aborted" : ""));
+	System.out.println("Best: restart " + mr.bestRestart + ", SSE "
+		+ mr.sse[mr.bestRestart]);
+	kmd.centroids = mr.best.centroids;
+	kmd.labels = mr.best.labels;
+	kmd.iterations = mr.best.iterations;
+	int[] counts = new int[kmd.numGroup];
+	for (int label : kmd.labels)
+	    counts[label]++;
+	kmd.printResult(counts);
+    }
+
+    /**
+     * float32 mode: run again on a float64 store from the same initial
+     * centroids and report the memory, the time and the points whose final
+     * group differs. Both runs share the JIT profile of one JVM, which favors
+     * the first, so for timings run the two modes separately.
+     * 
+     * @param kmd
+     *            engine that has just finished the float32 run
+     * @param input
+     *            the data
+     * @param initial
+     *            initial centroids of the float32 run
+     * @param floatMillis
+     *            time of the float32 run
+     */
+    static void compareFloat64(KmeansData kmd, String input, double[] initial,
+	    long floatMillis) {
+	long floatBytes = kmd.indata.bytes();
+	int[] floatLabels = kmd.labels;
+	int floatIterations = kmd.iterations;
+	kmd.float32 = false;
+	kmd.indata = null;
+	kmd.parse(input);
+	kmd.centroids = initial;
+	long start = System.currentTimeMillis();
+	kmd.kmeanProcedure();
+	long doubleMillis = System.currentTimeMillis() - start;
+	int differ = 0;
+	for (int i = 0; i < floatLabels.length; i++)
+	    if (floatLabels[i] != kmd.labels[i])
+		differ++;
+	System.out.println(String.format(Locale.ROOT,
+		"float32: %.1f MB, %d iterations, %d(ms)", floatBytes / 1e6,
+		floatIterations, floatMillis));
+	System.out.println(String.format(Locale.ROOT,
+		"float64: %.1f MB, %d iterations, %d(ms)",
+		kmd.indata.bytes() / 1e6, kmd.iterations, doubleMillis));
+	System.out.println("Points in a different group: " + differ + " of "
+		+ floatLabels.length);
+    }
+
+    public static void main(String[] args) throws IOException {
 	long startTime = System.currentTimeMillis();
-	if (args.length != 2) {
+	Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
 	    System.out
-		    .println("[Usage] java KmeansData <input data> <number of cluster>");
+		    .println("[Usage] java KmeansData <input data> <number of cluster> [-t threads] [-s seed] [-a lloyd|hamerly|blocked|kdtree] [-i refresh period] [-init random|kmeans++] [-quiet] [-metrics file.jsonl|file.csv]"
+			    + " " + ConvergenceCriteria.USAGE
+			    + " [-b batch size [-tol movement] [-budget ms] [-maxbatches n] [-compare]]"
+			    + " [-ooc [-mem MB] [-labels file] [-compare]]"
+			    + " [-restarts n [-abort margin]]"
+			    + " [-sweep min k [-sample n]] [-float [-compare]]"
+			    + " [-sparse [-dim d]]");
 	    return;
 	}
 
-	KmeansData kmd = new KmeansData(Integer.parseInt(args[1]));
-	kmd.parse(args[0]); // parse input and store in the object
+	KmeansData kmd = new KmeansData(Integer.parseInt(opts.positional(1)));
+	kmd.numThreads = opts.getInt("t", 1);
+	kmd.assignMode = opts.getString("a", "lloyd");
+	kmd.initMode = opts.getString("init", "random");
+	if (opts.has("i")) {
+	    kmd.incremental = true;
+	    kmd.refreshPeriod = opts.getInt("i", 50);
+	}
+	if (opts.has("s"))
+	    kmd.rand = new Random(opts.getLong("s", 0));
+	kmd.verbose = !opts.has("quiet");
+	kmd.float32 = opts.has("float");
+	kmd.criteria = ConvergenceCriteria.parse(opts, 0.001, 5000);
+	if (opts.has("metrics"))
+	    kmd.metrics.open(opts.getString("metrics", null));
+	if (kmd.verbose)
+	    System.out.println("distance kernel: " + kmd.kernel.name());
+	if (opts.has("sparse")
+		&& (opts.has("b") || opts.has("ooc") || opts.has("sweep")
+			|| opts.has("restarts") || kmd.float32)) {
+	    System.out.println("-sparse only runs the in-memory k-means");
+	    return;
+	}
+	if (opts.has("b") || opts.has("ooc")) {
+	    if (opts.has("b"))
+		runMiniBatch(kmd, opts);
+	    else
+		runOutOfCore(kmd, opts);
+	    kmd.metrics.close();
+	    System.out.println("Total runtime: "
+		    + (System.currentTimeMillis() - startTime) + "(ms)");
+	    return;
+	}
+	long t = System.nanoTime();
+	if (opts.has("sparse")) {
+	    kmd.parseSparse(opts.positional(0), opts.getInt("dim", 0));
+	    System.out.println("Sparse input: " + kmd.sparse.size + " points, "
+		    + kmd.dimension + " dimensions, " + kmd.sparse.nonZeros()
+		    + " non-zeros");
+	} else {
+	    kmd.parse(opts.positional(0)); // parse input and store in the object
+	}
+	t = kmd.metrics.lap(Metrics.PARSE, t);
+	if (opts.has("sweep")) {
+	    kmd.metrics.endIteration();
+	    KSweep sweep = new KSweep.Euclidean(kmd, opts.getInt("sweep", 2),
+		    kmd.numGroup);
+	    sweep.sampleSize = opts.getInt("sample", sweep.sampleSize);
+	    sweep.numThreads = kmd.numThreads;
+	    try {
+		sweep.run();
+	    } catch (InterruptedException e) {
+		e.printStackTrace();
+	    }
+	    sweep.print();
+	    kmd.metrics.close();
+	    System.out.println("Total runtime: "
+		    + (System.currentTimeMillis() - startTime) + "(ms)");
+	    return;
+	}
+	if (opts.has("restarts")) {
+	    kmd.metrics.endIteration();
+	    runRestarts(kmd, opts);
+	    kmd.metrics.close();
+	    System.out.println("Total runtime: "
+		    + (System.currentTimeMillis() - startTime) + "(ms)");
+	    return;
+	}
+	long seedStart = System.currentTimeMillis();
 	kmd.setIniCen(); // set initial seed centroid
+	kmd.metrics.lap(Metrics.SEED, t);
+	kmd.metrics.endIteration();
+	System.out.println("Seeding (" + kmd.initMode + "): "
+		+ (System.currentTimeMillis() - seedStart) + "(ms)");
+	double[] initial = kmd.centroids.clone();
+	long runStart = System.currentTimeMillis();
 	kmd.kmeanProcedure(); // do kmean procedure
+	if (kmd.float32 && opts.has("compare"))
+	    compareFloat64(kmd, opts.positional(0), initial,
+		    System.currentTimeMillis() - runStart);
+	kmd.metrics.close();
 	long endTime = System.currentTimeMillis();
 	long totalTime = endTime - startTime;
+	System.out.println("Iterations: " + kmd.iterations + " ("
+		+ kmd.criteria.reason() + ")");
 	System.out.println("Total runtime: " + totalTime + "(ms)");
     }
 }
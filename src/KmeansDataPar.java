@@ -1,97 +1,172 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
-
-import mpi.*;
+import java.util.Random;
 
 public class KmeansDataPar {
     public static final int MAX_ITER = 5000;
 
-    public DataPoint[] centroids;
+    /** row-major centroids, numGroup x dimension */
+    public double[] centroids;
     public int numGroup;
     public int dimension;
-    public DataPoint[] indata = null;
+    /** the points of this process's segment */
+    public PointStore indata = null;
+    /** the points of this process's segment of a sparse input, indata is null then */
+    public SparseStore sparse = null;
+    /** group of every point of this process's segment */
+    public int[] labels;
+    DistanceKernel kernel = DistanceKernels.get();
+    Assigner assigner;
+    /** group of every point before the last assignment, -1 before the first */
+    int[] prevLabels;
+    /**
+     * threads parsing this process's slice of a CSV input, also lent to the
+     * assigner (the kdtree walk)
+     */
+    public int parseThreads = 1;
+    /** this process's random source */
+    Random rand = new Random();
+    /** print progress messages, only the master process does */
+    public boolean verbose = true;
+    /** number of iterations runRank ran, batches in mini-batch mode */
+    public int iterations;
+    /** load the points into a float32 store */
+    public boolean float32 = false;
+    /** this process's per-iteration measurements */
+    Metrics metrics = new Metrics(null);
+    /** when to stop iterating, decided from the counters of all processes */
+    public ConvergenceCriteria criteria = new ConvergenceCriteria(0.001,
+	    MAX_ITER);
 
     public KmeansDataPar(int numG) {
 	numGroup = numG;
-	centroids = new DataPoint[numG];
     }
 
     /**
-     * calclate the Euclidean distance between two vectors
+     * calclate the Euclidean distance between two vectors stored inside
+     * larger arrays
      * 
      * @param v1
-     *            vector1
+     *            array holding vector1
+     * @param off1
+     *            offset of vector1
      * @param v2
-     *            vector2
+     *            array holding vector2
+     * @param off2
+     *            offset of vector2
+     * @param len
+     *            dimension of the vectors
      * @return the Euclidean distance
      */
-    public double calDistPoint(double[] v1, double[] v2) {
-	double dist = 0;
+    public double calDistPoint(double[] v1, int off1, double[] v2, int off2,
+	    int len) {
+	return Math.sqrt(kernel.distSq(v1, off1, v2, off2, len));
+    }
 
-	for (int i = 0; i < v1.length; i++) {
-	    dist += Math.pow((v1[i] - v2[i]), 2);
+    /**
+     * for each point in the segment, re-assign their group based on the new
+     * centroids and accumulate the stats of every group
+     * 
+     * @param start
+     *            Update points from start.
+     * @param end
+     *            Update points to end.
+     * @param stats
+     *            per-group sums and counts of the segment
+     * @return number of point-to-centroid distances computed
+     */
+    public long updateGroup(int start, int end, ClusterStats stats) {
+	long t = System.nanoTime();
+	assigner.prepare(centroids);
+	long evals = assigner.assign(start, end, labels);
+	t = metrics.lap(Metrics.ASSIGN, t);
+	int moved = 0;
+	for (int i = start; i < end; i++) {
+	    if (sparse != null)
+		stats.add(sparse, i, labels[i]);
+	    else
+		stats.add(indata, i, labels[i]);
+	    if (labels[i] != prevLabels[i]) {
+		prevLabels[i] = labels[i];
+		moved++;
+	    }
 	}
-	return Math.sqrt(dist);
+	metrics.lap(Metrics.ACCUMULATE, t);
+	metrics.addReassigned(moved);
+	metrics.addEvals(evals);
+	if (criteria.wantsSse() || metrics.recording())
+	    metrics.addSse(sse(start, end));
+	return evals;
     }
 
     /**
-     * for each DataPoint in the DataPoint array, re-assign their group based on
-     * the new centroids
+     * re-assign the points in [start, end) and record only the points whose
+     * group changed: each is removed from its old group and added to its new
+     * one, so the cost of the update is proportional to the moved points
      * 
-     * @param dataPoints
-     *            The array storing DataPoint objects.
      * @param start
-     *            Update objects from start.
+     *            first point (inclusive)
      * @param end
-     * 		  Update objects to end.
+     *            last point (exclusive)
+     * @param delta
+     *            receives the change of the per-group sums and counts
+     * @return number of point-to-centroid distances computed
      */
-    public void updateGroup(DataPoint[] dataPoints, int start, int end) {
+    public long updateMoved(int start, int end, ClusterStats delta) {
+	long t = System.nanoTime();
+	assigner.prepare(centroids);
+	long evals = assigner.assign(start, end, labels);
+	t = metrics.lap(Metrics.ASSIGN, t);
+	int moved = 0;
 	for (int i = start; i < end; i++) {
-
-	    double minDist = Double.MAX_VALUE;
-	    int group = 0;
-
-	    for (int j = 0; j < centroids.length; j++) {
-		double dist = 0;
-		// find the closest centroids
-		if ((dist = calDistPoint(centroids[j].data, dataPoints[i].data)) < minDist) {
-		    group = j;
-		    minDist = dist;
+	    if (labels[i] != prevLabels[i]) {
+		if (sparse != null) {
+		    delta.subtract(sparse, i, prevLabels[i]);
+		    delta.add(sparse, i, labels[i]);
+		} else {
+		    delta.subtract(indata, i, prevLabels[i]);
+		    delta.add(indata, i, labels[i]);
 		}
+		prevLabels[i] = labels[i];
+		moved++;
 	    }
-
-	    dataPoints[i].group = group;
 	}
+	metrics.lap(Metrics.ACCUMULATE, t);
+	metrics.addReassigned(moved);
+	metrics.addEvals(evals);
+	if (criteria.wantsSse() || metrics.recording())
+	    metrics.addSse(sse(start, end));
+	return evals;
+    }
+
+    /**
+     * @return sum of the squared distances of the points in [start, end) to
+     *         the centroid of their group
+     */
+    double sse(int start, int end) {
+	double sum = 0;
+	for (int i = start; i < end; i++)
+	    sum += sparse != null ? assigner.distSq(i, labels[i]) : indata
+		    .distSq(kernel, i, centroids, labels[i] * dimension);
+	return sum;
     }
 
     /**
-     * get the new centroids from the newest formed groups
+     * get the new centroids from the sums and counts of every group
      * 
-     * @param groupM
-     *            a list where each element conatins a list of DataPoint belongs
-     *            to that group
+     * @param stats
+     *            per-group sums and counts over all points
      * @param newCentroids
      *            new centroid
      */
-    public void getNewCen(ArrayList<DataPoint>[] groupM,
-	    DataPoint[] newCentroids) {
-	for (int i = 0; i < groupM.length; i++) {
-	    if (groupM[i].size() == 0) { // no points in this centroids!
+    public void getNewCen(ClusterStats stats, double[] newCentroids) {
+	for (int i = 0; i < stats.numGroup; i++) {
+	    if (stats.counts[i] == 0 && verbose) { // no points in this centroids!
 		System.out.println("No points in this centroids!");
 	    }
-	    double[] tmp = new double[dimension];
-	    DataPoint newC = new DataPoint(tmp);
-
-	    for (int j = 0; j < groupM[i].size(); j++) {
-		newC.add(groupM[i].get(j));
-	    }
-	    newC.divide((double) groupM[i].size());
-	    newCentroids[i] = newC;
 	}
+	stats.means(newCentroids);
     }
 
     /**
@@ -103,65 +178,141 @@ public class KmeansDataPar {
      * @return if the k-mean procedure converges or not
      */
 
-    public boolean isConverge(DataPoint[] newCentroids, int num_cluster) {
+    public boolean isConverge(double[] newCentroids, int num_cluster) {
+	return centroidShift(newCentroids, num_cluster) < criteria.maxShift;
+    }
+
+    /**
+     * @param newCentroids
+     *            new centroids
+     * @param num_cluster
+     *            number of centroids
+     * @return mean distance between the new and the old centroids
+     */
+    public double centroidShift(double[] newCentroids, int num_cluster) {
 	double diff = 0.0;
-	for (int i = 0; i < newCentroids.length; i++) {
-	    diff += calDistPoint(newCentroids[i].data, centroids[i].data);
+	for (int i = 0; i < num_cluster; i++) {
+	    diff += calDistPoint(newCentroids, i * dimension, centroids, i
+		    * dimension, dimension);
 	}
 	diff /= (double) num_cluster;
-	System.out.println("centroid difference: " + diff);
-	return diff < 0.001;
+	if (verbose) System.out.println("centroid difference: " + diff);
+	return diff;
     }
 
     /**
-     * parse the data and store them into a DataPoint array
+     * parse this process's slice of the data (a CSV file or a binary dataset
+     * written by DatasetConverter) and store it into a PointStore, then agree
+     * with the other processes on the dimension and on how many points each
+     * of them holds
      * 
      * @param fnName
      *            file name
+     * @param comm
+     *            connects this process to the others
+     * @return number of points held by every process
      */
-    public void parse(String fnName) {
-	try {
-	    BufferedReader br = new BufferedReader(new FileReader(fnName));
-	    String str = "";
-	    int dataLen = 0;
-
-	    while ((str = br.readLine()) != null)
-		dataLen++;
-	    br.close();
-	    indata = new DataPoint[dataLen];
-
-	    br = new BufferedReader(new FileReader(fnName));
-	    int idx = 0;
-	    while ((str = br.readLine()) != null) {
-		String[] strArr = str.split(",");
-		dimension = strArr.length;
-		double[] dArr = new double[strArr.length];
-		for (int i = 0; i < strArr.length; i++)
-		    dArr[i] = Double.parseDouble(strArr[i]);
-		DataPoint dp = new DataPoint(dArr);
-		indata[idx++] = dp;
-	    }
-	    br.close();
-	} catch (FileNotFoundException e) {
-	    e.printStackTrace();
-	} catch (IOException e) {
-	    e.printStackTrace();
+    public int[] parse(String fnName, Communicator comm) throws IOException {
+	if (BinaryDataset.isBinary(fnName)) {
+	    // fixed-size rows: the slice is a range of points
+	    BinaryDataset ds = BinaryDataset.open(fnName);
+	    long[] range = ds.range(comm.rank(), comm.size());
+	    indata = ds.readPoints(range[0], range[1], float32);
+	} else {
+	    long[] range = FileSlice.range(FileSlice.length(fnName),
+		    comm.rank(), comm.size());
+	    indata = CsvParser.parsePoints(fnName, range[0], range[1],
+		    parseThreads);
+	    if (float32)
+		indata = indata.toFloat();
 	}
+
+	// point count and dimension of every process, summed in one reduction
+	int size = comm.size();
+	int[] shape = new int[2 * size];
+	shape[comm.rank()] = indata.size;
+	shape[size + comm.rank()] = indata.dimension;
+	comm.allreduceSum(shape, 0, shape.length);
+	dimension = 0;
+	for (int i = 0; i < size; i++)
+	    dimension = Math.max(dimension, shape[size + i]);
+	if (indata.size == 0)
+	    indata = new PointStore(0, dimension);
+	int[] counts = new int[size];
+	System.arraycopy(shape, 0, counts, 0, size);
+	return counts;
+    }
+
+    /**
+     * parse this process's byte range of a sparse input, see SparseStore for
+     * the format
+     * 
+     * @param dim
+     *            number of dimensions, 0 for the largest index of any process
+     *            plus one
+     * @return number of points held by every process
+     */
+    public int[] parseSparse(String fnName, int dim, Communicator comm)
+	    throws IOException {
+	long[] range = FileSlice.range(FileSlice.length(fnName), comm.rank(),
+		comm.size());
+	sparse = SparseStore.parse(fnName, range[0], range[1], dim);
+
+	int size = comm.size();
+	int[] shape = new int[2 * size];
+	shape[comm.rank()] = sparse.size;
+	shape[size + comm.rank()] = sparse.dimension;
+	comm.allreduceSum(shape, 0, shape.length);
+	dimension = 0;
+	for (int i = 0; i < size; i++)
+	    dimension = Math.max(dimension, shape[size + i]);
+	if (sparse.dimension != dimension)
+	    sparse = sparse.withDimension(dimension);
+	int[] counts = new int[size];
+	System.arraycopy(shape, 0, counts, 0, size);
+	return counts;
     }
 
     /**
-     * set initial centroids
+     * set initial centroids: the master draws distinct global point indices
+     * and every process contributes the chosen points it holds
+     * 
+     * @param comm
+     *            connects this process to the others
+     * @param counts
+     *            number of points held by every process
      */
-    public void setIniCen() {
-	HashSet<Integer> used = new HashSet<Integer>();
-	int count = 0;
-	while (count != numGroup) {
-	    int idx = (int) (Math.random() * indata.length);
-	    if (used.contains(idx))
-		continue;
-	    centroids[count++] = indata[idx];
-	    used.add(idx);
+    public void setIniCen(Communicator comm, int[] counts) throws IOException {
+	int total = 0;
+	int first = 0;
+	for (int i = 0; i < counts.length; i++) {
+	    if (i == comm.rank())
+		first = total;
+	    total += counts[i];
+	}
+	int[] chosen = new int[numGroup];
+	if (comm.rank() == 0) {
+	    HashSet<Integer> used = new HashSet<Integer>();
+	    int count = 0;
+	    while (count != numGroup) {
+		int idx = rand.nextInt(total);
+		if (used.contains(idx))
+		    continue;
+		chosen[count++] = idx;
+		used.add(idx);
+	    }
+	}
+	comm.bcast(chosen, 0, numGroup, 0);
+
+	centroids = new double[numGroup * dimension];
+	for (int i = 0; i < numGroup; i++) {
+	    int local = chosen[i] - first;
+	    if (sparse != null && local >= 0 && local < sparse.size)
+		sparse.copyPoint(local, centroids, i * dimension);
+	    else if (indata != null && local >= 0 && local < indata.size)
+		indata.copyPoint(local, centroids, i * dimension);
 	}
+	comm.allreduceSum(centroids, 0, centroids.length);
     }
 
     public void printResult(int[] group) {
@@ -175,142 +326,302 @@ public class KmeansDataPar {
 	System.out.println("Total data: " + total);
     }
 
-    public static void main(String[] args) throws MPIException {
-	MPI.Init(args);
-	long startTime = System.currentTimeMillis();
-	if (args.length != 2) {
+    /**
+     * mini-batch mode of one process: every process streams batches from its
+     * own slice of the input, the batch statistics of all processes are
+     * summed and every process applies the same centroid update
+     * 
+     * @param comm
+     *            connects this process to the others
+     * @param opts
+     *            parsed command line
+     * @return number of batches run
+     */
+    int runMiniBatch(Communicator comm, Options opts) throws IOException {
+	int myrank = comm.rank();
+	PointSource src = PointSource.open(opts.positional(0), myrank,
+		comm.size());
+	int[] dims = new int[comm.size()];
+	dims[myrank] = src.dimension;
+	comm.allreduceSum(dims, 0, dims.length);
+	for (int i = 0; i < dims.length; i++)
+	    dimension = Math.max(dimension, dims[i]);
+	src.dimension = dimension;
+	MiniBatchKmeans mb = new MiniBatchKmeans(numGroup, dimension, kernel);
+	mb.batchSize = opts.getInt("b", mb.batchSize);
+	mb.tolerance = opts.getDouble("tol", mb.tolerance);
+	mb.budgetMillis = opts.getLong("budget", 0);
+	mb.maxBatches = opts.getInt("maxbatches", mb.maxBatches);
+	// every process draws its share of a batch
+	int share = (mb.batchSize + comm.size() - 1) / comm.size();
+
+	// seed on the master from a sample gathered from every process
+	int sampleShare = (mb.initialSampleSize() + comm.size() - 1)
+		/ comm.size();
+	double[] sample = new double[sampleShare * dimension];
+	int rows = src.sample(sample, sampleShare, rand);
+	int[] all = new int[rows];
+	for (int i = 0; i < rows; i++)
+	    all[i] = i;
+	double[] gathered = Seeding.gatherRows(comm, new PointStore(sample,
+		rows, dimension), all, rows);
+	centroids = new double[numGroup * dimension];
+	if (myrank == 0) {
+	    KmeansData seeder = new KmeansData(numGroup);
+	    seeder.indata = new PointStore(gathered, gathered.length / dimension,
+		    dimension);
+	    seeder.dimension = dimension;
+	    seeder.rand = rand;
+	    // the sample is small, k-means|| reduces to k-means++ on it
+	    String mode = opts.getString("init", "random");
+	    seeder.initMode = mode.equals("random") ? mode : "kmeans++";
+	    seeder.setIniCen();
+	    centroids = seeder.centroids;
+	}
+	comm.bcast(centroids, 0, centroids.length, 0);
+	mb.centroids = centroids;
+
+	// the batch statistics followed by the master's budget flag
+	ClusterStats stats = new ClusterStats(numGroup, dimension);
+	int statLen = stats.bufferLength();
+	double[] sendBuf = new double[statLen + 1];
+	double[] batch = new double[share * dimension];
+	long start = System.currentTimeMillis();
+	while (true) {
+	    rows = src.sample(batch, share, rand);
+	    stats.clear();
+	    mb.accumulate(batch, rows, stats);
+	    stats.pack(sendBuf, 0);
+	    sendBuf[statLen] = myrank == 0 && mb.overBudget(start) ? 1 : 0;
+	    comm.allreduceSum(sendBuf, 0, sendBuf.length);
+	    stats.clear();
+	    stats.addPacked(sendBuf, 0);
+	    mb.apply(stats);
+	    if (mb.converged() || sendBuf[statLen] > 0)
+		break;
+	}
+	if (verbose)
+	    System.out.println("Mini-batch: " + mb.batches + " batches of "
+		    + share * comm.size() + " points, smoothed movement "
+		    + mb.smoothedMove + ", "
+		    + (System.currentTimeMillis() - start) + "(ms)");
+
+	// SSE and group sizes over all points
+	int[] counts = new int[numGroup];
+	double[] result = new double[numGroup + 1];
+	result[numGroup] = mb.sse(src, counts);
+	src.close();
+	for (int c = 0; c < numGroup; c++)
+	    result[c] = counts[c];
+	comm.allreduceSum(result, 0, result.length);
+	if (verbose) {
+	    for (int c = 0; c < numGroup; c++)
+		counts[c] = (int) result[c];
+	    printResult(counts);
+	    System.out.println("SSE: " + result[numGroup]);
+	}
+	return mb.batches;
+    }
+
+    public static void main(String[] args) throws IOException {
+	final Options opts = new Options(args);
+	if (opts.numPositional() != 2) {
 	    System.out
-	    .println("[Usage] java KmeansDataPar <input data> <number of cluster>");
-	    MPI.Finalize();
+	    .println("[Usage] java KmeansDataPar <input data> <number of cluster> [-t threads] [-a lloyd|hamerly|blocked|kdtree] [-i refresh period]"
+		    + " [-comm mpi|local|tcp] [-np processes] [-rank rank] [-hosts host,...] [-port base port]"
+		    + " [-reduce native|linear|tree|ring] [-s seed] [-init random|kmeans||] [-rounds rounds]"
+		    + " [-b batch size [-tol movement] [-budget ms] [-maxbatches n]]"
+		    + " [-quiet] [-metrics file.jsonl|file.csv] " + ConvergenceCriteria.USAGE
+		    + " [-float] [-sparse [-dim d]]");
 	    return;
 	}
+	Communicator.launch(opts, args, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		runRank(comm, opts);
+	    }
+	});
+    }
+
+    /**
+     * the k-means procedure of one process
+     * 
+     * @param comm
+     *            connects this process to the others
+     * @param opts
+     *            parsed command line
+     * @return the state of this process after the run
+     */
+    static KmeansDataPar runRank(Communicator comm, Options opts) throws IOException {
+	long startTime = System.currentTimeMillis();
 
 	// name of current process
-	int myrank = MPI.COMM_WORLD.Rank();
+	int myrank = comm.rank();
 	// the value of k in "k"means
-	int num_cluster = Integer.parseInt(args[1]);
+	int num_cluster = Integer.parseInt(opts.positional(1));
 	// number of total points
 	int dataSize = 0;
-	// being true until converge
-	boolean[] running = new boolean[1];
-	running[0] = true;
-
 
 	/* 
 	 * Initialization
 	 * Read the input file, determine the total number of points and randomly choose initial condition
 	 */
-	KmeansDataPar kmd = new KmeansDataPar(Integer.parseInt(args[1]));
-	kmd.parse(args[0]); // parse input and store in the object
-	dataSize = kmd.indata.length;
-	if (myrank == 0) kmd.setIniCen(); // set initial seed centroid
+	KmeansDataPar kmd = new KmeansDataPar(num_cluster);
+	kmd.verbose = myrank == 0;
+	kmd.metrics = new Metrics(comm);
+	kmd.criteria = ConvergenceCriteria.parse(opts, 0.001, MAX_ITER);
+	if (opts.has("metrics"))
+	    kmd.metrics.open(opts.getString("metrics", null));
+	kmd.parseThreads = opts.getInt("t", 1);
+	kmd.float32 = opts.has("float");
+	if (myrank == 0 && !opts.has("quiet"))
+	    System.out.println("distance kernel: " + kmd.kernel.name());
+	if (opts.has("sparse") && (opts.has("b") || kmd.float32)) {
+	    if (myrank == 0)
+		System.out.println("-sparse only runs the in-memory k-means");
+	    return kmd;
+	}
+	if (opts.has("b")) {
+	    if (opts.has("s"))
+		kmd.rand = new Random(opts.getLong("s", 0) + myrank);
+	    kmd.iterations = kmd.runMiniBatch(comm, opts);
+	    if (myrank == 0) System.out.println("Total runtime: "
+		    + (System.currentTimeMillis() - startTime) + "(ms)");
+	    return kmd;
+	}
+	/*
+	 * Every process reads only its byte range of the input, so it parses
+	 * and holds only its own segment of the points
+	 * Ex:  5000 bytes, 5 process
+	 *     p0: bytes [0, 1000); p1: bytes [1000, 2000); ...
+	 */
+	long t = System.nanoTime();
+	// a sparse input keeps its points in CSR form, the group sums reduced
+	// below stay dense
+	int[] counts = opts.has("sparse") ? kmd.parseSparse(opts.positional(0),
+		opts.getInt("dim", 0), comm) : kmd.parse(opts.positional(0), comm);
+	t = kmd.metrics.lap(Metrics.PARSE, t);
+	for (int i = 0; i < counts.length; i++)
+	    dataSize += counts[i];
+	if (myrank == 0) System.out.println("Total points: " + dataSize);
+	// set initial seed centroid
+	String initMode = opts.getString("init", "random");
+	if (opts.has("s"))
+	    kmd.rand = new Random(opts.getLong("s", 0) + myrank);
+	long seedStart = System.currentTimeMillis();
+	if (kmd.sparse != null && !initMode.equals("random"))
+	    throw new IllegalArgumentException("sparse input needs random seeding");
+	else if (initMode.equals("kmeans||"))
+	    kmd.centroids = Seeding.kmeansParallel(comm, kmd.indata, counts,
+		    num_cluster, kmd.kernel, kmd.rand,
+		    opts.getInt("rounds", Seeding.ROUNDS));
+	else if (initMode.equals("random"))
+	    kmd.setIniCen(comm, counts);
+	else
+	    throw new IllegalArgumentException("unknown seeding: " + initMode);
+	kmd.metrics.lap(Metrics.SEED, t);
+	kmd.metrics.endIteration();
+	if (myrank == 0)
+	    System.out.println("Seeding (" + initMode + "): "
+		    + (System.currentTimeMillis() - seedStart) + "(ms)");
+
+	int start = 0;
+	int end = kmd.sparse != null ? kmd.sparse.size : kmd.indata.size;
+	kmd.labels = new int[end];
+	kmd.prevLabels = new int[end];
+	Arrays.fill(kmd.prevLabels, -1);
+	// per-iteration progress, the final totals are printed anyway
+	kmd.verbose = myrank == 0 && !opts.has("quiet");
+	// incremental mode: ranks reduce only the change of their stats and
+	// keep running totals, rebuilt every refreshPeriod iterations
+	boolean incremental = opts.has("i");
+	int refreshPeriod = opts.getInt("i", 50);
+	if (kmd.sparse != null)
+	    kmd.assigner = new SparseAssigner(kmd.sparse, num_cluster);
+	else
+	    kmd.assigner = Assigner.create(opts.getString("a", "lloyd"), kmd.indata, num_cluster);
+	kmd.assigner.setThreads(kmd.parseThreads);
+	ClusterStats sumBuffer = new ClusterStats(num_cluster, kmd.dimension);
+	ClusterStats totals = new ClusterStats(num_cluster, kmd.dimension);
 
 	/*
-	 * Here determines the segments of every process
-	 * Ex:  5000 data, 5 process
-	 *     p0: start=0, end=1000; p1: start=1000, end=2000; ... 
+	 * One flat buffer carries everything that is summed over the processes:
+	 * the per-group sums and counts, followed by the distances computed,
+	 * the distances a brute-force search would have computed, the points
+	 * that changed group, the SSE and the time the master has spent
+	 * iterating. The stopping rules only look at these sums, so no process
+	 * stops alone because of its own clock.
 	 */
-	int segNum = dataSize / MPI.COMM_WORLD.Size();
-	int start = myrank * segNum;
-	int end = Math.min((myrank + 1) * segNum, dataSize);
-	DataPoint[] sumBuffer = null;
+	int statLen = sumBuffer.bufferLength();
+	double[] sendBuf = new double[statLen + 5];
+	long iterStart = System.currentTimeMillis();
 
 	/* =================== Start k-means here =========================== */
-	for(int iter = 0; iter < MAX_ITER; iter++) {
-
-	    /* 1. Broadcast the latest centroids */
-	    MPI.COMM_WORLD.Bcast(kmd.centroids, 0, num_cluster, MPI.OBJECT, 0);
+	int iter;
+	for (iter = 0;; iter++) {
+	    boolean fullPass = !incremental || iter % refreshPeriod == 0;
+
+	    /* 1. Update the group of its segment and collect the stats */
+	    sumBuffer.clear();
+	    long evals;
+	    if (fullPass)
+		evals = kmd.updateGroup(start, end, sumBuffer);
+	    else
+		evals = kmd.updateMoved(start, end, sumBuffer);
 
 	    /*
-	     * Procedures are different among Master and Slaves here.
+	     * 2. Sum the stats of all segments. Every process only contributes
+	     *    the sums and counts of its segment rather than its data
+	     *    points, and every process receives the global stats, so no
+	     *    process has to wait for a master to broadcast the result.
 	     */
-	    if (myrank == 0) {
-
-		/* 2.(master) Update the group of its segment */
-		kmd.updateGroup(kmd.indata, start, end);
-
-		/*
-		 * 3.(master) In this step, we reduce the inter-communication
-		 *            by only transmitting the stats of segments.
-		 *            That is, each process is responsible for a part of 
-		 *            the whole data, and then compute the sum of coordinates
-		 *            of each cluster and the amount of points classified
-		 *            into each cluster. 
-		 *            Finally, the master process only need to sum all of the 
-		 *            stats rather than receiving a part of data points.
-		 */
-		sumBuffer = new DataPoint[num_cluster];
-		for (int i = 0; i < num_cluster; i++) {
-		    double[] initialVal = new double[kmd.dimension];
-		    for (int j = 0; j < kmd.dimension; j++) initialVal[j] = 0.0;
-		    sumBuffer[i] = new DataPoint(initialVal);
-		}
-
-		for (int i = start; i < end; i++) {
-		    DataPoint dpoint = kmd.indata[i];
-		    sumBuffer[dpoint.group].count++;
-		    sumBuffer[dpoint.group].add(dpoint);
-		}
-
-		for (int i = 1; i < MPI.COMM_WORLD.Size(); i++) {
-		    DataPoint[] slaveBuf = new DataPoint[num_cluster];
-		    MPI.COMM_WORLD.Recv(slaveBuf, 0, num_cluster, MPI.OBJECT, i, 1);
-
-		    for (int j = 0; j < num_cluster; j++) {
-			sumBuffer[j].count += slaveBuf[j].count;
-			sumBuffer[j].add(slaveBuf[j]);
-		    }
-		}
-	    } else {
-		/* 2.(slaves) Update the group of each segment */
-		kmd.updateGroup(kmd.indata, start, end);
-
-		/* 3.(slaves) Send the stats to master */
-		sumBuffer = new DataPoint[num_cluster];
-		for (int i = 0; i < num_cluster; i++) {
-		    double[] initialVal = new double[kmd.dimension];
-		    for (int j = 0; j < kmd.dimension; j++) initialVal[j] = 0.0;
-		    sumBuffer[i] = new DataPoint(initialVal);
-		}
-		
-		for (int i = start; i < end; i++) {
-		    DataPoint dpoint = kmd.indata[i];
-		    sumBuffer[dpoint.group].count++;
-		    sumBuffer[dpoint.group].add(dpoint);
-		}
-		MPI.COMM_WORLD.Send(sumBuffer, 0, num_cluster, MPI.OBJECT, 0, 1);
-	    }
-
-	    /* 5.(master) The master updates the centroids */
-	    if (myrank == 0) {
-		DataPoint[] newCentroids = null;
-		int[] centroidNum = new int[num_cluster];
+	    t = System.nanoTime();
+	    sumBuffer.pack(sendBuf, 0);
+	    sendBuf[statLen] = evals;
+	    sendBuf[statLen + 1] = (double) (end - start) * num_cluster;
+	    sendBuf[statLen + 2] = kmd.metrics.reassigned();
+	    sendBuf[statLen + 3] = kmd.criteria.wantsSse() ? kmd.metrics.sse()
+		    : Double.NaN;
+	    sendBuf[statLen + 4] = myrank == 0 ? System.currentTimeMillis()
+		    - iterStart : 0;
+	    comm.allreduceSum(sendBuf, 0, sendBuf.length);
+	    t = kmd.metrics.lap(Metrics.COMMUNICATE, t);
+	    if (fullPass)
+		totals.clear();
+	    totals.addPacked(sendBuf, 0);
+	    if (kmd.verbose)
+		System.out.println("distance computations: " + (long) sendBuf[statLen]
+			+ ", skipped: " + (long) (sendBuf[statLen + 1] - sendBuf[statLen]));
 
-		for (int i = 0; i < num_cluster; i++) {
-		    sumBuffer[i].divide((double)sumBuffer[i].count);
-		    centroidNum[i] = sumBuffer[i].count;
-		}
-		newCentroids = sumBuffer;
-
-		/* Check if the current results already converge. */
-		if (kmd.isConverge(newCentroids, num_cluster)) {
-		    running[0] = false;
-		    kmd.printResult(centroidNum);
-		}
-		kmd.centroids = newCentroids;
-	    }
-
-	    /* Sync all process, if the k-means converge, every process breaks together */
-	    MPI.COMM_WORLD.Bcast(running, 0, 1, MPI.BOOLEAN, 0);
-	    if (!running[0])
+	    /*
+	     * 3. Every process updates the centroids from the same global stats,
+	     *    so all of them reach the same convergence decision.
+	     */
+	    double[] newCentroids = new double[kmd.centroids.length];
+	    kmd.getNewCen(totals, newCentroids);
+	    boolean converged = kmd.criteria.done(iter + 1,
+		    (long) sendBuf[statLen + 2], dataSize, sendBuf[statLen + 3],
+		    kmd.centroidShift(newCentroids, num_cluster),
+		    (long) sendBuf[statLen + 4]);
+	    kmd.metrics.lap(Metrics.UPDATE, t);
+	    kmd.metrics.endIteration();
+	    if (converged) {
+		if (kmd.verbose)
+		    System.out.println("Stopped: " + kmd.criteria.reason());
+		if (myrank == 0) kmd.printResult(totals.counts);
+		iter++;
 		break;
-
+	    }
+	    kmd.centroids = newCentroids;
 	}
 
+	kmd.assigner.close();
+	kmd.metrics.close();
 	long endTime = System.currentTimeMillis();
 	long totalTime = endTime - startTime;
+	if (myrank == 0) System.out.println("Iterations: " + iter + " ("
+		+ kmd.criteria.reason() + ")");
 	if (myrank == 0) System.out.println("Total runtime: " + totalTime + "(ms)");
-	MPI.Finalize();
-
+	kmd.iterations = iter;
+	return kmd;
     }
 }
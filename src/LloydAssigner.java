@@ -0,0 +1,50 @@
+/**
+ * Brute-force assignment: every point is compared with every centroid.
+ */
+public class LloydAssigner extends Assigner {
+
+    public LloydAssigner(PointStore store, int numGroup) {
+	super(store, numGroup);
+    }
+
+    public long assign(int start, int end, int[] labels) {
+	if (floatCentroids != null)
+	    return assignFloats(start, end, labels);
+	for (int i = start; i < end; i++) {
+	    double minDist = Double.MAX_VALUE;
+	    int group = 0;
+	    for (int j = 0; j < numGroup; j++) {
+		double dist = 0;
+		// find the closest centroids
+		if ((dist = distSq(i, j)) < minDist) {
+		    group = j;
+		    minDist = dist;
+		}
+	    }
+	    labels[i] = group;
+	}
+	return (long) (end - start) * numGroup;
+    }
+
+    /**
+     * the same for a float32 store, in a loop of its own so that the JIT
+     * compiles the float and the double kernel calls separately
+     */
+    private long assignFloats(int start, int end, int[] labels) {
+	float[] points = store.floats;
+	for (int i = start; i < end; i++) {
+	    float minDist = Float.MAX_VALUE;
+	    int group = 0;
+	    for (int j = 0; j < numGroup; j++) {
+		float dist = kernel.distSq(floatCentroids, j * dimension,
+			points, i * dimension, dimension);
+		if (dist < minDist) {
+		    group = j;
+		    minDist = dist;
+		}
+	    }
+	    labels[i] = group;
+	}
+	return (long) (end - start) * numGroup;
+    }
+}
@@ -0,0 +1,123 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.reflect.Array;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * In-process transport: every rank is a thread of the same JVM and messages
+ * are copies of the sent range handed over through one queue per ordered
+ * pair of ranks. Useful for single-node runs and for running the parallel
+ * drivers without an MPI installation.
+ */
+public class LocalCommunicator extends Communicator {
+
+    private final int rank;
+    private final int size;
+    /** queues[src][dest] */
+    private final BlockingQueue<Object>[][] queues;
+
+    private LocalCommunicator(int rank, int size, BlockingQueue<Object>[][] queues) {
+	this.rank = rank;
+	this.size = size;
+	this.queues = queues;
+    }
+
+    /**
+     * @param size
+     *            number of ranks
+     * @return one connected communicator per rank
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static LocalCommunicator[] create(int size) {
+	BlockingQueue<Object>[][] queues = new BlockingQueue[size][size];
+	for (int i = 0; i < size; i++)
+	    for (int j = 0; j < size; j++)
+		queues[i][j] = new LinkedBlockingQueue<Object>();
+	LocalCommunicator[] comms = new LocalCommunicator[size];
+	for (int i = 0; i < size; i++)
+	    comms[i] = new LocalCommunicator(i, size, queues);
+	return comms;
+    }
+
+    /**
+     * run body on size threads, one per rank, and wait for all of them. The
+     * first rank to fail interrupts the others, which may be waiting for a
+     * message it will never send, and its failure is rethrown.
+     */
+    public static void launch(int size, final RankBody body) throws IOException {
+	final LocalCommunicator[] comms = create(size);
+	final Thread[] threads = new Thread[size];
+	// the first failure and its rank, the interrupted ranks fail after it
+	final Throwable[] failure = new Throwable[1];
+	final int[] failedRank = new int[1];
+	for (int i = 0; i < size; i++) {
+	    final int r = i;
+	    threads[i] = new Thread("rank-" + r) {
+		public void run() {
+		    try {
+			body.run(comms[r]);
+		    } catch (Throwable e) {
+			synchronized (failure) {
+			    if (failure[0] != null)
+				return;
+			    failure[0] = e;
+			    failedRank[0] = r;
+			}
+			for (Thread t : threads)
+			    if (t != this)
+				t.interrupt();
+		    }
+		}
+	    };
+	}
+	// every thread exists before any can fail and interrupt the others
+	for (Thread t : threads)
+	    t.start();
+	for (int i = 0; i < size; i++) {
+	    try {
+		threads[i].join();
+	    } catch (InterruptedException e) {
+		for (Thread t : threads)
+		    t.interrupt();
+		throw new InterruptedIOException();
+	    }
+	}
+	if (failure[0] instanceof IOException)
+	    throw (IOException) failure[0];
+	else if (failure[0] != null)
+	    throw new IOException("rank " + failedRank[0] + " failed",
+		    failure[0]);
+    }
+
+    public int rank() {
+	return rank;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    protected void sendArray(Object buf, int off, int len, int dest)
+	    throws IOException {
+	Object copy = newArray(buf, len);
+	System.arraycopy(buf, off, copy, 0, len);
+	queues[rank][dest].add(copy);
+	countSent(buf, len);
+    }
+
+    protected void recvArray(Object buf, int off, int len, int src)
+	    throws IOException {
+	Object msg;
+	try {
+	    msg = queues[src][rank].take();
+	} catch (InterruptedException e) {
+	    throw new InterruptedIOException();
+	}
+	if (msg.getClass() != buf.getClass() || Array.getLength(msg) != len)
+	    throw new IOException("rank " + rank + " expected " + len
+		    + " elements from rank " + src + ", got "
+		    + Array.getLength(msg));
+	System.arraycopy(msg, 0, buf, off, len);
+    }
+}
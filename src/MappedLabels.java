@@ -0,0 +1,100 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * An int array of unbounded length kept in a memory-mapped file, so that the
+ * labels of a dataset larger than the heap live in the page cache instead.
+ * The file grows in windows of WINDOW ints as labels are written; unwritten
+ * labels read as 0. Different indices may be read and written concurrently
+ * once ensure() has covered them, ensure() itself must not run concurrently
+ * with them.
+ * 
+ * The file always ends right after the last covered label: a partly used
+ * last window is mapped again, longer, when ensure() needs more of it. The
+ * file is never cut, as cutting it while a window is still mapped (windows
+ * are only unmapped when collected) fails on Windows and faults on Linux.
+ */
+public class MappedLabels {
+
+    /** ints per mapped window, 256 MB */
+    static final int WINDOW = 1 << 26;
+
+    private final File file;
+    private final boolean temporary;
+    private final RandomAccessFile raf;
+    private final ArrayList<IntBuffer> windows = new ArrayList<IntBuffer>();
+    /** the mappings behind windows */
+    private final ArrayList<MappedByteBuffer> maps = new ArrayList<MappedByteBuffer>();
+    /** number of labels covered by ensure() */
+    private long length = 0;
+
+    /**
+     * @param file
+     *            label file, null for a temporary file deleted on close
+     */
+    public MappedLabels(File file) throws IOException {
+	temporary = file == null;
+	this.file = temporary ? File.createTempFile("labels", ".bin") : file;
+	raf = new RandomAccessFile(this.file, "rw");
+	raf.setLength(0);
+    }
+
+    /**
+     * map the windows holding labels [0, n)
+     */
+    public void ensure(long n) throws IOException {
+	if (n <= length)
+	    return;
+	length = n;
+	// the labels written through a partly used last window stay in the
+	// file and are seen through its longer mapping
+	int last = windows.size() - 1;
+	if (last >= 0 && windows.get(last).capacity() < WINDOW) {
+	    windows.remove(last);
+	    maps.remove(last);
+	}
+	FileChannel channel = raf.getChannel();
+	while ((long) windows.size() * WINDOW < n) {
+	    long first = (long) windows.size() * WINDOW;
+	    MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE,
+		    first * 4, Math.min(WINDOW, n - first) * 4);
+	    map.order(ByteOrder.nativeOrder());
+	    maps.add(map);
+	    windows.add(map.asIntBuffer());
+	}
+    }
+
+    public int get(long i) {
+	return windows.get((int) (i / WINDOW)).get((int) (i % WINDOW));
+    }
+
+    public void put(long i, int label) {
+	windows.get((int) (i / WINDOW)).put((int) (i % WINDOW), label);
+    }
+
+    public File getFile() {
+	return file;
+    }
+
+    /**
+     * write a kept file's labels back and drop the windows, they are
+     * unmapped when collected
+     */
+    public void close() throws IOException {
+	if (!temporary)
+	    for (MappedByteBuffer map : maps)
+		map.force();
+	windows.clear();
+	maps.clear();
+	raf.close();
+	// a file still mapped cannot be deleted on every platform
+	if (temporary && !file.delete())
+	    file.deleteOnExit();
+    }
+}
@@ -0,0 +1,253 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Per-iteration measurements of one rank: the time spent in every phase, the
+ * points that changed group, the distances computed, the bytes sent and the
+ * sum of squared distances of the points to their centroid (for DNA the sum
+ * of base mismatches).
+ * 
+ * Iteration 0 covers parsing and seeding. Every iteration becomes a
+ * "kmeans.Iteration" Flight Recorder event (java
+ * -XX:StartFlightRecording=filename=run.jfr ...) and, when a file was
+ * opened, a line of JSON or, for a file ending in .csv, of CSV. The phase
+ * times of work spread over threads are summed over the threads.
+ * 
+ * The counters may be updated from several threads at once.
+ */
+public class Metrics {
+
+    public static final int PARSE = 0;
+    public static final int SEED = 1;
+    public static final int ASSIGN = 2;
+    public static final int ACCUMULATE = 3;
+    public static final int COMMUNICATE = 4;
+    public static final int UPDATE = 5;
+    static final String[] PHASES = { "parse", "seed", "assign", "accumulate",
+	    "communicate", "update" };
+
+    @Name("kmeans.Iteration")
+    @Label("K-Means Iteration")
+    @Category("K-Means")
+    @Description("Phase times and counters of one iteration of one rank")
+    static class IterationEvent extends Event {
+	@Label("Rank")
+	int rank;
+	@Label("Iteration")
+	int iteration;
+	@Label("Parse")
+	@Timespan
+	long parse;
+	@Label("Seed")
+	@Timespan
+	long seed;
+	@Label("Assign")
+	@Timespan
+	long assign;
+	@Label("Accumulate")
+	@Timespan
+	long accumulate;
+	@Label("Communicate")
+	@Timespan
+	long communicate;
+	@Label("Update")
+	@Timespan
+	long update;
+	@Label("Reassigned Points")
+	long reassigned;
+	@Label("Distance Evaluations")
+	long distanceEvaluations;
+	@Label("Bytes Sent")
+	@DataAmount
+	long bytesSent;
+	@Label("SSE")
+	double sse;
+    }
+
+    private final int rank;
+    /** source of the bytes sent, null for a single process */
+    private final Communicator comm;
+    private final AtomicLongArray nanos = new AtomicLongArray(PHASES.length);
+    private final AtomicLong reassigned = new AtomicLong();
+    private final AtomicLong evals = new AtomicLong();
+    private final DoubleAdder sse = new DoubleAdder();
+    private long lastBytes;
+    private int iteration;
+    private IterationEvent event;
+    private PrintWriter out;
+    private boolean csv;
+
+    /**
+     * @param comm
+     *            the rank's communicator, null for a sequential run
+     */
+    public Metrics(Communicator comm) {
+	this.comm = comm;
+	this.rank = comm == null ? 0 : comm.rank();
+	event = new IterationEvent();
+	event.begin();
+    }
+
+    /**
+     * write every iteration to a file, one per rank when there are several:
+     * "run.jsonl" becomes "run.rank3.jsonl" for rank 3
+     * 
+     * @param fnName
+     *            file name, CSV if it ends in .csv, JSON lines otherwise
+     */
+    public void open(String fnName) throws IOException {
+	if (comm != null && comm.size() > 1) {
+	    int dot = fnName.lastIndexOf('.');
+	    if (dot <= fnName.lastIndexOf('/'))
+		dot = fnName.length();
+	    fnName = fnName.substring(0, dot) + ".rank" + rank
+		    + fnName.substring(dot);
+	}
+	csv = fnName.endsWith(".csv");
+	out = new PrintWriter(new FileWriter(fnName));
+	if (csv) {
+	    StringBuilder header = new StringBuilder("rank,iteration");
+	    for (String phase : PHASES)
+		header.append(',').append(phase).append("_ms");
+	    header.append(",reassigned,evals,bytes_sent,sse");
+	    out.println(header);
+	}
+    }
+
+    /**
+     * @return true if the iterations are written or recorded, so that
+     *         measurements with a cost of their own (the SSE) are wanted
+     */
+    public boolean recording() {
+	return out != null || event.isEnabled();
+    }
+
+    /**
+     * add the time since a previous lap to a phase
+     * 
+     * @param phase
+     *            one of the phase constants
+     * @param since
+     *            System.nanoTime() at the start of the phase
+     * @return System.nanoTime() now, the start of the next phase
+     */
+    public long lap(int phase, long since) {
+	long now = System.nanoTime();
+	nanos.addAndGet(phase, now - since);
+	return now;
+    }
+
+    /**
+     * add time measured by the caller to a phase
+     */
+    public void addNanos(int phase, long nanos) {
+	this.nanos.addAndGet(phase, nanos);
+    }
+
+    public void addReassigned(long points) {
+	reassigned.addAndGet(points);
+    }
+
+    public void addEvals(long distances) {
+	evals.addAndGet(distances);
+    }
+
+    public void addSse(double value) {
+	sse.add(value);
+    }
+
+    /**
+     * @return points that changed group in the current iteration so far
+     */
+    public long reassigned() {
+	return reassigned.get();
+    }
+
+    /**
+     * @return SSE added in the current iteration so far
+     */
+    public double sse() {
+	return sse.sum();
+    }
+
+    /**
+     * emit the measurements of the current iteration and start the next
+     */
+    public void endIteration() {
+	long bytes = comm == null ? 0 : comm.bytesSent();
+	long sent = bytes - lastBytes;
+	lastBytes = bytes;
+	event.end();
+	if (event.shouldCommit()) {
+	    event.rank = rank;
+	    event.iteration = iteration;
+	    event.parse = nanos.get(PARSE);
+	    event.seed = nanos.get(SEED);
+	    event.assign = nanos.get(ASSIGN);
+	    event.accumulate = nanos.get(ACCUMULATE);
+	    event.communicate = nanos.get(COMMUNICATE);
+	    event.update = nanos.get(UPDATE);
+	    event.reassigned = reassigned.get();
+	    event.distanceEvaluations = evals.get();
+	    event.bytesSent = sent;
+	    event.sse = sse.sum();
+	    event.commit();
+	}
+	if (out != null)
+	    write(sent);
+	for (int p = 0; p < PHASES.length; p++)
+	    nanos.set(p, 0);
+	reassigned.set(0);
+	evals.set(0);
+	sse.reset();
+	iteration++;
+	event = new IterationEvent();
+	event.begin();
+    }
+
+    private void write(long sent) {
+	StringBuilder line = new StringBuilder();
+	if (csv) {
+	    line.append(rank).append(',').append(iteration);
+	    for (int p = 0; p < PHASES.length; p++)
+		line.append(',').append(millis(nanos.get(p)));
+	    line.append(',').append(reassigned.get()).append(',')
+		    .append(evals.get()).append(',').append(sent).append(',')
+		    .append(sse.sum());
+	} else {
+	    line.append("{\"rank\":").append(rank).append(",\"iteration\":")
+		    .append(iteration);
+	    for (int p = 0; p < PHASES.length; p++)
+		line.append(",\"").append(PHASES[p]).append("_ms\":")
+			.append(millis(nanos.get(p)));
+	    line.append(",\"reassigned\":").append(reassigned.get())
+		    .append(",\"evals\":").append(evals.get())
+		    .append(",\"bytes_sent\":").append(sent)
+		    .append(",\"sse\":").append(sse.sum()).append('}');
+	}
+	out.println(line);
+    }
+
+    private static String millis(long nanos) {
+	return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    public void close() {
+	if (out != null)
+	    out.close();
+	out = null;
+    }
+}
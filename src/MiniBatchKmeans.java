@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Mini-batch k-means (Sculley, "Web-scale k-means clustering"): every step
+ * assigns a batch of sampled points to the nearest centroids and moves each
+ * centroid towards the points it received with a per-centroid learning rate
+ * of 1 / (points it has received so far). Only one batch is held in memory.
+ * 
+ * A step is split into accumulate, which collects the per-centroid sums and
+ * counts of a batch, and apply, which folds them into the centroids; for a
+ * centroid that received m points with sum S it does c += (S - m c) / v with
+ * v the running count including the batch. The parallel driver sums the
+ * batch statistics of all processes in between, so every process applies
+ * the same update.
+ * 
+ * The run stops after maxBatches batches, when the smoothed mean centroid
+ * movement drops below tolerance, or when the time budget is used up.
+ */
+public class MiniBatchKmeans {
+
+    /** weight of the newest batch in the smoothed movement */
+    static final double SMOOTHING = 0.3;
+
+    public final int numGroup;
+    public final int dimension;
+    DistanceKernel kernel;
+    /** row-major centroids, numGroup x dimension */
+    public double[] centroids;
+    /** points received by every centroid so far */
+    long[] seen;
+    public int batchSize = 1024;
+    public double tolerance = 0.001;
+    /** wall clock budget in milliseconds, 0 for none */
+    public long budgetMillis = 0;
+    public int maxBatches = 10000;
+    /** batches applied so far */
+    public int batches = 0;
+    public double smoothedMove = Double.NaN;
+
+    public MiniBatchKmeans(int numGroup, int dimension, DistanceKernel kernel) {
+	this.numGroup = numGroup;
+	this.dimension = dimension;
+	this.kernel = kernel;
+	seen = new long[numGroup];
+    }
+
+    /**
+     * @return number of sampled points the initial centroids are picked from
+     */
+    public int initialSampleSize() {
+	return Math.max(3 * batchSize, 10 * numGroup);
+    }
+
+    /**
+     * assign every point of a batch to its nearest centroid and add it to
+     * the statistics of that centroid
+     * 
+     * @param batch
+     *            row-major points
+     * @param rows
+     *            number of points in the batch
+     * @param stats
+     *            receives the per-centroid sums and counts
+     */
+    public void accumulate(double[] batch, int rows, ClusterStats stats) {
+	for (int i = 0; i < rows; i++)
+	    stats.add(batch, i * dimension, nearest(batch, i * dimension));
+    }
+
+    /**
+     * move the centroids by the statistics of one batch
+     * 
+     * @param stats
+     *            per-centroid sums and counts of the batch
+     * @return mean Euclidean movement of the centroids
+     */
+    public double apply(ClusterStats stats) {
+	double move = 0;
+	for (int c = 0; c < numGroup; c++) {
+	    int m = stats.counts[c];
+	    if (m == 0)
+		continue;
+	    seen[c] += m;
+	    double rate = 1.0 / seen[c];
+	    int off = c * dimension;
+	    double sq = 0;
+	    for (int j = 0; j < dimension; j++) {
+		double step = (stats.sums[off + j] - m * centroids[off + j])
+			* rate;
+		centroids[off + j] += step;
+		sq += step * step;
+	    }
+	    move += Math.sqrt(sq);
+	}
+	move /= numGroup;
+	batches++;
+	smoothedMove = batches == 1 ? move : (1 - SMOOTHING) * smoothedMove
+		+ SMOOTHING * move;
+	return move;
+    }
+
+    /**
+     * @return whether the smoothed movement is below tolerance or the batch
+     *         limit is reached
+     */
+    public boolean converged() {
+	return batches >= maxBatches || smoothedMove < tolerance;
+    }
+
+    /**
+     * run mini-batch steps on batches sampled from src until converged or the
+     * budget is used up, starting from centroids
+     */
+    public void run(PointSource src, Random rand) throws IOException {
+	long start = System.currentTimeMillis();
+	double[] batch = new double[batchSize * dimension];
+	ClusterStats stats = new ClusterStats(numGroup, dimension);
+	while (true) {
+	    int rows = src.sample(batch, batchSize, rand);
+	    stats.clear();
+	    accumulate(batch, rows, stats);
+	    apply(stats);
+	    if (converged() || overBudget(start))
+		return;
+	}
+    }
+
+    /**
+     * @return whether more than budgetMillis have passed since start
+     */
+    public boolean overBudget(long start) {
+	return budgetMillis > 0
+		&& System.currentTimeMillis() - start >= budgetMillis;
+    }
+
+    /**
+     * @return index of the centroid nearest to the point at off
+     */
+    public int nearest(double[] coords, int off) {
+	int best = 0;
+	double bestDist = Double.MAX_VALUE;
+	for (int c = 0; c < numGroup; c++) {
+	    double d = kernel.distSq(coords, off, centroids, c * dimension,
+		    dimension);
+	    if (d < bestDist) {
+		bestDist = d;
+		best = c;
+	    }
+	}
+	return best;
+    }
+
+    /**
+     * sum of squared distances from every point of a source to its nearest
+     * centroid, in one sequential pass
+     * 
+     * @param src
+     *            the points, rewound before and after the pass
+     * @param counts
+     *            receives the number of points nearest to every centroid
+     * @return the SSE
+     */
+    public double sse(PointSource src, int[] counts) throws IOException {
+	double[] buf = new double[batchSize * dimension];
+	double sse = 0;
+	src.rewind();
+	int rows;
+	while ((rows = src.read(buf, 0, batchSize)) > 0) {
+	    for (int i = 0; i < rows; i++) {
+		int c = nearest(buf, i * dimension);
+		counts[c]++;
+		sse += kernel.distSq(buf, i * dimension, centroids, c
+			* dimension, dimension);
+	    }
+	}
+	src.rewind();
+	return sse;
+    }
+
+    /**
+     * @return sum of squared distances from every point of store to its
+     *         nearest centroid
+     */
+    public static double sse(PointStore store, double[] centroids,
+	    int numGroup, DistanceKernel kernel) {
+	double sse = 0;
+	for (int i = 0; i < store.size; i++) {
+	    double min = Double.MAX_VALUE;
+	    for (int c = 0; c < numGroup; c++)
+		min = Math.min(min,
+			store.distSq(kernel, i, centroids, c * store.dimension));
+	    sse += min;
+	}
+	return sse;
+    }
+}
@@ -0,0 +1,139 @@
+import java.io.IOException;
+
+import mpi.*;
+
+/**
+ * Communicator over mpiJava's MPI.COMM_WORLD. With the "native" reduce
+ * algorithm the collectives use the MPI operations, the other algorithms run
+ * the generic implementations over Send, Recv and Sendrecv.
+ */
+public class MpiCommunicator extends Communicator {
+
+    /**
+     * initialize MPI, run body and finalize MPI
+     */
+    public static void launch(String[] args, RankBody body) throws IOException {
+	try {
+	    MPI.Init(args);
+	    body.run(new MpiCommunicator());
+	    MPI.Finalize();
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+    }
+
+    static Datatype typeOf(Object buf) {
+	if (buf instanceof double[])
+	    return MPI.DOUBLE;
+	else if (buf instanceof int[])
+	    return MPI.INT;
+	else if (buf instanceof long[])
+	    return MPI.LONG;
+	throw new IllegalArgumentException("unsupported buffer "
+		+ buf.getClass().getName());
+    }
+
+    public int rank() {
+	try {
+	    return MPI.COMM_WORLD.Rank();
+	} catch (MPIException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    public int size() {
+	try {
+	    return MPI.COMM_WORLD.Size();
+	} catch (MPIException e) {
+	    throw new IllegalStateException(e);
+	}
+    }
+
+    protected void sendArray(Object buf, int off, int len, int dest)
+	    throws IOException {
+	try {
+	    MPI.COMM_WORLD.Send(buf, off, len, typeOf(buf), dest, 1);
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+	countSent(buf, len);
+    }
+
+    protected void recvArray(Object buf, int off, int len, int src)
+	    throws IOException {
+	try {
+	    MPI.COMM_WORLD.Recv(buf, off, len, typeOf(buf), src, 1);
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+    }
+
+    protected void sendRecvArray(Object sbuf, int soff, int slen, int dest,
+	    Object rbuf, int roff, int rlen, int src) throws IOException {
+	try {
+	    MPI.COMM_WORLD.Sendrecv(sbuf, soff, slen, typeOf(sbuf), dest, 1,
+		    rbuf, roff, rlen, typeOf(rbuf), src, 1);
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+	countSent(sbuf, slen);
+    }
+
+    protected void bcastArray(Object buf, int off, int len, int root)
+	    throws IOException {
+	if (!reduceAlgorithm.equals("native")) {
+	    super.bcastArray(buf, off, len, root);
+	    return;
+	}
+	try {
+	    MPI.COMM_WORLD.Bcast(buf, off, len, typeOf(buf), root);
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+	if (rank() == root)
+	    countSent(buf, len);
+    }
+
+    protected void reduceArray(Object buf, int off, int len, int root)
+	    throws IOException {
+	if (!reduceAlgorithm.equals("native")) {
+	    super.reduceArray(buf, off, len, root);
+	    return;
+	}
+	Object result = newArray(buf, len);
+	try {
+	    MPI.COMM_WORLD.Reduce(buf, off, result, 0, len, typeOf(buf),
+		    MPI.SUM, root);
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+	countSent(buf, len);
+	if (rank() == root)
+	    System.arraycopy(result, 0, buf, off, len);
+    }
+
+    protected void allreduceArray(Object buf, int off, int len)
+	    throws IOException {
+	if (!reduceAlgorithm.equals("native")) {
+	    super.allreduceArray(buf, off, len);
+	    return;
+	}
+	Object result = newArray(buf, len);
+	try {
+	    MPI.COMM_WORLD.Allreduce(buf, off, result, 0, len, typeOf(buf),
+		    MPI.SUM);
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+	countSent(buf, len);
+	System.arraycopy(result, 0, buf, off, len);
+    }
+
+    public void barrier() throws IOException {
+	try {
+	    MPI.COMM_WORLD.Barrier();
+	} catch (MPIException e) {
+	    throw new IOException(e);
+	}
+    }
+}
@@ -0,0 +1,164 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs k-means from several random seeds on data loaded once and keeps the
+ * restart with the lowest SSE. The restarts run concurrently and only read
+ * the shared PointStore, every one has its own centroids, labels and
+ * Assigner.
+ * 
+ * The SSE of a restart never grows from one iteration to the next, so the
+ * lowest SSE any restart has reached so far bounds the final best from above.
+ * A restart that has stalled well above that bound is aborted: after
+ * MIN_ITERATIONS, once its SSE exceeds the bound by more than abortMargin
+ * while its last iteration gained less than a tenth of that margin.
+ */
+public class MultiRestart {
+    /** iterations a restart runs before it may be aborted */
+    public static final int MIN_ITERATIONS = 5;
+
+    /** engine holding the data, k, the modes and the stopping rules */
+    final KmeansData kmd;
+    public final int restarts;
+    /** restart r seeds its centroids with seed + r */
+    public final long seed;
+    /** relative SSE excess at which a stalled restart is aborted, 0 for never */
+    public double abortMargin = 0.05;
+    /** final (or, when aborted, last) SSE of every restart */
+    public final double[] sse;
+    public final int[] iterations;
+    public final boolean[] aborted;
+    /** the restart with the lowest SSE, -1 before run() */
+    public int bestRestart = -1;
+    /** the engine of the best restart, holding its centroids and labels */
+    public KmeansData best;
+    private double lowestSse = Double.POSITIVE_INFINITY;
+
+    /**
+     * @param kmd
+     *            engine with the data loaded, its numThreads threads are
+     *            shared by the restarts
+     * @param restarts
+     *            number of restarts
+     * @param seed
+     *            seed of the first restart
+     */
+    public MultiRestart(KmeansData kmd, int restarts, long seed) {
+	this.kmd = kmd;
+	this.restarts = restarts;
+	this.seed = seed;
+	sse = new double[restarts];
+	iterations = new int[restarts];
+	aborted = new boolean[restarts];
+    }
+
+    /**
+     * stopping rules of one restart: those of the engine, plus the abort rule
+     */
+    private class Watch extends ConvergenceCriteria {
+	double last = Double.NaN;
+	boolean stalled;
+
+	Watch(ConvergenceCriteria c) {
+	    super(c.maxShift, c.maxIterations);
+	    reassignFraction = c.reassignFraction;
+	    sseTolerance = c.sseTolerance;
+	    budgetMillis = c.budgetMillis;
+	}
+
+	public boolean wantsSse() {
+	    return true;
+	}
+
+	public boolean done(int iteration, long reassigned, long points,
+		double sse, double shift, long elapsedMillis) {
+	    double gain = last - sse;
+	    last = sse;
+	    double bound = offer(sse);
+	    if (super.done(iteration, reassigned, points, sse, shift,
+		    elapsedMillis))
+		return true;
+	    if (abortMargin > 0 && iteration >= MIN_ITERATIONS
+		    && sse > bound * (1 + abortMargin)
+		    && gain < sse * abortMargin / 10) {
+		stalled = true;
+		reason = "aborted, SSE " + sse + " against " + bound;
+		return true;
+	    }
+	    return false;
+	}
+    }
+
+    /**
+     * @return the lowest SSE reached so far, including this one
+     */
+    private synchronized double offer(double value) {
+	if (value < lowestSse)
+	    lowestSse = value;
+	return lowestSse;
+    }
+
+    /**
+     * keep a finished restart if it is the best, ties go to the lower index
+     */
+    private synchronized void finish(int r, KmeansData run) {
+	if (aborted[r])
+	    return;
+	if (best == null || sse[r] < sse[bestRestart]
+		|| (sse[r] == sse[bestRestart] && r < bestRestart)) {
+	    best = run;
+	    bestRestart = r;
+	}
+    }
+
+    /**
+     * run all restarts, as many at once as the engine has threads, and keep
+     * the best in best
+     */
+    public void run() throws InterruptedException {
+	int concurrent = Math.max(1, Math.min(kmd.numThreads, restarts));
+	final int threadsEach = Math.max(1, kmd.numThreads / concurrent);
+	ExecutorService pool = Executors.newFixedThreadPool(concurrent);
+	ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+	for (int r = 0; r < restarts; r++) {
+	    final int restart = r;
+	    futures.add(pool.submit(new Callable<Void>() {
+		public Void call() {
+		    KmeansData run = new KmeansData(kmd.numGroup);
+		    run.indata = kmd.indata;
+		    run.dimension = kmd.dimension;
+		    run.numThreads = threadsEach;
+		    run.assignMode = kmd.assignMode;
+		    run.initMode = kmd.initMode;
+		    run.incremental = kmd.incremental;
+		    run.refreshPeriod = kmd.refreshPeriod;
+		    run.rand = new Random(seed + restart);
+		    run.verbose = false;
+		    run.printSummary = false;
+		    Watch watch = new Watch(kmd.criteria);
+		    run.criteria = watch;
+		    run.setIniCen();
+		    run.kmeanProcedure();
+		    sse[restart] = watch.last;
+		    iterations[restart] = run.iterations;
+		    aborted[restart] = watch.stalled;
+		    finish(restart, run);
+		    return null;
+		}
+	    }));
+	}
+	try {
+	    for (Future<Void> f : futures)
+		f.get();
+	} catch (ExecutionException e) {
+	    throw new RuntimeException(e.getCause());
+	} finally {
+	    pool.shutdown();
+	}
+    }
+}
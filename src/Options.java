@@ -0,0 +1,66 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A tiny command line parser. Positional arguments are kept in order and every
+ * "-name value" pair is stored as an option. An option that is followed by
+ * another option (or nothing) is treated as a switch with value "true".
+ */
+public class Options {
+
+    private ArrayList<String> positional = new ArrayList<String>();
+    private HashMap<String, String> named = new HashMap<String, String>();
+
+    public Options(String[] args) {
+	for (int i = 0; i < args.length; i++) {
+	    String arg = args[i];
+	    if (isName(arg)) {
+		String value = "true";
+		if (i + 1 < args.length && !isName(args[i + 1]))
+		    value = args[++i];
+		named.put(arg.substring(1), value);
+	    } else {
+		positional.add(arg);
+	    }
+	}
+    }
+
+    private static boolean isName(String arg) {
+	if (arg.length() < 2 || arg.charAt(0) != '-')
+	    return false;
+	char c = arg.charAt(1);
+	return !(Character.isDigit(c) || c == '.');
+    }
+
+    public int numPositional() {
+	return positional.size();
+    }
+
+    public String positional(int i) {
+	return positional.get(i);
+    }
+
+    public boolean has(String name) {
+	return named.containsKey(name);
+    }
+
+    public String getString(String name, String def) {
+	String v = named.get(name);
+	return v == null ? def : v;
+    }
+
+    public int getInt(String name, int def) {
+	String v = named.get(name);
+	return v == null ? def : Integer.parseInt(v);
+    }
+
+    public long getLong(String name, long def) {
+	String v = named.get(name);
+	return v == null ? def : Long.parseLong(v);
+    }
+
+    public double getDouble(String name, double def) {
+	String v = named.get(name);
+	return v == null ? def : Double.parseDouble(v);
+    }
+}
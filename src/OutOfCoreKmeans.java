@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Exact Lloyd k-means over a PointSource that is never held in memory: every
+ * iteration streams the data in chunks of chunkRows points. While one chunk
+ * is assigned and accumulated (on KmeansData's worker threads), a background
+ * thread reads the next one into the other of two chunk buffers. Labels are
+ * kept in a MappedLabels file.
+ * 
+ * The heap used grows with the chunk size and k * dimension only: the two
+ * chunk buffers, one int label per chunk point and the per-chunk statistics.
+ * chunkRows is derived from a memory budget, so the run fits the budget
+ * whatever the size of the dataset.
+ */
+public class OutOfCoreKmeans {
+
+    /** engine supplying k, the kernel, the worker threads and the stop rule */
+    final KmeansData kmd;
+    final PointSource src;
+    final int dimension;
+    public final int chunkRows;
+    final MappedLabels labels;
+    private final double[][] buffers = new double[2][];
+    private final Assigner[] assigners = new Assigner[2];
+    private final ExecutorService prefetcher;
+    /** points streamed per iteration */
+    public long points;
+    /** points whose group changed in the last iteration */
+    public long moved;
+
+    /**
+     * @param kmd
+     *            engine holding k, the kernel, numThreads and the initial
+     *            centroids
+     * @param src
+     *            the data
+     * @param budgetBytes
+     *            heap the chunk buffers and labels may use
+     * @param labelFile
+     *            where to keep the labels, null for a temporary file
+     */
+    public OutOfCoreKmeans(KmeansData kmd, PointSource src, long budgetBytes,
+	    File labelFile) throws IOException {
+	this.kmd = kmd;
+	this.src = src;
+	dimension = src.dimension;
+	chunkRows = chunkRows(budgetBytes, dimension);
+	labels = new MappedLabels(labelFile);
+	for (int b = 0; b < 2; b++) {
+	    buffers[b] = new double[chunkRows * dimension];
+	    assigners[b] = new LloydAssigner(new PointStore(buffers[b],
+		    chunkRows, dimension), kmd.numGroup);
+	}
+	prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, "prefetch");
+		t.setDaemon(true);
+		return t;
+	    }
+	});
+    }
+
+    /**
+     * @return points per chunk so that two chunk buffers and their labels
+     *         take at most budgetBytes
+     */
+    static int chunkRows(long budgetBytes, int dimension) {
+	long perRow = 2L * (8L * dimension + 4);
+	return (int) Math.max(1, Math.min(Integer.MAX_VALUE / Math.max(1, dimension),
+		budgetBytes / perRow));
+    }
+
+    private Future<Integer> prefetch(final int buffer) {
+	return prefetcher.submit(new Callable<Integer>() {
+	    public Integer call() throws IOException {
+		return src.read(buffers[buffer], 0, chunkRows);
+	    }
+	});
+    }
+
+    private static int await(Future<Integer> f) throws IOException {
+	try {
+	    return f.get();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	    throw new IOException(e);
+	} catch (ExecutionException e) {
+	    if (e.getCause() instanceof IOException)
+		throw (IOException) e.getCause();
+	    throw new IOException(e.getCause());
+	}
+    }
+
+    /**
+     * run Lloyd iterations from kmd.centroids until kmd.criteria are met,
+     * the SSE rule does not apply as the SSE would take another pass
+     */
+    public void run() throws IOException {
+	final int numGroup = kmd.numGroup;
+	final int numChunks = ParallelRunner.chunkCount(chunkRows);
+	ParallelRunner runner = new ParallelRunner(kmd.numThreads);
+	final ClusterStats[] partial = new ClusterStats[numChunks];
+	for (int c = 0; c < numChunks; c++)
+	    partial[c] = new ClusterStats(numGroup, dimension);
+	ClusterStats total = new ClusterStats(numGroup, dimension);
+	final int[] chunkLabels = new int[chunkRows];
+	final long[] chunkMoved = new long[numChunks];
+
+	kmd.criteria.reset();
+	long startTime = System.currentTimeMillis();
+	int iteration = 1;
+	try {
+	    while (true) {
+		// labels on disk are meaningless before the first pass
+		final boolean first = iteration == 1;
+		if (kmd.verbose)
+		    System.out.println("Iteration: " + iteration);
+		iteration++;
+		total.clear();
+		moved = 0;
+		long base = 0;
+		src.rewind();
+		int cur = 0;
+		Future<Integer> next = prefetch(cur);
+		while (true) {
+		    final int rows = await(next);
+		    if (rows == 0)
+			break;
+		    // read the next chunk while this one is processed
+		    next = prefetch(1 - cur);
+		    final double[] buf = buffers[cur];
+		    final Assigner assigner = assigners[cur];
+		    final long chunkBase = base;
+		    labels.ensure(base + rows);
+		    assigner.prepare(kmd.centroids);
+		    runner.forEachChunk(rows, ParallelRunner.chunkCount(rows),
+			    new ParallelRunner.ChunkBody() {
+				public void run(int chunk, int start, int end) {
+				    partial[chunk].clear();
+				    assigner.assign(start, end, chunkLabels);
+				    long m = 0;
+				    for (int i = start; i < end; i++) {
+					partial[chunk].add(buf, i * dimension,
+						chunkLabels[i]);
+					if (first
+						|| labels.get(chunkBase + i) != chunkLabels[i])
+					    m++;
+					labels.put(chunkBase + i, chunkLabels[i]);
+				    }
+				    chunkMoved[chunk] = m;
+				}
+			    });
+		    for (int c = 0; c < ParallelRunner.chunkCount(rows); c++) {
+			total.merge(partial[c]);
+			moved += chunkMoved[c];
+		    }
+		    base += rows;
+		    cur = 1 - cur;
+		}
+		points = base;
+		if (kmd.verbose)
+		    System.out.println("moved points: " + moved);
+		double[] newCentroids = new double[numGroup * dimension];
+		kmd.getNewCen(total, newCentroids);
+		if (kmd.criteria.done(iteration - 1, moved, points, Double.NaN,
+			kmd.centroidShift(newCentroids),
+			System.currentTimeMillis() - startTime)) {
+		    kmd.iterations = iteration - 1;
+		    if (kmd.verbose)
+			System.out.println("Stopped: " + kmd.criteria.reason());
+		    if (kmd.printSummary)
+			kmd.printResult(total.counts);
+		    return;
+		}
+		kmd.centroids = newCentroids;
+	    }
+	} finally {
+	    runner.shutdown();
+	}
+    }
+
+    public void close() throws IOException {
+	prefetcher.shutdown();
+	labels.close();
+    }
+}
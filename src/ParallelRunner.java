@@ -0,0 +1,102 @@
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a loop over [0, n) split into contiguous chunks on a fork-join pool.
+ * 
+ * The chunk layout only depends on n, never on the number of threads, so code
+ * that keeps one partial result per chunk and merges them in chunk order gets
+ * bit-identical results whatever thread count is used.
+ */
+public class ParallelRunner {
+    /** smallest chunk worth handing to a thread */
+    public static final int MIN_CHUNK = 1024;
+    /** upper bound on chunks, which also bounds per-chunk partial buffers */
+    public static final int MAX_CHUNKS = 64;
+
+    public interface ChunkBody {
+	/**
+	 * process the elements of one chunk
+	 * 
+	 * @param chunk
+	 *            chunk index
+	 * @param start
+	 *            first element (inclusive)
+	 * @param end
+	 *            last element (exclusive)
+	 */
+	void run(int chunk, int start, int end);
+    }
+
+    public final int numThreads;
+    private ForkJoinPool pool = null;
+
+    public ParallelRunner(int numThreads) {
+	this.numThreads = Math.max(1, numThreads);
+	if (this.numThreads > 1)
+	    pool = new ForkJoinPool(this.numThreads);
+    }
+
+    /**
+     * @param n
+     *            number of elements
+     * @return number of chunks used for n elements
+     */
+    public static int chunkCount(int n) {
+	int chunks = (n + MIN_CHUNK - 1) / MIN_CHUNK;
+	return Math.max(1, Math.min(MAX_CHUNKS, chunks));
+    }
+
+    public static int chunkStart(int n, int numChunks, int chunk) {
+	return (int) ((long) n * chunk / numChunks);
+    }
+
+    /**
+     * run body over every chunk of [0, n) and wait for all of them
+     * 
+     * @param n
+     *            number of elements
+     * @param numChunks
+     *            number of chunks, normally chunkCount(n)
+     * @param body
+     *            work for one chunk
+     */
+    public void forEachChunk(final int n, final int numChunks,
+	    final ChunkBody body) {
+	if (pool == null || numChunks == 1) {
+	    for (int c = 0; c < numChunks; c++)
+		body.run(c, chunkStart(n, numChunks, c),
+			chunkStart(n, numChunks, c + 1));
+	    return;
+	}
+	ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+	for (int c = 0; c < numChunks; c++) {
+	    final int chunk = c;
+	    tasks.add(new Callable<Void>() {
+		public Void call() {
+		    body.run(chunk, chunkStart(n, numChunks, chunk),
+			    chunkStart(n, numChunks, chunk + 1));
+		    return null;
+		}
+	    });
+	}
+	for (Future<Void> f : pool.invokeAll(tasks)) {
+	    try {
+		f.get();
+	    } catch (InterruptedException e) {
+		Thread.currentThread().interrupt();
+		throw new RuntimeException(e);
+	    } catch (ExecutionException e) {
+		throw new RuntimeException(e.getCause());
+	    }
+	}
+    }
+
+    public void shutdown() {
+	if (pool != null)
+	    pool.shutdown();
+    }
+}
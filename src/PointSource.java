@@ -0,0 +1,80 @@
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Streams the points of one slice of an input file without loading it, for
+ * the mini-batch mode. open picks the implementation from the file: binary
+ * datasets (BinaryPointSource) draw uniformly random rows from mapped
+ * windows, CSV input (CsvPointSource) draws the lines after random byte
+ * offsets, one seek per point.
+ */
+public abstract class PointSource {
+
+    /** dimension of the points, 0 for an empty slice of a CSV input */
+    public int dimension;
+
+    /**
+     * read the next points in file order
+     * 
+     * @param buf
+     *            receives the points, row-major
+     * @param row
+     *            row of buf receiving the first point
+     * @param maxRows
+     *            most points to read
+     * @return number of points read, 0 at the end of the slice
+     */
+    public abstract int read(double[] buf, int row, int maxRows)
+	    throws IOException;
+
+    /**
+     * start reading from the beginning of the slice again
+     */
+    public abstract void rewind() throws IOException;
+
+    public abstract void close() throws IOException;
+
+    /**
+     * draw a batch of points; by default the next rows in file order,
+     * wrapping around at the end of the slice
+     * 
+     * @param buf
+     *            receives the points, row-major
+     * @param rows
+     *            number of points to draw
+     * @param rand
+     *            random source
+     * @return number of points drawn, less than rows only for an empty slice
+     */
+    public int sample(double[] buf, int rows, Random rand) throws IOException {
+	int got = 0;
+	boolean rewound = false;
+	while (got < rows) {
+	    int n = read(buf, got, rows - got);
+	    if (n == 0) {
+		if (rewound)
+		    break; // empty slice
+		rewind();
+		rewound = true;
+		continue;
+	    }
+	    rewound = false;
+	    got += n;
+	}
+	return got;
+    }
+
+    /**
+     * open slice rank of size equal slices of a CSV file or binary dataset
+     */
+    public static PointSource open(String fnName, int rank, int size)
+	    throws IOException {
+	if (BinaryDataset.isBinary(fnName)) {
+	    BinaryDataset ds = BinaryDataset.open(fnName);
+	    long[] range = ds.range(rank, size);
+	    return new BinaryPointSource(ds, range[0], range[1]);
+	}
+	long[] range = FileSlice.range(FileSlice.length(fnName), rank, size);
+	return new CsvPointSource(fnName, range[0], range[1]);
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * A dataset stored as one contiguous row-major double array. Point i occupies
+ * coords[i * dimension] .. coords[(i + 1) * dimension - 1], so walking the
+ * points walks memory sequentially and there is no per-point object header.
+ * 
+ * A float32 store holds the same layout in floats instead and coords is
+ * null. It halves the memory and the bandwidth the assignment needs; the
+ * accessors below work on both and return doubles.
+ */
+public class PointStore {
+
+    public final int size;
+    public final int dimension;
+    /** row-major coordinates, size x dimension, null for a float32 store */
+    public final double[] coords;
+    /** row-major coordinates of a float32 store, null otherwise */
+    public final float[] floats;
+
+    /** largest array length most JVMs allocate */
+    static final int MAX_LENGTH = Integer.MAX_VALUE - 8;
+
+    public PointStore(int size, int dimension) {
+	this(new double[length(size, dimension)], size, dimension);
+    }
+
+    public PointStore(double[] coords, int size, int dimension) {
+	this.size = size;
+	this.dimension = dimension;
+	this.coords = coords;
+	this.floats = null;
+    }
+
+    public PointStore(float[] floats, int size, int dimension) {
+	this.size = size;
+	this.dimension = dimension;
+	this.coords = null;
+	this.floats = floats;
+    }
+
+    /**
+     * @return the length of the coordinate array of size points
+     * @throws IllegalArgumentException
+     *             if one array cannot hold size x dimension values
+     */
+    public static int length(long size, int dimension) {
+	long length = size * dimension;
+	if (length > MAX_LENGTH)
+	    throw new IllegalArgumentException(size + " points x " + dimension
+		    + " dimensions exceed the largest Java array");
+	return (int) length;
+    }
+
+    public boolean isFloat() {
+	return floats != null;
+    }
+
+    /**
+     * @return a float32 copy of this store, this store if it is one already
+     */
+    public PointStore toFloat() {
+	if (floats != null)
+	    return this;
+	float[] f = new float[coords.length];
+	for (int i = 0; i < f.length; i++)
+	    f[i] = (float) coords[i];
+	return new PointStore(f, size, dimension);
+    }
+
+    /**
+     * @return bytes taken by the coordinates
+     */
+    public long bytes() {
+	return floats != null ? 4L * floats.length : 8L * coords.length;
+    }
+
+    /**
+     * @param i
+     *            point index
+     * @return index of the first coordinate of point i in coords
+     */
+    public int offset(int i) {
+	return i * dimension;
+    }
+
+    public double get(int i, int j) {
+	if (floats != null)
+	    return floats[i * dimension + j];
+	return coords[i * dimension + j];
+    }
+
+    /**
+     * copy point i into dst starting at dstOff
+     */
+    public void copyPoint(int i, double[] dst, int dstOff) {
+	if (floats != null) {
+	    int off = i * dimension;
+	    for (int t = 0; t < dimension; t++)
+		dst[dstOff + t] = floats[off + t];
+	    return;
+	}
+	System.arraycopy(coords, i * dimension, dst, dstOff, dimension);
+    }
+
+    /**
+     * squared Euclidean distance between point i and a vector, computed in
+     * double also for a float32 store
+     * 
+     * @param kernel
+     *            kernel used for a float64 store
+     * @param i
+     *            point index
+     * @param v
+     *            array holding the vector
+     * @param off
+     *            offset of the vector
+     * @return the squared distance
+     */
+    public double distSq(DistanceKernel kernel, int i, double[] v, int off) {
+	if (floats == null)
+	    return kernel.distSq(coords, i * dimension, v, off, dimension);
+	int p = i * dimension;
+	double dist = 0;
+	for (int t = 0; t < dimension; t++) {
+	    double d = floats[p + t] - v[off + t];
+	    dist += d * d;
+	}
+	return dist;
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * Plain loop implementation of the distance kernel, used when no vector
+ * support is available and as the reference the vector kernel is checked
+ * against.
+ */
+public class ScalarKernel implements DistanceKernel {
+
+    public double distSq(double[] v1, int off1, double[] v2, int off2, int len) {
+	double dist = 0;
+	for (int i = 0; i < len; i++) {
+	    double d = v1[off1 + i] - v2[off2 + i];
+	    dist += d * d;
+	}
+	return dist;
+    }
+
+    public float distSq(float[] v1, int off1, float[] v2, int off2, int len) {
+	float dist = 0;
+	for (int i = 0; i < len; i++) {
+	    float d = v1[off1 + i] - v2[off2 + i];
+	    dist += d * d;
+	}
+	return dist;
+    }
+
+    public void dotTile(double[] x, int xOff, int np, int dim, double[] cT,
+	    int cOff, int width, double[] dots) {
+	int a = 0;
+	// 4 points x 4 centroids: 8 loads for 16 multiply-adds
+	for (; a + 4 <= np; a += 4) {
+	    int x0 = xOff + a * dim, x1 = x0 + dim, x2 = x1 + dim, x3 = x2 + dim;
+	    for (int b = 0; b < width; b += 4) {
+		double s00 = 0, s01 = 0, s02 = 0, s03 = 0;
+		double s10 = 0, s11 = 0, s12 = 0, s13 = 0;
+		double s20 = 0, s21 = 0, s22 = 0, s23 = 0;
+		double s30 = 0, s31 = 0, s32 = 0, s33 = 0;
+		for (int t = 0, c = cOff + b; t < dim; t++, c += width) {
+		    double u0 = x[x0 + t], u1 = x[x1 + t], u2 = x[x2 + t], u3 = x[x3 + t];
+		    double v0 = cT[c], v1 = cT[c + 1], v2 = cT[c + 2], v3 = cT[c + 3];
+		    s00 += u0 * v0; s01 += u0 * v1; s02 += u0 * v2; s03 += u0 * v3;
+		    s10 += u1 * v0; s11 += u1 * v1; s12 += u1 * v2; s13 += u1 * v3;
+		    s20 += u2 * v0; s21 += u2 * v1; s22 += u2 * v2; s23 += u2 * v3;
+		    s30 += u3 * v0; s31 += u3 * v1; s32 += u3 * v2; s33 += u3 * v3;
+		}
+		int r0 = a * width + b, r1 = r0 + width, r2 = r1 + width, r3 = r2 + width;
+		dots[r0] = s00; dots[r0 + 1] = s01; dots[r0 + 2] = s02; dots[r0 + 3] = s03;
+		dots[r1] = s10; dots[r1 + 1] = s11; dots[r1 + 2] = s12; dots[r1 + 3] = s13;
+		dots[r2] = s20; dots[r2 + 1] = s21; dots[r2 + 2] = s22; dots[r2 + 3] = s23;
+		dots[r3] = s30; dots[r3 + 1] = s31; dots[r3 + 2] = s32; dots[r3 + 3] = s33;
+	    }
+	}
+	for (; a < np; a++) {
+	    int x0 = xOff + a * dim;
+	    for (int b = 0; b < width; b++) {
+		double s = 0;
+		for (int t = 0, c = cOff + b; t < dim; t++, c += width)
+		    s += x[x0 + t] * cT[c];
+		dots[a * width + b] = s;
+	    }
+	}
+    }
+
+    public String name() {
+	return "scalar";
+    }
+}
@@ -0,0 +1,425 @@
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Initial centroid selection beyond uniformly random points.
+ * 
+ * k-means++ picks the first centroid uniformly and every further one with
+ * probability proportional to D(x)^2, the squared distance from x to the
+ * nearest centroid picked so far (Hamming distance for DNA). It needs k
+ * passes over the data.
+ * 
+ * k-means|| (scalable k-means++) is the variant for the parallel drivers:
+ * after a uniformly chosen first centroid, every round each process keeps
+ * each of its points independently with probability min(1, l D(x)^2 / phi),
+ * where phi is the total cost over all processes, and the kept points of all
+ * processes become candidates. After a few rounds every candidate is
+ * weighted by the number of points closest to it, and weighted k-means++ on
+ * the candidates, refined by a few weighted Lloyd iterations, picks the k
+ * centroids. Only a few reductions per round
+ * cross the network, whatever the number of points.
+ */
+public class Seeding {
+
+    /** default number of k-means|| sampling rounds */
+    public static final int ROUNDS = 5;
+    /** weighted Lloyd iterations refining the k-means|| reclustering */
+    static final int RECLUSTER_ITER = 20;
+
+    /**
+     * @return k centroids picked from store by k-means++, row-major
+     */
+    public static double[] kmeansPlusPlus(PointStore store, int k,
+	    DistanceKernel kernel, Random rand) {
+	return kmeansPlusPlus(store, null, k, kernel, rand);
+    }
+
+    /**
+     * weighted k-means++: point i is picked with probability proportional to
+     * weights[i] * D(x)^2
+     * 
+     * @param points
+     *            the points
+     * @param weights
+     *            weight of every point, null for all 1
+     * @param k
+     *            number of centroids
+     * @return k centroids, row-major
+     */
+    static double[] kmeansPlusPlus(PointStore points, double[] weights,
+	    int k, DistanceKernel kernel, Random rand) {
+	int n = points.size;
+	int dim = points.dimension;
+	double[] centroids = new double[k * dim];
+	double[] minDist = new double[n];
+	Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+	int pick = sample(null, weights, n, rand);
+	for (int c = 0; c < k; c++) {
+	    points.copyPoint(pick, centroids, c * dim);
+	    if (c == k - 1)
+		break;
+	    for (int i = 0; i < n; i++) {
+		double d = points.distSq(kernel, i, centroids, c * dim);
+		if (d < minDist[i])
+		    minDist[i] = d;
+	    }
+	    pick = sample(minDist, weights, n, rand);
+	}
+	return centroids;
+    }
+
+    /**
+     * @return k centroids picked from points by k-means++ under the Hamming
+     *         distance
+     */
+    public static DNAPoint[] kmeansPlusPlus(List<DNAPoint> points, int k,
+	    Random rand) {
+	return kmeansPlusPlus(points.toArray(new DNAPoint[points.size()]), null,
+		k, rand);
+    }
+
+    /**
+     * weighted k-means++ under the Hamming distance
+     * 
+     * @param weights
+     *            weight of every point, null for all 1
+     */
+    static DNAPoint[] kmeansPlusPlus(DNAPoint[] points, double[] weights,
+	    int k, Random rand) {
+	int n = points.length;
+	DNAPoint[] centroids = new DNAPoint[k];
+	double[] minDist = new double[n];
+	Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+	int pick = sample(null, weights, n, rand);
+	for (int c = 0; c < k; c++) {
+	    centroids[c] = points[pick];
+	    if (c == k - 1)
+		break;
+	    for (int i = 0; i < n; i++) {
+		double d = DNAPoint.distance(points[i], centroids[c]);
+		if (d * d < minDist[i])
+		    minDist[i] = d * d;
+	    }
+	    pick = sample(minDist, weights, n, rand);
+	}
+	return centroids;
+    }
+
+    /**
+     * draw an index with probability proportional to weights[i] * cost[i];
+     * uniformly (by weight) when cost is null or all costs are zero
+     */
+    static int sample(double[] cost, double[] weights, int n, Random rand) {
+	double total = 0;
+	for (int i = 0; i < n; i++)
+	    total += mass(cost, weights, i);
+	if (total == 0 && cost != null)
+	    return sample(null, weights, n, rand);
+	double r = rand.nextDouble() * total;
+	for (int i = 0; i < n; i++) {
+	    r -= mass(cost, weights, i);
+	    if (r < 0)
+		return i;
+	}
+	// rounding left r just above 0, take the last point with any mass
+	for (int i = n - 1; i > 0; i--)
+	    if (mass(cost, weights, i) > 0)
+		return i;
+	return 0;
+    }
+
+    private static double mass(double[] cost, double[] weights, int i) {
+	double m = weights == null ? 1 : weights[i];
+	return cost == null ? m : m * cost[i];
+    }
+
+    /**
+     * k-means|| over the points of all processes
+     * 
+     * @param comm
+     *            connects this process to the others
+     * @param local
+     *            this process's points
+     * @param counts
+     *            number of points held by every process
+     * @param k
+     *            number of centroids
+     * @param rand
+     *            this process's random source, different on every process
+     * @param rounds
+     *            number of sampling rounds
+     * @return k centroids, row-major, the same on every process
+     */
+    public static double[] kmeansParallel(Communicator comm, PointStore local,
+	    int[] counts, int k, DistanceKernel kernel, Random rand, int rounds)
+	    throws IOException {
+	int dim = local.dimension;
+	int n = local.size;
+	double oversampling = 2.0 * k;
+	double[] minDist = new double[n];
+	int[] nearest = new int[n];
+	Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+
+	// first candidate: a uniformly chosen point of any process
+	int[] first = new int[] { drawGlobalIndex(comm, counts, rand) };
+	comm.bcast(first, 0, 1, 0);
+	int[] picked = new int[1];
+	int numPicked = 0;
+	int local0 = first[0] - offsetOf(counts, comm.rank());
+	if (local0 >= 0 && local0 < n)
+	    picked[numPicked++] = local0;
+	double[] candidates = gatherRows(comm, local, picked, numPicked);
+	int numCand = candidates.length / dim;
+	double phi = updateCost(comm, local, candidates, 0, numCand, minDist,
+		nearest, kernel);
+
+	for (int r = 0; r < rounds && phi > 0; r++) {
+	    picked = new int[n];
+	    numPicked = 0;
+	    for (int i = 0; i < n; i++)
+		if (rand.nextDouble() < oversampling * minDist[i] / phi)
+		    picked[numPicked++] = i;
+	    double[] round = gatherRows(comm, local, picked, numPicked);
+	    int added = round.length / dim;
+	    candidates = Arrays.copyOf(candidates, candidates.length
+		    + round.length);
+	    System.arraycopy(round, 0, candidates, numCand * dim, round.length);
+	    phi = updateCost(comm, local, candidates, numCand, numCand + added,
+		    minDist, nearest, kernel);
+	    numCand += added;
+	}
+
+	// weight every candidate by the points it is closest to
+	double[] weights = new double[numCand];
+	for (int i = 0; i < n; i++)
+	    weights[nearest[i]]++;
+	comm.allreduceSum(weights, 0, numCand);
+
+	double[] centroids = new double[k * dim];
+	if (comm.rank() == 0) {
+	    centroids = kmeansPlusPlus(new PointStore(candidates, numCand, dim),
+		    weights, k, kernel, rand);
+	    weightedLloyd(candidates, numCand, dim, weights, centroids, k,
+		    kernel);
+	}
+	comm.bcast(centroids, 0, centroids.length, 0);
+	return centroids;
+    }
+
+    /**
+     * k-means|| under the Hamming distance, see the other kmeansParallel
+     * 
+     * @param dimension
+     *            sequence length
+     * @return k centroids, the same on every process
+     */
+    public static DNAPoint[] kmeansParallel(Communicator comm, DNAPoint[] local,
+	    int dimension, int[] counts, int k, Random rand, int rounds)
+	    throws IOException {
+	int n = local.length;
+	double oversampling = 2.0 * k;
+	double[] minDist = new double[n];
+	int[] nearest = new int[n];
+	Arrays.fill(minDist, Double.POSITIVE_INFINITY);
+
+	int[] first = new int[] { drawGlobalIndex(comm, counts, rand) };
+	comm.bcast(first, 0, 1, 0);
+	int[] picked = new int[1];
+	int numPicked = 0;
+	int local0 = first[0] - offsetOf(counts, comm.rank());
+	if (local0 >= 0 && local0 < n)
+	    picked[numPicked++] = local0;
+	DNAPoint[] candidates = gatherSequences(comm, local, dimension, picked,
+		numPicked);
+	double phi = updateCost(comm, local, candidates, 0, candidates.length,
+		minDist, nearest);
+
+	for (int r = 0; r < rounds && phi > 0; r++) {
+	    picked = new int[n];
+	    numPicked = 0;
+	    for (int i = 0; i < n; i++)
+		if (rand.nextDouble() < oversampling * minDist[i] / phi)
+		    picked[numPicked++] = i;
+	    DNAPoint[] round = gatherSequences(comm, local, dimension, picked,
+		    numPicked);
+	    int numCand = candidates.length;
+	    candidates = Arrays.copyOf(candidates, numCand + round.length);
+	    System.arraycopy(round, 0, candidates, numCand, round.length);
+	    phi = updateCost(comm, local, candidates, numCand,
+		    candidates.length, minDist, nearest);
+	}
+
+	double[] weights = new double[candidates.length];
+	for (int i = 0; i < n; i++)
+	    weights[nearest[i]]++;
+	comm.allreduceSum(weights, 0, weights.length);
+
+	// rank 0 picks, the others receive the packed result
+	int cenLen = 2 * DNAPoint.words(dimension);
+	long[] cenBuf = new long[k * cenLen];
+	if (comm.rank() == 0) {
+	    DNAPoint[] picks = kmeansPlusPlus(candidates, weights, k, rand);
+	    for (int c = 0; c < k; c++)
+		picks[c].pack(cenBuf, c * cenLen);
+	}
+	comm.bcast(cenBuf, 0, cenBuf.length, 0);
+	DNAPoint[] centroids = new DNAPoint[k];
+	for (int c = 0; c < k; c++)
+	    centroids[c] = DNAPoint.unpack(cenBuf, c * cenLen, dimension);
+	return centroids;
+    }
+
+    /**
+     * refine centroids by weighted Lloyd iterations over a small point set
+     */
+    static void weightedLloyd(double[] coords, int n, int dim,
+	    double[] weights, double[] centroids, int k, DistanceKernel kernel) {
+	int[] labels = new int[n];
+	for (int it = 0; it < RECLUSTER_ITER; it++) {
+	    boolean changed = it == 0;
+	    for (int i = 0; i < n; i++) {
+		int best = 0;
+		double bestDist = Double.MAX_VALUE;
+		for (int c = 0; c < k; c++) {
+		    double d = kernel.distSq(coords, i * dim, centroids, c * dim,
+			    dim);
+		    if (d < bestDist) {
+			bestDist = d;
+			best = c;
+		    }
+		}
+		changed |= labels[i] != best;
+		labels[i] = best;
+	    }
+	    if (!changed)
+		return;
+	    double[] sums = new double[k * dim];
+	    double[] mass = new double[k];
+	    for (int i = 0; i < n; i++) {
+		int c = labels[i];
+		mass[c] += weights[i];
+		for (int j = 0; j < dim; j++)
+		    sums[c * dim + j] += weights[i] * coords[i * dim + j];
+	    }
+	    // a centroid without weight keeps its position
+	    for (int c = 0; c < k; c++)
+		if (mass[c] > 0)
+		    for (int j = 0; j < dim; j++)
+			centroids[c * dim + j] = sums[c * dim + j] / mass[c];
+	}
+    }
+
+    /**
+     * @return a uniformly drawn index into the points of all processes, only
+     *         meaningful on rank 0
+     */
+    private static int drawGlobalIndex(Communicator comm, int[] counts,
+	    Random rand) {
+	int total = offsetOf(counts, counts.length);
+	return comm.rank() == 0 ? rand.nextInt(total) : 0;
+    }
+
+    /**
+     * @return number of points held by the processes before rank
+     */
+    static int offsetOf(int[] counts, int rank) {
+	int off = 0;
+	for (int i = 0; i < rank; i++)
+	    off += counts[i];
+	return off;
+    }
+
+    /**
+     * @return number of rows every process contributes, and this process's
+     *         first row among them as the last element
+     */
+    private static int[] rowLayout(Communicator comm, int numPicked)
+	    throws IOException {
+	int size = comm.size();
+	int[] rows = new int[size];
+	rows[comm.rank()] = numPicked;
+	comm.allreduceSum(rows, 0, size);
+	int[] layout = Arrays.copyOf(rows, size + 1);
+	layout[size] = offsetOf(rows, comm.rank());
+	return layout;
+    }
+
+    /**
+     * @return the picked rows of all processes, in rank order, on every
+     *         process
+     */
+    static double[] gatherRows(Communicator comm, PointStore local,
+	    int[] picked, int numPicked) throws IOException {
+	int[] layout = rowLayout(comm, numPicked);
+	int size = comm.size();
+	int dim = local.dimension;
+	double[] rows = new double[offsetOf(layout, size) * dim];
+	// every process fills only its own rows, the sum gathers all of them
+	for (int i = 0; i < numPicked; i++)
+	    local.copyPoint(picked[i], rows, (layout[size] + i) * dim);
+	comm.allreduceSum(rows, 0, rows.length);
+	return rows;
+    }
+
+    private static DNAPoint[] gatherSequences(Communicator comm,
+	    DNAPoint[] local, int dimension, int[] picked, int numPicked)
+	    throws IOException {
+	int[] layout = rowLayout(comm, numPicked);
+	int size = comm.size();
+	int total = offsetOf(layout, size);
+	int cenLen = 2 * DNAPoint.words(dimension);
+	long[] buf = new long[total * cenLen];
+	for (int i = 0; i < numPicked; i++)
+	    local[picked[i]].pack(buf, (layout[size] + i) * cenLen);
+	comm.allreduceSum(buf, 0, buf.length);
+	DNAPoint[] seqs = new DNAPoint[total];
+	for (int i = 0; i < total; i++)
+	    seqs[i] = DNAPoint.unpack(buf, i * cenLen, dimension);
+	return seqs;
+    }
+
+    /**
+     * lower the distance of every local point to its nearest candidate with
+     * candidates [from, to)
+     * 
+     * @return the total cost over all processes
+     */
+    private static double updateCost(Communicator comm, PointStore local,
+	    double[] candidates, int from, int to, double[] minDist,
+	    int[] nearest, DistanceKernel kernel) throws IOException {
+	int dim = local.dimension;
+	double[] phi = new double[1];
+	for (int i = 0; i < local.size; i++) {
+	    for (int c = from; c < to; c++) {
+		double d = local.distSq(kernel, i, candidates, c * dim);
+		if (d < minDist[i]) {
+		    minDist[i] = d;
+		    nearest[i] = c;
+		}
+	    }
+	    phi[0] += minDist[i];
+	}
+	comm.allreduceSum(phi, 0, 1);
+	return phi[0];
+    }
+
+    private static double updateCost(Communicator comm, DNAPoint[] local,
+	    DNAPoint[] candidates, int from, int to, double[] minDist,
+	    int[] nearest) throws IOException {
+	double[] phi = new double[1];
+	for (int i = 0; i < local.length; i++) {
+	    for (int c = from; c < to; c++) {
+		double d = DNAPoint.distance(local[i], candidates[c]);
+		if (d * d < minDist[i]) {
+		    minDist[i] = d * d;
+		    nearest[i] = c;
+		}
+	    }
+	    phi[0] += minDist[i];
+	}
+	comm.allreduceSum(phi, 0, 1);
+	return phi[0];
+    }
+}
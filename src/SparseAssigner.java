@@ -0,0 +1,74 @@
+/**
+ * Brute-force assignment of the points of a SparseStore to dense centroids,
+ * with ||x - c||^2 = ||x||^2 - 2 x.c + ||c||^2: the point norms are kept by
+ * the store and the centroid norms are computed once per iteration, so every
+ * distance costs one sparse dot product.
+ * 
+ * prepare() also transposes the centroids, dimension rows of numGroup
+ * values, so that every non-zero of a point adds one contiguous row to the
+ * dot products with all centroids. The norm form loses precision when the
+ * points are far from the origin compared with their distances to the
+ * centroids, which is rarely the case for sparse features.
+ */
+public class SparseAssigner extends Assigner {
+
+    final SparseStore sparse;
+    /** the centroids, dimension x numGroup */
+    private double[] transposed;
+    /** squared length of every centroid */
+    private double[] centroidNorms;
+
+    public SparseAssigner(SparseStore sparse, int numGroup) {
+	super(sparse.dimension, numGroup);
+	this.sparse = sparse;
+    }
+
+    public void prepare(double[] newCentroids) {
+	super.prepare(newCentroids);
+	if (transposed == null)
+	    transposed = new double[numGroup * dimension];
+	centroidNorms = new double[numGroup];
+	for (int j = 0; j < numGroup; j++) {
+	    double norm = 0;
+	    for (int t = 0; t < dimension; t++) {
+		double v = newCentroids[j * dimension + t];
+		transposed[t * numGroup + j] = v;
+		norm += v * v;
+	    }
+	    centroidNorms[j] = norm;
+	}
+    }
+
+    public long assign(int start, int end, int[] labels) {
+	int[] rowStart = sparse.rowStart;
+	int[] cols = sparse.cols;
+	double[] vals = sparse.vals;
+	double[] dots = new double[numGroup];
+	for (int i = start; i < end; i++) {
+	    for (int j = 0; j < numGroup; j++)
+		dots[j] = 0;
+	    for (int p = rowStart[i]; p < rowStart[i + 1]; p++) {
+		double v = vals[p];
+		int row = cols[p] * numGroup;
+		for (int j = 0; j < numGroup; j++)
+		    dots[j] += v * transposed[row + j];
+	    }
+	    // ||x||^2 is the same for every centroid
+	    double minDist = Double.MAX_VALUE;
+	    int group = 0;
+	    for (int j = 0; j < numGroup; j++) {
+		double dist = centroidNorms[j] - 2 * dots[j];
+		if (dist < minDist) {
+		    group = j;
+		    minDist = dist;
+		}
+	    }
+	    labels[i] = group;
+	}
+	return (long) (end - start) * numGroup;
+    }
+
+    protected double distSq(int i, int j) {
+	return sparse.distSq(i, centroids, j * dimension, centroidNorms[j]);
+    }
+}
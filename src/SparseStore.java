@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A dataset stored in compressed sparse row (CSR) form, for inputs with many
+ * dimensions of which every point uses only a few, such as bag-of-words
+ * features. The non-zero coordinates of point i are cols[p] and vals[p] for p
+ * in [rowStart[i], rowStart[i + 1]), in input order, and norms[i] is the
+ * squared length of point i, computed once so that a distance to a dense
+ * centroid costs one sparse dot product (see SparseAssigner).
+ * 
+ * The input is text with one point per line of "index:value" pairs separated
+ * by blanks or commas, indices 0-based. A leading token without ':', such as
+ * the class label of a libsvm file, is skipped, so a line holding only a
+ * label is a point at the origin. An index may appear once per line, since
+ * the norms and the dot products take every pair as its own coordinate.
+ */
+public class SparseStore {
+
+    public final int size;
+    public final int dimension;
+    /** start of every point in cols and vals, size + 1 entries */
+    public final int[] rowStart;
+    /** dimension of every non-zero coordinate */
+    public final int[] cols;
+    /** value of every non-zero coordinate */
+    public final double[] vals;
+    /** squared length of every point */
+    public final double[] norms;
+
+    public SparseStore(int[] rowStart, int[] cols, double[] vals, int dimension) {
+	this.size = rowStart.length - 1;
+	this.dimension = dimension;
+	this.rowStart = rowStart;
+	this.cols = cols;
+	this.vals = vals;
+	norms = new double[size];
+	for (int i = 0; i < size; i++) {
+	    double sum = 0;
+	    for (int p = rowStart[i]; p < rowStart[i + 1]; p++)
+		sum += vals[p] * vals[p];
+	    norms[i] = sum;
+	}
+    }
+
+    /**
+     * read the points of the lines that begin in [from, to)
+     * 
+     * @param fnName
+     *            file name
+     * @param from
+     *            first byte of the range
+     * @param to
+     *            end of the range (exclusive)
+     * @param dimension
+     *            number of dimensions, 0 for the largest index read plus one
+     * @return the points
+     */
+    public static SparseStore parse(String fnName, long from, long to,
+	    final int dimension) throws IOException {
+	final int[][] colBuf = { new int[1024] };
+	final double[][] valBuf = { new double[1024] };
+	final int[][] rowBuf = { new int[1024] };
+	// points, non-zeros, largest index
+	final int[] n = { 0, 0, -1 };
+	// by index, the number of the last point that used it, plus one
+	final int[][] lastPoint = { new int[1024] };
+	FileSlice.read(fnName, from, to, new FileSlice.LineHandler() {
+	    public void line(String line) {
+		int len = line.length();
+		int pos = 0;
+		boolean first = true;
+		while (pos < len) {
+		    while (pos < len && isSeparator(line.charAt(pos)))
+			pos++;
+		    if (pos == len)
+			break;
+		    int tokenStart = pos;
+		    int colon = -1;
+		    while (pos < len && !isSeparator(line.charAt(pos))) {
+			if (line.charAt(pos) == ':' && colon < 0)
+			    colon = pos;
+			pos++;
+		    }
+		    if (colon < 0) {
+			if (first) {
+			    first = false;
+			    continue;
+			}
+			throw new IllegalArgumentException("not index:value: "
+				+ line.substring(tokenStart, pos));
+		    }
+		    first = false;
+		    int col = Integer.parseInt(line.substring(tokenStart, colon));
+		    if (col < 0 || (dimension > 0 && col >= dimension))
+			throw new IllegalArgumentException("index out of range: "
+				+ col);
+		    if (col >= lastPoint[0].length)
+			lastPoint[0] = Arrays.copyOf(lastPoint[0], Math.max(
+				col + 1, lastPoint[0].length * 2));
+		    if (lastPoint[0][col] == n[0] + 1)
+			throw new IllegalArgumentException("repeated index: "
+				+ col);
+		    lastPoint[0][col] = n[0] + 1;
+		    double val = Double.parseDouble(line.substring(colon + 1, pos));
+		    if (n[1] == colBuf[0].length) {
+			colBuf[0] = Arrays.copyOf(colBuf[0], n[1] * 2);
+			valBuf[0] = Arrays.copyOf(valBuf[0], n[1] * 2);
+		    }
+		    colBuf[0][n[1]] = col;
+		    valBuf[0][n[1]++] = val;
+		    n[2] = Math.max(n[2], col);
+		}
+		if (n[0] + 2 > rowBuf[0].length)
+		    rowBuf[0] = Arrays.copyOf(rowBuf[0], rowBuf[0].length * 2);
+		rowBuf[0][++n[0]] = n[1];
+	    }
+	});
+	return new SparseStore(Arrays.copyOf(rowBuf[0], n[0] + 1),
+		Arrays.copyOf(colBuf[0], n[1]), Arrays.copyOf(valBuf[0], n[1]),
+		dimension > 0 ? dimension : n[2] + 1);
+    }
+
+    private static boolean isSeparator(char c) {
+	return c == ' ' || c == '\t' || c == ',';
+    }
+
+    /**
+     * @return the same points in a space of the given number of dimensions,
+     *         as agreed by the processes of a parallel run
+     */
+    public SparseStore withDimension(int dimension) {
+	return new SparseStore(rowStart, cols, vals, dimension);
+    }
+
+    /**
+     * @return number of non-zero coordinates
+     */
+    public int nonZeros() {
+	return rowStart[size];
+    }
+
+    /**
+     * @return bytes taken by the points
+     */
+    public long bytes() {
+	return 4L * rowStart.length + 12L * cols.length + 8L * size;
+    }
+
+    /**
+     * copy point i into dst starting at dstOff as a dense vector
+     */
+    public void copyPoint(int i, double[] dst, int dstOff) {
+	Arrays.fill(dst, dstOff, dstOff + dimension, 0.0);
+	for (int p = rowStart[i]; p < rowStart[i + 1]; p++)
+	    dst[dstOff + cols[p]] += vals[p];
+    }
+
+    /**
+     * @return dot product of point i and the dense vector v[off ..]
+     */
+    public double dot(int i, double[] v, int off) {
+	double sum = 0;
+	for (int p = rowStart[i]; p < rowStart[i + 1]; p++)
+	    sum += vals[p] * v[off + cols[p]];
+	return sum;
+    }
+
+    /**
+     * squared Euclidean distance between point i and the dense vector v[off
+     * ..] of squared length vNorm
+     */
+    public double distSq(int i, double[] v, int off, double vNorm) {
+	return Math.max(0, norms[i] - 2 * dot(i, v, off) + vNorm);
+    }
+}
@@ -0,0 +1,210 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Socket transport for ranks running in separate JVMs. Every pair of ranks
+ * shares one TCP connection: rank r listens on port basePort + r, connects to
+ * every lower rank and accepts every higher one.
+ * 
+ * A message is a header (element type, element count) followed by the
+ * elements in big-endian order. Sends are encoded immediately and written by
+ * one writer thread per peer, so a send never waits for the peer to receive
+ * and two ranks may exchange large messages at the same time.
+ */
+public class TcpCommunicator extends Communicator {
+    public static final int DEFAULT_PORT = 47100;
+    static final int CONNECT_TIMEOUT_MS = 60000;
+    static final int TYPE_DOUBLE = 1;
+    static final int TYPE_INT = 2;
+    static final int TYPE_LONG = 3;
+
+    private final int rank;
+    private final int size;
+    private final SocketChannel[] peers;
+    private final ExecutorService[] writers;
+    private final ByteBuffer header = ByteBuffer.allocate(8);
+    private volatile IOException writeFailure = null;
+
+    /**
+     * connect this rank to all the others, blocks until every connection is
+     * up
+     * 
+     * @param rank
+     *            rank of this process
+     * @param size
+     *            number of processes
+     * @param hosts
+     *            host of rank i is hosts[i % hosts.length]
+     * @param basePort
+     *            rank i listens on basePort + i
+     */
+    public TcpCommunicator(int rank, int size, String[] hosts, int basePort)
+	    throws IOException {
+	this.rank = rank;
+	this.size = size;
+	peers = new SocketChannel[size];
+	writers = new ExecutorService[size];
+
+	ServerSocketChannel server = ServerSocketChannel.open();
+	server.bind(new InetSocketAddress(basePort + rank));
+	try {
+	    for (int j = 0; j < rank; j++) {
+		SocketChannel ch = connect(new InetSocketAddress(
+			hosts[j % hosts.length], basePort + j));
+		ByteBuffer hello = ByteBuffer.allocate(4);
+		hello.putInt(rank).flip();
+		writeFully(ch, hello);
+		peers[j] = ch;
+	    }
+	    for (int j = rank + 1; j < size; j++) {
+		SocketChannel ch = server.accept();
+		ByteBuffer hello = ByteBuffer.allocate(4);
+		readFully(ch, hello);
+		peers[hello.getInt(0)] = ch;
+	    }
+	} finally {
+	    server.close();
+	}
+	for (int j = 0; j < size; j++) {
+	    if (j == rank)
+		continue;
+	    peers[j].socket().setTcpNoDelay(true);
+	    writers[j] = Executors.newSingleThreadExecutor();
+	}
+    }
+
+    /**
+     * connect, retrying while the peer has not started listening yet
+     */
+    private static SocketChannel connect(InetSocketAddress addr)
+	    throws IOException {
+	long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT_MS;
+	while (true) {
+	    try {
+		return SocketChannel.open(addr);
+	    } catch (IOException e) {
+		if (System.currentTimeMillis() > deadline)
+		    throw e;
+	    }
+	    try {
+		Thread.sleep(100);
+	    } catch (InterruptedException e) {
+		throw new InterruptedIOException();
+	    }
+	}
+    }
+
+    private static void writeFully(SocketChannel ch, ByteBuffer buf)
+	    throws IOException {
+	while (buf.hasRemaining())
+	    ch.write(buf);
+    }
+
+    private static void readFully(SocketChannel ch, ByteBuffer buf)
+	    throws IOException {
+	while (buf.hasRemaining())
+	    if (ch.read(buf) < 0)
+		throw new IOException("connection closed");
+    }
+
+    public int rank() {
+	return rank;
+    }
+
+    public int size() {
+	return size;
+    }
+
+    protected void sendArray(Object buf, int off, int len, int dest)
+	    throws IOException {
+	if (writeFailure != null)
+	    throw writeFailure;
+	final ByteBuffer msg;
+	if (buf instanceof double[]) {
+	    msg = ByteBuffer.allocate(8 + 8 * len);
+	    msg.putInt(TYPE_DOUBLE).putInt(len);
+	    msg.asDoubleBuffer().put((double[]) buf, off, len);
+	} else if (buf instanceof int[]) {
+	    msg = ByteBuffer.allocate(8 + 4 * len);
+	    msg.putInt(TYPE_INT).putInt(len);
+	    msg.asIntBuffer().put((int[]) buf, off, len);
+	} else if (buf instanceof long[]) {
+	    msg = ByteBuffer.allocate(8 + 8 * len);
+	    msg.putInt(TYPE_LONG).putInt(len);
+	    msg.asLongBuffer().put((long[]) buf, off, len);
+	} else {
+	    throw new IllegalArgumentException("unsupported buffer "
+		    + buf.getClass().getName());
+	}
+	msg.rewind();
+	countSent(buf, len);
+	final SocketChannel ch = peers[dest];
+	writers[dest].execute(new Runnable() {
+	    public void run() {
+		try {
+		    writeFully(ch, msg);
+		} catch (IOException e) {
+		    writeFailure = e;
+		}
+	    }
+	});
+    }
+
+    protected void recvArray(Object buf, int off, int len, int src)
+	    throws IOException {
+	SocketChannel ch = peers[src];
+	header.clear();
+	readFully(ch, header);
+	int type = header.getInt(0);
+	int count = header.getInt(4);
+	if (count != len)
+	    throw new IOException("rank " + rank + " expected " + len
+		    + " elements from rank " + src + ", got " + count);
+	if (buf instanceof double[] && type == TYPE_DOUBLE) {
+	    ByteBuffer data = ByteBuffer.allocate(8 * len);
+	    readFully(ch, data);
+	    data.flip();
+	    data.asDoubleBuffer().get((double[]) buf, off, len);
+	} else if (buf instanceof int[] && type == TYPE_INT) {
+	    ByteBuffer data = ByteBuffer.allocate(4 * len);
+	    readFully(ch, data);
+	    data.flip();
+	    data.asIntBuffer().get((int[]) buf, off, len);
+	} else if (buf instanceof long[] && type == TYPE_LONG) {
+	    ByteBuffer data = ByteBuffer.allocate(8 * len);
+	    readFully(ch, data);
+	    data.flip();
+	    data.asLongBuffer().get((long[]) buf, off, len);
+	} else {
+	    throw new IOException("rank " + rank + " got element type " + type
+		    + " from rank " + src + " for a "
+		    + buf.getClass().getSimpleName() + " buffer");
+	}
+    }
+
+    /**
+     * flush the pending sends and close every connection
+     */
+    public void close() throws IOException {
+	for (int j = 0; j < size; j++) {
+	    if (writers[j] == null)
+		continue;
+	    writers[j].shutdown();
+	    try {
+		writers[j].awaitTermination(1, TimeUnit.MINUTES);
+	    } catch (InterruptedException e) {
+		throw new InterruptedIOException();
+	    }
+	    peers[j].close();
+	}
+	if (writeFailure != null)
+	    throw writeFailure;
+    }
+}
@@ -0,0 +1,171 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD distance kernel built on the incubating Vector API. It processes as
+ * many coordinates per step as the preferred vector shape of the CPU holds
+ * and finishes the remainder with a scalar loop.
+ */
+public class VectorKernel implements DistanceKernel {
+
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    /**
+     * half the preferred shape, so that short float vectors (8 floats under
+     * AVX-512) are not left to the scalar loop
+     */
+    static final VectorSpecies<Float> HALF_FLOATS = FLOATS.vectorBitSize() > 64
+	    ? VectorSpecies.of(float.class,
+		    VectorShape.forBitSize(FLOATS.vectorBitSize() / 2))
+	    : FLOATS;
+    /**
+     * lane permutations swapping the halves, quarters, ... of a float vector.
+     * JDK 17 adds the float lanes of reduceLanes one after the other, 16
+     * dependent adds under AVX-512. Adding the vector to each permutation in
+     * turn takes log2(lanes), which decides the speed at short lengths.
+     */
+    static final VectorShuffle<Float>[] FLOAT_SWAPS = swaps(FLOATS);
+    static final VectorShuffle<Float>[] HALF_FLOAT_SWAPS = swaps(HALF_FLOATS);
+
+    public VectorKernel() {
+	if (SPECIES.length() < 2)
+	    throw new UnsupportedOperationException("no double vector support");
+    }
+
+    public double distSq(double[] v1, int off1, double[] v2, int off2, int len) {
+	int i = 0;
+	double dist = 0;
+	int bound = SPECIES.loopBound(len);
+	if (bound > 0) {
+	    DoubleVector acc = DoubleVector.zero(SPECIES);
+	    for (; i < bound; i += SPECIES.length()) {
+		DoubleVector d = DoubleVector.fromArray(SPECIES, v1, off1 + i)
+			.sub(DoubleVector.fromArray(SPECIES, v2, off2 + i));
+		acc = acc.add(d.mul(d));
+	    }
+	    dist = acc.reduceLanes(VectorOperators.ADD);
+	}
+	for (; i < len; i++) {
+	    double d = v1[off1 + i] - v2[off2 + i];
+	    dist += d * d;
+	}
+	return dist;
+    }
+
+    public float distSq(float[] v1, int off1, float[] v2, int off2, int len) {
+	int i = 0;
+	float dist = 0;
+	int bound = FLOATS.loopBound(len);
+	if (bound > 0) {
+	    FloatVector acc = FloatVector.zero(FLOATS);
+	    for (; i < bound; i += FLOATS.length()) {
+		FloatVector d = FloatVector.fromArray(FLOATS, v1, off1 + i)
+			.sub(FloatVector.fromArray(FLOATS, v2, off2 + i));
+		acc = acc.add(d.mul(d));
+	    }
+	    dist = sumLanes(acc, FLOAT_SWAPS);
+	}
+	if (len - i >= HALF_FLOATS.length()) {
+	    FloatVector d = FloatVector.fromArray(HALF_FLOATS, v1, off1 + i)
+		    .sub(FloatVector.fromArray(HALF_FLOATS, v2, off2 + i));
+	    dist += sumLanes(d.mul(d), HALF_FLOAT_SWAPS);
+	    i += HALF_FLOATS.length();
+	}
+	for (; i < len; i++) {
+	    float d = v1[off1 + i] - v2[off2 + i];
+	    dist += d * d;
+	}
+	return dist;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private static VectorShuffle<Float>[] swaps(VectorSpecies<Float> species) {
+	int lanes = species.length();
+	int steps = Integer.numberOfTrailingZeros(lanes);
+	VectorShuffle<Float>[] swaps = new VectorShuffle[steps];
+	int[] order = new int[lanes];
+	for (int s = 0; s < steps; s++) {
+	    int width = lanes >> (s + 1);
+	    for (int i = 0; i < lanes; i++)
+		order[i] = i ^ width;
+	    swaps[s] = VectorShuffle.fromArray(species, order, 0);
+	}
+	return swaps;
+    }
+
+    /**
+     * @return the sum of the lanes of v, added pairwise along swaps
+     */
+    private static float sumLanes(FloatVector v, VectorShuffle<Float>[] swaps) {
+	for (VectorShuffle<Float> swap : swaps)
+	    v = v.add(v.rearrange(swap));
+	return v.lane(0);
+    }
+
+    public void dotTile(double[] x, int xOff, int np, int dim, double[] cT,
+	    int cOff, int width, double[] dots) {
+	int lanes = SPECIES.length();
+	if (width % (2 * lanes) != 0) {
+	    // vectors wider than half a tile row
+	    DistanceKernels.SCALAR.dotTile(x, xOff, np, dim, cT, cOff, width, dots);
+	    return;
+	}
+	int a = 0;
+	// 4 points x 2 vectors of centroids: each coordinate of a point is
+	// broadcast and multiplied with a row of the transposed tile
+	for (; a + 4 <= np; a += 4) {
+	    int x0 = xOff + a * dim, x1 = x0 + dim, x2 = x1 + dim, x3 = x2 + dim;
+	    for (int b = 0; b < width; b += 2 * lanes) {
+		DoubleVector s00 = DoubleVector.zero(SPECIES), s01 = s00;
+		DoubleVector s10 = s00, s11 = s00, s20 = s00, s21 = s00;
+		DoubleVector s30 = s00, s31 = s00;
+		for (int t = 0, c = cOff + b; t < dim; t++, c += width) {
+		    DoubleVector v0 = DoubleVector.fromArray(SPECIES, cT, c);
+		    DoubleVector v1 = DoubleVector.fromArray(SPECIES, cT, c + lanes);
+		    DoubleVector u = DoubleVector.broadcast(SPECIES, x[x0 + t]);
+		    s00 = s00.add(u.mul(v0));
+		    s01 = s01.add(u.mul(v1));
+		    u = DoubleVector.broadcast(SPECIES, x[x1 + t]);
+		    s10 = s10.add(u.mul(v0));
+		    s11 = s11.add(u.mul(v1));
+		    u = DoubleVector.broadcast(SPECIES, x[x2 + t]);
+		    s20 = s20.add(u.mul(v0));
+		    s21 = s21.add(u.mul(v1));
+		    u = DoubleVector.broadcast(SPECIES, x[x3 + t]);
+		    s30 = s30.add(u.mul(v0));
+		    s31 = s31.add(u.mul(v1));
+		}
+		int r = a * width + b;
+		s00.intoArray(dots, r);
+		s01.intoArray(dots, r + lanes);
+		r += width;
+		s10.intoArray(dots, r);
+		s11.intoArray(dots, r + lanes);
+		r += width;
+		s20.intoArray(dots, r);
+		s21.intoArray(dots, r + lanes);
+		r += width;
+		s30.intoArray(dots, r);
+		s31.intoArray(dots, r + lanes);
+	    }
+	}
+	for (; a < np; a++) {
+	    int x0 = xOff + a * dim;
+	    for (int b = 0; b < width; b += lanes) {
+		DoubleVector s = DoubleVector.zero(SPECIES);
+		for (int t = 0, c = cOff + b; t < dim; t++, c += width)
+		    s = s.add(DoubleVector.broadcast(SPECIES, x[x0 + t]).mul(
+			    DoubleVector.fromArray(SPECIES, cT, c)));
+		s.intoArray(dots, a * width + b);
+	    }
+	}
+    }
+
+    public String name() {
+	return "vector(" + SPECIES.length() + " x double)";
+    }
+}
@@ -0,0 +1,197 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * CSV files converted by DatasetConverter and read back by BinaryDataset
+ * against the same files parsed as text.
+ */
+public class BinaryDatasetTest {
+
+    static final int N = 1000;
+    static final int DIM = 5;
+
+    static String points;
+    static String sequences;
+
+    @BeforeClass
+    public static void writeInputs() throws IOException {
+	TestData.mute();
+	points = TestData.points(N, DIM, 4, 23);
+	sequences = TestData.sequences(300, 70, 3, 0.2, 29);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    /**
+     * convert csvName to a temporary file of the given row type
+     * 
+     * @return the binary dataset
+     */
+    static BinaryDataset convert(String csvName, int type) throws IOException {
+	File file = File.createTempFile("dataset", ".bin");
+	file.deleteOnExit();
+	DatasetConverter.convert(csvName, file.getPath(), type);
+	assertTrue(BinaryDataset.isBinary(file.getPath()));
+	return BinaryDataset.open(file.getPath());
+    }
+
+    static PointStore parseText(String csvName) {
+	KmeansData kmd = new KmeansData(1);
+	kmd.parse(csvName);
+	return kmd.indata;
+    }
+
+    @Test
+    public void float64MatchesText() throws IOException {
+	BinaryDataset ds = convert(points, BinaryDataset.FLOAT64);
+	assertEquals(BinaryDataset.FLOAT64, ds.type);
+	assertEquals(DIM, ds.dimension);
+	assertEquals(N, ds.size);
+	PointStore text = parseText(points);
+	PointStore binary = ds.readPoints(0, ds.size);
+	assertEquals(DIM, binary.dimension);
+	assertArrayEquals(text.coords, binary.coords, 0.0);
+    }
+
+    @Test
+    public void float32RoundsEveryValue() throws IOException {
+	BinaryDataset ds = convert(points, BinaryDataset.FLOAT32);
+	double[] text = parseText(points).coords;
+	double[] binary = ds.readPoints(0, ds.size).coords;
+	assertEquals(text.length, binary.length);
+	for (int i = 0; i < text.length; i++)
+	    assertEquals((double) (float) text[i], binary[i], 0.0);
+    }
+
+    /**
+     * the point ranges the parallel drivers load cover the file exactly once
+     */
+    @Test
+    public void rangesCoverTheDataset() throws IOException {
+	BinaryDataset ds = convert(points, BinaryDataset.FLOAT64);
+	double[] whole = ds.readPoints(0, ds.size).coords;
+	for (int slices : new int[] { 1, 3, 7 }) {
+	    double[] joined = new double[0];
+	    for (int r = 0; r < slices; r++) {
+		long[] range = ds.range(r, slices);
+		double[] part = ds.readPoints(range[0], range[1]).coords;
+		double[] grown = new double[joined.length + part.length];
+		System.arraycopy(joined, 0, grown, 0, joined.length);
+		System.arraycopy(part, 0, grown, joined.length, part.length);
+		joined = grown;
+	    }
+	    assertArrayEquals(whole, joined, 0.0);
+	}
+    }
+
+    /**
+     * trailing commas are dropped as the text parser drops them, so the
+     * header and every row agree on the dimension
+     */
+    @Test
+    public void trailingCommasKeepTheDimension() throws IOException {
+	File csv = File.createTempFile("points", ".csv");
+	csv.deleteOnExit();
+	PrintWriter out = new PrintWriter(csv);
+	out.println("1.0,2.0,");
+	out.println("3.5, -4,,");
+	out.println(",");
+	out.println("5e1,6");
+	out.close();
+	for (int type : new int[] { BinaryDataset.FLOAT64,
+		BinaryDataset.FLOAT32 }) {
+	    BinaryDataset ds = convert(csv.getPath(), type);
+	    assertEquals(2, ds.dimension);
+	    assertEquals(3, ds.size);
+	    assertEquals(BinaryDataset.HEADER_BYTES + ds.size
+		    * BinaryDataset.rowBytes(type, 2), new File(ds.fnName).length());
+	    assertArrayEquals(parseText(csv.getPath()).coords,
+		    ds.readPoints(0, ds.size).coords, 0.0);
+	}
+    }
+
+    /**
+     * a shape of more values than one array holds fails with its size
+     * instead of allocating an overflowed length. The file is sparse, the
+     * test reads nothing but the header.
+     */
+    @Test
+    public void oversizedShapeIsRejected() throws IOException {
+	long size = 1L << 27;
+	int dim = 16;
+	File file = File.createTempFile("dataset", ".bin");
+	file.deleteOnExit();
+	RandomAccessFile raf = new RandomAccessFile(file, "rw");
+	raf.setLength(BinaryDataset.HEADER_BYTES + size
+		* BinaryDataset.rowBytes(BinaryDataset.FLOAT32, dim));
+	raf.getChannel().write(
+		BinaryDataset.header(BinaryDataset.FLOAT32, dim, size), 0);
+	raf.close();
+	BinaryDataset ds = BinaryDataset.open(file.getPath());
+	for (boolean float32 : new boolean[] { false, true }) {
+	    try {
+		ds.readPoints(0, ds.size, float32);
+		fail("read " + size + " x " + dim + " values");
+	    } catch (IllegalArgumentException e) {
+		assertTrue(e.getMessage(), e.getMessage().startsWith(
+			size + " points x " + dim + " dimensions"));
+	    }
+	}
+    }
+
+    @Test
+    public void dnaMatchesText() throws IOException {
+	BinaryDataset ds = convert(sequences, BinaryDataset.DNA);
+	DNAPoint[] binary = ds.readDNA(0, ds.size);
+	List<DNAPoint> text = new ArrayList<DNAPoint>();
+	BufferedReader br = new BufferedReader(new FileReader(sequences));
+	String line;
+	while ((line = br.readLine()) != null)
+	    text.add(DNAPoint.parse(line));
+	br.close();
+	assertEquals(text.size(), binary.length);
+	for (int i = 0; i < binary.length; i++) {
+	    DNAPoint expected = text.get(i);
+	    assertEquals(expected.length, binary[i].length);
+	    assertEquals("sequence " + i, 0,
+		    DNAPoint.distance(expected, binary[i]));
+	}
+    }
+
+    /**
+     * unknown bases survive the conversion and still count as mismatches
+     */
+    @Test
+    public void dnaKeepsUnknownBases() throws IOException {
+	File csv = File.createTempFile("dna", ".csv");
+	csv.deleteOnExit();
+	PrintWriter out = new PrintWriter(csv);
+	out.println("A,N,G,T");
+	out.println("A,C,,T");
+	out.close();
+	BinaryDataset ds = convert(csv.getPath(), BinaryDataset.DNA);
+	DNAPoint[] binary = ds.readDNA(0, ds.size);
+	assertEquals(1, DNAPoint.distance(binary[0],
+		DNAPoint.parse("A,A,G,T")));
+	assertEquals(DNAPoint.UNKNOWN, binary[1].base(2));
+	assertEquals(DNAPoint.UNKNOWN, binary[0].base(1));
+    }
+}
@@ -0,0 +1,230 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * The collectives built on the point-to-point primitives, on LocalCommunicator
+ * ranks with every reduce algorithm. Every rank contributes values derived from its rank, so the expected
+ * sums are known in closed form, and every call works on a window in the
+ * middle of the buffer to check that the elements around it stay untouched.
+ */
+@RunWith(Parameterized.class)
+public class CommunicatorTest {
+
+    static final int LEN = 7;
+    static final int OFF = 2;
+    /** left in the elements outside the window */
+    static final int PAD = -1;
+
+    @Parameters(name = "np={0} reduce={1}")
+    public static List<Object[]> parameters() {
+	List<Object[]> params = new ArrayList<Object[]>();
+	for (int np : new int[] { 1, 3, 4 })
+	    for (String reduce : Communicator.REDUCE_ALGORITHMS)
+		params.add(new Object[] { np, reduce });
+	return params;
+    }
+
+    final int np;
+    final String reduce;
+
+    public CommunicatorTest(int np, String reduce) {
+	this.np = np;
+	this.reduce = reduce;
+    }
+
+    /**
+     * element i of rank r's contribution
+     */
+    static int value(int r, int i) {
+	return (r + 1) * 100 + i;
+    }
+
+    /**
+     * element i of the sum of every rank's contribution
+     */
+    int sum(int i) {
+	return 100 * np * (np + 1) / 2 + np * i;
+    }
+
+    /**
+     * a buffer holding value(r, i) in the window and PAD around it
+     */
+    static double[] doubles(int r) {
+	double[] buf = new double[OFF + LEN + OFF];
+	Arrays.fill(buf, PAD);
+	for (int i = 0; i < LEN; i++)
+	    buf[OFF + i] = value(r, i);
+	return buf;
+    }
+
+    static int[] ints(int r) {
+	int[] buf = new int[OFF + LEN + OFF];
+	Arrays.fill(buf, PAD);
+	for (int i = 0; i < LEN; i++)
+	    buf[OFF + i] = value(r, i);
+	return buf;
+    }
+
+    static long[] longs(int r) {
+	long[] buf = new long[OFF + LEN + OFF];
+	Arrays.fill(buf, PAD);
+	for (int i = 0; i < LEN; i++)
+	    buf[OFF + i] = value(r, i);
+	return buf;
+    }
+
+    /**
+     * the expected buffer after a reduction: the sums in the window
+     */
+    long[] sums() {
+	long[] buf = new long[OFF + LEN + OFF];
+	Arrays.fill(buf, PAD);
+	for (int i = 0; i < LEN; i++)
+	    buf[OFF + i] = sum(i);
+	return buf;
+    }
+
+    static long[] asLongs(double[] buf) {
+	long[] out = new long[buf.length];
+	for (int i = 0; i < buf.length; i++)
+	    out[i] = (long) buf[i];
+	return out;
+    }
+
+    static long[] asLongs(int[] buf) {
+	long[] out = new long[buf.length];
+	for (int i = 0; i < buf.length; i++)
+	    out[i] = buf[i];
+	return out;
+    }
+
+    @Test
+    public void bcastCopiesTheRoot() throws IOException {
+	final int root = np - 1;
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(reduce);
+		double[] d = doubles(comm.rank());
+		int[] n = ints(comm.rank());
+		long[] l = longs(comm.rank());
+		comm.bcast(d, OFF, LEN, root);
+		comm.bcast(n, OFF, LEN, root);
+		comm.bcast(l, OFF, LEN, root);
+		assertArrayEquals(doubles(root), d, 0.0);
+		assertArrayEquals(ints(root), n);
+		assertArrayEquals(longs(root), l);
+	    }
+	});
+    }
+
+    @Test
+    public void reduceSumReachesTheRoot() throws IOException {
+	final int root = np / 2;
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(reduce);
+		double[] d = doubles(comm.rank());
+		int[] n = ints(comm.rank());
+		long[] l = longs(comm.rank());
+		comm.reduceSum(d, OFF, LEN, root);
+		comm.reduceSum(n, OFF, LEN, root);
+		comm.reduceSum(l, OFF, LEN, root);
+		if (comm.rank() == root) {
+		    assertArrayEquals(sums(), asLongs(d));
+		    assertArrayEquals(sums(), asLongs(n));
+		    assertArrayEquals(sums(), l);
+		}
+	    }
+	});
+    }
+
+    @Test
+    public void allreduceSumReachesEveryRank() throws IOException {
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(reduce);
+		double[] d = doubles(comm.rank());
+		int[] n = ints(comm.rank());
+		long[] l = longs(comm.rank());
+		comm.allreduceSum(d, OFF, LEN);
+		comm.allreduceSum(n, OFF, LEN);
+		comm.allreduceSum(l, OFF, LEN);
+		assertArrayEquals(sums(), asLongs(d));
+		assertArrayEquals(sums(), asLongs(n));
+		assertArrayEquals(sums(), l);
+	    }
+	});
+    }
+
+    /**
+     * the ring splits the buffer into one block per rank, some of them empty
+     * when it is shorter than the number of ranks
+     */
+    @Test
+    public void allreduceSumShorterThanRanks() throws IOException {
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(reduce);
+		long[] l = longs(comm.rank());
+		comm.allreduceSum(l, OFF, 2);
+		long[] expected = longs(comm.rank());
+		expected[OFF] = sum(0);
+		expected[OFF + 1] = sum(1);
+		assertArrayEquals(expected, l);
+	    }
+	});
+    }
+
+    /**
+     * every rank sends several messages to the next one, which must receive
+     * them in the order they were sent
+     */
+    @Test
+    public void messagesArriveInOrder() throws IOException {
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		int next = (comm.rank() + 1) % np;
+		int prev = (comm.rank() + np - 1) % np;
+		for (int m = 0; m < 3; m++)
+		    comm.send(new int[] { comm.rank(), m }, 0, 2, next);
+		for (int m = 0; m < 3; m++) {
+		    int[] msg = new int[2];
+		    comm.recv(msg, 0, 2, prev);
+		    assertEquals(prev, msg[0]);
+		    assertEquals(m, msg[1]);
+		}
+	    }
+	});
+    }
+
+    /**
+     * a rank that fails must not leave the others waiting for its messages
+     */
+    @Test(timeout = 10000)
+    public void failureOfOneRankStopsTheOthers() {
+	try {
+	    LocalCommunicator.launch(np, new Communicator.RankBody() {
+		public void run(Communicator comm) throws IOException {
+		    if (comm.rank() == np - 1)
+			throw new IOException("rank failed on purpose");
+		    int[] msg = new int[1];
+		    comm.recv(msg, 0, 1, np - 1);
+		}
+	    });
+	    fail("launch returned after a failed rank");
+	} catch (IOException e) {
+	    assertEquals("rank failed on purpose", e.getMessage());
+	}
+    }
+}
@@ -0,0 +1,157 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Every stopping rule alone, their order, and the iteration limit applied by
+ * the sequential and the parallel driver.
+ */
+public class ConvergenceCriteriaTest {
+
+    static final int POINTS = 1000;
+
+    /** criteria with every rule off but the shift of 0.001 */
+    static ConvergenceCriteria shiftOnly() {
+	return new ConvergenceCriteria(0.001, Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void runsWhileNoRuleHolds() {
+	ConvergenceCriteria c = shiftOnly();
+	assertFalse(c.done(1, POINTS, POINTS, Double.NaN, 1.0, 0));
+	assertFalse(c.done(2, 10, POINTS, Double.NaN, 0.5, 10));
+	assertNull(c.reason());
+    }
+
+    @Test
+    public void stopsWhenNoPointMoves() {
+	ConvergenceCriteria c = shiftOnly();
+	assertTrue(c.done(2, 0, POINTS, Double.NaN, 1.0, 0));
+	assertEquals("no point changed group", c.reason());
+    }
+
+    @Test
+    public void stopsOnReassignedFraction() {
+	ConvergenceCriteria c = shiftOnly();
+	c.reassignFraction = 0.01;
+	assertFalse(c.done(1, 11, POINTS, Double.NaN, 1.0, 0));
+	assertTrue(c.done(2, 10, POINTS, Double.NaN, 1.0, 0));
+	assertTrue(c.reason(), c.reason().startsWith("reassigned 10 of 1000"));
+    }
+
+    /**
+     * the first iteration has no previous SSE to compare with
+     */
+    @Test
+    public void stopsOnRelativeSseImprovement() {
+	ConvergenceCriteria c = shiftOnly();
+	c.sseTolerance = 0.01;
+	assertTrue(c.wantsSse());
+	assertFalse(c.done(1, POINTS, POINTS, 100, 1.0, 0));
+	assertFalse(c.done(2, 50, POINTS, 90, 1.0, 0));
+	assertTrue(c.done(3, 50, POINTS, 89.5, 1.0, 0));
+	assertTrue(c.reason(), c.reason().startsWith("SSE improved by"));
+	c.reset();
+	assertNull(c.reason());
+	assertFalse(c.done(1, POINTS, POINTS, 89.4, 1.0, 0));
+    }
+
+    @Test
+    public void stopsOnCentroidShift() {
+	ConvergenceCriteria c = shiftOnly();
+	assertFalse(c.wantsSse());
+	assertFalse(c.done(1, POINTS, POINTS, Double.NaN, 0.001, 0));
+	assertTrue(c.done(2, 5, POINTS, Double.NaN, 0.0009, 0));
+	assertTrue(c.reason(), c.reason().startsWith("centroid shift"));
+    }
+
+    @Test
+    public void stopsOnTimeBudget() {
+	ConvergenceCriteria c = shiftOnly();
+	c.budgetMillis = 100;
+	assertFalse(c.done(1, POINTS, POINTS, Double.NaN, 1.0, 99));
+	assertTrue(c.done(2, 5, POINTS, Double.NaN, 1.0, 100));
+	assertTrue(c.reason(), c.reason().startsWith("time budget"));
+    }
+
+    @Test
+    public void stopsOnIterationLimit() {
+	ConvergenceCriteria c = new ConvergenceCriteria(0.001, 3);
+	assertFalse(c.done(2, 5, POINTS, Double.NaN, 1.0, 0));
+	assertTrue(c.done(3, 5, POINTS, Double.NaN, 1.0, 0));
+	assertEquals("reached 3 iterations", c.reason());
+    }
+
+    /**
+     * the cheapest rule that holds is the one reported
+     */
+    @Test
+    public void reportsTheFirstRuleThatHolds() {
+	ConvergenceCriteria c = new ConvergenceCriteria(0.001, 1);
+	c.reassignFraction = 0.5;
+	assertTrue(c.done(1, 0, POINTS, Double.NaN, 0, 0));
+	assertEquals("no point changed group", c.reason());
+	assertTrue(c.done(1, 5, POINTS, Double.NaN, 0, 0));
+	assertTrue(c.reason(), c.reason().startsWith("reassigned"));
+    }
+
+    @Test
+    public void parsesTheCommandLine() {
+	ConvergenceCriteria c = ConvergenceCriteria.parse(new Options(
+		new String[] { "in", "3", "-shift", "0.5", "-reassign", "0.02",
+			"-ssetol", "0.001", "-budget", "2000", "-maxiter", "7" }),
+		0.001, 5000);
+	assertEquals(0.5, c.maxShift, 0.0);
+	assertEquals(0.02, c.reassignFraction, 0.0);
+	assertEquals(0.001, c.sseTolerance, 0.0);
+	assertEquals(2000, c.budgetMillis);
+	assertEquals(7, c.maxIterations);
+	c = ConvergenceCriteria.parse(new Options(new String[] { "in", "3" }),
+		0.001, 5000);
+	assertEquals(0.001, c.maxShift, 0.0);
+	assertEquals(5000, c.maxIterations);
+	assertFalse(c.wantsSse());
+    }
+
+    /**
+     * the ranks decide on reduced counters, so they stop together and after
+     * the same iterations as the sequential driver
+     */
+    @Test
+    public void driversStopAtTheIterationLimit() throws IOException {
+	TestData.mute();
+	try {
+	    String input = TestData.points(3000, 3, 5, 53);
+	    KmeansData kmd = new KmeansData(5);
+	    kmd.rand = new Random(1);
+	    kmd.criteria.maxIterations = 2;
+	    kmd.parse(input);
+	    kmd.setIniCen();
+	    kmd.kmeanProcedure();
+	    assertEquals(2, kmd.iterations);
+
+	    final Options opts = new Options(new String[] { input, "5", "-s",
+		    "1", "-maxiter", "2" });
+	    final KmeansDataPar[] ranks = new KmeansDataPar[3];
+	    LocalCommunicator.launch(ranks.length, new Communicator.RankBody() {
+		public void run(Communicator comm) throws IOException {
+		    ranks[comm.rank()] = KmeansDataPar.runRank(comm, opts);
+		}
+	    });
+	    for (KmeansDataPar rank : ranks) {
+		assertEquals(2, rank.iterations);
+		assertArrayEquals(kmd.centroids,
+			rank.centroids, 1e-9);
+	    }
+	} finally {
+	    TestData.unmute();
+	}
+    }
+}
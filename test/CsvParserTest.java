@@ -0,0 +1,217 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * CsvParser against Double.parseDouble and DNAPoint.parse, field by field and
+ * on whole files split into chunks and byte ranges.
+ */
+public class CsvParserTest {
+
+    static final int THREADS = 4;
+
+    static String points;
+    static String sequences;
+
+    @BeforeClass
+    public static void writeInputs() throws IOException {
+	points = TestData.points(3000, 6, 5, 31);
+	sequences = TestData.sequences(500, 90, 3, 0.3, 37);
+    }
+
+    /**
+     * parse one field the way CsvParser does inside a line
+     */
+    static double parse(String field) {
+	ByteBuffer buf = ByteBuffer.wrap(field.getBytes(StandardCharsets.US_ASCII));
+	return CsvParser.parseDouble(buf, new int[1], buf.limit());
+    }
+
+    static void assertParsesLikeJava(String field) {
+	assertEquals(field, Double.doubleToRawLongBits(Double.parseDouble(field)),
+		Double.doubleToRawLongBits(parse(field)));
+    }
+
+    @Test
+    public void fixedCasesMatchDoubleParseDouble() {
+	String[] fields = { "0", "-0", "-0.0", "+1.5", " 2.25 ", "1e22", "1e23",
+		"1e-22", "1e-23", "9007199254740993", "123456789012345678901",
+		"0.1", "0.30000000000000004", "4.9e-324", "1.7976931348623157e308",
+		"000123.4500", ".5", "5.", "-.75e+2", "1E5", "NaN", "-Infinity",
+		"0x1p3" };
+	for (String field : fields)
+	    assertParsesLikeJava(field);
+    }
+
+    /**
+     * the exact fast path must round like Double.parseDouble for every
+     * mantissa and exponent it accepts, and hand everything else over
+     */
+    @Test
+    public void randomNumbersMatchDoubleParseDouble() {
+	Random rand = new Random(41);
+	for (int i = 0; i < 200000; i++) {
+	    String field;
+	    switch (i % 4) {
+	    case 0: // shortest repr of an arbitrary double
+		field = Double.toString(Double.longBitsToDouble(rand.nextLong()));
+		break;
+	    case 1: // what the data files hold
+		field = Double.toString(rand.nextGaussian() * 1000);
+		break;
+	    case 2: // few digits, exponent around the exact range
+		field = rand.nextInt(100000) + "e" + (rand.nextInt(61) - 30);
+		break;
+	    default: // fixed decimals of up to 24 digits
+		StringBuilder sb = new StringBuilder(rand.nextBoolean() ? "-" : "");
+		for (int d = rand.nextInt(18); d >= 0; d--)
+		    sb.append((char) ('0' + rand.nextInt(10)));
+		sb.append('.');
+		for (int d = rand.nextInt(6); d >= 0; d--)
+		    sb.append((char) ('0' + rand.nextInt(10)));
+		field = sb.toString();
+	    }
+	    if (field.contains("NaN") || field.contains("Infinity"))
+		continue;
+	    assertParsesLikeJava(field);
+	}
+    }
+
+    @Test
+    public void fieldsAdvanceThePosition() {
+	ByteBuffer buf = ByteBuffer.wrap("1.5, -2 ,3e1".getBytes(StandardCharsets.US_ASCII));
+	int[] pos = new int[1];
+	int end = buf.limit();
+	assertEquals(1.5, CsvParser.parseDouble(buf, pos, end), 0.0);
+	assertEquals(4, pos[0]);
+	assertEquals(-2, CsvParser.parseDouble(buf, pos, end), 0.0);
+	assertEquals(9, pos[0]);
+	assertEquals(30, CsvParser.parseDouble(buf, pos, end), 0.0);
+	assertEquals(end + 1, pos[0]);
+    }
+
+    static double[] readLines(String fnName) throws IOException {
+	List<String> lines = new ArrayList<String>();
+	BufferedReader br = new BufferedReader(new FileReader(fnName));
+	String line;
+	while ((line = br.readLine()) != null)
+	    lines.add(line);
+	br.close();
+	int dim = lines.get(0).split(",").length;
+	double[] coords = new double[lines.size() * dim];
+	for (int i = 0; i < lines.size(); i++) {
+	    String[] fields = lines.get(i).split(",");
+	    for (int j = 0; j < dim; j++)
+		coords[i * dim + j] = Double.parseDouble(fields[j]);
+	}
+	return coords;
+    }
+
+    @Test
+    public void parsePointsMatchesLineReader() throws IOException {
+	double[] expected = readLines(points);
+	long length = new File(points).length();
+	for (int threads : new int[] { 1, THREADS }) {
+	    PointStore store = CsvParser.parsePoints(points, 0, length, threads);
+	    assertEquals(6, store.dimension);
+	    assertArrayEquals(expected, store.coords, 0.0);
+	}
+    }
+
+    /**
+     * byte ranges cut anywhere, as FileSlice cuts them for the ranks, still
+     * yield every line exactly once
+     */
+    @Test
+    public void byteRangesCoverEveryLine() throws IOException {
+	double[] expected = readLines(points);
+	long length = new File(points).length();
+	for (int slices : new int[] { 2, 5 }) {
+	    double[] joined = new double[0];
+	    for (int s = 0; s < slices; s++) {
+		double[] part = CsvParser.parsePoints(points, length * s / slices,
+			length * (s + 1) / slices, THREADS).coords;
+		double[] grown = new double[joined.length + part.length];
+		System.arraycopy(joined, 0, grown, 0, joined.length);
+		System.arraycopy(part, 0, grown, joined.length, part.length);
+		joined = grown;
+	    }
+	    assertArrayEquals(expected, joined, 0.0);
+	}
+    }
+
+    static String write(String text) throws IOException {
+	File file = File.createTempFile("parser", ".csv");
+	file.deleteOnExit();
+	PrintWriter out = new PrintWriter(file);
+	out.print(text);
+	out.close();
+	return file.getPath();
+    }
+
+    /**
+     * trailing empty fields are dropped, as String.split(",") drops them
+     */
+    @Test
+    public void trailingCommasAreDropped() throws IOException {
+	String fnName = write("1.0,2.0,\r\n3,4,,\n5,6\n");
+	PointStore store = CsvParser.parsePoints(fnName, 0,
+		new File(fnName).length(), 1);
+	assertEquals(2, store.dimension);
+	assertArrayEquals(new double[] { 1, 2, 3, 4, 5, 6 }, store.coords, 0.0);
+	assertEquals(2, DNAPoint.parse("A,C,").length);
+    }
+
+    /**
+     * lines longer than the tail a chunk maps past its end make the chunk
+     * map again
+     */
+    @Test
+    public void linesLongerThanTheTail() throws IOException {
+	int dim = (int) (CsvParser.TAIL_BYTES / 8);
+	StringBuilder sb = new StringBuilder();
+	for (int i = 0; i < 6; i++) {
+	    for (int j = 0; j < dim; j++)
+		sb.append(j > 0 ? "," : "").append(i).append(".25");
+	    sb.append('\n');
+	}
+	String fnName = write(sb.toString());
+	double[] expected = readLines(fnName);
+	PointStore store = CsvParser.parsePoints(fnName, 0,
+		new File(fnName).length(), THREADS);
+	assertEquals(dim, store.dimension);
+	assertArrayEquals(expected, store.coords, 0.0);
+    }
+
+    @Test
+    public void parseDNAMatchesDNAPointParse() throws IOException {
+	List<DNAPoint> expected = new ArrayList<DNAPoint>();
+	BufferedReader br = new BufferedReader(new FileReader(sequences));
+	String line;
+	while ((line = br.readLine()) != null)
+	    expected.add(DNAPoint.parse(line));
+	br.close();
+	long length = new File(sequences).length();
+	for (int threads : new int[] { 1, THREADS }) {
+	    DNAPoint[] parsed = CsvParser.parseDNA(sequences, 0, length, threads);
+	    assertEquals(expected.size(), parsed.length);
+	    for (int i = 0; i < parsed.length; i++) {
+		assertEquals(expected.get(i).length, parsed[i].length);
+		assertArrayEquals(expected.get(i).data, parsed[i].data);
+	    }
+	}
+    }
+}
@@ -0,0 +1,98 @@
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Packing of DNAPoint against the characters it was built from, at every
+ * length around the 32-base word boundaries, and its Hamming distance
+ * against a count over those characters.
+ */
+public class DNAPointTest {
+
+    static final char[] SYMBOLS = { 'A', 'T', 'C', 'G', 'N' };
+
+    /**
+     * @return a random sequence, about one base in ten unknown when withN
+     */
+    static char[] randomBases(Random rand, int len, boolean withN) {
+	char[] bases = new char[len];
+	for (int p = 0; p < len; p++)
+	    bases[p] = SYMBOLS[withN && rand.nextInt(10) == 0 ? 4 : rand
+		    .nextInt(4)];
+	return bases;
+    }
+
+    static String csv(char[] bases) {
+	StringBuilder sb = new StringBuilder();
+	for (int p = 0; p < bases.length; p++) {
+	    if (p > 0)
+		sb.append(',');
+	    sb.append(bases[p]);
+	}
+	return sb.toString();
+    }
+
+    @Test
+    public void packsEveryBase() {
+	Random rand = new Random(1);
+	for (int len = 1; len <= 100; len++) {
+	    char[] bases = randomBases(rand, len, len % 2 == 0);
+	    DNAPoint dp = new DNAPoint(bases);
+	    assertEquals(len, dp.length);
+	    assertEquals(new String(bases), dp.toString());
+	    assertEquals(new String(bases), DNAPoint.parse(csv(bases))
+		    .toString());
+	    for (int p = 0; p < len; p++)
+		assertEquals(DNAPoint.baseToIdx(bases[p]), dp.base(p));
+	}
+    }
+
+    @Test
+    public void parsesLowerCaseAndEmptyFields() {
+	assertEquals("GATN", DNAPoint.parse("g,a,t,n").toString());
+	assertEquals("ANT", DNAPoint.parse("A,,T,").toString());
+	assertEquals("N", DNAPoint.parse("").toString());
+    }
+
+    @Test
+    public void overwritesUnknownBases() {
+	DNAPoint dp = new DNAPoint("ACGT".toCharArray());
+	dp.setBase(1, DNAPoint.UNKNOWN);
+	assertEquals("ANGT", dp.toString());
+	dp.setBase(1, DNAPoint.baseToIdx('G'));
+	assertEquals("AGGT", dp.toString());
+	assertEquals(0, DNAPoint.distance(dp, new DNAPoint("AGGT"
+		.toCharArray())));
+    }
+
+    /**
+     * an unknown base mismatches every base, another unknown one included
+     */
+    @Test
+    public void distanceCountsMismatchesAndUnknowns() {
+	Random rand = new Random(2);
+	for (int len = 1; len <= 100; len++) {
+	    for (int withN = 0; withN < 2; withN++) {
+		char[] a = randomBases(rand, len, withN == 1);
+		char[] b = randomBases(rand, len, false);
+		int expected = 0;
+		for (int p = 0; p < len; p++)
+		    if (a[p] != b[p] || a[p] == 'N')
+			expected++;
+		assertEquals(expected, DNAPoint.distance(new DNAPoint(a),
+			new DNAPoint(b)));
+		assertEquals(expected, DNAPoint.distance(new DNAPoint(b),
+			new DNAPoint(a)));
+	    }
+	    char[] a = randomBases(rand, len, true);
+	    int unknown = 0;
+	    for (int p = 0; p < len; p++)
+		if (a[p] == 'N')
+		    unknown++;
+	    assertEquals(unknown, DNAPoint.distance(new DNAPoint(a),
+		    new DNAPoint(a)));
+	}
+    }
+}
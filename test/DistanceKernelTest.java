@@ -0,0 +1,79 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * The distance kernels against a plain sum of squared differences, at every
+ * length around the vector width and at unaligned offsets.
+ */
+public class DistanceKernelTest {
+
+    static double reference(double[] v1, int off1, double[] v2, int off2,
+	    int len) {
+	double sum = 0;
+	for (int i = 0; i < len; i++) {
+	    double d = v1[off1 + i] - v2[off2 + i];
+	    sum += d * d;
+	}
+	return sum;
+    }
+
+    static void checkKernel(DistanceKernel kernel) {
+	Random rand = new Random(1);
+	for (int len = 0; len <= 70; len++) {
+	    double[] v1 = new double[len + 3];
+	    double[] v2 = new double[len + 5];
+	    for (int i = 0; i < v1.length; i++)
+		v1[i] = rand.nextGaussian() * 100;
+	    for (int i = 0; i < v2.length; i++)
+		v2[i] = rand.nextGaussian() * 100;
+	    double expected = reference(v1, 3, v2, 5, len);
+	    assertEquals(kernel.name() + " at length " + len, expected,
+		    kernel.distSq(v1, 3, v2, 5, len),
+		    1e-12 * Math.max(1.0, expected));
+	}
+    }
+
+    /**
+     * the float kernels sum in another order than the reference, in single
+     * precision, so they agree with it to float rounding only
+     */
+    static void checkFloatKernel(DistanceKernel kernel) {
+	Random rand = new Random(2);
+	for (int len = 0; len <= 70; len++) {
+	    float[] v1 = new float[len + 3];
+	    float[] v2 = new float[len + 5];
+	    double[] d1 = new double[v1.length];
+	    double[] d2 = new double[v2.length];
+	    for (int i = 0; i < v1.length; i++)
+		d1[i] = v1[i] = (float) (rand.nextGaussian() * 100);
+	    for (int i = 0; i < v2.length; i++)
+		d2[i] = v2[i] = (float) (rand.nextGaussian() * 100);
+	    double expected = reference(d1, 3, d2, 5, len);
+	    assertEquals(kernel.name() + " float at length " + len, expected,
+		    kernel.distSq(v1, 3, v2, 5, len),
+		    1e-5 * Math.max(1.0, expected));
+	}
+    }
+
+    @Test
+    public void scalarKernel() {
+	checkKernel(DistanceKernels.SCALAR);
+	checkFloatKernel(DistanceKernels.SCALAR);
+    }
+
+    @Test
+    public void vectorKernel() {
+	checkKernel(new VectorKernel());
+	checkFloatKernel(new VectorKernel());
+    }
+
+    @Test
+    public void selectedKernelAgreesWithScalar() {
+	assertTrue(DistanceKernels.agrees(DistanceKernels.get(),
+		DistanceKernels.SCALAR));
+    }
+}
@@ -0,0 +1,100 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * KmeansData on a float32 store against the float64 run from the same
+ * initial centroids. The coordinates differ by the rounding to float only, so
+ * on the test inputs no point may change its group.
+ */
+public class Float32Test {
+
+    static final int K = 6;
+    static final long SEED = 13;
+    /** float rounding of coordinates below 20, summed over the groups */
+    static final double ROUNDING = 1e-4;
+
+    static String input;
+    static String binary;
+
+    @BeforeClass
+    public static void writeInputs() throws IOException {
+	TestData.mute();
+	input = TestData.points(4000, 8, K, 43);
+	binary = TestData.binary(input, BinaryDataset.FLOAT32);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    /**
+     * run KmeansData on input from the centroids random seeding picks
+     */
+    static KmeansData run(String input, boolean float32, String assigner) {
+	KmeansData kmd = new KmeansData(K);
+	kmd.float32 = float32;
+	kmd.assignMode = assigner;
+	kmd.rand = new Random(SEED);
+	kmd.parse(input);
+	kmd.setIniCen();
+	kmd.kmeanProcedure();
+	return kmd;
+    }
+
+    @Test
+    public void csvAndBinaryLoadTheSameFloats() {
+	KmeansData csv = new KmeansData(K);
+	csv.float32 = true;
+	csv.parse(input);
+	KmeansData bin = new KmeansData(K);
+	bin.float32 = true;
+	bin.parse(binary);
+	KmeansData text = new KmeansData(K);
+	text.parse(input);
+	assertTrue(csv.indata.isFloat());
+	assertTrue(bin.indata.isFloat());
+	assertArrayEquals(csv.indata.floats, bin.indata.floats, 0f);
+	assertEquals(2 * csv.indata.bytes(), text.indata.bytes());
+	for (int i = 0; i < text.indata.coords.length; i++)
+	    assertEquals((float) text.indata.coords[i], csv.indata.floats[i],
+		    0f);
+    }
+
+    @Test
+    public void labelsMatchFloat64() {
+	for (String assigner : new String[] { "lloyd", "hamerly" }) {
+	    KmeansData doubles = run(input, false, assigner);
+	    KmeansData floats = run(input, true, assigner);
+	    assertEquals(assigner, doubles.iterations, floats.iterations);
+	    assertArrayEquals(assigner, doubles.labels, floats.labels);
+	    assertArrayEquals(assigner, doubles.centroids, floats.centroids,
+		    ROUNDING);
+	}
+    }
+
+    /**
+     * Hamerly skips the points its bounds prove unchanged, which must not
+     * change a label the float Lloyd search picks
+     */
+    @Test
+    public void hamerlyMatchesLloyd() {
+	KmeansData lloyd = run(binary, true, "lloyd");
+	KmeansData hamerly = run(binary, true, "hamerly");
+	assertArrayEquals(lloyd.labels, hamerly.labels);
+	assertArrayEquals(lloyd.centroids, hamerly.centroids, 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blockedRejectsFloats() {
+	run(input, true, "blocked");
+    }
+}
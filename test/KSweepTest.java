@@ -0,0 +1,89 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * KSweep on inputs with a known number of clusters. Each k warm-starts from
+ * the k - 1 solution plus one centroid and Lloyd never raises the SSE, so the
+ * SSE must fall with k; the silhouette must peak at the true k.
+ */
+public class KSweepTest {
+
+    static final int TRUE_K = 5;
+    static final int MIN_K = 2;
+    static final int MAX_K = 8;
+    static final long SEED = 61;
+
+    static String points;
+    static String sequences;
+
+    @BeforeClass
+    public static void writeInputs() throws IOException {
+	TestData.mute();
+	points = TestData.points(4000, 10, TRUE_K, 67);
+	sequences = TestData.sequences(1500, 80, TRUE_K, 0.3, 71);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    static void assertSweepShape(KSweep sweep) {
+	int best = 0;
+	for (int i = 0; i <= MAX_K - MIN_K; i++) {
+	    int k = MIN_K + i;
+	    assertTrue("iterations at k = " + k, sweep.iterations[i] > 0);
+	    assertTrue("silhouette at k = " + k, sweep.silhouette[i] >= -1
+		    && sweep.silhouette[i] <= 1);
+	    if (i > 0)
+		assertTrue("SSE rose at k = " + k,
+			sweep.sse[i] <= sweep.sse[i - 1] * (1 + 1e-12));
+	    if (sweep.silhouette[i] > sweep.silhouette[best])
+		best = i;
+	}
+	assertEquals(TRUE_K, MIN_K + best);
+    }
+
+    @Test
+    public void euclideanSweep() throws InterruptedException {
+	KmeansData kmd = new KmeansData(MIN_K);
+	kmd.rand = new Random(SEED);
+	kmd.parse(points);
+	KSweep sweep = new KSweep.Euclidean(kmd, MIN_K, MAX_K);
+	sweep.numThreads = 2;
+	sweep.run();
+	assertSweepShape(sweep);
+	// the engine is left with the solution for MAX_K
+	assertEquals(MAX_K, kmd.numGroup);
+	assertEquals(MiniBatchKmeans.sse(kmd.indata, kmd.centroids, MAX_K,
+		kmd.kernel), sweep.sse[MAX_K - MIN_K], 1e-9 * sweep.sse[MAX_K
+		- MIN_K]);
+    }
+
+    @Test
+    public void dnaSweep() throws InterruptedException {
+	KmeansDNA kmd = new KmeansDNA(MIN_K);
+	kmd.rand = new Random(SEED);
+	kmd.parse(sequences);
+	KSweep sweep = new KSweep.Dna(kmd, MIN_K, MAX_K);
+	sweep.run();
+	assertSweepShape(sweep);
+	long mismatches = 0;
+	for (int i = 0; i < kmd.indata.size(); i++)
+	    mismatches += DNAPoint.distance(kmd.indata.get(i),
+		    kmd.centroids[kmd.labels[i]]);
+	assertEquals(mismatches, sweep.sse[MAX_K - MIN_K], 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAnEmptyRange() {
+	new KSweep.Euclidean(new KmeansData(3), 5, 4);
+    }
+}
@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * KmeansDNAPar on LocalCommunicator ranks against KmeansDNA on the same input
+ * and seed. The base counts are integers, so every process count and reduce
+ * algorithm must end with exactly the labels and consensus sequences of the
+ * sequential run.
+ */
+@RunWith(Parameterized.class)
+public class KmeansDNAParTest {
+
+    static final int K = 4;
+    static final long SEED = 5;
+
+    static String input;
+    static KmeansDNA expected;
+
+    @Parameters(name = "np={0} reduce={1}")
+    public static List<Object[]> parameters() {
+	List<Object[]> params = new ArrayList<Object[]>();
+	for (int np : new int[] { 1, 3, 4 })
+	    for (String reduce : new String[] { "linear", "tree", "ring" })
+		params.add(new Object[] { np, reduce });
+	return params;
+    }
+
+    final int np;
+    final String reduce;
+
+    public KmeansDNAParTest(int np, String reduce) {
+	this.np = np;
+	this.reduce = reduce;
+    }
+
+    @BeforeClass
+    public static void runSequential() throws IOException {
+	TestData.mute();
+	input = TestData.sequences(2000, 60, K, 0.7, 13);
+	expected = TestData.runDNA(input, K, SEED);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    /**
+     * run KmeansDNAPar on np ranks parsing with the given threads
+     * 
+     * @return the state of every rank
+     */
+    KmeansDNAPar[] runPar(int threads) throws IOException {
+	final Options opts = new Options(new String[] { input,
+		String.valueOf(K), "-s", String.valueOf(SEED), "-t",
+		String.valueOf(threads) });
+	final KmeansDNAPar[] ranks = new KmeansDNAPar[np];
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(reduce);
+		ranks[comm.rank()] = KmeansDNAPar.runRank(comm, opts);
+	    }
+	});
+	return ranks;
+    }
+
+    void assertSameAsSequential(KmeansDNAPar[] ranks) {
+	int[] labels = new int[expected.labels.length];
+	int n = 0;
+	for (KmeansDNAPar rank : ranks) {
+	    assertEquals(expected.iterations, rank.iterations);
+	    for (int i = 0; i < K; i++) {
+		assertEquals(expected.centroids[i].length,
+			rank.centroids[i].length);
+		assertEquals("centroid " + i, 0, DNAPoint.distance(
+			expected.centroids[i], rank.centroids[i]));
+	    }
+	    for (DNAPoint point : rank.indata)
+		labels[n++] = point.group;
+	}
+	assertEquals(expected.labels.length, n);
+	assertArrayEquals(expected.labels, labels);
+    }
+
+    @Test
+    public void matchesSequential() throws IOException {
+	assertSameAsSequential(runPar(1));
+    }
+
+    @Test
+    public void parseThreadsMatchSequential() throws IOException {
+	assertSameAsSequential(runPar(4));
+    }
+}
@@ -0,0 +1,64 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The base count tables KmeansDNA maintains from the moved points against
+ * tables counted from scratch over the final labels.
+ */
+public class KmeansDNATest {
+
+    static final int K = 4;
+
+    static String input;
+
+    @BeforeClass
+    public static void writeInput() throws IOException {
+	TestData.mute();
+	input = TestData.sequences(2000, 70, K, 0.6, 13);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    @Test
+    public void tablesMatchRecount() {
+	KmeansDNA kmd = new KmeansDNA(K);
+	kmd.parse(input);
+	kmd.setIniCen();
+	kmd.kmeanProcedure();
+
+	int[][][] table = new int[K][4][kmd.dimension];
+	int[] count = new int[K];
+	for (int i = 0; i < kmd.indata.size(); i++) {
+	    DNAPoint dp = kmd.indata.get(i);
+	    int group = kmd.labels[i];
+	    count[group]++;
+	    for (int j = 0; j < kmd.dimension; j++)
+		if (dp.base(j) != DNAPoint.UNKNOWN)
+		    table[group][dp.base(j)][j]++;
+	}
+	assertArrayEquals(count, kmd.groupCount);
+	for (int i = 0; i < K; i++)
+	    for (int b = 0; b < 4; b++)
+		assertArrayEquals(table[i][b], Arrays.copyOfRange(
+			kmd.ATCGNum[i], b * kmd.dimension, (b + 1) * kmd.dimension));
+
+	// every column of the consensus is a most frequent base
+	DNAPoint[] consensus = new DNAPoint[K];
+	kmd.getNewCen(consensus);
+	for (int i = 0; i < K; i++)
+	    for (int j = 0; j < kmd.dimension; j++)
+		for (int b = 0; b < 4; b++)
+		    assertTrue("group " + i + " column " + j,
+			    table[i][b][j] <= table[i][consensus[i].base(j)][j]);
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * KmeansDataPar on LocalCommunicator ranks against KmeansData on the same
+ * input and seed. Every process count and reduce algorithm must end after
+ * the same iterations with the same labels, and with the same centroids up
+ * to the rounding of the order in which the group sums are added.
+ */
+@RunWith(Parameterized.class)
+public class KmeansDataParTest {
+
+    static final int K = 5;
+    static final long SEED = 3;
+    static final double ROUNDING = 1e-9;
+
+    static String input;
+    static KmeansData expected;
+
+    @Parameters(name = "np={0} reduce={1}")
+    public static List<Object[]> parameters() {
+	List<Object[]> params = new ArrayList<Object[]>();
+	for (int np : new int[] { 1, 3, 4 })
+	    for (String reduce : new String[] { "linear", "tree", "ring" })
+		params.add(new Object[] { np, reduce });
+	return params;
+    }
+
+    final int np;
+    final String reduce;
+
+    public KmeansDataParTest(int np, String reduce) {
+	this.np = np;
+	this.reduce = reduce;
+    }
+
+    @BeforeClass
+    public static void runSequential() throws IOException {
+	TestData.mute();
+	input = TestData.points(3000, 3, K, 11);
+	expected = TestData.runData(input, K, SEED, "lloyd", 1);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    /**
+     * run KmeansDataPar on np ranks with the given extra options
+     * 
+     * @return the state of every rank
+     */
+    KmeansDataPar[] runPar(String... extra) throws IOException {
+	String[] args = { input, String.valueOf(K), "-s",
+		String.valueOf(SEED) };
+	args = Arrays.copyOf(args, args.length + extra.length);
+	System.arraycopy(extra, 0, args, args.length - extra.length,
+		extra.length);
+	final Options opts = new Options(args);
+	final KmeansDataPar[] ranks = new KmeansDataPar[np];
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		comm.setReduceAlgorithm(reduce);
+		ranks[comm.rank()] = KmeansDataPar.runRank(comm, opts);
+	    }
+	});
+	return ranks;
+    }
+
+    void assertSameAsSequential(KmeansDataPar[] ranks) {
+	int[] labels = new int[0];
+	for (KmeansDataPar rank : ranks) {
+	    assertEquals(expected.iterations, rank.iterations);
+	    assertArrayEquals(expected.centroids, rank.centroids, ROUNDING);
+	    int from = labels.length;
+	    labels = Arrays.copyOf(labels, from + rank.labels.length);
+	    System.arraycopy(rank.labels, 0, labels, from, rank.labels.length);
+	}
+	assertArrayEquals(expected.labels, labels);
+    }
+
+    @Test
+    public void lloydMatchesSequential() throws IOException {
+	assertSameAsSequential(runPar());
+    }
+
+    /**
+     * every process builds the tree over its own segment and walks it on
+     * its -t threads
+     */
+    @Test
+    public void kdtreeMatchesSequential() throws IOException {
+	assertSameAsSequential(runPar("-a", "kdtree"));
+	assertSameAsSequential(runPar("-a", "kdtree", "-t", "4"));
+    }
+
+    @Test
+    public void incrementalMatchesSequential() throws IOException {
+	assertSameAsSequential(runPar("-a", "hamerly", "-i", "5"));
+    }
+}
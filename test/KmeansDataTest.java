@@ -0,0 +1,105 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Every Assigner of KmeansData against the brute-force Lloyd search, on a
+ * low-dimensional and a higher-dimensional input, in full and incremental
+ * mode, and the effect of the thread count.
+ */
+@RunWith(Parameterized.class)
+public class KmeansDataTest {
+
+    static final int K = 6;
+    static final long SEED = 7;
+    static final double ROUNDING = 1e-9;
+    static final int THREADS = 4;
+
+    /** inputs of dimension 2 and 20 */
+    static String[] inputs;
+    static KmeansData[] lloyd;
+
+    @Parameters(name = "{0}")
+    public static List<Object[]> parameters() {
+	List<Object[]> params = new ArrayList<Object[]>();
+	for (String assigner : new String[] { "lloyd", "hamerly", "blocked",
+		"kdtree" })
+	    params.add(new Object[] { assigner });
+	return params;
+    }
+
+    final String assigner;
+
+    public KmeansDataTest(String assigner) {
+	this.assigner = assigner;
+    }
+
+    @BeforeClass
+    public static void runLloyd() throws IOException {
+	TestData.mute();
+	inputs = new String[] { TestData.points(5000, 2, K, 17),
+		TestData.points(2000, 20, K, 19) };
+	lloyd = new KmeansData[inputs.length];
+	for (int i = 0; i < inputs.length; i++)
+	    lloyd[i] = TestData.runData(inputs[i], K, SEED, "lloyd", 1);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    @Test
+    public void matchesLloyd() {
+	for (int i = 0; i < inputs.length; i++) {
+	    KmeansData kmd = TestData.runData(inputs[i], K, SEED, assigner, 1);
+	    assertArrayEquals(lloyd[i].labels, kmd.labels);
+	    assertArrayEquals(lloyd[i].centroids, kmd.centroids, ROUNDING);
+	}
+    }
+
+    /**
+     * running sums updated with the moved points only, rebuilt every 5
+     * iterations, drift from the full sums by rounding only
+     */
+    @Test
+    public void incrementalMatchesFullPasses() {
+	for (int i = 0; i < inputs.length; i++) {
+	    KmeansData kmd = new KmeansData(K);
+	    kmd.assignMode = assigner;
+	    kmd.incremental = true;
+	    kmd.refreshPeriod = 5;
+	    kmd.rand = new Random(SEED);
+	    kmd.parse(inputs[i]);
+	    kmd.setIniCen();
+	    kmd.kmeanProcedure();
+	    assertArrayEquals(lloyd[i].labels, kmd.labels);
+	    assertArrayEquals(lloyd[i].centroids, kmd.centroids, ROUNDING);
+	}
+    }
+
+    /**
+     * the chunk statistics are merged in chunk order, so the thread count
+     * must not change a single bit of the result
+     */
+    @Test
+    public void threadCountDoesNotChangeResult() {
+	for (String input : inputs) {
+	    KmeansData one = TestData.runData(input, K, SEED, assigner, 1);
+	    KmeansData many = TestData.runData(input, K, SEED, assigner,
+		    THREADS);
+	    assertArrayEquals(one.labels, many.labels);
+	    assertArrayEquals(one.centroids, many.centroids, 0.0);
+	}
+    }
+}
@@ -0,0 +1,154 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * The mini-batch update rule, and the sequential and parallel mini-batch runs.
+ * Mini-batch may settle in another local minimum than full batch, so a run is
+ * checked against full-batch k-means started from its own result: Lloyd
+ * iterations from there must not lower the SSE by much.
+ */
+public class MiniBatchKmeansTest {
+
+    static final int K = 4;
+    static final long SEED = 9;
+    /** largest mini-batch SSE accepted, relative to the local minimum */
+    static final double SSE_RATIO = 1.02;
+
+    static String input;
+    static String csv;
+    static PointStore points;
+
+    @BeforeClass
+    public static void writeInput() throws IOException {
+	TestData.mute();
+	csv = TestData.points(20000, 2, K, 43);
+	input = TestData.binary(csv, BinaryDataset.FLOAT64);
+	KmeansData kmd = new KmeansData(K);
+	kmd.parse(input);
+	points = kmd.indata;
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    /**
+     * assert that full-batch k-means started from centroids improves their
+     * SSE by less than SSE_RATIO
+     */
+    static void assertNearLocalMinimum(double[] centroids, int batches) {
+	DistanceKernel kernel = DistanceKernels.get();
+	double sse = MiniBatchKmeans.sse(points, centroids, K, kernel);
+	KmeansData kmd = new KmeansData(K);
+	kmd.indata = points;
+	kmd.dimension = points.dimension;
+	kmd.centroids = centroids.clone();
+	kmd.kmeanProcedure();
+	double fullSSE = MiniBatchKmeans.sse(points, kmd.centroids, K, kernel);
+	assertTrue(batches + " batches, SSE " + sse + " vs " + fullSSE,
+		sse <= SSE_RATIO * fullSSE);
+    }
+
+    /**
+     * with a learning rate of 1 / (points received) every centroid is the
+     * mean of all the points it has received
+     */
+    @Test
+    public void centroidsTrackTheMeanOfTheirPoints() {
+	MiniBatchKmeans mb = new MiniBatchKmeans(2, 2, new ScalarKernel());
+	mb.centroids = new double[] { 0, 0, 10, 10 };
+	ClusterStats stats = new ClusterStats(2, 2);
+	mb.accumulate(new double[] { 1, 1, 3, 1, 9, 9 }, 3, stats);
+	mb.apply(stats);
+	assertArrayEquals(new double[] { 2, 1, 9, 9 }, mb.centroids, 1e-12);
+	stats.clear();
+	mb.accumulate(new double[] { 4, 4 }, 1, stats);
+	mb.apply(stats);
+	assertArrayEquals(new double[] { 8 / 3.0, 2, 9, 9 }, mb.centroids,
+		1e-12);
+	assertEquals(2, mb.batches);
+    }
+
+    @Test
+    public void sequentialRunNearFullBatch() throws IOException {
+	for (String file : new String[] { input, csv }) {
+	    PointSource src = PointSource.open(file, 0, 1);
+	    MiniBatchKmeans mb = new MiniBatchKmeans(K, 2,
+		    DistanceKernels.get());
+	    mb.batchSize = 256;
+	    mb.centroids = new double[K * 2];
+	    for (int c = 0; c < K; c++)
+		points.copyPoint(c, mb.centroids, c * 2);
+	    mb.run(src, new Random(SEED));
+	    src.close();
+	    assertNearLocalMinimum(mb.centroids, mb.batches);
+	}
+    }
+
+    /**
+     * a CSV slice is sampled at random offsets, not from its first lines:
+     * every line of the slice and none outside it is drawn, and on lines of
+     * equal length about as often as the others
+     */
+    @Test
+    public void csvSamplesCoverTheSlice() throws IOException {
+	final int lines = 1000;
+	final int draws = 100000;
+	File file = File.createTempFile("lines", ".csv");
+	file.deleteOnExit();
+	PrintWriter out = new PrintWriter(file);
+	for (int i = 0; i < lines; i++)
+	    out.printf("%04d,%04d\n", i, i);
+	out.close();
+	// rank 1 of 2 holds the lines 500 to 999
+	PointSource src = PointSource.open(file.getPath(), 1, 2);
+	double[] buf = new double[draws * 2];
+	assertEquals(draws, src.sample(buf, draws, new Random(SEED)));
+	int[] counts = new int[lines];
+	for (int i = 0; i < draws; i++) {
+	    assertEquals(buf[2 * i], buf[2 * i + 1], 0.0);
+	    counts[(int) buf[2 * i]]++;
+	}
+	for (int i = 0; i < lines / 2; i++)
+	    assertEquals(0, counts[i]);
+	for (int i = lines / 2; i < lines; i++)
+	    assertTrue(i + " drawn " + counts[i] + " times", counts[i] > 100
+		    && counts[i] < 300);
+	// sampling leaves the source rewound for a sequential pass
+	assertEquals(1, src.read(buf, 0, 1));
+	assertEquals(lines / 2, buf[0], 0.0);
+	src.close();
+    }
+
+    /**
+     * the ranks sum their batch statistics, so they all apply the same
+     * updates and end with identical centroids
+     */
+    @Test
+    public void parallelRanksShareTheCentroids() throws IOException {
+	final Options opts = new Options(new String[] { input,
+		String.valueOf(K), "-b", "300", "-s", String.valueOf(SEED) });
+	final KmeansDataPar[] ranks = new KmeansDataPar[3];
+	LocalCommunicator.launch(ranks.length, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		ranks[comm.rank()] = KmeansDataPar.runRank(comm, opts);
+	    }
+	});
+	for (KmeansDataPar rank : ranks) {
+	    assertEquals(ranks[0].iterations, rank.iterations);
+	    assertArrayEquals(ranks[0].centroids, rank.centroids, 0.0);
+	}
+	assertNearLocalMinimum(ranks[0].centroids, ranks[0].iterations);
+    }
+}
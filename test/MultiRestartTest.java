@@ -0,0 +1,102 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * MultiRestart against the same seeds run one after the other, with and
+ * without the abort rule.
+ */
+public class MultiRestartTest {
+
+    static final int K = 12;
+    static final long SEED = 100;
+    static final int RESTARTS = 8;
+    static final int THREADS = 3;
+
+    static String input;
+    /** restart r run alone from seed SEED + r */
+    static KmeansData[] separate;
+    static double[] separateSse;
+
+    @BeforeClass
+    public static void runSeparately() throws IOException {
+	TestData.mute();
+	input = TestData.points(10000, 2, 6, 59);
+	separate = new KmeansData[RESTARTS];
+	separateSse = new double[RESTARTS];
+	for (int r = 0; r < RESTARTS; r++) {
+	    separate[r] = TestData.runData(input, K, SEED + r, "lloyd", 1);
+	    separateSse[r] = MiniBatchKmeans.sse(separate[r].indata,
+		    separate[r].centroids, K, separate[r].kernel);
+	}
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    static MultiRestart run(double abortMargin) throws InterruptedException {
+	KmeansData kmd = new KmeansData(K);
+	kmd.numThreads = THREADS;
+	kmd.parse(input);
+	MultiRestart mr = new MultiRestart(kmd, RESTARTS, SEED);
+	mr.abortMargin = abortMargin;
+	mr.run();
+	return mr;
+    }
+
+    /**
+     * every restart runs as it would alone, and the one with the lowest SSE
+     * is kept
+     */
+    @Test
+    public void keepsTheBestRestart() throws InterruptedException {
+	MultiRestart mr = run(0);
+	int best = 0;
+	for (int r = 0; r < RESTARTS; r++) {
+	    assertFalse(mr.aborted[r]);
+	    assertEquals(separate[r].iterations, mr.iterations[r]);
+	    assertEquals(separateSse[r], mr.sse[r], 1e-9 * separateSse[r]);
+	    if (separateSse[r] < separateSse[best])
+		best = r;
+	}
+	assertEquals(best, mr.bestRestart);
+	assertArrayEquals(separate[best].labels, mr.best.labels);
+	assertArrayEquals(separate[best].centroids, mr.best.centroids, 0.0);
+    }
+
+    /**
+     * an aborted restart ends further above the lowest SSE than the margin,
+     * and is never the one kept
+     */
+    @Test
+    public void abortedRestartsAreDropped() throws InterruptedException {
+	double margin = 0.01;
+	MultiRestart mr = run(margin);
+	double lowest = Double.POSITIVE_INFINITY;
+	for (int r = 0; r < RESTARTS; r++)
+	    lowest = Math.min(lowest, mr.sse[r]);
+	int aborted = 0;
+	for (int r = 0; r < RESTARTS; r++) {
+	    if (!mr.aborted[r]) {
+		assertEquals(separate[r].iterations, mr.iterations[r]);
+		assertTrue(mr.sse[mr.bestRestart] <= mr.sse[r]);
+		continue;
+	    }
+	    aborted++;
+	    assertTrue(r != mr.bestRestart);
+	    assertTrue(mr.sse[r] > lowest * (1 + margin));
+	    assertTrue(mr.iterations[r] < separate[r].iterations);
+	}
+	assertTrue("no restart was aborted", aborted > 0);
+	assertFalse(mr.aborted[mr.bestRestart]);
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * OutOfCoreKmeans against in-memory Lloyd from the same initial centroids,
+ * streaming CSV and binary input in chunks much smaller than the data. Both
+ * run the same Lloyd iterations, so they must agree on the iterations and
+ * labels, and on the centroids up to the order of the sums.
+ */
+@RunWith(Parameterized.class)
+public class OutOfCoreKmeansTest {
+
+    static final int K = 5;
+    static final int DIM = 3;
+    static final double ROUNDING = 1e-9;
+    /** memory budget giving chunks of a few hundred points */
+    static final long BUDGET = 16 << 10;
+
+    static String csv;
+    static double[] initial;
+    static KmeansData expected;
+
+    @Parameters(name = "{0} threads={1}")
+    public static List<Object[]> parameters() {
+	List<Object[]> params = new ArrayList<Object[]>();
+	for (String format : new String[] { "csv", "float64" })
+	    for (int threads : new int[] { 1, 4 })
+		params.add(new Object[] { format, threads });
+	return params;
+    }
+
+    final String format;
+    final int threads;
+
+    public OutOfCoreKmeansTest(String format, int threads) {
+	this.format = format;
+	this.threads = threads;
+    }
+
+    @BeforeClass
+    public static void runInMemory() throws IOException {
+	TestData.mute();
+	csv = TestData.points(5000, DIM, K, 47);
+	expected = new KmeansData(K);
+	expected.parse(csv);
+	initial = new double[K * DIM];
+	for (int c = 0; c < K; c++)
+	    expected.indata.copyPoint(c * 1000, initial, c * DIM);
+	expected.centroids = initial.clone();
+	expected.kmeanProcedure();
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    static int[] readLabels(File file) throws IOException {
+	ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+	int[] labels = new int[bytes.capacity() / 4];
+	bytes.order(ByteOrder.nativeOrder()).asIntBuffer().get(labels);
+	return labels;
+    }
+
+    @Test
+    public void matchesInMemoryLloyd() throws IOException {
+	String input = format.equals("csv") ? csv : TestData.binary(csv,
+		BinaryDataset.FLOAT64);
+	File labelFile = File.createTempFile("labels", ".bin");
+	labelFile.deleteOnExit();
+	KmeansData kmd = new KmeansData(K);
+	kmd.numThreads = threads;
+	kmd.dimension = DIM;
+	kmd.centroids = initial.clone();
+	PointSource src = PointSource.open(input, 0, 1);
+	OutOfCoreKmeans ooc = new OutOfCoreKmeans(kmd, src, BUDGET, labelFile);
+	try {
+	    ooc.run();
+	} finally {
+	    ooc.close();
+	    src.close();
+	}
+	assertEquals(5000, ooc.points);
+	assertEquals(expected.iterations, kmd.iterations);
+	assertArrayEquals(expected.centroids, kmd.centroids, ROUNDING);
+	assertArrayEquals(expected.labels, readLabels(labelFile));
+    }
+}
@@ -0,0 +1,158 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * SparseStore and the sparse runs of KmeansData and KmeansDataPar against
+ * the dense engine on the same points, written once as CSV and once as
+ * "index:value" pairs of the non-zero coordinates.
+ */
+public class SparseTest {
+
+    static final int N = 3000;
+    static final int DIM = 40;
+    /** non-zero dimensions of every cluster */
+    static final int SUPPORT = 6;
+    static final int K = 5;
+    static final long SEED = 29;
+    static final double ROUNDING = 1e-9;
+
+    static String dense;
+    static String sparse;
+    static KmeansData expected;
+
+    @BeforeClass
+    public static void writeInputs() throws IOException {
+	TestData.mute();
+	Random rand = new Random(53);
+	int[][] support = new int[K][SUPPORT];
+	double[][] centers = new double[K][SUPPORT];
+	for (int c = 0; c < K; c++)
+	    for (int j = 0; j < SUPPORT; j++) {
+		support[c][j] = rand.nextInt(DIM);
+		centers[c][j] = 1 + rand.nextDouble() * 10;
+	    }
+	File denseFile = File.createTempFile("dense", ".csv");
+	denseFile.deleteOnExit();
+	File sparseFile = File.createTempFile("sparse", ".txt");
+	sparseFile.deleteOnExit();
+	PrintWriter denseOut = new PrintWriter(denseFile);
+	PrintWriter sparseOut = new PrintWriter(sparseFile);
+	for (int i = 0; i < N; i++) {
+	    int c = rand.nextInt(K);
+	    double[] point = new double[DIM];
+	    for (int j = 0; j < SUPPORT; j++)
+		point[support[c][j]] = centers[c][j] + rand.nextGaussian();
+	    // a libsvm label in front of every other line
+	    if (i % 2 == 0)
+		sparseOut.print(c + " ");
+	    for (int j = 0; j < DIM; j++) {
+		if (j > 0)
+		    denseOut.print(',');
+		denseOut.print(point[j]);
+		if (point[j] != 0)
+		    sparseOut.print(j + ":" + point[j] + " ");
+	    }
+	    denseOut.println();
+	    sparseOut.println();
+	}
+	denseOut.close();
+	sparseOut.close();
+	dense = denseFile.getPath();
+	sparse = sparseFile.getPath();
+	expected = TestData.runData(dense, K, SEED, "lloyd", 1);
+    }
+
+    @AfterClass
+    public static void restoreOutput() {
+	TestData.unmute();
+    }
+
+    static SparseStore parse(String text, int dim) throws IOException {
+	File file = File.createTempFile("sparse", ".txt");
+	file.deleteOnExit();
+	PrintWriter out = new PrintWriter(file);
+	out.print(text);
+	out.close();
+	return SparseStore.parse(file.getPath(), 0, file.length(), dim);
+    }
+
+    @Test
+    public void parseSkipsLabelsAndKeepsOrder() throws IOException {
+	SparseStore store = parse("1 3:2.5 0:-1\n4:1,1:2\n7\n", 0);
+	assertEquals(3, store.size);
+	assertEquals(5, store.dimension);
+	assertArrayEquals(new int[] { 0, 2, 4, 4 }, store.rowStart);
+	assertArrayEquals(new int[] { 3, 0, 4, 1 }, store.cols);
+	assertArrayEquals(new double[] { 2.5, -1, 1, 2 }, store.vals, 0.0);
+	assertArrayEquals(new double[] { 7.25, 5, 0 }, store.norms, 0.0);
+	assertEquals(8, parse("0:1\n", 8).dimension);
+    }
+
+    /**
+     * a repeated index would count twice in the dot products but once per
+     * pair in the norm, so it is refused rather than summed
+     */
+    @Test
+    public void repeatedIndexIsRejected() throws IOException {
+	assertEquals(2, parse("0:1 2:1\n2:1 0:1\n", 0).size);
+	try {
+	    parse("0:1\n1:2 3:1 1:4\n", 0);
+	    fail("repeated index accepted");
+	} catch (IllegalArgumentException e) {
+	    assertEquals("repeated index: 1", e.getMessage());
+	}
+    }
+
+    @Test
+    public void sequentialMatchesDense() throws IOException {
+	for (boolean incremental : new boolean[] { false, true }) {
+	    KmeansData kmd = new KmeansData(K);
+	    kmd.incremental = incremental;
+	    kmd.refreshPeriod = 5;
+	    kmd.rand = new Random(SEED);
+	    kmd.parseSparse(sparse, DIM);
+	    kmd.setIniCen();
+	    kmd.kmeanProcedure();
+	    assertEquals(expected.iterations, kmd.iterations);
+	    assertArrayEquals(expected.labels, kmd.labels);
+	    assertArrayEquals(expected.centroids, kmd.centroids, ROUNDING);
+	}
+    }
+
+    /**
+     * every process parses its own byte range, and the dimension comes from
+     * the largest index of any process
+     */
+    @Test
+    public void parallelMatchesDense() throws IOException {
+	final int np = 3;
+	final Options opts = new Options(new String[] { sparse,
+		String.valueOf(K), "-s", String.valueOf(SEED), "-sparse" });
+	final KmeansDataPar[] ranks = new KmeansDataPar[np];
+	LocalCommunicator.launch(np, new Communicator.RankBody() {
+	    public void run(Communicator comm) throws IOException {
+		ranks[comm.rank()] = KmeansDataPar.runRank(comm, opts);
+	    }
+	});
+	int[] labels = new int[0];
+	for (KmeansDataPar rank : ranks) {
+	    assertEquals(expected.iterations, rank.iterations);
+	    assertArrayEquals(expected.centroids, rank.centroids, ROUNDING);
+	    int from = labels.length;
+	    labels = Arrays.copyOf(labels, from + rank.labels.length);
+	    System.arraycopy(rank.labels, 0, labels, from, rank.labels.length);
+	}
+	assertArrayEquals(expected.labels, labels);
+    }
+}
@@ -0,0 +1,126 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Inputs of the tests, written to temporary CSV files from a fixed seed so
+ * that every run sees the same data, and the sequential runs the other
+ * engines are checked against.
+ */
+public class TestData {
+
+    static final PrintStream STDOUT = System.out;
+    static final char[] BASES = { 'A', 'C', 'G', 'T' };
+
+    /**
+     * discard the progress the drivers print until unmute()
+     */
+    static void mute() {
+	System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    static void unmute() {
+	System.setOut(STDOUT);
+    }
+
+    /**
+     * write points drawn around k random centers in [0, 10)^dim with unit
+     * deviation, so that neighbouring clusters overlap
+     * 
+     * @return the file name
+     */
+    static String points(int n, int dim, int k, long seed) throws IOException {
+	Random rand = new Random(seed);
+	double[] centers = new double[k * dim];
+	for (int i = 0; i < centers.length; i++)
+	    centers[i] = rand.nextDouble() * 10;
+	File file = File.createTempFile("points", ".csv");
+	file.deleteOnExit();
+	PrintWriter out = new PrintWriter(file);
+	for (int i = 0; i < n; i++) {
+	    int c = rand.nextInt(k);
+	    for (int j = 0; j < dim; j++) {
+		if (j > 0)
+		    out.print(',');
+		out.print(centers[c * dim + j] + rand.nextGaussian());
+	    }
+	    out.println();
+	}
+	out.close();
+	return file.getPath();
+    }
+
+    /**
+     * write sequences copied from k random ancestors, every base replaced by
+     * a random one with the given probability
+     * 
+     * @return the file name
+     */
+    static String sequences(int n, int length, int k, double mutation,
+	    long seed) throws IOException {
+	Random rand = new Random(seed);
+	char[][] ancestors = new char[k][length];
+	for (int i = 0; i < k; i++)
+	    for (int j = 0; j < length; j++)
+		ancestors[i][j] = BASES[rand.nextInt(4)];
+	File file = File.createTempFile("dna", ".csv");
+	file.deleteOnExit();
+	PrintWriter out = new PrintWriter(file);
+	for (int i = 0; i < n; i++) {
+	    char[] ancestor = ancestors[rand.nextInt(k)];
+	    for (int j = 0; j < length; j++) {
+		if (j > 0)
+		    out.print(',');
+		out.print(rand.nextDouble() < mutation ? BASES[rand.nextInt(4)]
+			: ancestor[j]);
+	    }
+	    out.println();
+	}
+	out.close();
+	return file.getPath();
+    }
+
+    /**
+     * convert a CSV file with DatasetConverter
+     * 
+     * @return the name of the binary dataset
+     */
+    static String binary(String csvName, int type) throws IOException {
+	File file = File.createTempFile("dataset", ".bin");
+	file.deleteOnExit();
+	DatasetConverter.convert(csvName, file.getPath(), type);
+	return file.getPath();
+    }
+
+    /**
+     * KmeansData from random seeding, as "java KmeansData input k -s seed -a
+     * assigner -t threads" runs it
+     */
+    static KmeansData runData(String input, int k, long seed,
+	    String assigner, int threads) {
+	KmeansData kmd = new KmeansData(k);
+	kmd.assignMode = assigner;
+	kmd.numThreads = threads;
+	kmd.rand = new Random(seed);
+	kmd.parse(input);
+	kmd.setIniCen();
+	kmd.kmeanProcedure();
+	return kmd;
+    }
+
+    /**
+     * KmeansDNA from random seeding, as "java KmeansDNA input k -s seed" runs
+     * it
+     */
+    static KmeansDNA runDNA(String input, int k, long seed) {
+	KmeansDNA kmd = new KmeansDNA(k);
+	kmd.rand = new Random(seed);
+	kmd.parse(input);
+	kmd.setIniCen();
+	kmd.kmeanProcedure();
+	return kmd;
+    }
+}